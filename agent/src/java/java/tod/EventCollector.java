@@ -33,6 +33,7 @@ import java.tod.util._StringBuilder;
 import tod2.access.TODAccessor;
 import tod2.agent.AgentConfig;
 import tod2.agent.AgentDebugFlags;
+import tod2.agent.AgentUtils;
 import tod2.agent.Command;
 import tod2.agent.io._ByteBuffer;
 import tod2.agent.io._GrowingByteBuffer;
@@ -142,7 +143,8 @@ public final class EventCollector
 
 		try
 		{
-			if ((_AgentConfig.HOST_ID & ~AgentConfig.HOST_MASK) != 0) 
+			if ((_AgentConfig.HOST_ID & ~AgentConfig.HOST_MASK) != 0
+					|| AgentUtils.getHostId(AgentUtils.makeObjectId(_AgentConfig.HOST_ID, 0)) != _AgentConfig.HOST_ID) 
 				throw new RuntimeException("Host id overflow");
 		}
 		catch (UnsatisfiedLinkError e)
@@ -25,8 +25,12 @@ package java.tod;
 import java.lang.reflect.Array;
 import java.tod.util.WeakLongHashMap;
 
+import tod2.access.TODAccessor;
+import tod2.agent.AgentConfig;
 import tod2.agent.AgentDebugFlags;
+import tod2.agent.AgentUtils;
 import tod2.agent.util.BitUtilsLite;
+import tod2.agent.util.IdBlockAllocator;
 
 
 /**
@@ -98,21 +102,52 @@ public class ObjectIdentity
 	
 	private static native long get15(Object aObject);
 //
-	private static long itsNextId = 1;
+	/**
+	 * Object ids are prefixed with the host id, so that the ids of different hosts
+	 * recorded in the same trace are disjoint. The host id is 0 unless host bits are 
+	 * configured (see {@link AgentConfig#HOST_BITS}).
+	 */
+	private static long itsNextId = AgentUtils.makeObjectId(_AgentConfig.HOST_ID, 1);
+	
+	/**
+	 * The global id counter, from which each thread reserves
+	 * blocks of ids (see {@link ThreadData#getIdAllocator()}).
+	 */
+	public static final IdBlockAllocator.Source ID_SOURCE = new IdBlockAllocator.Source()
+	{
+		public long reserve(long aCount)
+		{
+			return reserveIds(aCount);
+		}
+	};
+	
+	/**
+	 * Reserves a range of ids from the global counter.
+	 * This is only called when a thread exhausts its current block, 
+	 * so contention on this monitor is low.
+	 */
+	private static synchronized long reserveIds(long aCount)
+	{
+		// We create odd ids. Even ids are used for temporary ids (see TmpIdManager)
+		long theId = itsNextId;
+		itsNextId += aCount;
+		return theId;
+	}
 	
 	/**
 	 * Allocates a range of ids. Each object has a single id,
 	 * but we keep a number of empty ids after each "real" id
 	 * to represent each field (or slot) of the object.
+	 * Ids are taken from the block reserved by the current thread, if it has
+	 * a {@link ThreadData}; otherwise they are taken from the global counter.
 	 */
-	public static synchronized long nextId(int aSlots)
+	public static long nextId(int aSlots)
 	{
 //		assert aSlots > 0;
 		
-		// We create odd ids. Even ids are used for temporary ids (see TmpIdManager)
-		long theId = itsNextId;
-		itsNextId += 2*aSlots;
-		return theId;
+		ThreadData theThreadData = TODAccessor.getThreadData(Thread.currentThread());
+		if (theThreadData != null) return theThreadData.getIdAllocator().next(aSlots);
+		else return reserveIds(2L*aSlots);
 	}
 	
 	public static long nextIdFor(Object aObject)
@@ -6,20 +6,26 @@ package java.tod;
 import java.tod.io._IO;
 import java.tod.transport.IOThread;
 import java.tod.transport.ObjectEncoder;
+import java.tod.transport.IOThread.StringAliasPacket;
 import java.tod.transport.IOThread.StringPacket;
+import java.tod.transport.ThreadPacketPool;
 import java.tod.transport.IOThread.ThreadPacket;
 import java.tod.util.BitStack;
+import java.tod.util.CompactValueSender;
 import java.tod.util.IntDeltaSender;
 import java.tod.util.LongDeltaSender;
+import java.tod.util.StringCache;
 import java.tod.util._StringBuilder;
 
 import tod2.access.TODAccessor;
+import tod2.agent.AgentConfig;
 import tod2.agent.AgentDebugFlags;
 import tod2.agent.Command;
 import tod2.agent.Message;
 import tod2.agent.ValueType;
 import tod2.agent.io._ByteBuffer;
 import tod2.agent.io._GrowingByteBuffer;
+import tod2.agent.util.IdBlockAllocator;
 
 /**
  * Per-thread data managed by the {@link EventCollector}.
@@ -86,6 +92,11 @@ public final class ThreadData
 	 */
 	private ThreadPacket itsPacket;
 	
+	/**
+	 * Packets sent by the {@link IOThread} are recycled here.
+	 */
+	private final ThreadPacketPool itsPacketPool = new ThreadPacketPool();
+	
 	/**
 	 * Buffer to prepare (small) packets
 	 */
@@ -107,6 +118,28 @@ public final class ThreadData
 	private LongDeltaSender itsObjIdSender = new LongDeltaSender();
 	private IntDeltaSender itsBehIdSender = new IntDeltaSender();
 	
+	/**
+	 * Encodes integral values when {@link _AgentConfig#COMPACT_VALUES} is set.
+	 */
+	private CompactValueSender itsValueSender = new CompactValueSender();
+	
+	/**
+	 * Last value (as raw long bits) read at each field/array read site,
+	 * indexed by prediction slot. Mirrored by the replayer.
+	 */
+	private final long[] itsPredictions = new long[AgentConfig.VALUE_PREDICTION_SIZE];
+	
+	/**
+	 * Permits to send the content of registered strings only once.
+	 */
+	private final StringCache itsStringCache = new StringCache();
+	
+	/**
+	 * Object ids are allocated from a block reserved by this thread, 
+	 * see {@link ObjectIdentity#nextId(int)}.
+	 */
+	private final IdBlockAllocator itsIdAllocator = new IdBlockAllocator(ObjectIdentity.ID_SOURCE);
+	
 	public ThreadData(int aId, IOThread aIOThread)
 	{
 		itsId = aId;
@@ -133,12 +166,17 @@ public final class ThreadData
 	
 	private void resetBuffer()
 	{
-		byte[] theData = new byte[BUFFER_SIZE]; 
+		ThreadPacket thePacket = itsPacketPool.get();
+		if (thePacket == null)
+		{
+			thePacket = new ThreadPacket();
+			thePacket.set(getId(), new byte[BUFFER_SIZE], itsPacketPool);
+		}
 		
-		itsPacket = new ThreadPacket();
-		itsPacket.set(getId(), theData/*, ThreadPacket.RECYCLE_QUEUE_STANDARD*/);
+		itsPacket = thePacket;
 		
-		itsBuffer = _ByteBuffer.wrap(theData);
+		if (itsBuffer == null) itsBuffer = _ByteBuffer.wrap(thePacket.data);
+		else itsBuffer.clear(thePacket.data);
 	}
 	
 	public int getId()
@@ -146,6 +184,11 @@ public final class ThreadData
 		return itsId;
 	}
 	
+	public IdBlockAllocator getIdAllocator()
+	{
+		return itsIdAllocator;
+	}
+	
 	private long getObjectId(Object aObject)
 	{
 		try
@@ -355,6 +398,7 @@ public final class ThreadData
 		_StringBuilder b = new _StringBuilder();
 		
 		long theTotalData = 0;
+		long theTotalCount = 0;
 		
 		for(int i = Message.FIELD_READ;i<Message.MSG_COUNT;i++)
 		{
@@ -368,10 +412,27 @@ public final class ThreadData
 			b.append("\n");
 			
 			theTotalData += itsEvData[i];
+			theTotalCount += itsEvCount[i];
 		}
 		
 		b.append("[ThreadData] Total: ");
 		b.append(theTotalData);
+		if (theTotalCount != 0)
+		{
+			b.append(" - bytes/event: ");
+			b.append(theTotalData/theTotalCount);
+			long theCents = (theTotalData*100/theTotalCount) % 100;
+			b.append(theCents < 10 ? ".0" : ".");
+			b.append(theCents);
+		}
+		b.append("\n");
+		
+		b.append("[ThreadData] Values: ");
+		b.append(itsValueSender.toString());
+		b.append("\n");
+		
+		b.append("[ThreadData] Strings: ");
+		b.append(itsStringCache.toString());
 		b.append("\n");
 		
 		b.append("[ThreadData] Object ids: ");
@@ -390,6 +451,20 @@ public final class ThreadData
 		}
 		b.append("\n");
 		
+		b.append("[ThreadData] Packet pool hits: ");
+		b.append(itsPacketPool.getHits());
+		b.append(" - misses: ");
+		b.append(itsPacketPool.getMisses());
+		b.append(" - dropped: ");
+		b.append(itsPacketPool.getDropped());
+		b.append("\n");
+		
+		b.append("[ThreadData] Object id blocks: ");
+		b.append(itsIdAllocator.getRefillCount());
+		b.append(" - current size: ");
+		b.append(itsIdAllocator.getBlockSize());
+		b.append("\n");
+		
 		b.append("[ThreadData] Behavior ids: ");
 		b.append(itsBehIdSender.toString());
 		b.append("\n");
@@ -416,15 +491,7 @@ public final class ThreadData
 		thePacket.length = itsBuffer.position();
 		
 		itsIOThread.pushPacket(thePacket);
-		
-		/*thePacket = itsIOThread.getFreeThreadPacket(ThreadPacket.RECYCLE_QUEUE_STANDARD);
-		if (thePacket != null)
-		{
-			thePacket.threadId = getId();
-			itsBuffer.clear(thePacket.data);
-			itsPacket = thePacket;
-		}
-		else*/ resetBuffer();
+		resetBuffer();
 	}
 	
 	/**
@@ -505,6 +572,47 @@ public final class ThreadData
 		exit();
 	}
 	
+	/**
+	 * A field has just been read at the given prediction slot.
+	 * If the value is the one predicted by the slot, a {@link Message#FIELD_READ_SAME}
+	 * is sent, otherwise a {@link Message#FIELD_READ}, and the slot is updated.
+	 * @param aBits The value that was read, as raw long bits.
+	 * @return Whether the value must be sent.
+	 */
+	public boolean evFieldRead_Predict(int aSlot, long aBits)
+	{
+		return evRead_Predict(Message.FIELD_READ, Message.FIELD_READ_SAME, aSlot, aBits);
+	}
+	
+	/**
+	 * Same as {@link #evFieldRead_Predict(int, long)}, for array slots.
+	 */
+	public boolean evArrayRead_Predict(int aSlot, long aBits)
+	{
+		return evRead_Predict(Message.ARRAY_READ, Message.ARRAY_READ_SAME, aSlot, aBits);
+	}
+	
+	private boolean evRead_Predict(byte aMessage, byte aSameMessage, int aSlot, long aBits)
+	{
+		// Reentrant call: the value sender skips the value as well.
+		if (enter()) return true;
+		
+		boolean theHit = itsPredictions[aSlot] == aBits;
+		itsPredictions[aSlot] = aBits;
+		byte theMessage = theHit ? aSameMessage : aMessage;
+		
+		sendRegisteredObjects();
+		commitBuffer();
+		
+		msgStart(theMessage, theHit ? 0 : 1);
+		if (AgentDebugFlags.EVENT_LOG) echoMessageType(theMessage, -1); 
+		sendMessageType(itsBuffer, theMessage);
+		msgStop();
+		
+		exit();
+		return ! theHit;
+	}
+	
 	public void evArrayLength(int aLength)
 	{
 		if (enter()) return;
@@ -515,7 +623,7 @@ public final class ThreadData
 		msgStart(Message.ARRAY_LENGTH, 0);
 		if (AgentDebugFlags.EVENT_LOG) echoMessageType(Message.ARRAY_LENGTH, aLength); 
 		sendMessageType(itsBuffer, Message.ARRAY_LENGTH);
-		itsBuffer.putInt(aLength);
+		sendInt(aLength);
 		msgStop();
 		
 		exit();
@@ -669,7 +777,7 @@ public final class ThreadData
 //		checkTimestamp();
 		if (AgentDebugFlags.EVENT_LOG) echoMessageType(Message.HANDLER_REACHED, aLocation); 
 		sendMessageType(itsBuffer, Message.HANDLER_REACHED);
-		itsBuffer.putInt(aLocation);
+		sendInt(aLocation);
 		
 		msgStop();
 		
@@ -800,6 +908,34 @@ public final class ThreadData
 		exit();
 	}
 	
+	/**
+	 * Sends an int value, using the compact encoding if it was negotiated 
+	 * with the database.
+	 */
+	private void sendInt(int aValue)
+	{
+		if (_AgentConfig.COMPACT_VALUES) itsValueSender.sendInt(itsBuffer, aValue);
+		else itsBuffer.putInt(aValue);
+	}
+	
+	private void sendShort(short aValue)
+	{
+		if (_AgentConfig.COMPACT_VALUES) itsValueSender.sendShort(itsBuffer, aValue);
+		else itsBuffer.putShort(aValue);
+	}
+	
+	private void sendChar(char aValue)
+	{
+		if (_AgentConfig.COMPACT_VALUES) itsValueSender.sendChar(itsBuffer, aValue);
+		else itsBuffer.putChar(aValue);
+	}
+	
+	private void sendLong(long aValue)
+	{
+		if (_AgentConfig.COMPACT_VALUES) itsValueSender.sendLong(itsBuffer, aValue);
+		else itsBuffer.putLong(aValue);
+	}
+	
 	public void sendValue_Boolean(boolean aValue)
 	{
 		if (enter()) return;
@@ -827,7 +963,7 @@ public final class ThreadData
 		if (enter()) return;
 		
 		if (AgentDebugFlags.EVENT_LOG) echoValue("char", aValue);
-		itsBuffer.putChar(aValue);
+		sendChar(aValue);
 		msgStop();
 		
 		exit();
@@ -838,7 +974,7 @@ public final class ThreadData
 		if (enter()) return;
 		
 		if (AgentDebugFlags.EVENT_LOG) echoValue("short", aValue);
-		itsBuffer.putShort(aValue);
+		sendShort(aValue);
 		msgStop();
 		
 		exit();
@@ -849,7 +985,7 @@ public final class ThreadData
 		if (enter()) return;
 		
 		if (AgentDebugFlags.EVENT_LOG) echoValue("int", aValue);
-		itsBuffer.putInt(aValue);
+		sendInt(aValue);
 		msgStop();
 		
 		exit();
@@ -860,7 +996,7 @@ public final class ThreadData
 		if (enter()) return;
 		
 		if (AgentDebugFlags.EVENT_LOG) echoValue("long", aValue);
-		itsBuffer.putLong(aValue);
+		sendLong(aValue);
 		msgStop();
 		
 		exit();
@@ -1202,18 +1338,15 @@ public final class ThreadData
 		if (aObject instanceof String)
 		{
 			// Special case for strings, for speed
-			itsIOThread.pushPacket(new StringPacket(aId, (String) aObject));
+			String theString = (String) aObject;
+			long theContentId = itsStringCache.getContentId(theString, aId);
+			if (theContentId == aId) itsIOThread.pushPacket(new StringPacket(aId, theString));
+			else itsIOThread.pushPacket(new StringAliasPacket(aId, theContentId));
 			return;
 		}
 		
-		ThreadPacket thePacket;
-//		thePacket = itsIOThread.getFreeThreadPacket(1/*ThreadPacket.RECYCLE_QUEUE_OTHER*/);
-//		if (thePacket == null) 
-		{
-			thePacket = new ThreadPacket();
-			thePacket.data = new byte[128];
-//			thePacket.recycleQueue = ThreadPacket.RECYCLE_QUEUE_OTHER;
-		}
+		ThreadPacket thePacket = new ThreadPacket();
+		thePacket.data = new byte[128];
 		
 		thePacket.threadId = getId();
 		
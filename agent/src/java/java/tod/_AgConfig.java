@@ -14,6 +14,11 @@ public class _AgConfig
 	 * Retrieves the host id that was sent to the native agent.
 	 */
 	public static native int getHostId();
+	
+	/**
+	 * Whether the database requested the compact encoding of values.
+	 */
+	public static native boolean getCompactValues();
 
 	public static native String getCollectorHost();
 	public static native String getCollectorPort();
@@ -4,6 +4,7 @@
 package java.tod;
 
 import java.tod.io._IO;
+import java.tod.util.CompactValueSender;
 
 import tod2.agent.AgentUtils;
 
@@ -34,5 +35,11 @@ public class _AgentConfig
 	 */
 	public static final int HOST_ID = _AgConfig.getHostId();
 	
+	/**
+	 * Whether primitive values are sent with the compact encoding 
+	 * (see {@link CompactValueSender}), as negotiated with the database.
+	 */
+	public static final boolean COMPACT_VALUES = _AgConfig.getCompactValues();
+	
 
 }
@@ -69,7 +69,31 @@ public class _SocketChannel
 		}
 	}
 	
-	public void writeStringPacket(long aId, String aString) throws _IOException
+	/**
+	 * Writes the given ranges of several arrays in a single native call.
+	 * This saves JNI transitions; the data still goes through the buffer of
+	 * the native stream, so it is not a gathering write at the socket level.
+	 * @return The total number of bytes written.
+	 */
+	public int writeBatch(byte[][] aArrays, int[] aOffsets, int[] aLengths, int aCount) throws _IOException
+	{
+		checkFD();
+		int n = writeBatch0(itsFD, aArrays, aOffsets, aLengths, aCount);
+		
+		if (n == -1) throw new _IOException("Could not write");
+		else if (n == -10) throw new _IOException("Bad FD");
+		else if (n < 0) throw new RuntimeException("Bad return value: "+n);
+		
+		return n;
+	}
+	
+	/**
+	 * Writes a complete string packet, including its type: 
+	 * {@link tod2.agent.Message#PACKET_TYPE_STRING_LATIN1} if all the chars of the string
+	 * are below 256, {@link tod2.agent.Message#PACKET_TYPE_STRING} otherwise.
+	 * @return The number of bytes written.
+	 */
+	public int writeStringPacket(long aId, String aString) throws _IOException
 	{
 		checkFD();
 		int n = writeStringPacket0(itsFD, aId, aString);
@@ -78,6 +102,8 @@ public class _SocketChannel
 		else if (n == -2) throw new _IOException("Write failed");
 		else if (n == -10) throw new _IOException("Bad FD");
 		else if (n < 0) throw new RuntimeException("Bad return value: "+n);
+		
+		return n;
 	}
 	
 	public int read(_ByteBuffer aBuffer) throws _IOException
@@ -139,6 +165,7 @@ public class _SocketChannel
 		flush0(0);
 		close0(0);
 		write0(0, new byte[0], 0, 0);
+		writeBatch0(0, new byte[0][], new int[0], new int[0], 0);
 		writeStringPacket0(0, 0, "");
 		read0(0, new byte[0], 0, 0);
 		in_avail0(0);
@@ -148,6 +175,7 @@ public class _SocketChannel
 	private native static int flush0(int aFD);
 	private native static int close0(int aFD);
 	private native static int write0(int aFD, byte[] aBuffer, int aPos, int aLength);
+	private native static int writeBatch0(int aFD, byte[][] aArrays, int[] aOffsets, int[] aLengths, int aCount);
 	private native static int writeStringPacket0(int aFD, long aId, String aString);
 	private native static int read0(int aFD, byte[] aBuffer, int aPos, int aLength);
 	private native static int in_avail0(int aFD);
@@ -31,6 +31,7 @@ import java.tod.io._EOFException;
 import java.tod.io._IO;
 import java.tod.io._IOException;
 import java.tod.io._SocketChannel;
+import java.tod.util.StringCache;
 import java.tod.util._ArrayList;
 import java.tod.util._StringBuilder;
 import java.tod.util._SyncRingBuffer;
@@ -70,7 +71,38 @@ public class IOThread extends Thread
 	 */
 	private final _SyncRingBuffer<Packet> itsPendingPackets = new _SyncRingBuffer<Packet>(1000);
 	
-//	private final _ArrayList<ThreadPacket>[] itsFreeThreadPackets;
+	/**
+	 * Maximum number of packets taken from {@link #itsPendingPackets} at once.
+	 */
+	private static final int BATCH_SIZE = 64;
+	
+	/**
+	 * Maximum time (ms) the thread waits for packets before checking for commands.
+	 */
+	private static final long POLL_TIMEOUT = 100;
+	
+	private static final int THREAD_HEADER_SIZE = 9; // packet type (1), thread id (4), length (4)
+	
+	/**
+	 * Packets taken from the pending queue, in order.
+	 */
+	private final Packet[] itsBatch = new Packet[BATCH_SIZE];
+	
+	/**
+	 * Thread packets of the current batched write, and their headers.
+	 * Each packet contributes two ranges (header + payload) to the write.
+	 */
+	private final ThreadPacket[] itsBatchedPackets = new ThreadPacket[BATCH_SIZE];
+	private int itsBatchedCount = 0;
+	private final _ByteBuffer itsBatchedHeaders = _ByteBuffer.allocate(BATCH_SIZE*THREAD_HEADER_SIZE);
+	private final byte[][] itsBatchedArrays = new byte[2*BATCH_SIZE][];
+	private final int[] itsBatchedOffsets = new int[2*BATCH_SIZE];
+	private final int[] itsBatchedLengths = new int[2*BATCH_SIZE];
+	
+	/**
+	 * True while packets removed from the pending queue have not been written yet.
+	 */
+	private volatile boolean itsSending = false;
 	
 	/**
 	 * A set of {@link ThreadData} objects registered with this {@link IOThread}.
@@ -88,14 +120,23 @@ public class IOThread extends Thread
 	private long itsPacketsSent = 0;
 	
 	/**
-	 *  Time at which last stale buffer check was performed
+	 * Number of native (JNI) write calls, to compute the number of packets per call.
+	 * This is not the number of system calls: the native side buffers the data.
 	 */
-	private long itsCheckTime;
+	private long itsJniCalls = 0;
+	private long itsStartTime;
+	
+	/**
+	 * Number of times a producer had to wait because the pending queue was full,
+	 * and total time spent waiting (ms).
+	 */
+	private int itsPushWaits = 0;
+	private long itsPushWaitTime = 0;
 	
 	/**
-	 *  Number of buffers that were sent since last timestamp was taken (taking timestamps is costly)
+	 *  Time at which last stale buffer check was performed
 	 */
-	private int itsSentPackets;
+	private long itsCheckTime;
 	
 	/**
 	 * A buffer for the command reader
@@ -113,9 +154,6 @@ public class IOThread extends Thread
 		
 		itsShutdownHook = new MyShutdownHook();
 		Runtime.getRuntime().addShutdownHook(itsShutdownHook);
-		
-//		itsFreeThreadPackets = new _ArrayList[ThreadPacket.RECYCLE_QUEUE_COUNT];
-//		for(int i=0;i<itsFreeThreadPackets.length;i++) itsFreeThreadPackets[i] = new _ArrayList<ThreadPacket>();
 	}
 	
 	public void setChannel(_SocketChannel aChannel)
@@ -136,6 +174,21 @@ public class IOThread extends Thread
 		b.append(" - packets: ");
 		b.append(itsPacketsSent);
 		b.append("\n");
+		
+		long theTime = System.currentTimeMillis() - itsStartTime;
+		b.append("[IOThread] Throughput: ");
+		b.append(theTime > 0 ? itsBytesSent*1000/theTime : 0);
+		b.append(" bytes/s - JNI write calls: ");
+		b.append(itsJniCalls);
+		b.append(" - packets/JNI call: ");
+		b.append(itsJniCalls > 0 ? (double) itsPacketsSent/itsJniCalls : 0);
+		b.append("\n");
+		
+		b.append("[IOThread] Queue full waits: ");
+		b.append(itsPushWaits);
+		b.append(" - wait time: ");
+		b.append(itsPushWaitTime);
+		b.append("ms\n");
 
 		_IO.out(b.toString());
 	}
@@ -165,25 +218,27 @@ public class IOThread extends Thread
 		try
 		{
 			itsCheckTime = System.currentTimeMillis();
-			itsSentPackets = 0;
+			itsStartTime = itsCheckTime;
 			
 			while(!hasShutdownStarted())
 			{
-//				_IO.out("PacketBufferSender.run() - sentBuffers: "+sentBuffers);
-				Packet thePacket = popPacket();
+				// Blocks until packets are available (producers wake us up), 
+				// or until the timeout expires so that commands are read regularly.
+				int n = itsPendingPackets.drainTo(itsBatch, POLL_TIMEOUT);
 				
-				if (thePacket != null)
+				if (n > 0) 
 				{
-					itsSentPackets++;
-					thePacket.send(this);
+					itsSending = true;
+					sendBatch(n);
 				}
 				
-				if (thePacket == null || itsSentPackets > 100)
+				if (itsPendingPackets.isEmpty())
 				{
-					// Check stale buffers at a regular interval
+					// Nothing more to send for now, don't keep data in the stream buffer.
+					itsChannel.flush();
 					checkStaleBuffers();
-					itsSentPackets = 0;
 				}
+				itsSending = false;
 				
 				readCommands();
 			}
@@ -206,53 +261,112 @@ public class IOThread extends Thread
 		}
 	}
 	
+	/**
+	 * Sends the first n packets of {@link #itsBatch}, preserving their order.
+	 * Consecutive thread packets are sent with a single batched write.
+	 */
+	private void sendBatch(int n) throws _IOException
+	{
+		for(int i=0;i<n;i++)
+		{
+			Packet thePacket = itsBatch[i];
+			itsBatch[i] = null;
+			
+			if (thePacket instanceof ThreadPacket) 
+			{
+				sendThreadPacket((ThreadPacket) thePacket);
+			}
+			else
+			{
+				flushBatched();
+				thePacket.send(this);
+			}
+		}
+		
+		flushBatched();
+	}
+	
+	/**
+	 * Adds a thread packet to the current batched write.
+	 */
 	private void sendThreadPacket(ThreadPacket aPacket) throws _IOException
 	{
-		itsHeaderBuffer.clear();
-		itsHeaderBuffer.put(Message.PACKET_TYPE_THREAD);
-		itsHeaderBuffer.putInt(aPacket.threadId);
-		itsHeaderBuffer.putInt(aPacket.length);
+		if (itsBatchedCount == BATCH_SIZE) flushBatched();
 		
-		itsHeaderBuffer.flip();
-		itsChannel.write(itsHeaderBuffer);
+		int theHeaderPos = itsBatchedHeaders.position();
+		itsBatchedHeaders.put(Message.PACKET_TYPE_THREAD);
+		itsBatchedHeaders.putInt(aPacket.threadId);
+		itsBatchedHeaders.putInt(aPacket.length);
+		
+		int i = 2*itsBatchedCount;
+		itsBatchedArrays[i] = itsBatchedHeaders.array();
+		itsBatchedOffsets[i] = theHeaderPos;
+		itsBatchedLengths[i] = THREAD_HEADER_SIZE;
 		
-		itsChannel.writeAll(aPacket.data, aPacket.offset, aPacket.length);
+		itsBatchedArrays[i+1] = aPacket.data;
+		itsBatchedOffsets[i+1] = aPacket.offset;
+		itsBatchedLengths[i+1] = aPacket.length;
+		
+		itsBatchedPackets[itsBatchedCount++] = aPacket;
+	}
+	
+	/**
+	 * Writes all the pending thread packets in a single native call, and recycles them.
+	 */
+	private void flushBatched() throws _IOException
+	{
+		int n = itsBatchedCount;
+		if (n == 0) return;
+		
+		int theBytes = itsChannel.writeBatch(itsBatchedArrays, itsBatchedOffsets, itsBatchedLengths, 2*n);
 		
 		if (AgentDebugFlags.COLLECT_PROFILE) 
 		{
-			itsBytesSent += 9+aPacket.length;
-			itsPacketsSent++;
+			itsBytesSent += theBytes;
+			itsPacketsSent += n;
+			itsJniCalls++;
 		}
 		
-//		synchronized (itsFreeThreadPackets)
-//		{
-//			itsFreeThreadPackets[aPacket.recycleQueue].add(aPacket);
-//		}
+		for(int i=0;i<n;i++)
+		{
+			ThreadPacket thePacket = itsBatchedPackets[i];
+			itsBatchedPackets[i] = null;
+			itsBatchedArrays[2*i+1] = null;
+			if (thePacket.pool != null) thePacket.pool.recycle(thePacket);
+		}
+		
+		itsBatchedCount = 0;
+		itsBatchedHeaders.clear();
 	}
 	
-//	public ThreadPacket getFreeThreadPacket(int aRecycleQueue)
-//	{
-//		if (itsFreeThreadPackets[aRecycleQueue].isEmpty()) return null;
-//		synchronized (itsFreeThreadPackets)
-//		{
-//			return itsFreeThreadPackets[aRecycleQueue].removeLast();
-//		}
-//	}
-	
 	private void sendStringPacket(StringPacket aPacket) throws _IOException
+	{
+		// The native side writes the packet type, as it chooses the encoding
+		int theBytes = itsChannel.writeStringPacket(aPacket.id, aPacket.string);
+
+		if (AgentDebugFlags.COLLECT_PROFILE) 
+		{
+			itsBytesSent += theBytes;
+			itsPacketsSent++;
+			itsJniCalls++;
+		}
+	}
+	
+	private void sendStringAliasPacket(StringAliasPacket aPacket) throws _IOException
 	{
 		itsHeaderBuffer.clear();
-		itsHeaderBuffer.put(Message.PACKET_TYPE_STRING);
+		itsHeaderBuffer.put(Message.PACKET_TYPE_STRING_ALIAS);
+		itsHeaderBuffer.putLong(aPacket.id);
+		itsHeaderBuffer.putLong(aPacket.contentId);
 		
 		itsHeaderBuffer.flip();
 		itsChannel.write(itsHeaderBuffer);
 		
-		itsChannel.writeStringPacket(aPacket.id, aPacket.string);
-
 		if (AgentDebugFlags.COLLECT_PROFILE) 
 		{
-			itsBytesSent += 1+8+4+TODAccessor.getStringCount(aPacket.string)*2;
+			itsBytesSent += 1+8+8;
 			itsPacketsSent++;
+			itsJniCalls++;
 		}
 	}
 	
@@ -320,6 +434,10 @@ public class IOThread extends Thread
 					processEnableCapture();
 					break;
 					
+				case Command.AGCMD_CLEAR_STRING_CACHE:
+					StringCache.clearAll();
+					break;
+					
 				default: throw new RuntimeException("Not handled: "+theMessage); 
 				}
 			}
@@ -346,22 +464,20 @@ public class IOThread extends Thread
 
 	/**
 	 * Pushes the given packet buffer to the pending queue.
-	 * @param aRecycle If true, the buffer in the given {@link ThreadPacket}
-	 * will be recycled and a free recycled buffer will be returned if available 
+	 * Blocks if the queue is full.
 	 */
 	public void pushPacket(Packet aPacket) 
 	{
 		if (hasShutdownStarted()) return;
-		itsPendingPackets.add(aPacket);
-	}
-	
-	/**
-	 * Pops a buffer from the stack, waiting for up to 100ms if none is available.
-	 */
-	private Packet popPacket() throws InterruptedException
-	{
-		if (itsPendingPackets.isEmpty()) Thread.sleep(100);
-		return itsPendingPackets.poll();
+		if (AgentDebugFlags.COLLECT_PROFILE && itsPendingPackets.isFull())
+		{
+			long t0 = System.currentTimeMillis();
+			itsPendingPackets.add(aPacket);
+			long t1 = System.currentTimeMillis();
+			itsPushWaits++;
+			itsPushWaitTime += t1-t0;
+		}
+		else itsPendingPackets.add(aPacket);
 	}
 	
 	/**
@@ -383,41 +499,30 @@ public class IOThread extends Thread
 	 */
 	public static final class ThreadPacket extends Packet
 	{
-//		/**
-//		 * Recycle queue for standard packets (all have the same length).
-//		 */
-//		public static final int RECYCLE_QUEUE_STANDARD = 0;
-//		
-//		/**
-//		 * Recycle queue for other packets.
-//		 */
-//		public static final int RECYCLE_QUEUE_OTHER = 1;
-//		public static final int RECYCLE_QUEUE_COUNT = 2;
-		
 		public int threadId;
 		public byte[] data;
 		
-//		/**
-//		 * When the packet has been sent, it will be placed on this recycle queue.
-//		 */
-//		public int recycleQueue;
+		/**
+		 * When the packet has been sent, it is returned to this pool (if not null).
+		 */
+		public ThreadPacketPool pool;
 		
 		public int offset;
 		public int length;
 		
 		
-		public void set(int aThreadId, byte[] aData, /*int aRecycleQueue, */int aOffset, int aLength)
+		public void set(int aThreadId, byte[] aData, ThreadPacketPool aPool, int aOffset, int aLength)
 		{
 			threadId = aThreadId;
 			data = aData;
-//			recycleQueue = aRecycleQueue;
+			pool = aPool;
 			offset = aOffset;
 			length = aLength;
 		}
 
-		public void set(int aThreadId, byte[] aData/*, int aRecycleQueue*/)
+		public void set(int aThreadId, byte[] aData, ThreadPacketPool aPool)
 		{
-			set(aThreadId, aData, /*aRecycleQueue, */0, aData.length);
+			set(aThreadId, aData, aPool, 0, aData.length);
 		}
 
 		@Override
@@ -449,6 +554,33 @@ public class IOThread extends Thread
 		}
 	}
 	
+	/**
+	 * A packet that represents a {@link String} whose content was already sent
+	 * (see {@link Message#PACKET_TYPE_STRING_ALIAS}).
+	 * @author gpothier
+	 */
+	public static final class StringAliasPacket extends Packet
+	{
+		public final long id;
+		
+		/**
+		 * Id of the previously sent string that has the same content.
+		 */
+		public final long contentId;
+		
+		public StringAliasPacket(long aId, long aContentId)
+		{
+			id = aId;
+			contentId = aContentId;
+		}
+
+		@Override
+		protected void send(IOThread aIOThread) throws _IOException
+		{
+			aIOThread.sendStringAliasPacket(this);
+		}
+	}
+	
 	private class MyShutdownHook extends Thread
 	{
 		public MyShutdownHook() 
@@ -477,7 +609,7 @@ public class IOThread extends Thread
 			_IO.out("[TOD] Flushing buffers...");
 			try
 			{
-				while(! itsPendingPackets.isEmpty()) Thread.sleep(100);
+				while(! itsPendingPackets.isEmpty() || itsSending) Thread.sleep(10);
 				itsShutdownStarted = true;
 				Thread.sleep(100); // False synchronization...
 				itsChannel.close();
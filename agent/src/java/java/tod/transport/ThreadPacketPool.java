@@ -0,0 +1,108 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package java.tod.transport;
+
+import java.tod.ThreadData;
+import java.tod.transport.IOThread.ThreadPacket;
+
+import tod2.agent.AgentDebugFlags;
+
+/**
+ * A bounded free-list of {@link ThreadPacket}s owned by a single {@link ThreadData}.
+ * The {@link IOThread} returns packets to the pool once they have been sent, and
+ * the owning thread takes them back when it needs a new buffer.
+ * There is exactly one producer (the {@link IOThread}) and one consumer (the
+ * owning thread), so no locking is needed: the indexes are volatile and each
+ * is written by a single thread.
+ * @author gpothier
+ */
+public final class ThreadPacketPool
+{
+	/**
+	 * Number of packets kept by each pool. Must be a power of 2.
+	 */
+	public static final int CAPACITY = 16;
+	private static final int MASK = CAPACITY-1;
+
+	private final ThreadPacket[] itsSlots = new ThreadPacket[CAPACITY];
+
+	/**
+	 * Index of the next packet to take. Written only by the owning thread.
+	 */
+	private volatile int itsHead = 0;
+
+	/**
+	 * Index of the next free slot. Written only by the {@link IOThread}.
+	 */
+	private volatile int itsTail = 0;
+
+	private int itsHits = 0;
+	private int itsMisses = 0;
+	private int itsDropped = 0;
+
+	/**
+	 * Takes a packet from the pool.
+	 * Must only be called by the owning thread.
+	 * @return A recycled packet, or null if the pool is empty.
+	 */
+	public ThreadPacket get()
+	{
+		int theHead = itsHead;
+		if (theHead == itsTail)
+		{
+			if (AgentDebugFlags.COLLECT_PROFILE) itsMisses++;
+			return null;
+		}
+
+		int theIndex = theHead & MASK;
+		ThreadPacket thePacket = itsSlots[theIndex];
+		itsSlots[theIndex] = null;
+		itsHead = theHead+1;
+
+		if (AgentDebugFlags.COLLECT_PROFILE) itsHits++;
+		return thePacket;
+	}
+
+	/**
+	 * Returns a packet to the pool. If the pool is full the packet is
+	 * dropped and left to the garbage collector.
+	 * Must only be called by the {@link IOThread}.
+	 */
+	public void recycle(ThreadPacket aPacket)
+	{
+		int theTail = itsTail;
+		if (theTail - itsHead >= CAPACITY)
+		{
+			if (AgentDebugFlags.COLLECT_PROFILE) itsDropped++;
+			return;
+		}
+
+		itsSlots[theTail & MASK] = aPacket;
+		itsTail = theTail+1;
+	}
+
+	/**
+	 * Number of times a packet was obtained from the pool.
+	 */
+	public int getHits()
+	{
+		return itsHits;
+	}
+
+	/**
+	 * Number of times the pool was empty and a new packet had to be allocated.
+	 */
+	public int getMisses()
+	{
+		return itsMisses;
+	}
+
+	/**
+	 * Number of sent packets that could not be recycled because the pool was full.
+	 */
+	public int getDropped()
+	{
+		return itsDropped;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package java.tod.util;
+
+import tod2.agent.AgentDebugFlags;
+import tod2.agent.io._ByteBuffer;
+
+/**
+ * Sends primitive values with a variable-length encoding: ints and shorts 
+ * are sent as zig-zag varints, chars as unsigned varints, and longs as
+ * the zig-zag varint of the delta with the previous long value sent
+ * by the same thread.
+ * Varints are little-endian groups of 7 bits, the high bit of each byte 
+ * indicating that more bytes follow.
+ * @author gpothier
+ */
+public final class CompactValueSender
+{
+	private long itsLastLongSent = 0;
+	
+	private int itsCount = 0;
+	private long itsBytes = 0;
+	private long itsFixedBytes = 0;
+	
+	private void updateProfile(_ByteBuffer aBuffer, int aStartPos, int aFixedSize)
+	{
+		if (AgentDebugFlags.COLLECT_PROFILE)
+		{
+			itsBytes += aBuffer.position()-aStartPos;
+			itsFixedBytes += aFixedSize;
+			itsCount++;
+		}
+	}
+	
+	public void sendInt(_ByteBuffer aBuffer, int aValue)
+	{
+		int thePos = aBuffer.position();
+		putVarLong(aBuffer, zigZag(aValue));
+		updateProfile(aBuffer, thePos, 4);
+	}
+	
+	public void sendShort(_ByteBuffer aBuffer, short aValue)
+	{
+		int thePos = aBuffer.position();
+		putVarLong(aBuffer, zigZag(aValue));
+		updateProfile(aBuffer, thePos, 2);
+	}
+	
+	public void sendChar(_ByteBuffer aBuffer, char aValue)
+	{
+		int thePos = aBuffer.position();
+		putVarLong(aBuffer, aValue);
+		updateProfile(aBuffer, thePos, 2);
+	}
+	
+	public void sendLong(_ByteBuffer aBuffer, long aValue)
+	{
+		int thePos = aBuffer.position();
+		long theDelta = aValue - itsLastLongSent;
+		itsLastLongSent = aValue;
+		putVarLong(aBuffer, zigZag(theDelta));
+		updateProfile(aBuffer, thePos, 8);
+	}
+	
+	private static long zigZag(long aValue)
+	{
+		return (aValue << 1) ^ (aValue >> 63);
+	}
+	
+	private static void putVarLong(_ByteBuffer aBuffer, long aValue)
+	{
+		while((aValue & ~0x7fL) != 0)
+		{
+			aBuffer.put((byte) ((aValue & 0x7f) | 0x80));
+			aValue >>>= 7;
+		}
+		aBuffer.put((byte) aValue);
+	}
+	
+	@Override
+	public String toString()
+	{
+		_StringBuilder b = new _StringBuilder();
+		b.append(itsCount);
+		b.append(" - bytes: ");
+		b.append(itsBytes);
+		b.append(" - fixed: ");
+		b.append(itsFixedBytes);
+		b.append("\n");
+		return b.toString();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package java.tod.util;
+
+import tod2.agent.AgentConfig;
+import tod2.agent.AgentDebugFlags;
+
+/**
+ * A bounded, direct-mapped cache of the strings registered by a thread,
+ * indexed by content hash. It permits to send the content of a string only
+ * once: strings whose content is found in the cache are registered as aliases
+ * of the previously sent string.
+ * Each thread has its own cache, so no synchronization is needed.
+ * All the caches are cleared when the database asks for it (see {@link #clearAll()}),
+ * so that aliases never refer to strings the database no longer has.
+ * @author gpothier
+ */
+public final class StringCache
+{
+	private static final int MASK = (1 << AgentConfig.STRING_CACHE_BITS)-1;
+
+	/**
+	 * Incremented each time the caches must be cleared. Each cache clears
+	 * itself lazily when it sees a new generation.
+	 */
+	private static volatile int itsGlobalGeneration = 0;
+
+	private final String[] itsStrings = new String[MASK+1];
+	private final long[] itsIds = new long[MASK+1];
+	private int itsGeneration = itsGlobalGeneration;
+
+	private int itsHits = 0;
+	private int itsMisses = 0;
+	private long itsSavedChars = 0;
+
+	/**
+	 * Returns the id of a previously registered string that has the same content
+	 * as the given string, or aId if there is none, in which case the string is
+	 * added to the cache.
+	 * @param aId The id of the string being registered.
+	 */
+	public long getContentId(String aString, long aId)
+	{
+		int theLength = aString.length();
+		if (theLength > AgentConfig.STRING_CACHE_MAX_LENGTH) return aId;
+
+		int theGeneration = itsGlobalGeneration;
+		if (theGeneration != itsGeneration)
+		{
+			for (int i=0;i<=MASK;i++) itsStrings[i] = null;
+			itsGeneration = theGeneration;
+		}
+
+		int theSlot = hash(aString.hashCode()) & MASK;
+		String theCached = itsStrings[theSlot];
+		if (theCached != null && theCached.equals(aString))
+		{
+			if (AgentDebugFlags.COLLECT_PROFILE)
+			{
+				itsHits++;
+				itsSavedChars += theLength;
+			}
+			return itsIds[theSlot];
+		}
+
+		if (AgentDebugFlags.COLLECT_PROFILE) itsMisses++;
+		itsStrings[theSlot] = aString;
+		itsIds[theSlot] = aId;
+		return aId;
+	}
+
+	/**
+	 * Clears the caches of all threads. Called by the IO thread when the
+	 * database starts a new segment of the raw trace.
+	 */
+	public static void clearAll()
+	{
+		itsGlobalGeneration++;
+	}
+
+	/**
+	 * Spreads the high bits of String.hashCode, which are otherwise
+	 * ignored by the mask.
+	 */
+	private static int hash(int h)
+	{
+		return h ^ (h >>> 16) ^ (h >>> 8);
+	}
+
+	@Override
+	public String toString()
+	{
+		_StringBuilder b = new _StringBuilder();
+		b.append("hits: ");
+		b.append(itsHits);
+		b.append(" - misses: ");
+		b.append(itsMisses);
+		b.append(" - saved chars: ");
+		b.append(itsSavedChars);
+		b.append("\n");
+		return b.toString();
+	}
+}
@@ -5,6 +5,16 @@ package java.tod.util;
 
 public class _SyncRingBuffer<T> extends _RingBuffer<T>
 {
+	/**
+	 * Number of threads blocked in {@link #add(Object)} because the buffer is full.
+	 */
+	private int itsWaitingProducers = 0;
+
+	/**
+	 * Number of threads blocked waiting for elements.
+	 */
+	private int itsWaitingConsumers = 0;
+
 	public _SyncRingBuffer(int aCapacity)
 	{
 		super(aCapacity);
@@ -15,9 +25,22 @@ public class _SyncRingBuffer<T> extends _RingBuffer<T>
 	{
 		try
 		{
-			while(isFull()) wait();
+			while(isFull())
+			{
+				itsWaitingProducers++;
+				try
+				{
+					wait();
+				}
+				finally
+				{
+					itsWaitingProducers--;
+				}
+			}
 			super.add(aObject);
-			notifyAll();
+
+			// Only pay for the notification if somebody is actually waiting
+			if (itsWaitingConsumers > 0) notifyAll();
 		}
 		catch (InterruptedException e)
 		{
@@ -30,9 +53,9 @@ public class _SyncRingBuffer<T> extends _RingBuffer<T>
 	{
 		try
 		{
-			while(isEmpty()) wait();
+			while(isEmpty()) waitForElements(0);
 			T theResult = super.remove();
-			notifyAll();
+			if (itsWaitingProducers > 0) notifyAll();
 			return theResult;
 		}
 		catch (InterruptedException e)
@@ -40,12 +63,40 @@ public class _SyncRingBuffer<T> extends _RingBuffer<T>
 			throw new RuntimeException(e);
 		}
 	}
-	
+
 	public synchronized T poll()
 	{
 		if (isEmpty()) return null;
 		else return remove();
 	}
 
-	
+	/**
+	 * Removes all available elements (up to the size of the target array),
+	 * waiting for at most the given time if the buffer is empty.
+	 * @param aTimeout Maximum wait time, in ms.
+	 * @return The number of elements placed in the target array.
+	 */
+	public synchronized int drainTo(T[] aTarget, long aTimeout) throws InterruptedException
+	{
+		if (isEmpty()) waitForElements(aTimeout);
+
+		int n = 0;
+		while(n < aTarget.length && ! isEmpty()) aTarget[n++] = super.remove();
+
+		if (n > 0 && itsWaitingProducers > 0) notifyAll();
+		return n;
+	}
+
+	private void waitForElements(long aTimeout) throws InterruptedException
+	{
+		itsWaitingConsumers++;
+		try
+		{
+			wait(aTimeout);
+		}
+		finally
+		{
+			itsWaitingConsumers--;
+		}
+	}
 }
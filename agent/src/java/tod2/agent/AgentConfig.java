@@ -57,6 +57,16 @@ public class AgentConfig
 	
 	public static final long HOST_MASK = BitUtilsLite.pow2(HOST_BITS)-1;
 	
+	/**
+	 * Object ids carry the host id in the bits above this shift, so that 
+	 * the low bits keep the parity and slot arithmetic of the ids 
+	 * (see {@link AgentUtils#makeObjectId(int, long)}).
+	 * The sign bit is left clear, as negative ids denote newly tagged objects.
+	 */
+	public static final int OBJECT_ID_HOST_SHIFT = 47;
+	
+	public static final long OBJECT_ID_MASK = BitUtilsLite.pow2(OBJECT_ID_HOST_SHIFT)-1;
+	
 	/**
 	 * Size of {@link SocketCollector} buffer. 
 	 */
@@ -66,4 +76,24 @@ public class AgentConfig
 	 * Class ids below this value are reserved.
 	 */
 	public static final int FIRST_CLASS_ID = 100;
+	
+	/**
+	 * Number of bits of the index in the per-thread value prediction table
+	 * (used when value prediction is enabled, see ThreadData.evFieldRead_Predict).
+	 * The table is direct-mapped: each read site is hashed to a slot.
+	 */
+	public static final int VALUE_PREDICTION_BITS = 8;
+	public static final int VALUE_PREDICTION_SIZE = 1 << VALUE_PREDICTION_BITS;
+	public static final int VALUE_PREDICTION_MASK = VALUE_PREDICTION_SIZE-1;
+	
+	/**
+	 * Number of bits of the index in the per-thread cache of registered strings, 
+	 * which permits to send each string content only once (see ThreadData.sendRegisteredObject).
+	 */
+	public static final int STRING_CACHE_BITS = 8;
+	
+	/**
+	 * Strings longer than this are not kept in the string cache.
+	 */
+	public static final int STRING_CACHE_MAX_LENGTH = 1024;
 }
@@ -160,6 +160,30 @@ public class AgentUtils
 		return Long.parseLong(aSize)*theFactor;
 	}
 	
+	/**
+	 * Returns the object id that has the given host id and intra-host id.
+	 */
+	public static long makeObjectId(int aHostId, long aId)
+	{
+		return ((long) aHostId << AgentConfig.OBJECT_ID_HOST_SHIFT) | aId;
+	}
+	
+	/**
+	 * Returns the intra-host part of the given object id.
+	 */
+	public static long getIntraHostId(long aObjectId)
+	{
+		return aObjectId & AgentConfig.OBJECT_ID_MASK;
+	}
+	
+	/**
+	 * Returns the host part of the given object id.
+	 */
+	public static int getHostId(long aObjectId)
+	{
+		return (int) (aObjectId >>> AgentConfig.OBJECT_ID_HOST_SHIFT);
+	}
+	
 	public static int getJvmMinorVersion()
 	{
 		return getJvmMinorVersion(System.getProperty("java.version"));
@@ -64,4 +64,13 @@ public class Command
 	 * return: none 
 	 */
 	public static final byte AGCMD_ENABLECAPTURE = BASE+5;
+	
+	/**
+	 * Tells the agent to forget the strings it has sent, so that it does not 
+	 * send aliases of strings that the database might no longer have 
+	 * (eg. when the raw trace starts a new segment).
+	 * args: none
+	 * return: none
+	 */
+	public static final byte AGCMD_CLEAR_STRING_CACHE = BASE+6;
 }
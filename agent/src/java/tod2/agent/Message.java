@@ -12,6 +12,19 @@ public class Message
 	public static final byte PACKET_TYPE_THREAD = 1;
 	public static final byte PACKET_TYPE_STRING = 2;
 	
+	/**
+	 * Same as {@link #PACKET_TYPE_STRING}, but the string only contains 
+	 * chars below 256, which are sent as one byte each (Latin-1).
+	 */
+	public static final byte PACKET_TYPE_STRING_LATIN1 = 3;
+	
+	/**
+	 * Registers a string whose content is the same as that of a string
+	 * previously registered by the same thread: object id (8) then 
+	 * object id of the previous string (8).
+	 */
+	public static final byte PACKET_TYPE_STRING_ALIAS = 4;
+	
 	public static final byte FIELD_READ = 1;
 	public static final byte FIELD_READ_SAME = 2;
 	public static final byte ARRAY_READ = 3;
@@ -97,9 +110,15 @@ public class Message
 	public static final byte INSCOPE_BEHAVIOR_ENTER_DELTA_FROM_OUTOFSCOPE = 34;
 	public static final byte INSCOPE_CLINIT_ENTER_FROM_OUTOFSCOPE = 35;
 	
+	/**
+	 * Same as {@link #FIELD_READ_SAME}, for array reads: the value read is 
+	 * the one predicted for the read site, and is therefore not sent.
+	 */
+	public static final byte ARRAY_READ_SAME = 36;
+	
 
 	
-	public static final int MSG_COUNT = 35;
+	public static final int MSG_COUNT = 37;
 	
 	public static final String[] _NAMES = 
 	{
@@ -138,6 +157,7 @@ public class Message
 		"SYNC",
 		"INSCOPE_BEHAVIOR_ENTER_FROM_OUTOFSCOPE",
 		"INSCOPE_BEHAVIOR_ENTER_DELTA_FROM_OUTOFSCOPE",
-		"INSCOPE_CLINIT_ENTER_FROM_OUTOFSCOPE"
+		"INSCOPE_CLINIT_ENTER_FROM_OUTOFSCOPE",
+		"ARRAY_READ_SAME"
 	};
 }
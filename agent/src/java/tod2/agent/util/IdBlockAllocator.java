@@ -0,0 +1,135 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package tod2.agent.util;
+
+/**
+ * Hands out object ids from a contiguous block reserved from a global
+ * {@link Source}. An instance must only be used by a single thread, so
+ * that id allocation does not need any synchronization except when
+ * the block is exhausted.
+ * <p>
+ * Ids are always odd (even ids are used for temporary ids, see TmpIdManager),
+ * and each id is followed by (2*slots)-1 unused ids that represent the
+ * fields (or array slots) of the object.
+ * <p>
+ * The size of the reserved blocks adapts to the allocation rate of the thread:
+ * threads that exhaust their block quickly get larger blocks, idle threads get
+ * smaller ones so that fewer ids are wasted.
+ * @author gpothier
+ */
+public final class IdBlockAllocator
+{
+	/**
+	 * Smallest block size, in ids.
+	 */
+	public static final int MIN_BLOCK_SIZE = 1 << 8;
+
+	/**
+	 * Largest block size, in ids.
+	 */
+	public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * If a block lasts less than this time (in ms), the next block is twice as large.
+	 */
+	private static final long FAST_REFILL_MS = 10;
+
+	/**
+	 * If a block lasts more than this time (in ms), the next block is half as large.
+	 */
+	private static final long SLOW_REFILL_MS = 1000;
+
+	private final Source itsSource;
+
+	/**
+	 * Next id to return. Always odd.
+	 */
+	private long itsNextId = 0;
+
+	/**
+	 * End (exclusive) of the current block.
+	 */
+	private long itsBlockEnd = 0;
+
+	private int itsBlockSize = MIN_BLOCK_SIZE;
+
+	/**
+	 * Time at which the current block was reserved.
+	 */
+	private long itsLastRefillTime = 0;
+
+	private int itsRefillCount = 0;
+
+	public IdBlockAllocator(Source aSource)
+	{
+		itsSource = aSource;
+	}
+
+	/**
+	 * Returns a new id with the given number of slots.
+	 */
+	public long next(int aSlots)
+	{
+		long theCount = 2L*aSlots;
+		long theId = itsNextId;
+		if (theId + theCount > itsBlockEnd)
+		{
+			// Huge arrays don't go through the block, they would waste it.
+			if (theCount > itsBlockSize/2) return itsSource.reserve(theCount);
+
+			refill();
+			theId = itsNextId;
+		}
+
+		itsNextId = theId + theCount;
+		return theId;
+	}
+
+	private void refill()
+	{
+		long t = System.currentTimeMillis();
+		if (itsRefillCount > 0)
+		{
+			long theDelta = t - itsLastRefillTime;
+			if (theDelta < FAST_REFILL_MS && itsBlockSize < MAX_BLOCK_SIZE) itsBlockSize <<= 1;
+			else if (theDelta > SLOW_REFILL_MS && itsBlockSize > MIN_BLOCK_SIZE) itsBlockSize >>= 1;
+		}
+
+		itsLastRefillTime = t;
+		itsRefillCount++;
+
+		itsNextId = itsSource.reserve(itsBlockSize);
+		itsBlockEnd = itsNextId + itsBlockSize;
+	}
+
+	/**
+	 * Returns the current block size, in ids.
+	 */
+	public int getBlockSize()
+	{
+		return itsBlockSize;
+	}
+
+	/**
+	 * Returns the number of times a new block was reserved.
+	 */
+	public int getRefillCount()
+	{
+		return itsRefillCount;
+	}
+
+	/**
+	 * The global id counter from which blocks are reserved.
+	 * @author gpothier
+	 */
+	public static interface Source
+	{
+		/**
+		 * Reserves a range of ids.
+		 * @param aCount The number of ids to reserve (always even).
+		 * @return The first id of the range (always odd).
+		 */
+		public long reserve(long aCount);
+	}
+}
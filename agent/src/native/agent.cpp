@@ -34,12 +34,16 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 #include "workingset.h"
 
 #include <vector>
+#include <map>
 
 #include <iostream>
 #include <fstream>
 #include <boost/asio.hpp>
 #include <boost/filesystem.hpp>
 #include <boost/filesystem/fstream.hpp>
+#include <boost/thread/thread.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/condition.hpp>
 //#include <boost/thread/tss.hpp>
 
 #ifdef __cplusplus
@@ -52,6 +56,7 @@ namespace fs = boost::filesystem;
 // Outgoing commands
 const char EXCEPTION_GENERATED = 20;
 const char INSTRUMENT_CLASS = 50;
+const char INSTRUMENT_CLASS_TAGGED = 51;
 const char USE_CACHED_CLASS = 52;
 const char FLUSH = 99;
 
@@ -59,11 +64,14 @@ const char FLUSH = 99;
 const char SET_CAPTURE_EXCEPTIONS = 83;
 const char SET_HOST_BITS = 84;
 const char SET_CACHE_PATH = 85;
+const char SET_PIPELINED = 86;
+const char SET_COMPACT_VALUES = 87;
 const char CONFIG_DONE = 99;
 
 int AGENT_STARTED = 0;
 int CAPTURE_STARTED = 0;
 std::iostream* gSocket = 0;
+tcp::iostream* gConnection = 0;
 
 // Configuration data
 bool cfgIsJVM14 = false;
@@ -71,6 +79,8 @@ int cfgCaptureExceptions = 0;
 int cfgHostBits = 8; // Number of bits used to encode host id.
 int cfgHostId = 0; // A host id assigned by the TODServer - not the "real" host id used in events.
 const char* cfgCachePath = 0;
+int cfgPipelined = 0; // Whether the server accepts tagged instrumentation requests
+int cfgCompactValues = 0; // Whether values are sent with the compact encoding
 
 // System properties configuration data.
 const char* propHost = NULL;
@@ -90,9 +100,13 @@ StaticLongMethod* ObjectIdentity_nextIdFor;
 // Method IDs for methods whose exceptions are ignored
 jmethodID ignoredExceptionMethods[3];
 
-// Mutex for class load callback
+// Mutex for class load callback.
+// In pipelined mode it only protects the socket.
 t_mutex loadMutex;
 
+// Mutex for the client-side class cache
+t_mutex cacheMutex;
+
 struct ClassInfo;
 
 // This vector holds class infos for classes
@@ -108,7 +122,8 @@ void agentConnect(const char* host, const char* port, const char* clientName)
 {
 	if (propVerbose >=1) printf("Connecting to %s:%s\n", host, port);
 	fflush(stdout);
-	gSocket = new tcp::iostream(host, port);
+	gConnection = new tcp::iostream(host, port);
+	gSocket = gConnection;
 	if (gSocket->fail()) fatal_error("Could not connect.\n");
 	
 	// Send signature (defined in AgentConfig)
@@ -125,6 +140,103 @@ void agentConnect(const char* host, const char* port, const char* clientName)
 	fflush(stdout);
 }
 
+/*
+Pipelined instrumentation.
+Each class loading thread sends a tagged INSTRUMENT_CLASS_TAGGED request and 
+waits for the response with the same tag. The server may instrument several 
+classes in parallel and respond out of order. Responses are read by a 
+dedicated thread that dispatches them to the waiting threads.
+All socket accesses are protected by loadMutex; the reader thread only takes 
+it when a response is available.
+*/
+struct PendingRequest
+{
+	bool done;
+	
+	jbyte* bytecode;
+	jint bytecodeLen;
+	jint id;
+	jbyte* info;
+	jint infoLen;
+	char* errorString;
+	
+	PendingRequest() : done(false), bytecode(NULL), bytecodeLen(0), id(0), info(NULL), infoLen(0), errorString(NULL) {}
+};
+
+boost::mutex pendingMutex;
+boost::condition pendingCondition;
+std::map<int, PendingRequest*> pendingRequests;
+int nextRequestTag = 1;
+
+/*
+Reads a tagged instrumentation response and hands it to the waiting thread.
+Must be called with loadMutex held.
+*/
+void readTaggedResponse()
+{
+	int tag = readInt(gSocket);
+	
+	PendingRequest* request;
+	{
+		boost::mutex::scoped_lock lock(pendingMutex);
+		std::map<int, PendingRequest*>::iterator it = pendingRequests.find(tag);
+		if (it == pendingRequests.end()) fatal_error("Unexpected instrumentation response.\n");
+		request = it->second;
+		pendingRequests.erase(it);
+	}
+	
+	jint bytecodeLen = readInt(gSocket);
+	if (bytecodeLen > 0)
+	{
+		request->bytecode = (jbyte*) malloc(bytecodeLen);
+		readBytes(gSocket, bytecodeLen, request->bytecode);
+		if (gSocket->eof()) fatal_ioerror("fread");
+		
+		request->id = readInt(gSocket);
+		request->infoLen = readInt(gSocket);
+		request->info = (jbyte*) malloc(request->infoLen);
+		readBytes(gSocket, request->infoLen, request->info);
+	}
+	else if (bytecodeLen == -1)
+	{
+		request->errorString = readUTF(gSocket);
+	}
+	request->bytecodeLen = bytecodeLen;
+	
+	{
+		boost::mutex::scoped_lock lock(pendingMutex);
+		request->done = true;
+		pendingCondition.notify_all();
+	}
+}
+
+void responseReaderLoop()
+{
+	while(true)
+	{
+		{
+			boost::mutex::scoped_lock lock(pendingMutex);
+			while (pendingRequests.empty()) pendingCondition.wait(lock);
+		}
+		
+		bool ready;
+		{
+			t_lock lock(loadMutex);
+			ready = gConnection->rdbuf()->in_avail() > 0 || gConnection->rdbuf()->available() > 0;
+			if (ready) readTaggedResponse();
+		}
+		
+		// Let requesting threads send their requests while the server works
+		if (! ready) usleep(200);
+	}
+}
+
+void startResponseReader()
+{
+	// The thread is never joined
+	new boost::thread(&responseReaderLoop);
+}
+
 void agentConfigure()
 {
 	while(true)
@@ -147,6 +259,16 @@ void agentConfigure()
 				if (propVerbose >= 1) printf("Cache path: %s\n", cfgCachePath);
 				break;
 
+			case SET_PIPELINED:
+				cfgPipelined = readByte(gSocket);
+				if (propVerbose >= 1) printf("Pipelined instrumentation: %s\n", cfgPipelined ? "Yes" : "No");
+				break;
+
+			case SET_COMPACT_VALUES:
+				cfgCompactValues = readByte(gSocket);
+				if (propVerbose >= 1) printf("Compact values: %s\n", cfgCompactValues ? "Yes" : "No");
+				break;
+
 			case CONFIG_DONE:
 				// Check host id vs host bits
 				if (cfgHostBits > 0)
@@ -159,6 +281,8 @@ void agentConfigure()
 					cfgHostId = 0;
 				}
 				
+				if (cfgPipelined) startResponseReader();
+				
 				if (propVerbose >= 1) printf("Config done.\n");
 				return;
 				
@@ -226,6 +350,93 @@ ClassInfo* checkCacheInfo(
 	return NULL;
 }
 
+void storeCacheInfo(
+	const char* name, 
+	const char md5Buffer_in[16],
+	ClassInfo* classInfo)
+{
+	t_lock lock(cacheMutex);
+	
+	fs::path cachePath(cfgCachePath);
+	fs::create_directories(cachePath / name);
+	fs::path classPath(cachePath / name / "class");
+	fs::path infoPath(cachePath / name / "info");
+	
+	fs::ofstream classFile(classPath);
+	writeBytes(&classFile, classInfo->bytecodeLen, classInfo->bytecode);
+	classFile.close();
+	
+	fs::ofstream infoFile(infoPath);
+	writeBytes(&infoFile, 16, md5Buffer_in);
+	writeInt(&infoFile, classInfo->id);
+	writeInt(&infoFile, classInfo->infoLen);
+	writeBytes(&infoFile, classInfo->infoLen, classInfo->info);
+	infoFile.close();
+	
+	if (propVerbose>=2) std::cout << "Stored cache: " << infoPath << std::endl;
+}
+
+/*
+Sends a tagged instrumentation request and waits for its response.
+Several threads can have outstanding requests at the same time.
+*/
+ClassInfo* requestInstrumentationPipelined(
+	const char* name, 
+	const char md5Buffer_in[16],
+	const unsigned char* data,
+	const jint len,
+	void* (*malloc_f)(unsigned int))
+{
+	PendingRequest request;
+	int tag;
+	{
+		boost::mutex::scoped_lock lock(pendingMutex);
+		tag = nextRequestTag++;
+		pendingRequests[tag] = &request;
+	}
+	
+	{
+		t_lock lock(loadMutex);
+		
+		writeByte(gSocket, INSTRUMENT_CLASS_TAGGED);
+		writeInt(gSocket, tag);
+		writeUTF(gSocket, name);
+		writeInt(gSocket, len);
+		writeBytes(gSocket, len, data);
+		flush(gSocket);
+	}
+	
+	{
+		boost::mutex::scoped_lock lock(pendingMutex);
+		pendingCondition.notify_all(); // Wake up the reader
+		while (! request.done) pendingCondition.wait(lock);
+	}
+	
+	if (request.bytecodeLen > 0)
+	{
+		if (propVerbose>=1) printf("Instrumented: %s\n", name);
+		
+		// The JVM must own the returned bytecode
+		jbyte* bytecode = (jbyte*) malloc_f(request.bytecodeLen);
+		memcpy(bytecode, request.bytecode, request.bytecodeLen);
+		free(request.bytecode);
+		
+		jbyte* info = (jbyte*) malloc_f(request.infoLen);
+		memcpy(info, request.info, request.infoLen);
+		free(request.info);
+		
+		ClassInfo* classInfo = new ClassInfo(request.id, bytecode, request.bytecodeLen, info, request.infoLen);
+		storeCacheInfo(name, md5Buffer_in, classInfo);
+		return classInfo;
+	}
+	else if (request.bytecodeLen == -1)
+	{
+		fatal_error(request.errorString);
+	}
+	
+	return NULL;
+}
+
 ClassInfo* requestInstrumentation(
 	const char* name, 
 	const char md5Buffer_in[16],
@@ -262,26 +473,9 @@ ClassInfo* requestInstrumentation(
 		jbyte* info = (jbyte*) malloc_f(infoLen);
 		readBytes(gSocket, infoLen, info);
 		
-		// Write cache
-		fs::path cachePath(cfgCachePath);
-		fs::create_directories(cachePath / name);
-		fs::path classPath(cachePath / name / "class");
-		fs::path infoPath(cachePath / name / "info");
-		
-		fs::ofstream classFile(classPath);
-		writeBytes(&classFile, bytecodeLen, bytecode);
-		classFile.close();
-		
-		fs::ofstream infoFile(infoPath);
-		writeBytes(&infoFile, 16, md5Buffer_in);
-		writeInt(&infoFile, id);
-		writeInt(&infoFile, infoLen);
-		writeBytes(&infoFile, infoLen, info);
-		infoFile.close();
-		
-		if (propVerbose>=2) std::cout << "Stored cache: " << infoPath << std::endl;
-
-		return new ClassInfo(id, bytecode, bytecodeLen, info, infoLen);
+		ClassInfo* classInfo = new ClassInfo(id, bytecode, bytecodeLen, info, infoLen);
+		storeCacheInfo(name, md5Buffer_in, classInfo);
+		return classInfo;
 	}
 	else if (bytecodeLen == -1)
 	{
@@ -334,23 +528,34 @@ void agentClassFileLoadHook(
 	md5_sig_to_string(md5Buffer, md5String, 33);
 	if (propVerbose>=3) printf("MD5 sum: %s\n", md5String);
 	
+	ClassInfo* info;
 	{
-		t_lock lock(loadMutex);
-		
-		ClassInfo* info = checkCacheInfo(name, md5Buffer, malloc_f);
-		if (info == NULL) info = requestInstrumentation(name, md5Buffer, class_data, class_data_len, malloc_f);
-		else
-		{
-			// Notify server of class loaded from cache
-			writeByte(gSocket, USE_CACHED_CLASS);
-			writeInt(gSocket, info->id);
-		}
+		t_lock lock(cacheMutex);
+		info = checkCacheInfo(name, md5Buffer, malloc_f);
+	}
 	
-		if (info != NULL)
-		{
-			*new_class_data = (unsigned char*) info->bytecode;
-			*new_class_data_len = info->bytecodeLen;
-		}
+	if (info != NULL)
+	{
+		// Notify server of class loaded from cache
+		t_lock lock(loadMutex);
+		writeByte(gSocket, USE_CACHED_CLASS);
+		writeInt(gSocket, info->id);
+	}
+	else if (cfgPipelined)
+	{
+		// Don't hold the lock while waiting, so that other threads can send requests
+		info = requestInstrumentationPipelined(name, md5Buffer, class_data, class_data_len, malloc_f);
+	}
+	else
+	{
+		t_lock lock(loadMutex);
+		info = requestInstrumentation(name, md5Buffer, class_data, class_data_len, malloc_f);
+	}
+
+	if (info != NULL)
+	{
+		*new_class_data = (unsigned char*) info->bytecode;
+		*new_class_data_len = info->bytecodeLen;
 	}
 	
 	fflush(stdout);
@@ -534,6 +739,12 @@ JNIEXPORT jint JNICALL Java_java_tod__1AgConfig_getHostId
 	return cfgHostId;
 }
 
+JNIEXPORT jboolean JNICALL Java_java_tod__1AgConfig_getCompactValues
+	(JNIEnv * jni, jclass)
+{
+	return cfgCompactValues ? JNI_TRUE : JNI_FALSE;
+}
+
 JNIEXPORT jstring JNICALL Java_java_tod__1AgConfig_getCollectorHost
   (JNIEnv* jni, jclass)
 {
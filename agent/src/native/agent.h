@@ -70,6 +70,9 @@ void agentStop();
 JNIEXPORT jint JNICALL Java_java_tod__1AgConfig_getHostId
 	(JNIEnv * jni, jclass);
 
+JNIEXPORT jboolean JNICALL Java_java_tod__1AgConfig_getCompactValues
+	(JNIEnv * jni, jclass);
+
 JNIEXPORT jstring JNICALL Java_java_tod__1AgConfig_getCollectorHost
   (JNIEnv* jni, jclass);
 
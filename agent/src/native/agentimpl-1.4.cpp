@@ -253,6 +253,7 @@ void cbJvmInitDone(JVMPI_Event *event)
 
 	jclass cls_AgConfig = loadClass(jni, "java/tod/_AgConfig");
 	registerNative(jni, cls_AgConfig, "getHostId", "()I", (void*) Java_java_tod__1AgConfig_getHostId);
+	registerNative(jni, cls_AgConfig, "getCompactValues", "()Z", (void*) Java_java_tod__1AgConfig_getCompactValues);
 	registerNative(jni, cls_AgConfig, "getCollectorHost", "()Ljava/lang/String;", (void*) Java_java_tod__1AgConfig_getCollectorHost);
 	registerNative(jni, cls_AgConfig, "getCollectorPort", "()Ljava/lang/String;", (void*) Java_java_tod__1AgConfig_getCollectorPort);
 	registerNative(jni, cls_AgConfig, "getClientName", "()Ljava/lang/String;", (void*) Java_java_tod__1AgConfig_getClientName);
@@ -262,6 +263,7 @@ void cbJvmInitDone(JVMPI_Event *event)
 	registerNative(jni, cls_SocketChannel, "flush0", "(I)I", (void*) Java_java_tod_io__1SocketChannel_flush0);
 	registerNative(jni, cls_SocketChannel, "close0", "(I)I", (void*) Java_java_tod_io__1SocketChannel_close0);
 	registerNative(jni, cls_SocketChannel, "write0", "(I[BII)I", (void*) Java_java_tod_io__1SocketChannel_write0);
+	registerNative(jni, cls_SocketChannel, "writeBatch0", "(I[[B[I[II)I", (void*) Java_java_tod_io__1SocketChannel_writeBatch0);
 	registerNative(jni, cls_SocketChannel, "read0", "(I[BII)I", (void*) Java_java_tod_io__1SocketChannel_read0);
 	registerNative(jni, cls_SocketChannel, "in_avail0", "(I)I", (void*) Java_java_tod_io__1SocketChannel_in_1avail0);
 
@@ -26,6 +26,7 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 #include <stdlib.h>
 #include <boost/asio.hpp>
 #include <vector>
+#include <algorithm>
 
 typedef std::iostream STREAM;
 using boost::asio::ip::tcp;
@@ -33,6 +34,10 @@ using boost::asio::ip::tcp;
 // Maps file descriptors to streams
 std::vector<STREAM*> fds;
 
+// Must match tod2.agent.Message
+static const char PACKET_TYPE_STRING = 2;
+static const char PACKET_TYPE_STRING_LATIN1 = 3;
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -106,6 +111,43 @@ JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_write0
 	return result;
 }
 
+/*
+ * Writes count (array, offset, length) ranges in a single JNI call.
+ * The ranges are appended to the stream buffer one by one, this is not a writev.
+ */
+JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_writeBatch0
+  (JNIEnv* jni, jclass, jint fd, jobjectArray arrays, jintArray offsets, jintArray lengths, jint count)
+{
+	if (fd >= fds.size()) return -10;
+	STREAM* s = fds[fd];
+	if (! s->good()) return -1;
+	
+	jint* ofs = jni->GetIntArrayElements(offsets, NULL);
+	jint* lens = jni->GetIntArrayElements(lengths, NULL);
+	
+	int result = 0;
+	for (int i=0;i<count;i++)
+	{
+		jbyteArray bytes = (jbyteArray) jni->GetObjectArrayElement(arrays, i);
+		char* carray = (char*) jni->GetPrimitiveArrayCritical(bytes, NULL);
+		s->write(carray+ofs[i], lens[i]);
+		jni->ReleasePrimitiveArrayCritical(bytes, carray, JNI_ABORT);
+		jni->DeleteLocalRef(bytes);
+		
+		if (! s->good()) 
+		{
+			result = -1;
+			break;
+		}
+		result += lens[i];
+	}
+	
+	jni->ReleaseIntArrayElements(offsets, ofs, JNI_ABORT);
+	jni->ReleaseIntArrayElements(lengths, lens, JNI_ABORT);
+	
+	return result;
+}
+
 JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_writeStringPacket0
   (JNIEnv* jni, jclass, jint fd, jlong id, jstring str)
 {
@@ -117,14 +159,35 @@ JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_writeStringPacket0
 	jsize len = jni->GetStringLength(str);
 	const jchar* chars = jni->GetStringChars(str, &isCopy);
 	
+	// Send one byte per char if possible
+	bool latin1 = true;
+	for(int i=0;i<len;i++) if (chars[i] > 0xff) 
+	{
+		latin1 = false;
+		break;
+	}
+	
 	if (! s->good()) result = -1;
 	else
 	{
+		char type = latin1 ? PACKET_TYPE_STRING_LATIN1 : PACKET_TYPE_STRING;
+		s->write(&type, 1);
 		s->write((char*) &id, 8);
 		s->write((char*) &len, 4);
-		s->write((char*) chars, len*2);
+		if (latin1)
+		{
+			char buffer[1024];
+			for(int i=0;i<len;i+=sizeof(buffer))
+			{
+				int n = std::min((int) (len-i), (int) sizeof(buffer));
+				for(int j=0;j<n;j++) buffer[j] = (char) chars[i+j];
+				s->write(buffer, n);
+			}
+		}
+		else s->write((char*) chars, len*2);
+		
 		if (! s->good()) result = -1;
-		else result = 0;
+		else result = 1 + 8 + 4 + (latin1 ? len : len*2);
 	}
 	
 	jni->ReleaseStringChars(str, chars);
@@ -40,6 +40,9 @@ JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_close0
 JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_write0
   (JNIEnv* jni, jclass, jint fd, jbyteArray bytes, jint pos, jint len);
 
+JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_writeBatch0
+  (JNIEnv* jni, jclass, jint fd, jobjectArray arrays, jintArray offsets, jintArray lengths, jint count);
+
 JNIEXPORT jint JNICALL Java_java_tod_io__1SocketChannel_writeStringPacket0
   (JNIEnv *, jclass, jint, jlong, jstring);
 
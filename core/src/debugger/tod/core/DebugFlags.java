@@ -29,6 +29,7 @@ import java.io.PrintStream;
 
 import tod.core.transport.LogReceiver;
 import tod.impl.common.ObjectInspector;
+import tod.impl.replay2.SnapshotPolicy;
 import tod.impl.server.NativeAgentPeer;
 import tod.utils.ConfigUtils;
 import zz.utils.bit.BitUtils;
@@ -108,6 +109,14 @@ public class DebugFlags
 	 * remained the same between accesses.
 	 */
 	public static final boolean USE_FIELD_CACHE = false;
+	
+	/**
+	 * Whether the values of primitive field and array reads are predicted
+	 * by a per-thread table indexed by read site, so that a value equal to the
+	 * last one read at the same site is not sent (see MethodInfo#getPredictionSlot).
+	 * The agent and the replayers must agree on this flag.
+	 */
+	public static final boolean USE_VALUE_PREDICTION = ConfigUtils.readBoolean("use-value-prediction", false);
 
 	/**
 	 * Causes the event collector to print the events it receives.
@@ -206,7 +215,30 @@ public class DebugFlags
 	public static final int STIQ_MIN_BLOCK_SIZE = ConfigUtils.readInt("stiq-min-block-size", 1000);
 	
 	public static final long STIQ_SNAPSHOT_INTERVAL = 1000000L*ConfigUtils.readInt("stiq-snapshot-interval", 10);
-
+	
+	/**
+	 * Whether the size of blocks is adapted to the replay cost of each thread,
+	 * see {@link SnapshotPolicy}. Otherwise snapshots are taken every
+	 * {@link #STIQ_SNAPSHOT_INTERVAL}.
+	 */
+	public static final boolean STIQ_ADAPTIVE = ConfigUtils.readBoolean("stiq-adaptive", false);
+	
+	/**
+	 * Target maximum time (in ms) needed to partially replay a block, when
+	 * {@link #STIQ_ADAPTIVE} is set.
+	 */
+	public static final long STIQ_MAX_BLOCK_TIME = 1000000L*ConfigUtils.readInt("stiq-max-block-time", 20);
+	
+	/**
+	 * Maximum number of messages in a block, when {@link #STIQ_ADAPTIVE} is set.
+	 */
+	public static final int STIQ_MAX_BLOCK_SIZE = ConfigUtils.readInt("stiq-max-block-size", 200000);
+	
+	/**
+	 * Maximum span of a block (in ms of trace time), when {@link #STIQ_ADAPTIVE} is set.
+	 */
+	public static final long STIQ_MAX_SNAPSHOT_INTERVAL = 1000000L*ConfigUtils.readInt("stiq-max-snapshot-interval", 1000);
+	
 	
 	private static PrintStream createStream(String aName)
 	{
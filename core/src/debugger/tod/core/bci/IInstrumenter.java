@@ -34,6 +34,7 @@ public interface IInstrumenter
      * @param aUseJava14 If true, only Java 1.4 bytecode/APIs can be used.
      * Retroweaver APIs can also be used.
      * @return New bytecode, or null if no instrumentation is performed.
+     * This method can be called concurrently by several threads.
      */
 	public InstrumentedClass instrumentClass (String aClassName, byte[] aBytecode, boolean aUseJava14);
 	
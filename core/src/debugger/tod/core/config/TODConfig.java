@@ -118,6 +118,42 @@ public class TODConfig extends PublicCloneable implements Serializable
 					"If true, the native agent sets up a callback that captures " + "exceptions.",
 					true);
 
+	public static final BooleanItem AGENT_PIPELINED_INSTRUMENTATION =
+			new BooleanItem(
+					ConfigLevel.ADVANCED,
+					"agent-pipelinedInstrumentation",
+					"Agent - pipelined instrumentation",
+					"If true, the native agent can send several instrumentation requests "
+					+ "without waiting for the responses, and classes are instrumented in parallel.",
+					true);
+
+	public static final BooleanItem AGENT_COMPACT_VALUES =
+			new BooleanItem(
+					ConfigLevel.ADVANCED,
+					"agent-compactValues",
+					"Agent - compact values",
+					"If true, the agent sends integral values with a variable-length encoding. "
+					+ "Traces must be replayed with the same setting as they were recorded with.",
+					false);
+
+	public static final IntegerItem INSTRUMENTER_THREADS =
+			new IntegerItem(
+					ConfigLevel.ADVANCED,
+					"instrumenter-threads",
+					"Instrumenter - threads",
+					"Number of threads used to instrument classes when pipelined "
+					+ "instrumentation is enabled (0 means one per processor).",
+					0);
+
+	public static final BooleanItem INSTRUMENTER_SERVER_CACHE =
+			new BooleanItem(
+					ConfigLevel.ADVANCED,
+					"instrumenter-serverCache",
+					"Instrumenter - server-side cache",
+					"Whether instrumented classes are cached on the server, so that "
+					+ "classes loaded by several VMs are instrumented only once.",
+					true);
+
 	public static final BooleanItem AGENT_CAPTURE_AT_START =
 			new BooleanItem(
 					ConfigLevel.ADVANCED,
@@ -314,6 +350,44 @@ public class TODConfig extends PublicCloneable implements Serializable
 							+ "database files.",
 					TMPDIR);
 
+	public static final BooleanItem DB_RAW_COMPRESS =
+			new BooleanItem(
+					ConfigLevel.ADVANCED,
+					"db-raw-compress",
+					"Compress raw events",
+					"Whether raw events files written by the recorder are compressed. "
+							+ "This reduces disk throughput at the cost of some CPU.",
+					false);
+
+	public static final IntegerItem DB_RAW_SEGMENT_SIZE =
+			new IntegerItem(
+					ConfigLevel.ADVANCED,
+					"db-raw-segment-size",
+					"Raw events segment size (MB)",
+					"Size after which the recorder starts a new segment of the raw events "
+							+ "of a VM, so that old segments can be dropped (see db-raw-retention-size "
+							+ "and db-raw-retention-time). 0 means one segment per VM.",
+					0);
+
+	public static final IntegerItem DB_RAW_RETENTION_SIZE =
+			new IntegerItem(
+					ConfigLevel.ADVANCED,
+					"db-raw-retention-size",
+					"Raw events retention size (MB)",
+					"Maximum (uncompressed) size of the raw events kept by the recorder. "
+							+ "The oldest complete segments are deleted when it is exceeded. "
+							+ "0 means no limit.",
+					0);
+
+	public static final IntegerItem DB_RAW_RETENTION_TIME =
+			new IntegerItem(
+					ConfigLevel.ADVANCED,
+					"db-raw-retention-time",
+					"Raw events retention time (minutes)",
+					"Complete segments of raw events older than this are deleted by the recorder. "
+							+ "0 means no limit.",
+					0);
+
 	public static final BooleanItem ALLOW_HOMONYM_CLASSES =
 		new BooleanItem(
 				ConfigLevel.ADVANCED,
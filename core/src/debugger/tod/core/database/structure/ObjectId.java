@@ -25,7 +25,7 @@ package tod.core.database.structure;
 import java.io.Serializable;
 
 import tod.core.DebugFlags;
-import tod2.agent.AgentConfig;
+import tod2.agent.AgentUtils;
 
 /**
  * Permits to identify an object.
@@ -98,7 +98,7 @@ public class ObjectId implements Serializable
 	 */
 	public static long getObjectId(long aId)
 	{
-		return DebugFlags.IGNORE_HOST ? aId : aId >>> AgentConfig.HOST_BITS;
+		return DebugFlags.IGNORE_HOST ? aId : AgentUtils.getIntraHostId(aId);
 	}
 	
 	/**
@@ -107,7 +107,7 @@ public class ObjectId implements Serializable
 	 */
 	public static int getHostId(long aId)
 	{
-		return DebugFlags.IGNORE_HOST ? 0 : (int) (aId & AgentConfig.HOST_MASK);
+		return DebugFlags.IGNORE_HOST ? 0 : AgentUtils.getHostId(aId);
 	}
 
 
@@ -3,11 +3,16 @@
  */
 package tod.impl.bci.asm2;
 
+import java.io.File;
 import java.util.Collections;
 
+import tod.Util;
+import tod.core.DebugFlags;
 import tod.core.bci.IInstrumenter;
 import tod.core.config.TODConfig;
+import tod.core.database.structure.IClassInfo;
 import tod.core.database.structure.IMutableStructureDatabase;
+import zz.utils.Utils;
 
 /**
  * A new version of the instrumenter ({@link ASMInstrumenter}) that reduces the runtime
@@ -16,8 +21,17 @@ import tod.core.database.structure.IMutableStructureDatabase;
  */
 public class ASMInstrumenter2 implements IInstrumenter
 {
+	/**
+	 * Version of the instrumentation, part of the keys of the {@link InstrumentedClassCache}.
+	 * Must be incremented whenever the generated code changes.
+	 */
+	public static final int VERSION = 2;
+	
 	private TODConfig itsConfig;
 	private final IMutableStructureDatabase itsDatabase;
+	
+	private InstrumentedClassCache itsCache;
+	private boolean itsCacheCreated = false;
 
 	public ASMInstrumenter2(TODConfig aConfig, IMutableStructureDatabase aDatabase)
 	{
@@ -48,6 +62,71 @@ public class ASMInstrumenter2 implements IInstrumenter
 	public InstrumentedClass instrumentClass(String aClassName, byte[] aBytecode, boolean aUseJava14)
 	{
 		if (aUseJava14) throw new RuntimeException("Java 1.4 mode not yet supported in asm2");
-		return new ClassInstrumenter(this, aClassName, aBytecode, aUseJava14).proceed();
+		
+		InstrumentedClassCache theCache = getCache();
+		if (theCache == null) return new ClassInstrumenter(this, aClassName, aBytecode, aUseJava14).proceed();
+		
+		String theChecksum = Utils.md5String(aBytecode);
+		String theKey = theChecksum+getContextDigest(aUseJava14);
+		
+		InstrumentedClass theClass = theCache.get(theKey);
+		if (theClass != null && isValid(theClass, aClassName, theChecksum)) return theClass;
+		
+		theClass = new ClassInstrumenter(this, aClassName, aBytecode, aUseJava14).proceed();
+		theCache.put(theKey, theClass);
+		return theClass;
+	}
+	
+	/**
+	 * Returns the cache of instrumented classes, or null if it is disabled.
+	 * There is one cache per structure database, as the instrumented bytecode 
+	 * embeds ids of that database.
+	 */
+	private synchronized InstrumentedClassCache getCache()
+	{
+		if (! itsCacheCreated)
+		{
+			if (itsConfig.get(TODConfig.INSTRUMENTER_SERVER_CACHE))
+			{
+				File theFile = new File(
+						itsConfig.get(TODConfig.CLASS_CACHE_PATH), 
+						"instrumented" + File.separatorChar + itsDatabase.getId());
+				
+				itsCache = new InstrumentedClassCache(theFile);
+			}
+			itsCacheCreated = true;
+		}
+		return itsCache;
+	}
+	
+	/**
+	 * Returns a digest of everything besides the original bytecode that
+	 * influences the instrumentation of a class.
+	 */
+	private String getContextDigest(boolean aUseJava14)
+	{
+		StringBuilder theContext = new StringBuilder();
+		theContext.append(VERSION).append('|');
+		theContext.append(aUseJava14).append('|');
+		theContext.append(DebugFlags.USE_VALUE_PREDICTION).append('|');
+		theContext.append(itsConfig.get(TODConfig.SCOPE_GLOBAL_FILTER)).append('|');
+		theContext.append(itsConfig.get(TODConfig.SCOPE_TRACE_FILTER)).append('|');
+		theContext.append(itsConfig.get(TODConfig.SCOPE_ID_FILTER));
+		return Utils.md5String(theContext.toString().getBytes());
+	}
+	
+	/**
+	 * Checks that a cached entry still matches the structure database: the class
+	 * it was generated for must exist with the same id, name and checksum.
+	 */
+	private boolean isValid(InstrumentedClass aClass, String aClassName, String aChecksum)
+	{
+		synchronized (itsDatabase)
+		{
+			IClassInfo theClass = itsDatabase.getClass(aClass.id, false);
+			return theClass != null
+				&& theClass.getName().equals(Util.jvmToScreen(aClassName))
+				&& aChecksum.equals(theClass.getChecksum());
+		}
 	}
 }
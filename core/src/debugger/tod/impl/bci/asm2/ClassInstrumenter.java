@@ -121,24 +121,29 @@ public class ClassInstrumenter
 		
 		if (! itsName.equals(itsNode.name)) Utils.rtex("Internal error - %s != %s", itsName, itsNode.name);
 		
-		itsClassInfo = getDatabase().getNewClass(Util.jvmToScreen(aName));
-		itsSuperclass = itsInterface || itsNode.superName == null ? 
-				null
-				: getDatabase().getNewClass(Util.jvmToScreen(itsNode.superName));
+		String theChecksum = Utils.md5String(aBytecode);
 		
-		itsInterfaces = new IClassInfo[itsNode.interfaces != null ? itsNode.interfaces.size() : 0];
-		if (itsNode.interfaces != null) for (int i = 0; i < itsNode.interfaces.size(); i++)
+		synchronized (getDatabase())
 		{
-			String theInterface = (String) itsNode.interfaces.get(i);
-			itsInterfaces[i] = getDatabase().getNewClass(Util.jvmToScreen(theInterface));
+			itsClassInfo = getDatabase().getNewClass(Util.jvmToScreen(aName));
+			itsSuperclass = itsInterface || itsNode.superName == null ? 
+					null
+					: getDatabase().getNewClass(Util.jvmToScreen(itsNode.superName));
+			
+			itsInterfaces = new IClassInfo[itsNode.interfaces != null ? itsNode.interfaces.size() : 0];
+			if (itsNode.interfaces != null) for (int i = 0; i < itsNode.interfaces.size(); i++)
+			{
+				String theInterface = (String) itsNode.interfaces.get(i);
+				itsInterfaces[i] = getDatabase().getNewClass(Util.jvmToScreen(theInterface));
+			}
+			
+			itsClassInfo.setup(
+					itsInterface, 
+					getDatabase().isInScope(itsName), 
+					theChecksum, 
+					itsInterfaces, 
+					itsSuperclass);
 		}
-		
-		itsClassInfo.setup(
-				itsInterface, 
-				getDatabase().isInScope(itsName), 
-				Utils.md5String(aBytecode), 
-				itsInterfaces, 
-				itsSuperclass);
 	}
 	
 	public ASMInstrumenter2 getInstrumenter()
@@ -156,21 +161,30 @@ public class ClassInstrumenter
 		return itsNode;
 	}
 	
+	/**
+	 * Instruments the class.
+	 * Several classes can be instrumented concurrently: the steps that access the 
+	 * structure database hold its lock, while parsing, bytecode generation 
+	 * and verification are done outside of it.
+	 */
 	public InstrumentedClass proceed()
 	{
-		if (TODACCESSOR_CLASSNAME.equals(getNode().name)) processTODAccessor();
-		else processNormalClass();
-		
-		if (BCIUtils.CLS_OBJECT.equals(getNode().name)) 
+		synchronized (getDatabase())
 		{
-			addGetIdMethod_Root();
-			addResetIdMethod_Root();
-			addBootstrapField();
-//			addObjectRawAccess();
+			if (TODACCESSOR_CLASSNAME.equals(getNode().name)) processTODAccessor();
+			else processNormalClass();
+			
+			if (BCIUtils.CLS_OBJECT.equals(getNode().name)) 
+			{
+				addGetIdMethod_Root();
+				addResetIdMethod_Root();
+				addBootstrapField();
+//				addObjectRawAccess();
+			}
+			else if (BCIUtils.CLS_CLASS.equals(getNode().name)) addGetClsIdMethod();
+			else if (BCIUtils.CLS_STRING.equals(getNode().name)) addStringRawAccess();
+			else if (BCIUtils.CLS_THREAD.equals(getNode().name)) addThreadAccess();
 		}
-		else if (BCIUtils.CLS_CLASS.equals(getNode().name)) addGetClsIdMethod();
-		else if (BCIUtils.CLS_STRING.equals(getNode().name)) addStringRawAccess();
-		else if (BCIUtils.CLS_THREAD.equals(getNode().name)) addThreadAccess();
 		
 		// Output the modified class
 		ClassWriter theWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
@@ -191,12 +205,15 @@ public class ClassInstrumenter
 			e.printStackTrace();
 		}
 				
-		itsClassInfo.setBytecode(theBytecode, itsOriginal);
-		
-		return new InstrumentedClass(
-				itsClassInfo.getId(),
-				theBytecode, 
-				createClassInfo());
+		synchronized (getDatabase())
+		{
+			itsClassInfo.setBytecode(theBytecode, itsOriginal);
+			
+			return new InstrumentedClass(
+					itsClassInfo.getId(),
+					theBytecode, 
+					createClassInfo());
+		}
 	}
 	
 	private byte[] createClassInfo()
@@ -0,0 +1,229 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package tod.impl.bci.asm2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import tod.core.bci.IInstrumenter.InstrumentedClass;
+import zz.utils.Utils;
+
+/**
+ * A persistent, content-addressed cache of instrumented classes.
+ * Entries are keyed by a digest of the original bytecode and of the
+ * instrumentation context (see {@link ASMInstrumenter2}), so that a class
+ * loaded by several VMs is only instrumented once.
+ * <p>
+ * Instrumented bytecode refers to ids of the structure database, so a cache
+ * file must only be used with the database it was created for, and entries
+ * must be checked against that database before being used.
+ * <p>
+ * The file is an append-only sequence of records, each protected by a CRC.
+ * Only the offsets of the records are kept in memory.
+ * A truncated trailing record (eg. after a crash) is discarded.
+ * @author gpothier
+ */
+public class InstrumentedClassCache
+{
+	private static final int MAGIC = 0x70dcc;
+	private static final int VERSION = 1;
+
+	private final RandomAccessFile itsFile;
+
+	/**
+	 * Offset of the payload of each record, by key.
+	 */
+	private final Map<String, Long> itsOffsets = new HashMap<String, Long>();
+
+	private int itsHits = 0;
+	private int itsMisses = 0;
+	private int itsCorrupted = 0;
+
+	public InstrumentedClassCache(File aFile)
+	{
+		try
+		{
+			aFile.getParentFile().mkdirs();
+			itsFile = new RandomAccessFile(aFile, "rw");
+			load();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void load() throws IOException
+	{
+		long theSize = itsFile.length();
+		if (theSize >= 8)
+		{
+			itsFile.seek(0);
+			if (itsFile.readInt() == MAGIC && itsFile.readInt() == VERSION)
+			{
+				long thePos = itsFile.getFilePointer();
+				try
+				{
+					while(thePos < theSize)
+					{
+						String theKey = itsFile.readUTF();
+						itsFile.readInt(); // CRC
+						int theLength = itsFile.readInt();
+						long thePayload = itsFile.getFilePointer();
+						if (theLength < 0 || thePayload + theLength > theSize) break;
+
+						itsOffsets.put(theKey, thePayload);
+						thePos = thePayload + theLength;
+						itsFile.seek(thePos);
+					}
+				}
+				catch (EOFException e)
+				{
+					// Truncated record
+				}
+
+				if (thePos < theSize)
+				{
+					Utils.println("Instrumented class cache: discarding %d trailing bytes", theSize-thePos);
+					itsFile.setLength(thePos);
+				}
+				return;
+			}
+
+			// Different format: start over
+			itsOffsets.clear();
+		}
+
+		itsFile.setLength(0);
+		itsFile.writeInt(MAGIC);
+		itsFile.writeInt(VERSION);
+	}
+
+	/**
+	 * Returns the cached instrumented class for the given key, or null.
+	 */
+	public synchronized InstrumentedClass get(String aKey)
+	{
+		Long theOffset = itsOffsets.get(aKey);
+		if (theOffset == null)
+		{
+			itsMisses++;
+			return null;
+		}
+
+		try
+		{
+			itsFile.seek(theOffset-8);
+			int theCRC = itsFile.readInt();
+			byte[] thePayload = new byte[itsFile.readInt()];
+			itsFile.readFully(thePayload);
+
+			if (crc(thePayload) != theCRC)
+			{
+				itsCorrupted++;
+				itsOffsets.remove(aKey);
+				return null;
+			}
+
+			itsHits++;
+			return decode(thePayload);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Adds an entry to the cache, and appends it to the cache file.
+	 */
+	public synchronized void put(String aKey, InstrumentedClass aClass)
+	{
+		try
+		{
+			byte[] thePayload = encode(aClass);
+
+			ByteArrayOutputStream theOut = new ByteArrayOutputStream(thePayload.length + aKey.length() + 16);
+			DataOutputStream theData = new DataOutputStream(theOut);
+			theData.writeUTF(aKey);
+			theData.writeInt(crc(thePayload));
+			theData.writeInt(thePayload.length);
+			theData.flush();
+
+			long theOffset = itsFile.length();
+			itsFile.seek(theOffset);
+			itsFile.write(theOut.toByteArray());
+			itsFile.write(thePayload);
+
+			itsOffsets.put(aKey, theOffset + theOut.size());
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] encode(InstrumentedClass aClass) throws IOException
+	{
+		ByteArrayOutputStream theOut = new ByteArrayOutputStream(aClass.bytecode.length + aClass.info.length + 12);
+		DataOutputStream theData = new DataOutputStream(theOut);
+		theData.writeInt(aClass.id);
+		theData.writeInt(aClass.bytecode.length);
+		theData.write(aClass.bytecode);
+		theData.writeInt(aClass.info.length);
+		theData.write(aClass.info);
+		theData.flush();
+		return theOut.toByteArray();
+	}
+
+	private static InstrumentedClass decode(byte[] aPayload) throws IOException
+	{
+		DataInputStream theData = new DataInputStream(new ByteArrayInputStream(aPayload));
+		int theId = theData.readInt();
+		byte[] theBytecode = new byte[theData.readInt()];
+		theData.readFully(theBytecode);
+		byte[] theInfo = new byte[theData.readInt()];
+		theData.readFully(theInfo);
+		return new InstrumentedClass(theId, theBytecode, theInfo);
+	}
+
+	private static int crc(byte[] aData)
+	{
+		CRC32 theCRC = new CRC32();
+		theCRC.update(aData);
+		return (int) theCRC.getValue();
+	}
+
+	public int getHits()
+	{
+		return itsHits;
+	}
+
+	public int getMisses()
+	{
+		return itsMisses;
+	}
+
+	/**
+	 * Number of entries whose payload did not match their CRC.
+	 */
+	public int getCorrupted()
+	{
+		return itsCorrupted;
+	}
+
+	public synchronized int size()
+	{
+		return itsOffsets.size();
+	}
+}
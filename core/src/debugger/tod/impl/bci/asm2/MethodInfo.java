@@ -69,6 +69,7 @@ import tod.core.database.structure.IMutableClassInfo;
 import tod.core.database.structure.IMutableStructureDatabase;
 import tod.core.database.structure.IStructureDatabase;
 import tod.core.database.structure.ITypeInfo;
+import tod2.agent.AgentConfig;
 import zz.utils.ArrayStack;
 import zz.utils.ListMap;
 import zz.utils.Stack;
@@ -120,6 +121,12 @@ public class MethodInfo
 	private Map<TypeInsnNode, NewInvokeLink> itsInvokeNewLinks;
 	
 	private int itsMaxNewInvokeNesting = 0;
+	
+	/**
+	 * Maps primitive field and array read instructions to their rank in the method,
+	 * see {@link #getPredictionSlot(int, AbstractInsnNode)}.
+	 */
+	private Map<AbstractInsnNode, Integer> itsReadSites;
 
 	public MethodInfo(IStructureDatabase aDatabase, String aClassName, MethodNode aMethodNode)
 	{
@@ -130,6 +137,7 @@ public class MethodInfo
 		mapSelfAccesses();
 		setupChainingInvocation();
 		setupNewInvokeLinks();
+		if (DebugFlags.USE_VALUE_PREDICTION) setupReadSites();
 	}
 
 	public String getClassName()
@@ -267,6 +275,59 @@ public class MethodInfo
 	}
 	
 	
+	/**
+	 * Whether the given instruction is a read whose value is predicted
+	 * when {@link DebugFlags#USE_VALUE_PREDICTION} is set: a field or array read 
+	 * of a primitive type.
+	 */
+	public static boolean isPredictedRead(AbstractInsnNode aNode)
+	{
+		switch(aNode.getOpcode())
+		{
+		case Opcodes.GETFIELD:
+		case Opcodes.GETSTATIC:
+			int theSort = Type.getType(((FieldInsnNode) aNode).desc).getSort();
+			return theSort != Type.OBJECT && theSort != Type.ARRAY;
+			
+		case Opcodes.IALOAD:
+		case Opcodes.LALOAD:
+		case Opcodes.FALOAD:
+		case Opcodes.DALOAD:
+		case Opcodes.BALOAD:
+		case Opcodes.CALOAD:
+		case Opcodes.SALOAD:
+			return true;
+			
+		default:
+			return false;
+		}
+	}
+	
+	private void setupReadSites()
+	{
+		itsReadSites = new HashMap<AbstractInsnNode, Integer>();
+		
+		int theRank = 0;
+		ListIterator<AbstractInsnNode> theIterator = getMethodNode().instructions.iterator();
+		while(theIterator.hasNext()) 
+		{
+			AbstractInsnNode theNode = theIterator.next();
+			if (isPredictedRead(theNode)) itsReadSites.put(theNode, theRank++);
+		}
+	}
+	
+	/**
+	 * Returns the slot of the value prediction table used by the given read instruction.
+	 * Reads of a same behavior use consecutive slots, starting at a slot derived from 
+	 * the behavior id. The instrumenter and the replayer must compute the same slots.
+	 * @param aBehaviorId Id of the behavior that contains the instruction.
+	 */
+	public int getPredictionSlot(int aBehaviorId, AbstractInsnNode aNode)
+	{
+		int theBase = (aBehaviorId * 0x9e3779b1) >>> (32 - AgentConfig.VALUE_PREDICTION_BITS);
+		return (theBase + itsReadSites.get(aNode)) & AgentConfig.VALUE_PREDICTION_MASK;
+	}
+	
 	private void setupFrames()
 	{
 		itsFramesMap = new HashMap<AbstractInsnNode, BCIFrame>();
@@ -510,10 +510,38 @@ public class MethodInstrumenter_InScope extends MethodInstrumenter
 	private void processGetField(FieldInsnNode aNode)
 	{
 	    if (NO_FIELD_CAPTURE) return;
-		if (DebugFlags.USE_FIELD_CACHE) processGetField_Cache(aNode);
+		if (DebugFlags.USE_VALUE_PREDICTION && MethodInfo.isPredictedRead(aNode)) processRead_Predict(aNode, Type.getType(aNode.desc), "evFieldRead_Predict");
+		else if (DebugFlags.USE_FIELD_CACHE) processGetField_Cache(aNode);
 		else processGetField_NoCache(aNode);
 	}
 	
+	/**
+	 * Instruments a primitive field or array read whose value is predicted
+	 * (see {@link DebugFlags#USE_VALUE_PREDICTION}): the value is sent only 
+	 * if ThreadData does not find it in its prediction table.
+	 * @param aEventMethod Either evFieldRead_Predict or evArrayRead_Predict
+	 */
+	private void processRead_Predict(AbstractInsnNode aNode, Type aType, String aEventMethod)
+	{
+		SyntaxInsnList s = new SyntaxInsnList();
+		Label lNoSend = new Label();
+		
+		s.ISTORE(aType, itsTmpValueVar);
+		
+		s.ALOAD(getThreadDataVar());
+		s.pushInt(itsMethodInfo.getPredictionSlot(getBehavior().getId(), aNode));
+		s.ILOAD(aType, itsTmpValueVar);
+		s.toLongBits(aType);
+		s.INVOKEVIRTUAL(BCIUtils.CLS_THREADDATA, aEventMethod, "(IJ)Z");
+		s.IFfalse(lNoSend);
+		sendValue(s, itsTmpValueVar, aType);
+		s.label(lNoSend);
+		
+		s.ILOAD(aType, itsTmpValueVar);
+		
+		insertAfter(aNode, s);
+	}
+	
 	private void processGetField_NoCache(FieldInsnNode aNode)
 	{
 		SyntaxInsnList s = new SyntaxInsnList();
@@ -634,8 +662,14 @@ public class MethodInstrumenter_InScope extends MethodInstrumenter
 	
 	private void processGetArray(InsnNode aNode)
 	{
-		SyntaxInsnList s = new SyntaxInsnList();
 		Type theType = BCIUtils.getType(BCIUtils.getSort(aNode.getOpcode()), BCIUtils.TYPE_OBJECT);
+		if (DebugFlags.USE_VALUE_PREDICTION && MethodInfo.isPredictedRead(aNode)) 
+		{
+			processRead_Predict(aNode, theType, "evArrayRead_Predict");
+			return;
+		}
+		
+		SyntaxInsnList s = new SyntaxInsnList();
 
 		s.ALOAD(getThreadDataVar()); 
 		s.INVOKEVIRTUAL(BCIUtils.CLS_THREADDATA, "evArrayRead", "()V"); 
@@ -208,6 +208,86 @@ public class SyntaxInsnList extends InsnList
 		}
 	}
 	
+	/**
+	 * Generates the bytecode that converts the primitive value of the given type 
+	 * on top of the stack to its raw bits, as a long.
+	 * @see #fromLongBits(Type)
+	 */
+	public void toLongBits(Type aType)
+	{
+		switch(aType.getSort())
+		{
+		case Type.BOOLEAN:
+		case Type.BYTE:
+		case Type.CHAR:
+		case Type.SHORT:
+		case Type.INT:
+			I2L();
+			break;
+			
+		case Type.FLOAT:
+			INVOKESTATIC("java/lang/Float", "floatToRawIntBits", "(F)I");
+			I2L();
+			break;
+			
+		case Type.LONG:
+			break;
+			
+		case Type.DOUBLE:
+			INVOKESTATIC("java/lang/Double", "doubleToRawLongBits", "(D)J");
+			break;
+
+		default:
+		    throw new RuntimeException("Not handled: "+aType);
+		}
+	}
+	
+	/**
+	 * Generates the bytecode that converts the raw bits on top of the stack 
+	 * back to a primitive value of the given type.
+	 * @see #toLongBits(Type)
+	 */
+	public void fromLongBits(Type aType)
+	{
+		switch(aType.getSort())
+		{
+		case Type.BOOLEAN:
+		case Type.INT:
+			L2I();
+			break;
+			
+		case Type.BYTE:
+			L2I();
+			I2B();
+			break;
+			
+		case Type.CHAR:
+			L2I();
+			I2C();
+			break;
+			
+		case Type.SHORT:
+			L2I();
+			I2S();
+			break;
+			
+		case Type.FLOAT:
+			L2I();
+			INVOKESTATIC("java/lang/Float", "intBitsToFloat", "(I)F");
+			break;
+			
+		case Type.LONG:
+			break;
+			
+		case Type.DOUBLE:
+			INVOKESTATIC("java/lang/Double", "longBitsToDouble", "(J)D");
+			break;
+			
+		default:
+			throw new RuntimeException("Not handled: "+aType);
+		}
+	}
+	
 	/*
 	 * LDC
 	 */
@@ -0,0 +1,150 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import tod2.agent.Message;
+
+/**
+ * Follows the packet structure of the raw event stream of a host as it is 
+ * received, so that the stream can be split between packets 
+ * (see {@link Recorder}). Only packet headers are decoded.
+ * @author gpothier
+ */
+public class PacketBoundaryTracker
+{
+	/**
+	 * Header sizes: type, thread id and length for thread packets; 
+	 * type, object id and string length for string packets.
+	 * String alias packets only have a header: type, object id and content id.
+	 */
+	private static final int THREAD_HEADER_SIZE = 9;
+	private static final int STRING_HEADER_SIZE = 13;
+	private static final int STRING_ALIAS_SIZE = 17;
+	
+	/**
+	 * Number of bytes seen so far.
+	 */
+	private long itsPosition = 0;
+	
+	/**
+	 * End of the current packet, or -1 if its header is not complete.
+	 */
+	private long itsPacketEnd = 0;
+	
+	private final byte[] itsHeader = new byte[STRING_ALIAS_SIZE];
+	private int itsHeaderSize = 0;
+	
+	/**
+	 * Number of bytes seen so far.
+	 */
+	public long getPosition()
+	{
+		return itsPosition;
+	}
+	
+	/**
+	 * Processes the bytes of the given buffer between the given positions, 
+	 * stopping at the first packet boundary that is at or after the given stream offset.
+	 * @return The position of that boundary in the buffer (possibly aTo), 
+	 * or -1 if there is no such boundary in the given range.
+	 */
+	public int advance(ByteBuffer aBuffer, int aFrom, int aTo, long aMinBoundary) throws IOException
+	{
+		int thePos = aFrom;
+		while(true)
+		{
+			if (itsPosition == itsPacketEnd)
+			{
+				if (itsPosition >= aMinBoundary) return thePos;
+				itsPacketEnd = -1;
+				itsHeaderSize = 0;
+			}
+			
+			if (thePos == aTo) return -1;
+			
+			if (itsPacketEnd == -1)
+			{
+				itsHeader[itsHeaderSize++] = aBuffer.get(thePos++);
+				itsPosition++;
+				itsPacketEnd = getPacketEnd();
+			}
+			else
+			{
+				int theCount = (int) Math.min(aTo - thePos, itsPacketEnd - itsPosition);
+				thePos += theCount;
+				itsPosition += theCount;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the end of the current packet if its header is complete, -1 otherwise.
+	 */
+	private long getPacketEnd() throws IOException
+	{
+		long theStart = itsPosition - itsHeaderSize;
+		switch(itsHeader[0])
+		{
+		case Message.PACKET_TYPE_THREAD:
+			if (itsHeaderSize < THREAD_HEADER_SIZE) return -1;
+			return theStart + THREAD_HEADER_SIZE + getInt(5);
+			
+		case Message.PACKET_TYPE_STRING:
+			if (itsHeaderSize < STRING_HEADER_SIZE) return -1;
+			return theStart + STRING_HEADER_SIZE + 2L*getInt(9);
+			
+		case Message.PACKET_TYPE_STRING_LATIN1:
+			if (itsHeaderSize < STRING_HEADER_SIZE) return -1;
+			return theStart + STRING_HEADER_SIZE + getInt(9);
+			
+		case Message.PACKET_TYPE_STRING_ALIAS:
+			if (itsHeaderSize < STRING_ALIAS_SIZE) return -1;
+			return theStart + STRING_ALIAS_SIZE;
+			
+		default: throw new IOException("Bad packet type at offset "+theStart+": "+itsHeader[0]);
+		}
+	}
+	
+	/**
+	 * Reads a little-endian int from the header.
+	 */
+	private int getInt(int aOffset)
+	{
+		return (itsHeader[aOffset] & 0xff)
+			| ((itsHeader[aOffset+1] & 0xff) << 8)
+			| ((itsHeader[aOffset+2] & 0xff) << 16)
+			| ((itsHeader[aOffset+3] & 0xff) << 24);
+	}
+}
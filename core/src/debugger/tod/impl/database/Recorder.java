@@ -25,58 +25,119 @@ import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import tod.core.DebugFlags;
 import tod.core.config.TODConfig;
 import tod.impl.bci.asm2.ASMInstrumenter2;
 import tod.impl.database.structure.standard.StructureDatabase;
+import tod.impl.server.CompressedTraceInput;
 import tod.impl.server.NativeAgentPeer;
+import tod.impl.server.TraceManifest;
+import tod.impl.server.TraceManifest.Segment;
 import tod.utils.ByteBuffer;
 import tod2.agent.AgentConfig;
+import tod2.agent.Command;
 import zz.utils.Utils;
 import zz.utils.net.Server;
 
 /**
- * A process that accepts connections from a debugged VM and writes the trace to a file.
+ * A process that accepts connections from debugged VMs and writes the trace to files.
+ * Several VMs can be recorded at the same time: the events of each VM are written
+ * to a separate segment by a {@link SegmentWriter}, and the segments are listed in 
+ * a {@link TraceManifest}. The process exits when all the VMs have disconnected.
+ * <p>
+ * For continuous recording, the stream of a VM can be split into segments of bounded 
+ * size ({@link TODConfig#DB_RAW_SEGMENT_SIZE}), cut between packets. The oldest 
+ * segments are then deleted according to the retention limits 
+ * ({@link TODConfig#DB_RAW_RETENTION_SIZE}, {@link TODConfig#DB_RAW_RETENTION_TIME}),
+ * which are checked whenever a segment is completed. The agent is told to clear its
+ * string cache when a segment starts, so that string aliases do not refer to strings
+ * of dropped segments (see {@link Command#AGCMD_CLEAR_STRING_CACHE}).
+ * <p>
+ * Each VM is assigned a host id when its native agent connects. Thread and object
+ * ids of different VMs are only disjoint if the host-bits property is set 
+ * (see {@link AgentConfig#HOST_BITS}).
  * @author gpothier
  */
 public class Recorder extends Server
 {
+	/**
+	 * Size of the direct buffers used to write segments.
+	 */
+	private static final int BUFFER_SIZE = 4*1024*1024;
+	
+	/**
+	 * Number of buffers per segment.
+	 */
+	private static final int BUFFER_COUNT = 4;
+	
+	/**
+	 * Maximum time to wait for the native connection of a VM when its
+	 * java connection arrives.
+	 */
+	private static final long NATIVE_WAIT_TIMEOUT = 10000;
+	
+	private static final long MB = 1024*1024;
+	
 	private static final TODConfig itsConfig = new TODConfig(); 
 	
 	private final StructureDatabase itsStructureDatabase;
 	private ASMInstrumenter2 itsInstrumenter;
 	
-	private final File itsEventsFile;
-	private final OutputStream itsFileOut;
+	private final File itsDirectory;
+	private final TraceManifest itsManifest = new TraceManifest();
+	private int itsNextSegmentIndex = 0;
 	
-	private boolean itsJavaConnected = false;
-	private boolean itsNativeConnected = false;
+	/**
+	 * Host ids assigned to native connections, by host name.
+	 */
+	private final Map<String, Integer> itsHostIds = new HashMap<String, Integer>();
+	private int itsNextHostId = 1;
+	
+	/**
+	 * Number of java connections that are currently open.
+	 */
+	private int itsActiveClients = 0;
 
-	public Recorder() throws FileNotFoundException
+	public Recorder() throws IOException
 	{
 		super(itsConfig.getPort(), false, DebugFlags.TOD_SERVER_DAEMON);
 
-		itsEventsFile = new File(itsConfig.get(TODConfig.DB_RAW_EVENTS_DIR)+"/events.raw");
-		itsEventsFile.delete();
-		itsEventsFile.getParentFile().mkdirs();
+		itsDirectory = new File(itsConfig.get(TODConfig.DB_RAW_EVENTS_DIR));
+		itsDirectory.mkdirs();
+		deletePreviousTrace();
+		itsManifest.save(itsDirectory);
 		
 		String theScopeMD5 = Utils.md5String(itsConfig.get(TODConfig.SCOPE_TRACE_FILTER).getBytes());
 		File theDbFile = new File(itsConfig.get(TODConfig.DB_RAW_EVENTS_DIR)+"/db-"+theScopeMD5+".raw");
 		
-		itsFileOut = new BufferedOutputStream(new FileOutputStream(itsEventsFile));
-		
 		itsStructureDatabase = StructureDatabase.create(itsConfig, theDbFile, false);
 		itsInstrumenter = new ASMInstrumenter2(itsConfig, itsStructureDatabase);
 		
 		start();
 	}
 	
+	/**
+	 * Deletes the segments of the previous recording, if any, and
+	 * the legacy single-file trace.
+	 */
+	private void deletePreviousTrace() throws IOException
+	{
+		TraceManifest thePrevious = TraceManifest.load(itsDirectory);
+		if (thePrevious != null) 
+		{
+			for (Segment theSegment : thePrevious.getSegments()) theSegment.getFile(itsDirectory).delete();
+		}
+		new File(itsDirectory, "events.raw").delete();
+	}
+	
 	@Override
 	protected void accepted(Socket aSocket)
 	{
@@ -96,18 +157,117 @@ public class Recorder extends Server
 	
 	protected synchronized void acceptJavaConnection(Socket aSocket) throws IOException
 	{
-		if (itsJavaConnected) throw new RuntimeException("A client is already connected");
-		itsJavaConnected = true;
-		
+		itsActiveClients++;
 		new MyReceiver(aSocket).start();
 	}
 	
 	protected synchronized void acceptNativeConnection(final Socket aSocket)
 	{
-		if (itsNativeConnected) throw new RuntimeException("A client is already connected");
-		itsNativeConnected = true;
+		final int theHostId = itsNextHostId++;
+		if (theHostId > 1 && AgentConfig.HOST_BITS == 0)
+		{
+			Utils.println("Warning: host-bits is 0, thread and object ids of different hosts will collide.");
+		}
+		
+		final NativeAgentPeer thePeer = new MyNativePeer(aSocket, theHostId);
+		
+		Thread theThread = new Thread("Connection peering")
+		{
+			@Override
+			public void run()
+			{
+				thePeer.waitConfigured();
+				registerHost(thePeer.getHostName(), theHostId);
+			}
+		};
+		theThread.setDaemon(true);
+		theThread.start();
+	}
+	
+	private synchronized void registerHost(String aHostName, int aHostId)
+	{
+		if (itsHostIds.containsKey(aHostName)) throw new RuntimeException("Host already connected: "+aHostName);
+		itsHostIds.put(aHostName, aHostId);
+		notifyAll();
+	}
+	
+	/**
+	 * Returns the id assigned to the native connection of the given host, 
+	 * waiting for the connection if necessary.
+	 * @return The host id, or 0 if the host has no native connection.
+	 */
+	private synchronized int getHostId(String aHostName) throws InterruptedException
+	{
+		long theDeadline = System.currentTimeMillis()+NATIVE_WAIT_TIMEOUT;
+		while(true)
+		{
+			Integer theHostId = itsHostIds.get(aHostName);
+			if (theHostId != null) return theHostId;
+			
+			long theRemaining = theDeadline-System.currentTimeMillis();
+			if (theRemaining <= 0) break;
+			wait(theRemaining);
+		}
+		
+		Utils.println("Warning: no native connection for host %s", aHostName);
+		return 0;
+	}
+	
+	private synchronized Segment createSegment(String aHostName, int aHostId) throws IOException
+	{
+		int theIndex = itsNextSegmentIndex++;
+		Segment theSegment = itsManifest.addSegment("events-"+theIndex+".raw", aHostId, aHostName);
+		itsManifest.save(itsDirectory);
+		return theSegment;
+	}
+	
+	/**
+	 * Called when a segment is complete, either because the java connection of the 
+	 * host terminated, or because the segment reached its maximum size.
+	 */
+	private synchronized void segmentComplete(Segment aSegment, long aSize) throws IOException
+	{
+		aSegment.setComplete(aSize);
 		
-		new MyNativePeer(aSocket, 1);
+		long theMaxAge = itsConfig.get(TODConfig.DB_RAW_RETENTION_TIME)*60*1000L;
+		List<Segment> theDropped = itsManifest.applyRetention(
+				itsConfig.get(TODConfig.DB_RAW_RETENTION_SIZE)*MB, 
+				theMaxAge > 0 ? System.currentTimeMillis()-theMaxAge : 0);
+		
+		itsManifest.save(itsDirectory);
+		
+		// Delete files after the manifest no longer refers to them
+		for (Segment theSegment : theDropped) 
+		{
+			Utils.println("Dropping segment %s (%d bytes)", theSegment.getFileName(), theSegment.getSize());
+			CompressedTraceInput.forget(theSegment.getFile(itsDirectory));
+			theSegment.getFile(itsDirectory).delete();
+		}
+	}
+	
+	/**
+	 * Called when the java connection of a host terminates.
+	 */
+	private synchronized void clientDisconnected() throws IOException
+	{
+		itsActiveClients--;
+		if (itsActiveClients == 0)
+		{
+			System.out.println("Recorded "+itsManifest.getSegments().size()+" segment(s), "+itsManifest.getTotalSize()+" bytes");
+			itsStructureDatabase.save();
+			System.out.println("Saved structure database, exiting.");
+			System.exit(0);
+		}
+	}
+	
+	private SegmentWriter createWriter(Segment aSegment) throws IOException
+	{
+		return new SegmentWriter(
+				aSegment.getFile(itsDirectory), 
+				aSegment, 
+				BUFFER_SIZE, 
+				BUFFER_COUNT,
+				itsConfig.get(TODConfig.DB_RAW_COMPRESS));
 	}
 	
 	private class MyNativePeer extends NativeAgentPeer
@@ -135,6 +295,7 @@ public class Recorder extends Server
 		
 		public MyReceiver(Socket aSocket) throws IOException
 		{
+			super("Recorder receiver");
 			itsDataIn = new DataInputStream(new BufferedInputStream(aSocket.getInputStream()));
 			itsDataOut = new DataOutputStream(new BufferedOutputStream(aSocket.getOutputStream()));
 		}
@@ -145,16 +306,27 @@ public class Recorder extends Server
 			try
 			{
 				String theHostName = ByteBuffer.getString(itsDataIn);
-				System.out.println("Received hostname: "+theHostName);
+				int theHostId = getHostId(theHostName);
+				System.out.println("Received hostname: "+theHostName+" (host id "+theHostId+")");
+				
+				Segment theSegment = createSegment(theHostName, theHostId);
+				SegmentWriter theWriter = createWriter(theSegment);
+				long theTotalSize = 0;
+				
+				// Rolling: offset of the start of the current segment in the stream of the host
+				long theSegmentSize = itsConfig.get(TODConfig.DB_RAW_SEGMENT_SIZE)*MB;
+				PacketBoundaryTracker theTracker = theSegmentSize > 0 ? new PacketBoundaryTracker() : null;
+				long theSegmentStart = 0;
+				int theScanned = 0;
 				
-				long theCount = 0;
-				byte[] theBuffer = new byte[4096];
+				ReadableByteChannel theChannel = Channels.newChannel(itsDataIn);
+				java.nio.ByteBuffer theBuffer = theWriter.acquire();
 				while(true)
 				{
 					int theRead;
 					try
 					{
-						theRead = itsDataIn.read(theBuffer);
+						theRead = theChannel.read(theBuffer);
 					}
 					catch (IOException e)
 					{
@@ -162,36 +334,82 @@ public class Recorder extends Server
 						theRead = -1;
 					}
 					
-					if (theRead == 0) continue;
-					else if (theRead > 0) 
+					if (theRead < 0) break;
+					
+					// Start a new segment at the first packet boundary past the maximum size
+					while(theTracker != null)
 					{
-						itsFileOut.write(theBuffer, 0, theRead);
-						theCount += theRead;
+						int theBoundary = theTracker.advance(
+								theBuffer, 
+								theScanned, 
+								theBuffer.position(), 
+								theSegmentStart + theSegmentSize);
+						
+						if (theBoundary < 0) 
+						{
+							theScanned = theBuffer.position();
+							break;
+						}
+						
+						Segment theNextSegment = createSegment(theHostName, theHostId);
+						SegmentWriter theNextWriter = createWriter(theNextSegment);
+						java.nio.ByteBuffer theNextBuffer = theNextWriter.acquire();
+						
+						// Move the data that follows the boundary to the next segment
+						java.nio.ByteBuffer theRest = theBuffer.duplicate();
+						theRest.limit(theBuffer.position());
+						theRest.position(theBoundary);
+						theNextBuffer.put(theRest);
+						theBuffer.position(theBoundary);
+						
+						theWriter.submit(theBuffer);
+						long theSize = theWriter.finish();
+						theTotalSize += theSize;
+						segmentComplete(theSegment, theSize);
+						
+						theSegment = theNextSegment;
+						theWriter = theNextWriter;
+						theBuffer = theNextBuffer;
+						theSegmentStart = theTracker.getPosition();
+						theScanned = 0;
+						
+						// String aliases must not refer to strings of segments that might be dropped
+						itsDataOut.writeByte(Command.AGCMD_CLEAR_STRING_CACHE);
+						itsDataOut.flush();
 					}
-					else
+					
+					// Hand the buffer over when it is full, or when the client is idle
+					if (! theBuffer.hasRemaining() || (theRead > 0 && itsDataIn.available() == 0))
 					{
-						itsDataIn.close();
-						itsDataOut.close();
-						break;
+						theWriter.submit(theBuffer);
+						theBuffer = theWriter.acquire();
+						theScanned = 0;
 					}
 				}
 				
-				itsFileOut.flush();
-				itsFileOut.close();
-				System.out.println("Received "+theCount+" bytes");
+				if (theBuffer.position() > 0) theWriter.submit(theBuffer);
+				itsDataIn.close();
+				itsDataOut.close();
+				
+				long theSize = theWriter.finish();
+				theTotalSize += theSize;
+				System.out.println("Received "+theTotalSize+" bytes from "+theHostName);
 				
-				itsStructureDatabase.save();
-				System.out.println("Saved structure database, exiting.");
-				System.exit(0);
+				segmentComplete(theSegment, theSize);
+				clientDisconnected();
 			}
 			catch (IOException e)
 			{
 				throw new RuntimeException(e);
 			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
 		}
 	}
 
-	public static void main(String[] args) throws FileNotFoundException
+	public static void main(String[] args) throws IOException
 	{
 		new Recorder();
 		System.out.println("Ready.");
@@ -0,0 +1,196 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.database;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import tod.impl.server.CompressedTraceOutput;
+import tod.impl.server.TraceManifest.Segment;
+
+/**
+ * Writes the raw events of a host to its segment file in a dedicated thread,
+ * so that receiving from the socket and writing to the disk overlap.
+ * Data is passed through a fixed pool of large direct buffers: the receiver 
+ * fills a buffer obtained with {@link #acquire()} and hands it over with {@link #submit(ByteBuffer)}.
+ * When all the buffers are queued, the receiver blocks until the disk catches up.
+ * <p>
+ * If compression is enabled, the segment is written in the block-compressed format
+ * (see {@link CompressedTraceOutput}); compression also takes place in the writer thread.
+ * In both cases, the size of the segment is its uncompressed size.
+ * @author gpothier
+ */
+public class SegmentWriter extends Thread
+{
+	private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+	
+	private final FileOutputStream itsOut;
+	private final FileChannel itsChannel;
+	private final CompressedTraceOutput itsCompressedOut;
+	private final Segment itsSegment;
+	
+	private final BlockingQueue<ByteBuffer> itsFullBuffers;
+	private final BlockingQueue<ByteBuffer> itsFreeBuffers;
+	
+	private long itsWritten = 0;
+	private IOException itsError;
+	
+	public SegmentWriter(
+			File aFile, 
+			Segment aSegment, 
+			int aBufferSize, 
+			int aBufferCount, 
+			boolean aCompress) throws IOException
+	{
+		super("SegmentWriter-"+aSegment.getFileName());
+		setDaemon(true);
+		
+		itsOut = new FileOutputStream(aFile);
+		itsChannel = itsOut.getChannel();
+		itsCompressedOut = aCompress ? 
+				new CompressedTraceOutput(new BufferedOutputStream(itsOut, 64*1024)) 
+				: null;
+		itsSegment = aSegment;
+		
+		itsFullBuffers = new ArrayBlockingQueue<ByteBuffer>(aBufferCount+1);
+		itsFreeBuffers = new ArrayBlockingQueue<ByteBuffer>(aBufferCount);
+		for(int i=0;i<aBufferCount;i++) itsFreeBuffers.add(ByteBuffer.allocateDirect(aBufferSize));
+		
+		start();
+	}
+	
+	/**
+	 * Returns an empty buffer, waiting for one to be written if necessary.
+	 */
+	public ByteBuffer acquire() throws IOException
+	{
+		try
+		{
+			ByteBuffer theBuffer = itsFreeBuffers.take();
+			checkError();
+			return theBuffer;
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Queues the data of the given buffer (from 0 to its position) for writing.
+	 */
+	public void submit(ByteBuffer aBuffer) throws IOException
+	{
+		checkError();
+		aBuffer.flip();
+		try
+		{
+			itsFullBuffers.put(aBuffer);
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Writes out the pending buffers and closes the file.
+	 * @return The size of the segment.
+	 */
+	public long finish() throws IOException
+	{
+		try
+		{
+			itsFullBuffers.put(EOF);
+			join();
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+		
+		checkError();
+		return itsWritten;
+	}
+	
+	private synchronized void checkError() throws IOException
+	{
+		if (itsError != null) throw itsError;
+	}
+	
+	@Override
+	public void run()
+	{
+		try
+		{
+			while(true)
+			{
+				ByteBuffer theBuffer = itsFullBuffers.take();
+				if (theBuffer == EOF) break;
+				
+				if (itsError == null) try
+				{
+					if (itsCompressedOut != null)
+					{
+						itsWritten += theBuffer.remaining();
+						itsCompressedOut.write(theBuffer);
+					}
+					else while(theBuffer.hasRemaining()) itsWritten += itsChannel.write(theBuffer);
+					itsSegment.setSize(itsWritten);
+				}
+				catch (IOException e)
+				{
+					synchronized (this)
+					{
+						itsError = e;
+					}
+				}
+				
+				theBuffer.clear();
+				itsFreeBuffers.put(theBuffer);
+			}
+			
+			if (itsCompressedOut != null) itsCompressedOut.close();
+			else itsOut.close();
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
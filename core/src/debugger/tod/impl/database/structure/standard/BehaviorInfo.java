@@ -22,6 +22,10 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -101,6 +105,120 @@ public class BehaviorInfo extends MemberInfo implements IMutableBehaviorInfo
 //				aSignature));
 	}
 	
+	/**
+	 * Reads a behavior written by {@link #write(DataOutput)}.
+	 * The probes must already be registered in the database.
+	 */
+	BehaviorInfo(IShareableStructureDatabase aDatabase, DataInput aInput) throws IOException
+	{
+		super(aDatabase, aInput);
+		itsBehaviourKind = BehaviorKind.values()[aInput.readUnsignedByte()];
+		itsHasTrace = HasTrace.values()[aInput.readUnsignedByte()];
+		
+		itsArgumentTypes = new ITypeInfo[aInput.readInt()];
+		for(int i=0;i<itsArgumentTypes.length;i++) itsArgumentTypes[i] = StructureIO.readType(aInput, aDatabase);
+		itsReturnType = StructureIO.readType(aInput, aDatabase);
+		
+		itsCodeSize = aInput.readInt();
+		
+		int theCount = aInput.readInt();
+		if (theCount >= 0)
+		{
+			itsLineNumberTable = new LineNumberInfo[theCount];
+			for(int i=0;i<theCount;i++) itsLineNumberTable[i] = new LineNumberInfo(aInput.readShort(), aInput.readShort());
+			itsHasLineNumberTable = true;
+		}
+		
+		theCount = aInput.readInt();
+		if (theCount >= 0)
+		{
+			itsLocalVariableTable = new ArrayList<LocalVariableInfo>(theCount);
+			for(int i=0;i<theCount;i++) 
+			{
+				int theStartPc = aInput.readShort();
+				int theLength = aInput.readShort();
+				String theName = StructureIO.readString(aInput);
+				String theTypeName = StructureIO.readString(aInput);
+				int theIndex = aInput.readShort();
+				itsLocalVariableTable.add(new LocalVariableInfo(theStartPc, theLength, theName, theTypeName, theIndex));
+			}
+			itsHasLocalVariableTable = true;
+		}
+		
+		// Tags are arbitrary objects, we keep Java serialization for them.
+		theCount = aInput.readInt();
+		if (theCount >= 0)
+		{
+			byte[] theData = new byte[theCount];
+			aInput.readFully(theData);
+			try
+			{
+				itsTagMap = (TagMap) new ObjectInputStream(new ByteArrayInputStream(theData)).readObject();
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new RuntimeException(e);
+			}
+			itsHasTagMap = true;
+		}
+		
+		for (int theProbeId : StructureIO.readInts(aInput)) itsProbes.add(aDatabase.getProbeInfo(theProbeId));
+	}
+	
+	@Override
+	protected void write(DataOutput aOutput) throws IOException
+	{
+		super.write(aOutput);
+		aOutput.writeByte(itsBehaviourKind.ordinal());
+		aOutput.writeByte(itsHasTrace.ordinal());
+		
+		aOutput.writeInt(itsArgumentTypes.length);
+		for (ITypeInfo theType : itsArgumentTypes) StructureIO.writeType(aOutput, theType);
+		StructureIO.writeType(aOutput, itsReturnType);
+		
+		aOutput.writeInt(itsCodeSize);
+		
+		if (itsLineNumberTable != null)
+		{
+			aOutput.writeInt(itsLineNumberTable.length);
+			for (LineNumberInfo theInfo : itsLineNumberTable)
+			{
+				aOutput.writeShort(theInfo.getStartPc());
+				aOutput.writeShort(theInfo.getLineNumber());
+			}
+		}
+		else aOutput.writeInt(-1);
+		
+		if (itsLocalVariableTable != null)
+		{
+			aOutput.writeInt(itsLocalVariableTable.size());
+			for (LocalVariableInfo theInfo : itsLocalVariableTable)
+			{
+				aOutput.writeShort(theInfo.getStartPc());
+				aOutput.writeShort(theInfo.getLength());
+				StructureIO.writeString(aOutput, theInfo.getVariableName());
+				StructureIO.writeString(aOutput, theInfo.getVariableTypeName());
+				aOutput.writeShort(theInfo.getIndex());
+			}
+		}
+		else aOutput.writeInt(-1);
+		
+		if (itsTagMap != null)
+		{
+			ByteArrayOutputStream theBuffer = new ByteArrayOutputStream();
+			ObjectOutputStream theStream = new ObjectOutputStream(theBuffer);
+			theStream.writeObject(itsTagMap);
+			theStream.flush();
+			aOutput.writeInt(theBuffer.size());
+			aOutput.write(theBuffer.toByteArray());
+		}
+		else aOutput.writeInt(-1);
+		
+		int[] theProbeIds = new int[itsProbes.size()];
+		for(int i=0;i<theProbeIds.length;i++) theProbeIds[i] = itsProbes.get(i).id;
+		StructureIO.writeInts(aOutput, theProbeIds);
+	}
+	
 	private void writeObject(ObjectOutputStream out) throws IOException
 	{
 		out.defaultWriteObject();
@@ -133,6 +251,7 @@ public class BehaviorInfo extends MemberInfo implements IMutableBehaviorInfo
 	public void addProbe(ProbeInfo aProbe)
 	{
 		itsProbes.add(aProbe);
+		changed();
 	}
 	
 	public void setup(
@@ -149,6 +268,8 @@ public class BehaviorInfo extends MemberInfo implements IMutableBehaviorInfo
 		
 		itsTagMap = aTagMap;
 		itsHasTagMap = itsTagMap != null;
+		
+		changed();
 	}
 	
 	protected void fireBehaviorChanged()
@@ -320,6 +441,7 @@ public class BehaviorInfo extends MemberInfo implements IMutableBehaviorInfo
 		if (itsLocalVariableTable == null) itsLocalVariableTable = new ArrayList<LocalVariableInfo>();
 		itsHasLocalVariableTable = true;
 		itsLocalVariableTable.add(aInfo);
+		changed();
 	}
 	
 	LineNumberInfo[] _getLineNumbers()
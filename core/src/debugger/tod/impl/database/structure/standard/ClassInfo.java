@@ -22,6 +22,8 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -120,6 +122,52 @@ implements IMutableClassInfo, ISerializableLocationInfo
 //		System.out.println(String.format("[Struct] class info [id: %d, name: %s]", aId, aName));
 	}
 
+	/**
+	 * Reads a class written by {@link #write(DataOutput)}.
+	 * Members are read separately, see {@link StructureDatabase}.
+	 */
+	ClassInfo(StructureDatabase aDatabase, ClassNameInfo aClassNameInfo, DataInput aInput) throws IOException
+	{
+		super(aDatabase, aInput);
+		itsClassNameInfo = aClassNameInfo;
+		itsJvmName = Type.getObjectType(getName().replace('.', '/')).getDescriptor();
+		
+		itsHasBytecode = aInput.readBoolean();
+		itsSMAP = StructureIO.readString(aInput);
+		itsHasSMAP = itsSMAP != null;
+		itsInScope = aInput.readBoolean();
+		itsInterface = aInput.readBoolean();
+		itsChecksum = StructureIO.readString(aInput);
+		itsSupertypeId = aInput.readInt();
+		itsInterfacesIds = StructureIO.readInts(aInput);
+		itsDisposable = aInput.readBoolean();
+		itsStartTime = aInput.readLong();
+	}
+	
+	@Override
+	protected void write(DataOutput aOutput) throws IOException
+	{
+		super.write(aOutput);
+		aOutput.writeBoolean(itsHasBytecode);
+		StructureIO.writeString(aOutput, itsSMAP);
+		aOutput.writeBoolean(itsInScope);
+		aOutput.writeBoolean(itsInterface);
+		StructureIO.writeString(aOutput, itsChecksum);
+		aOutput.writeInt(itsSupertypeId);
+		StructureIO.writeInts(aOutput, itsInterfacesIds);
+		aOutput.writeBoolean(itsDisposable);
+		aOutput.writeLong(itsStartTime);
+	}
+	
+	@Override
+	protected void changed()
+	{
+		if (isOriginal() && getDatabase() instanceof StructureDatabase)
+		{
+			((StructureDatabase) getDatabase()).markDirty(getId());
+		}
+	}
+	
 	private void writeObject(ObjectOutputStream out) throws IOException
 	{
 		out.defaultWriteObject();
@@ -173,6 +221,7 @@ implements IMutableClassInfo, ISerializableLocationInfo
 		setInterfaces(aInterfaces);
 		setSupertype(aSuperclass);
 		
+		changed();
 		fireClassChanged();
 	}
 	
@@ -197,6 +246,7 @@ implements IMutableClassInfo, ISerializableLocationInfo
 		assert isOriginal();
 		assert (aInstrumentedBytecode == null) == (aOriginalBytecode == null);
 		itsHasBytecode = aInstrumentedBytecode != null;
+		changed();
 		
 		if (itsHasBytecode) 
 		{
@@ -233,6 +283,7 @@ implements IMutableClassInfo, ISerializableLocationInfo
 		assert isOriginal();
 		itsSMAP = aSmap;
 		itsHasSMAP = itsSMAP != null;
+		changed();
 	}
 
 	/**
@@ -292,7 +343,9 @@ implements IMutableClassInfo, ISerializableLocationInfo
 
 	public void setDisposable(boolean aDisposable)
 	{
+		if (itsDisposable == aDisposable) return;
 		itsDisposable = aDisposable;
+		changed();
 	}
 
 	/**
@@ -22,6 +22,10 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import tod.core.ILogCollector;
 import tod.core.database.structure.IArrayTypeInfo;
 import tod.core.database.structure.IClassInfo;
@@ -60,6 +64,21 @@ public class FieldInfo extends MemberInfo implements IMutableFieldInfo
 		itsSlotIndex = getSlotIndex(aDeclaringClass);
 	}
 	
+	FieldInfo(IShareableStructureDatabase aDatabase, DataInput aInput) throws IOException
+	{
+		super(aDatabase, aInput);
+		itsTypePtr = aInput.readLong();
+		itsSlotIndex = aInput.readInt();
+	}
+	
+	@Override
+	protected void write(DataOutput aOutput) throws IOException
+	{
+		super.write(aOutput);
+		aOutput.writeLong(itsTypePtr);
+		aOutput.writeInt(itsSlotIndex);
+	}
+	
 	private static int getSlotIndex(IClassInfo aDeclaringClass)
 	{
 		int theCount = 0;
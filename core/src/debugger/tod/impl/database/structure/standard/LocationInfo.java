@@ -22,6 +22,9 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 import tod.core.database.structure.IMutableLocationInfo;
@@ -62,6 +65,38 @@ implements IMutableLocationInfo, Serializable
 		setName(aName);
 	}
 	
+	/**
+	 * Reads a location info written by {@link #write(DataOutput)}.
+	 */
+	protected LocationInfo(IShareableStructureDatabase aDatabase, DataInput aInput) throws IOException
+	{
+		itsOriginal = true;
+		itsDatabase = aDatabase;
+		itsId = aInput.readInt();
+		itsName = StructureIO.readString(aInput);
+		itsSourceFile = StructureIO.readString(aInput);
+	}
+	
+	/**
+	 * Writes this location info in the binary format of {@link StructureDatabase}.
+	 * Subclasses that have persistent state must override this method and
+	 * provide a matching constructor.
+	 */
+	protected void write(DataOutput aOutput) throws IOException
+	{
+		aOutput.writeInt(itsId);
+		StructureIO.writeString(aOutput, itsName);
+		StructureIO.writeString(aOutput, itsSourceFile);
+	}
+	
+	/**
+	 * Called when the persistent state of this location info changes,
+	 * so that it is saved again. Does nothing by default.
+	 */
+	protected void changed()
+	{
+	}
+	
 	/**
 	 * Whether this location info is the original.
 	 * @return True if original, false if remote version
@@ -120,6 +155,7 @@ implements IMutableLocationInfo, Serializable
 	public void setSourceFile(String aSourceFile)
 	{
 		itsSourceFile = aSourceFile;
+		changed();
 	}
 
 	@Override
@@ -22,6 +22,10 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import tod.core.ILogCollector;
 import tod.core.database.structure.Access;
 import tod.core.database.structure.IMemberInfo;
@@ -65,6 +69,33 @@ implements IMemberInfo, ISerializableLocationInfo
 		itsAccessFlags = aAccessFlags;
 	}
 	
+	protected MemberInfo(IShareableStructureDatabase aDatabase, DataInput aInput) throws IOException
+	{
+		super(aDatabase, aInput);
+		itsDeclaringTypeId = aInput.readInt();
+		itsAccessFlags = aInput.readInt();
+	}
+	
+	@Override
+	protected void write(DataOutput aOutput) throws IOException
+	{
+		super.write(aOutput);
+		aOutput.writeInt(itsDeclaringTypeId);
+		aOutput.writeInt(itsAccessFlags);
+	}
+	
+	/**
+	 * Members are saved together with their declaring class.
+	 */
+	@Override
+	protected void changed()
+	{
+		if (isOriginal() && getDatabase() instanceof StructureDatabase)
+		{
+			((StructureDatabase) getDatabase()).markDirty(itsDeclaringTypeId);
+		}
+	}
+	
 	public ITypeInfo getDeclaringType()
 	{
 		return getDatabase().getType(itsDeclaringTypeId, true);
@@ -74,7 +105,10 @@ implements IMemberInfo, ISerializableLocationInfo
 	{
 		int theOldFlags = itsAccessFlags;
 		itsAccessFlags |= aAccessFlags;
-		return theOldFlags != itsAccessFlags;
+		if (theOldFlags == itsAccessFlags) return false;
+		
+		changed();
+		return true;
 	}
 	
 	public boolean isStatic()
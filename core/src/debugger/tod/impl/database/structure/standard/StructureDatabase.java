@@ -22,18 +22,24 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
 import gnu.trove.TLongArrayList;
 import gnu.trove.TLongObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -69,11 +75,19 @@ import tod.utils.TODUtils;
 import tod.utils.remote.RemoteStructureDatabase;
 import tod2.agent.AgentConfig;
 import zz.utils.RandomAccessInputStream;
-import zz.utils.RandomAccessOutputStream;
 import zz.utils.Utils;
 
 /**
  * Standard implementation of {@link IStructureDatabase}
+ * <p>
+ * The database file starts with the offset of the root record, followed by 
+ * an append-only sequence of records: class bytecode, class records (a class
+ * and all its members) and root records. The root record contains id-indexed 
+ * tables (offset and name of class records, declaring class of members, probes, 
+ * etc.). Each save appends the records of the classes that changed since the 
+ * previous save, and a new root record. 
+ * When the database is loaded only the root record is read; classes are read 
+ * the first time they are accessed.
  * @author gpothier
  */
 public class StructureDatabase 
@@ -81,6 +95,15 @@ implements IShareableStructureDatabase
 {
 	private static final long serialVersionUID = -3929708435718445343L;
 	
+	private static final int MAGIC = 0x70d57d;
+	private static final int FORMAT_VERSION = 1;
+	
+	/**
+	 * First bytes of a Java serialization stream, which was used by the 
+	 * former format.
+	 */
+	private static final int SERIALIZED_HEADER = 0xaced0005;
+	
 	public static ThreadLocal<Boolean> SAVING = new ThreadLocal<Boolean>()
 	{
 		@Override
@@ -101,11 +124,46 @@ implements IShareableStructureDatabase
 	 */
 	private final RandomAccessFile itsFile;
 	
+	/**
+	 * Offset at which the next record is written. Records are never overwritten.
+	 */
+	private long itsAppendOffset;
+	
 	/**
 	 * Stores the offset into the file of the bytecode of each class. 
 	 */
 	private TLongArrayList itsByteCodeOffsets = new TLongArrayList(1000);
 	
+	/**
+	 * Offset into the file of the latest record of each class, 
+	 * or 0 if the class has not been saved.
+	 */
+	private TLongArrayList itsClassOffsets = new TLongArrayList(1000);
+	
+	/**
+	 * Name of each class, indexed by id.
+	 */
+	private List<String> itsClassNames = new ArrayList<String>(1000);
+	
+	/**
+	 * Id of the declaring class of each behavior and field, indexed by member id.
+	 * Used to load the class that contains a given member.
+	 */
+	private TIntArrayList itsBehaviorClassIds = new TIntArrayList(10000);
+	private TIntArrayList itsFieldClassIds = new TIntArrayList(10000);
+	
+	/**
+	 * Ids of saved classes that have not been loaded yet, by name.
+	 */
+	private final Map<String, Integer> itsUnloadedClassIds = new HashMap<String, Integer>();
+	
+	/**
+	 * Classes whose record must be written at the next save.
+	 */
+	private final TIntHashSet itsDirtyClasses = new TIntHashSet();
+	
+	private int itsLoadedClassesCount = 0;
+	
 	/**
 	 * Next free ids.
 	 */
@@ -168,7 +226,7 @@ implements IShareableStructureDatabase
 		else 
 		{
 			if (aForReplay) throw new RuntimeException("Database file not found: "+aFile);
-			itsFile.seek(8); // The first long is used to store the offset of the serialized data
+			itsAppendOffset = 8; // The first long is used to store the offset of the root record
 			
 			itsIds = new Ids();
 			itsSignatureIdMap = new TObjectIntHashMap<String>();
@@ -221,6 +279,53 @@ implements IShareableStructureDatabase
 		long theOffset =  itsFile.readLong();
 		itsFile.seek(theOffset);
 		
+		if (itsFile.readInt() == SERIALIZED_HEADER) 
+		{
+			loadSerialized(theOffset);
+		}
+		else
+		{
+			readRoot(new DataInputStream(new ByteArrayInputStream(readRecord(theOffset))));
+			checkScope();
+			
+			// Homonym classes are tracked by ClassNameInfo objects, which are built as classes are loaded
+			if (itsAllowHomonymClasses) loadAllClasses();
+		}
+		
+		itsAppendOffset = itsFile.length();
+		
+		System.out.println("Database loaded, registered elements:");
+		System.out.println(itsClasses.size()+" classes.");
+		System.out.println(itsBehaviors.size()+" behaviors.");
+		System.out.println(itsFields.size()+" fields.");
+		
+		if (DebugFlags.LOG_STRUCTURE)
+		{
+			for (IClassInfo theClass : getClasses())
+			{
+				if (theClass != null) Utils.println("Class %d: %s", theClass.getId(), theClass.getName());
+			}
+			
+			for(IBehaviorInfo theBehavior : getBehaviors())
+			{
+				if (theBehavior != null) Utils.println(
+						"Behavior %d: %s.%s",
+						theBehavior.getId(),
+						theBehavior.getDeclaringType().getName(),
+						Util.getFullName(theBehavior));
+			}
+		}
+	}
+	
+	/**
+	 * Loads a database saved in the former format, where the whole structure
+	 * was serialized at each save. All the classes are written in the 
+	 * current format at the next save.
+	 */
+	private void loadSerialized(long aOffset) throws IOException
+	{
+		itsFile.seek(aOffset);
+		
 		RandomAccessInputStream theStream = new RandomAccessInputStream(itsFile);
 		ObjectInputStream ois = new ObjectInputStream(theStream);
 		
@@ -243,12 +348,12 @@ implements IShareableStructureDatabase
 			
 			checkScope();
 			
-			if (! itsAllowHomonymClasses)
+			for (ClassInfo theClass : itsClasses) 
 			{
-				for (ClassInfo theClass : itsClasses) 
-				{
-					if (theClass != null) itsClassInfos.put(theClass.getName(), theClass);
-				}
+				if (theClass == null) continue;
+				if (! itsAllowHomonymClasses) itsClassInfos.put(theClass.getName(), theClass);
+				Utils.listSet(itsClassNames, theClass.getId(), theClass.getName());
+				markDirty(theClass.getId());
 			}
 			
 			// Restore probes map
@@ -261,82 +366,384 @@ implements IShareableStructureDatabase
 			}
 			
 			reown();
+			
+			for (BehaviorInfo theBehavior : itsBehaviors) if (theBehavior != null)
+			{
+				TODUtils.TIntArrayListSet(itsBehaviorClassIds, theBehavior.getId(), theBehavior.getDeclaringType().getId());
+			}
+			
+			for (FieldInfo theField : itsFields) if (theField != null)
+			{
+				TODUtils.TIntArrayListSet(itsFieldClassIds, theField.getId(), theField.getDeclaringType().getId());
+			}
 		}
 		catch (ClassNotFoundException e)
 		{
 			throw new RuntimeException(e);
 		}
+	}
+	
+	private void readRoot(DataInputStream aInput) throws IOException
+	{
+		if (aInput.readInt() != MAGIC) throw new IOException("Not a structure database");
+		int theVersion = aInput.readInt();
+		if (theVersion != FORMAT_VERSION) throw new IOException("Unsupported structure database version: "+theVersion);
 		
-		itsFile.seek(theOffset); // Continue writing at the old location
+		itsId = StructureIO.readString(aInput);
+		itsTraceSelectorString = StructureIO.readString(aInput);
+		itsGlobalSelectorString = StructureIO.readString(aInput);
+		itsIdSelectorString = StructureIO.readString(aInput);
 		
+		itsIds = new Ids();
+		itsIds.itsNextFreeClassId = aInput.readInt();
+		itsIds.itsNextFreeBehaviorId = aInput.readInt();
+		itsIds.itsNextFreeFieldId = aInput.readInt();
+		itsIds.itsNextFreeAspectId = aInput.readInt();
+		itsIds.itsNextFreeSnapshotProbeId = aInput.readInt();
 		
-		System.out.println("Database loaded, registered elements:");
-		System.out.println(itsClasses.size()+" classes.");
-		System.out.println(itsBehaviors.size()+" behaviors.");
-		System.out.println(itsFields.size()+" fields.");
+		int theCount = aInput.readInt();
+		itsByteCodeOffsets = new TLongArrayList(theCount);
+		for(int i=0;i<theCount;i++) itsByteCodeOffsets.add(aInput.readLong());
 		
-		if (DebugFlags.LOG_STRUCTURE)
+		// Classes
+		theCount = aInput.readInt();
+		itsClasses = new ArrayList<ClassInfo>(theCount);
+		itsClassOffsets = new TLongArrayList(theCount);
+		itsClassNames = new ArrayList<String>(theCount);
+		for(int i=0;i<theCount;i++)
 		{
-			for (IClassInfo theClass : getClasses())
+			long theOffset = aInput.readLong();
+			String theName = StructureIO.readString(aInput);
+			
+			itsClasses.add(null);
+			itsClassOffsets.add(theOffset);
+			itsClassNames.add(theName);
+			if (theOffset != 0 && ! itsAllowHomonymClasses) itsUnloadedClassIds.put(theName, i);
+		}
+		
+		// Members
+		int[] theClassIds = StructureIO.readInts(aInput);
+		itsBehaviorClassIds = new TIntArrayList(theClassIds);
+		itsBehaviors = new ArrayList<BehaviorInfo>(theClassIds.length);
+		for(int i=0;i<theClassIds.length;i++) itsBehaviors.add(null);
+		
+		theClassIds = StructureIO.readInts(aInput);
+		itsFieldClassIds = new TIntArrayList(theClassIds);
+		itsFields = new ArrayList<FieldInfo>(theClassIds.length);
+		for(int i=0;i<theClassIds.length;i++) itsFields.add(null);
+		
+		// Probes
+		BytecodeRole[] theRoles = BytecodeRole.values();
+		theCount = aInput.readInt();
+		itsProbes = new ArrayList<ProbeInfo>(theCount);
+		for(int i=0;i<theCount;i++)
+		{
+			if (! aInput.readBoolean())
 			{
-				if (theClass != null) Utils.println("Class %d: %s", theClass.getId(), theClass.getName());
+				itsProbes.add(null);
+				continue;
+			}
+			int theBehaviorId = aInput.readInt();
+			int theBytecodeIndex = aInput.readInt();
+			int theRole = aInput.readByte();
+			int theAdviceSourceId = aInput.readInt();
+			itsProbes.add(new ProbeInfo(
+					i, 
+					theBehaviorId, 
+					theBytecodeIndex, 
+					theRole >= 0 ? theRoles[theRole] : null, 
+					theAdviceSourceId));
+		}
+		
+		// Snapshot probes
+		theCount = aInput.readInt();
+		itsSnapshotProbes = new ArrayList<SnapshotProbeInfo>(theCount);
+		itsSnapshotProbesMap = new TLongObjectHashMap<SnapshotProbeInfo>();
+		for(int i=0;i<theCount;i++)
+		{
+			if (! aInput.readBoolean())
+			{
+				itsSnapshotProbes.add(null);
+				continue;
+			}
+			int theBehaviorId = aInput.readInt();
+			int theProbeIndex = aInput.readInt();
+			String theSignature = StructureIO.readString(aInput);
+			SnapshotProbeInfo theProbe = new SnapshotProbeInfo(i, theBehaviorId, theProbeIndex, theSignature);
+			itsSnapshotProbes.add(theProbe);
+			itsSnapshotProbesMap.put(getSnapshotProbeKey(theBehaviorId, theProbeIndex), theProbe);
+		}
+		
+		theCount = aInput.readInt();
+		itsSnapshotLocalsSignaturesSet = new HashSet<String>(theCount);
+		for(int i=0;i<theCount;i++) itsSnapshotLocalsSignaturesSet.add(StructureIO.readString(aInput));
+		
+		theCount = aInput.readInt();
+		itsSignatureIdMap = new TObjectIntHashMap<String>(theCount);
+		for(int i=0;i<theCount;i++) 
+		{
+			String theSignature = StructureIO.readString(aInput);
+			itsSignatureIdMap.put(theSignature, aInput.readInt());
+		}
+	}
+	
+	private void writeRoot(DataOutputStream aOutput) throws IOException
+	{
+		aOutput.writeInt(MAGIC);
+		aOutput.writeInt(FORMAT_VERSION);
+		
+		StructureIO.writeString(aOutput, itsId);
+		StructureIO.writeString(aOutput, itsTraceSelectorString);
+		StructureIO.writeString(aOutput, itsGlobalSelectorString);
+		StructureIO.writeString(aOutput, itsIdSelectorString);
+		
+		aOutput.writeInt(itsIds.itsNextFreeClassId);
+		aOutput.writeInt(itsIds.itsNextFreeBehaviorId);
+		aOutput.writeInt(itsIds.itsNextFreeFieldId);
+		aOutput.writeInt(itsIds.itsNextFreeAspectId);
+		aOutput.writeInt(itsIds.itsNextFreeSnapshotProbeId);
+		
+		aOutput.writeInt(itsByteCodeOffsets.size());
+		for(int i=0;i<itsByteCodeOffsets.size();i++) aOutput.writeLong(itsByteCodeOffsets.get(i));
+		
+		// Classes
+		int theCount = Math.max(itsClassOffsets.size(), itsClassNames.size());
+		aOutput.writeInt(theCount);
+		for(int i=0;i<theCount;i++)
+		{
+			long theOffset = i < itsClassOffsets.size() ? itsClassOffsets.get(i) : 0;
+			aOutput.writeLong(theOffset);
+			StructureIO.writeString(aOutput, theOffset != 0 ? itsClassNames.get(i) : null);
+		}
+		
+		// Members
+		StructureIO.writeInts(aOutput, itsBehaviorClassIds.toNativeArray());
+		StructureIO.writeInts(aOutput, itsFieldClassIds.toNativeArray());
+		
+		// Probes
+		aOutput.writeInt(itsProbes.size());
+		for (ProbeInfo theProbe : itsProbes)
+		{
+			aOutput.writeBoolean(theProbe != null);
+			if (theProbe == null) continue;
+			aOutput.writeInt(theProbe.behaviorId);
+			aOutput.writeInt(theProbe.bytecodeIndex);
+			aOutput.writeByte(theProbe.role != null ? theProbe.role.ordinal() : -1);
+			aOutput.writeInt(theProbe.adviceSourceId);
+		}
+		
+		// Snapshot probes
+		aOutput.writeInt(itsSnapshotProbes.size());
+		for (SnapshotProbeInfo theProbe : itsSnapshotProbes)
+		{
+			aOutput.writeBoolean(theProbe != null);
+			if (theProbe == null) continue;
+			aOutput.writeInt(theProbe.behaviorId);
+			aOutput.writeInt(theProbe.probeIndex);
+			StructureIO.writeString(aOutput, theProbe.localsSignature);
+		}
+		
+		aOutput.writeInt(itsSnapshotLocalsSignaturesSet.size());
+		for (String theSignature : itsSnapshotLocalsSignaturesSet) StructureIO.writeString(aOutput, theSignature);
+		
+		aOutput.writeInt(itsSignatureIdMap.size());
+		for (Object theSignature : itsSignatureIdMap.keys()) 
+		{
+			StructureIO.writeString(aOutput, (String) theSignature);
+			aOutput.writeInt(itsSignatureIdMap.get((String) theSignature));
+		}
+	}
+	
+	/**
+	 * Writes the record of a class, which contains the class and all its members.
+	 */
+	private void writeClass(DataOutputStream aOutput, ClassInfo aClass) throws IOException
+	{
+		aClass.write(aOutput);
+		
+		Map<String, IMutableBehaviorInfo> theBehaviors = aClass._getBehaviorsMap();
+		aOutput.writeInt(theBehaviors.size());
+		for (IMutableBehaviorInfo theBehavior : theBehaviors.values()) ((BehaviorInfo) theBehavior).write(aOutput);
+		
+		Map<String, IMutableFieldInfo> theFields = aClass._getFieldsMap();
+		aOutput.writeInt(theFields.size());
+		for (IMutableFieldInfo theField : theFields.values()) ((FieldInfo) theField).write(aOutput);
+	}
+	
+	/**
+	 * Reads the record of the given class, and registers the class and its members.
+	 * @return The class, or null if there is no saved class with this id.
+	 */
+	private synchronized ClassInfo loadClass(int aId)
+	{
+		ClassInfo theClass = Utils.listGet(itsClasses, aId);
+		if (theClass != null) return theClass;
+		
+		long theOffset = aId >= 0 && aId < itsClassOffsets.size() ? itsClassOffsets.get(aId) : 0;
+		if (theOffset == 0) return null;
+		
+		try
+		{
+			DataInputStream theInput = new DataInputStream(new ByteArrayInputStream(readRecord(theOffset)));
+			String theName = itsClassNames.get(aId);
+			
+			theClass = new ClassInfo(this, getClassNameInfo(theName), theInput);
+			
+			// Register the class before reading the members, as they can refer to it.
+			itsClasses.set(aId, theClass);
+			if (itsAllowHomonymClasses) 
+			{
+				getClassNameInfo(theName).addClass(theClass);
+			}
+			else
+			{
+				itsClassInfos.put(theName, theClass);
+				itsUnloadedClassIds.remove(theName);
 			}
 			
-			for(IBehaviorInfo theBehavior : getBehaviors())
+			int theCount = theInput.readInt();
+			for(int i=0;i<theCount;i++)
 			{
-				if (theBehavior != null) Utils.println(
-						"Behavior %d: %s.%s",
-						theBehavior.getId(),
-						theBehavior.getDeclaringType().getName(),
-						Util.getFullName(theBehavior));
+				BehaviorInfo theBehavior = new BehaviorInfo(this, theInput);
+				Utils.listSet(itsBehaviors, theBehavior.getId(), theBehavior);
+				theClass._getBehaviorsMap().put(ClassInfo.getKey(theBehavior), theBehavior);
+			}
+			
+			theCount = theInput.readInt();
+			for(int i=0;i<theCount;i++)
+			{
+				FieldInfo theField = new FieldInfo(this, theInput);
+				Utils.listSet(itsFields, theField.getId(), theField);
+				theClass._getFieldsMap().put(theField.getName(), theField);
 			}
+			
+			itsLoadedClassesCount++;
+			return theClass;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Cannot load class "+aId, e);
+		}
+	}
+	
+	private synchronized ClassInfo loadClass(String aName)
+	{
+		Integer theId = itsUnloadedClassIds.get(aName);
+		return theId != null ? loadClass(theId) : null;
+	}
+	
+	/**
+	 * Loads all the saved classes that are not loaded yet.
+	 */
+	private synchronized void loadAllClasses()
+	{
+		for(int i=0;i<itsClassOffsets.size();i++)
+		{
+			if (itsClassOffsets.get(i) != 0 && itsClasses.get(i) == null) loadClass(i);
+		}
+	}
+	
+	/**
+	 * Returns the number of classes that were read from the file 
+	 * since the database was opened.
+	 */
+	public int getLoadedClassesCount()
+	{
+		return itsLoadedClassesCount;
+	}
+	
+	/**
+	 * Indicates that the given class or one of its members changed, 
+	 * and must be saved again.
+	 */
+	void markDirty(int aClassId)
+	{
+		synchronized (itsDirtyClasses)
+		{
+			itsDirtyClasses.add(aClassId);
 		}
 	}
 	
+	/**
+	 * Reads the length-prefixed record at the given offset.
+	 */
+	private byte[] readRecord(long aOffset) throws IOException
+	{
+		synchronized (itsFile)
+		{
+			itsFile.seek(aOffset);
+			byte[] theData = new byte[itsFile.readInt()];
+			itsFile.readFully(theData);
+			return theData;
+		}
+	}
+	
+	/**
+	 * Appends a length-prefixed record to the file.
+	 * @return The offset of the record.
+	 */
+	private long appendRecord(ByteArrayOutputStream aData) throws IOException
+	{
+		synchronized (itsFile)
+		{
+			long theOffset = itsAppendOffset;
+			itsFile.seek(theOffset);
+			itsFile.writeInt(aData.size());
+			itsFile.write(aData.toByteArray());
+			itsAppendOffset = itsFile.getFilePointer();
+			return theOffset;
+		}
+	}
 	
 	public static boolean isSaving()
 	{
 		return SAVING.get();
 	}
 
-	public void save() throws IOException
+	/**
+	 * Appends the classes that changed since the previous save, and a new root record.
+	 */
+	public synchronized void save() throws IOException
 	{
 		System.out.println("Saving structure database...");
-		long theOffset = itsFile.getFilePointer();
-		itsFile.seek(0);
-		itsFile.writeLong(theOffset);
-		itsFile.seek(theOffset);
 		
-		// Write serialized data
-		RandomAccessOutputStream theStream = new RandomAccessOutputStream(itsFile);
-		ObjectOutputStream oos = new ObjectOutputStream(theStream);
+		int[] theDirtyIds;
+		synchronized (itsDirtyClasses)
+		{
+			theDirtyIds = itsDirtyClasses.toArray();
+			itsDirtyClasses.clear();
+		}
+		Arrays.sort(theDirtyIds);
 		
-		try
+		ByteArrayOutputStream theBuffer = new ByteArrayOutputStream();
+		DataOutputStream theOutput = new DataOutputStream(theBuffer);
+		
+		int theWritten = 0;
+		for (int theId : theDirtyIds)
 		{
-			SAVING.set(true);
+			ClassInfo theClass = Utils.listGet(itsClasses, theId);
+			if (theClass == null) continue;
 			
-			oos.writeUTF(itsId);
-			oos.writeObject(itsIds);
-			oos.writeObject(itsByteCodeOffsets);
-			System.out.println("Saved "+itsByteCodeOffsets.size()+" bytecode offsets.");
-			oos.writeObject(itsBehaviors);
-			oos.writeObject(itsFields);
-			oos.writeObject(itsClasses);
-			oos.writeObject(itsProbes);		
-			oos.writeObject(itsSnapshotProbes);
-			oos.writeObject(itsSnapshotLocalsSignaturesSet);
-			oos.writeObject(itsSignatureIdMap);
-			oos.writeUTF(itsTraceSelectorString);
-			oos.writeUTF(itsGlobalSelectorString);
-			oos.writeUTF(itsIdSelectorString);
-			
-			oos.flush();
+			theBuffer.reset();
+			writeClass(theOutput, theClass);
+			theOutput.flush();
+			TODUtils.TLongArrayListSet(itsClassOffsets, theId, appendRecord(theBuffer));
+			theWritten++;
 		}
-		finally
+		
+		theBuffer.reset();
+		writeRoot(theOutput);
+		theOutput.flush();
+		long theRootOffset = appendRecord(theBuffer);
+		
+		// Only now is the new data visible
+		synchronized (itsFile)
 		{
-			SAVING.set(true);
+			itsFile.seek(0);
+			itsFile.writeLong(theRootOffset);
 		}
-		System.out.println("Structure database saved.");
+		
+		System.out.println("Structure database saved ("+theWritten+" classes written).");
 	}
 	
 
@@ -461,6 +868,7 @@ implements IShareableStructureDatabase
 		else
 		{
 			ClassInfo theClassInfo = itsClassInfos.get(aName);
+			if (theClassInfo == null) theClassInfo = loadClass(aName);
 			if (theClassInfo == null) 
 			{
 				if (aFailIfAbsent) throw new RuntimeException("Class not found: "+aName);
@@ -512,6 +920,8 @@ implements IShareableStructureDatabase
 
 		itsIds.registerClassId(aClass.getId());
 		Utils.listSet(itsClasses, aClass.getId(), (ClassInfo) aClass);
+		Utils.listSet(itsClassNames, aClass.getId(), aClass.getName());
+		markDirty(aClass.getId());
 		
 		if (itsAllowHomonymClasses)
 		{
@@ -531,11 +941,16 @@ implements IShareableStructureDatabase
 	{
 		try
 		{
-			TODUtils.TLongArrayListSet(itsByteCodeOffsets, aClassId, itsFile.getFilePointer());
-			itsFile.writeInt(aBytecode.length);
-			itsFile.write(aBytecode);
-			itsFile.writeInt(aOriginalBytecode.length);
-			itsFile.write(aOriginalBytecode);
+			synchronized (itsFile)
+			{
+				TODUtils.TLongArrayListSet(itsByteCodeOffsets, aClassId, itsAppendOffset);
+				itsFile.seek(itsAppendOffset);
+				itsFile.writeInt(aBytecode.length);
+				itsFile.write(aBytecode);
+				itsFile.writeInt(aOriginalBytecode.length);
+				itsFile.write(aOriginalBytecode);
+				itsAppendOffset = itsFile.getFilePointer();
+			}
 		}
 		catch (IOException e)
 		{
@@ -587,12 +1002,18 @@ implements IShareableStructureDatabase
 	public BehaviorInfo getBehavior(int aId, boolean aFailIfAbsent)
 	{
 		BehaviorInfo theBehavior = aId >= 0 ? Utils.listGet(itsBehaviors, aId) : null;
+		if (theBehavior == null && aId >= 0 && aId < itsBehaviorClassIds.size()) 
+		{
+			loadClass(itsBehaviorClassIds.get(aId));
+			theBehavior = Utils.listGet(itsBehaviors, aId);
+		}
 		if (theBehavior == null && aFailIfAbsent) throw new RuntimeException("Behavior not found: "+aId);
 		return theBehavior;
 	}
 	
 	public IBehaviorInfo[] getBehaviors()
 	{
+		loadAllClasses();
 		List<IBehaviorInfo> theBehaviors = new ArrayList<IBehaviorInfo>();
 		for (IBehaviorInfo theBehavior : itsBehaviors)
 		{
@@ -606,6 +1027,11 @@ implements IShareableStructureDatabase
 		itsIds.registerBehaviorId(aBehavior.getId());
 
 		Utils.listSet(itsBehaviors, aBehavior.getId(), (BehaviorInfo) aBehavior);
+		
+		int theClassId = aBehavior.getDeclaringType().getId();
+		TODUtils.TIntArrayListSet(itsBehaviorClassIds, aBehavior.getId(), theClassId);
+		markDirty(theClassId);
+		
 		if (DebugFlags.LOG_STRUCTURE) 
 		{
 			System.out.println(String.format(
@@ -621,6 +1047,7 @@ implements IShareableStructureDatabase
 	public ClassInfo getClass(int aId, boolean aFailIfAbsent)
 	{
 		ClassInfo theClass = Utils.listGet(itsClasses, aId);
+		if (theClass == null) theClass = loadClass(aId);
 		if (theClass == null && aFailIfAbsent) throw new RuntimeException("Class not found: "+aId);
 		return theClass;
 	}
@@ -628,6 +1055,11 @@ implements IShareableStructureDatabase
 	public FieldInfo getField(int aId, boolean aFailIfAbsent)
 	{
 		FieldInfo theField = Utils.listGet(itsFields, aId);
+		if (theField == null && aId >= 0 && aId < itsFieldClassIds.size()) 
+		{
+			loadClass(itsFieldClassIds.get(aId));
+			theField = Utils.listGet(itsFields, aId);
+		}
 		if (theField == null && aFailIfAbsent) throw new RuntimeException("Field not found: "+aId);
 		return theField;
 	}
@@ -636,6 +1068,11 @@ implements IShareableStructureDatabase
 	{
 		itsIds.registerFieldId(aField.getId());
 		Utils.listSet(itsFields, aField.getId(), (FieldInfo) aField);
+		
+		int theClassId = aField.getDeclaringType().getId();
+		TODUtils.TIntArrayListSet(itsFieldClassIds, aField.getId(), theClassId);
+		markDirty(theClassId);
+		
 		for (Listener theListener : itsListeners) theListener.fieldAdded(aField);
 	}
 	
@@ -713,6 +1150,7 @@ implements IShareableStructureDatabase
 	
 	public IClassInfo[] getClasses()
 	{
+		loadAllClasses();
 		List<IClassInfo> theClasses = new ArrayList<IClassInfo>();
 		for (IClassInfo theClass : itsClasses)
 		{
@@ -933,13 +1371,18 @@ implements IShareableStructureDatabase
 	{
 		try
 		{
-			itsFile.seek(itsByteCodeOffsets.get(aClassId));
-			int l = itsFile.readInt();
-			byte[] theBytecode = new byte[l];
-			itsFile.readFully(theBytecode);
-			l = itsFile.readInt();
-			byte[] theOriginalBytecode = new byte[l];
-			itsFile.readFully(theOriginalBytecode);
+			byte[] theBytecode;
+			byte[] theOriginalBytecode;
+			synchronized (itsFile)
+			{
+				itsFile.seek(itsByteCodeOffsets.get(aClassId));
+				int l = itsFile.readInt();
+				theBytecode = new byte[l];
+				itsFile.readFully(theBytecode);
+				l = itsFile.readInt();
+				theOriginalBytecode = new byte[l];
+				itsFile.readFully(theOriginalBytecode);
+			}
 			
 			ClassInfo theClass = getClass(aClassId, true);
 			theClass._setBytecode(theBytecode, theOriginalBytecode);
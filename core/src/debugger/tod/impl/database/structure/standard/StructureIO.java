@@ -0,0 +1,124 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+This program is free software; you can redistribute it and/or 
+modify it under the terms of the GNU General Public License 
+version 2 as published by the Free Software Foundation.
+
+This program is distributed in the hope that it will be useful, 
+but WITHOUT ANY WARRANTY; without even the implied warranty of 
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License 
+along with this program; if not, write to the Free Software 
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, 
+MA 02111-1307 USA
+
+Parts of this work rely on the MD5 algorithm "derived from the 
+RSA Data Security, Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.database.structure.standard;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import tod.core.database.structure.IArrayTypeInfo;
+import tod.core.database.structure.IStructureDatabase;
+import tod.core.database.structure.ITypeInfo;
+
+/**
+ * Primitives of the binary format of {@link StructureDatabase}.
+ * @author gpothier
+ */
+final class StructureIO
+{
+	private StructureIO()
+	{
+	}
+	
+	/**
+	 * Writes a possibly null string. Contrary to {@link DataOutput#writeUTF(String)}
+	 * there is no limit on the length of the string.
+	 */
+	public static void writeString(DataOutput aOutput, String aString) throws IOException
+	{
+		if (aString == null) 
+		{
+			aOutput.writeInt(-1);
+			return;
+		}
+		
+		byte[] theBytes = aString.getBytes("UTF-8");
+		aOutput.writeInt(theBytes.length);
+		aOutput.write(theBytes);
+	}
+	
+	public static String readString(DataInput aInput) throws IOException
+	{
+		int theLength = aInput.readInt();
+		if (theLength == -1) return null;
+		
+		byte[] theBytes = new byte[theLength];
+		aInput.readFully(theBytes);
+		return new String(theBytes, "UTF-8");
+	}
+	
+	/**
+	 * Writes a possibly null array of ints.
+	 */
+	public static void writeInts(DataOutput aOutput, int[] aValues) throws IOException
+	{
+		if (aValues == null)
+		{
+			aOutput.writeInt(-1);
+			return;
+		}
+		
+		aOutput.writeInt(aValues.length);
+		for (int theValue : aValues) aOutput.writeInt(theValue);
+	}
+	
+	public static int[] readInts(DataInput aInput) throws IOException
+	{
+		int theLength = aInput.readInt();
+		if (theLength == -1) return null;
+		
+		int[] theValues = new int[theLength];
+		for(int i=0;i<theLength;i++) theValues[i] = aInput.readInt();
+		return theValues;
+	}
+	
+	/**
+	 * Writes a reference to a type: its id, or the id of its element type and 
+	 * its dimension for array types.
+	 */
+	public static void writeType(DataOutput aOutput, ITypeInfo aType) throws IOException
+	{
+		if (aType instanceof IArrayTypeInfo)
+		{
+			IArrayTypeInfo theType = (IArrayTypeInfo) aType;
+			aOutput.writeByte(theType.getDimensions());
+			aOutput.writeInt(theType.getElementType().getId());
+		}
+		else
+		{
+			aOutput.writeByte(0);
+			aOutput.writeInt(aType.getId());
+		}
+	}
+	
+	/**
+	 * Reads a type reference written by {@link #writeType(DataOutput, ITypeInfo)}.
+	 * Note that this might cause the referenced class to be loaded.
+	 */
+	public static ITypeInfo readType(DataInput aInput, IStructureDatabase aDatabase) throws IOException
+	{
+		int theDimensions = aInput.readUnsignedByte();
+		ITypeInfo theType = aDatabase.getType(aInput.readInt(), true);
+		return theDimensions > 0 ? aDatabase.getArrayType(theType, theDimensions) : theType;
+	}
+}
@@ -22,6 +22,9 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.database.structure.standard;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import tod.core.database.structure.IShareableStructureDatabase;
 import tod.core.database.structure.ITypeInfo;
 
@@ -46,6 +49,11 @@ public abstract class TypeInfo extends LocationInfo implements ITypeInfo
 		super(aDatabase, aId);
 	}
 	
+	protected TypeInfo(IShareableStructureDatabase aDatabase, DataInput aInput) throws IOException
+	{
+		super(aDatabase, aInput);
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -0,0 +1,98 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import java.tod.util.CompactValueSender;
+
+import tod.impl.server.BufferStream;
+
+/**
+ * Symmetric of {@link CompactValueSender}
+ * @author gpothier
+ */
+public class CompactValueReceiver
+{
+	private long itsCurrentLongValue = 0;
+	
+	public int receiveInt(BufferStream aBuffer)
+	{
+		return (int) unZigZag(getVarLong(aBuffer));
+	}
+	
+	public short receiveShort(BufferStream aBuffer)
+	{
+		return (short) unZigZag(getVarLong(aBuffer));
+	}
+	
+	public char receiveChar(BufferStream aBuffer)
+	{
+		return (char) getVarLong(aBuffer);
+	}
+	
+	public long receiveLong(BufferStream aBuffer)
+	{
+		itsCurrentLongValue += unZigZag(getVarLong(aBuffer));
+		return itsCurrentLongValue;
+	}
+	
+	/**
+	 * Returns the last long value received, needed to resume decoding from a snapshot.
+	 */
+	public long getCurrentLongValue()
+	{
+		return itsCurrentLongValue;
+	}
+	
+	public void setCurrentLongValue(long aCurrentLongValue)
+	{
+		itsCurrentLongValue = aCurrentLongValue;
+	}
+	
+	private static long unZigZag(long aValue)
+	{
+		return (aValue >>> 1) ^ -(aValue & 1);
+	}
+	
+	private static long getVarLong(BufferStream aBuffer)
+	{
+		long theValue = 0;
+		int theShift = 0;
+		while(true)
+		{
+			byte b = aBuffer.get();
+			theValue |= (long) (b & 0x7f) << theShift;
+			if (b >= 0) return theValue;
+			theShift += 7;
+			if (theShift > 63) throw new RuntimeException("Malformed varint");
+		}
+	}
+}
@@ -35,24 +35,55 @@ import tod.core.database.structure.ObjectId;
 
 /**
  * Receives events generated by the replayer.
+ * Object references are passed as primitive ids (0 for null); the methods that
+ * take an {@link ObjectId} are only adapters for callers that hold one.
  * @author gpothier
  */
 public abstract class EventCollector
 {
-	public void fieldRead(ObjectId aTarget, int aFieldSlotIndex)
+	/**
+	 * Returns the id of the given object, or 0 if it is null.
+	 * Used by generated replayers.
+	 */
+	public static long getId(ObjectId aId)
+	{
+		return aId != null ? aId.getId() : 0;
+	}
+	
+	public void fieldRead(long aTargetId, int aFieldSlotIndex)
+	{
+	}
+	
+	public void fieldWrite(long aTargetId, int aFieldSlotIndex)
+	{
+	}
+	
+	public void arrayRead(long aTargetId, int aIndex)
+	{
+	}
+	
+	public void arrayWrite(long aTargetId, int aIndex)
+	{
+	}
+	
+	public final void fieldRead(ObjectId aTarget, int aFieldSlotIndex)
 	{
+		fieldRead(getId(aTarget), aFieldSlotIndex);
 	}
 	
-	public void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
+	public final void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
 	{
+		fieldWrite(getId(aTarget), aFieldSlotIndex);
 	}
 	
-	public void arrayRead(ObjectId aTarget, int aIndex)
+	public final void arrayRead(ObjectId aTarget, int aIndex)
 	{
+		arrayRead(getId(aTarget), aIndex);
 	}
 	
-	public void arrayWrite(ObjectId aTarget, int aIndex)
+	public final void arrayWrite(ObjectId aTarget, int aIndex)
 	{
+		arrayWrite(getId(aTarget), aIndex);
 	}
 	
 	public void localWrite(int aSlot)
@@ -69,10 +100,18 @@ public abstract class EventCollector
 	{
 	}
 	
-	public void value(ObjectId aValue)
+	/**
+	 * Value of a reference, see {@link #getId(ObjectId)}.
+	 */
+	public void refValue(long aValueId)
 	{
 	}
 	
+	public final void value(ObjectId aValue)
+	{
+		refValue(getId(aValue));
+	}
+	
 	public void value(int aValue)
 	{
 	}
@@ -95,7 +134,17 @@ public abstract class EventCollector
 	public void localsSnapshot(LocalsSnapshot aSnapshot)
 	{
 	}
-	
+
+	/**
+	 * Called by the first pass when a block ends, ie. when the snapshot that
+	 * starts the next block is registered.
+	 * @param aMessageCount Number of messages of the block.
+	 * @param aReplayTime Time taken to replay the block (ns).
+	 */
+	public void blockFinished(int aMessageCount, long aReplayTime)
+	{
+	}
+
 	public void enter(int aBehaviorId, int aArgsCount)
 	{
 	}
@@ -111,6 +160,15 @@ public abstract class EventCollector
 	public void registerString(ObjectId aId, String aString)
 	{
 	}
+	
+	/**
+	 * Registers a string whose content is the same as that of a previously 
+	 * registered string.
+	 * @param aContentId The id of the previously registered string.
+	 */
+	public void registerStringAlias(long aId, long aContentId)
+	{
+	}
 
 	/**
 	 * Registers the association between a temporary id and the corresponding final id.
@@ -118,5 +176,13 @@ public abstract class EventCollector
 	public void associateIds(long aTmpId, long aRealId) 
 	{
 	}
+	
+	/**
+	 * Called when the replay of the thread is finished, ie. when the end 
+	 * of the thread or of the trace is reached.
+	 */
+	public void replayFinished()
+	{
+	}
 
 }
@@ -85,7 +85,7 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
-	public static byte expectAndSendIntFieldRead(ThreadReplayer aReplayer, ObjectId aTarget, int aFieldSlotIndex, byte aCachedValue)
+	public static byte expectAndSendByteFieldRead(ThreadReplayer aReplayer, ObjectId aTarget, int aFieldSlotIndex, byte aCachedValue)
 	{
 		byte theValue;
 		
@@ -431,6 +431,24 @@ public class InScopeReplayerFrame
 		
 		return theValue;
 	}
+	
+	public static boolean expectAndSendBooleanArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, boolean aPredictedValue)
+	{
+		boolean theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readBoolean(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue ? 1 : 0);
+		
+		return theValue;
+	}
 
 	public static byte expectAndSendByteArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
@@ -445,6 +463,24 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static byte expectAndSendByteArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, byte aPredictedValue)
+	{
+		byte theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readByte(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
 	public static char expectAndSendCharArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
 		byte m = getNextMessageConsumingClassloading(aReplayer);
@@ -458,6 +494,24 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static char expectAndSendCharArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, char aPredictedValue)
+	{
+		char theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readChar(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
 	public static double expectAndSendDoubleArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
 		byte m = getNextMessageConsumingClassloading(aReplayer);
@@ -471,6 +525,24 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static double expectAndSendDoubleArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, double aPredictedValue)
+	{
+		double theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readDouble(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
 	public static float expectAndSendFloatArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
 		byte m = getNextMessageConsumingClassloading(aReplayer);
@@ -484,6 +556,24 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static float expectAndSendFloatArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, float aPredictedValue)
+	{
+		float theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readFloat(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
 	public static int expectAndSendIntArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
 		byte m = getNextMessageConsumingClassloading(aReplayer);
@@ -497,6 +587,24 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static int expectAndSendIntArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, int aPredictedValue)
+	{
+		int theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readInt(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
 	public static long expectAndSendLongArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
 		byte m = getNextMessageConsumingClassloading(aReplayer);
@@ -510,6 +618,24 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static long expectAndSendLongArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, long aPredictedValue)
+	{
+		long theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readLong(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
 	public static ObjectId expectAndSendRefArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex)
 	{
 		byte m = getNextMessageConsumingClassloading(aReplayer);
@@ -536,6 +662,33 @@ public class InScopeReplayerFrame
 		return theValue;
 	}
 	
+	public static short expectAndSendShortArrayRead(ThreadReplayer aReplayer, ObjectId aTarget, int aIndex, short aPredictedValue)
+	{
+		short theValue;
+		
+		byte m = getNextMessageConsumingClassloading(aReplayer);
+		switch(m)
+		{
+		case Message.ARRAY_READ: theValue = aReplayer.readShort(); break;
+		case Message.ARRAY_READ_SAME: theValue = aPredictedValue; break;
+		default: throw new UnexpectedMessageException(m);
+		}
+		
+		aReplayer.getCollector().arrayRead(aTarget, aIndex);
+		aReplayer.getCollector().value(theValue);
+		
+		return theValue;
+	}
+	
+	
+	/**
+	 * Records the value of a predicted field or array read, see {@link ThreadReplayer#getPrediction(int)}.
+	 * Takes the bits first so that generated code can compute them from the value on the stack.
+	 */
+	public static void updatePrediction(long aBits, ThreadReplayer aReplayer, int aPredictionSlot)
+	{
+		aReplayer.setPrediction(aPredictionSlot, aBits);
+	}
 	
 	public static int expectArrayLength(ThreadReplayer aReplayer)
 	{
@@ -35,6 +35,7 @@ import java.io.Serializable;
 
 import tod.core.database.structure.ObjectId;
 import tod.utils.ByteBuffer;
+import tod2.agent.AgentConfig;
 
 public class LocalsSnapshot implements Serializable
 {
@@ -69,6 +70,31 @@ public class LocalsSnapshot implements Serializable
 	 */
 	private long itsObjIdCurrentValue;
 	
+	/**
+	 * Message budget of the {@link SnapshotPolicy} in effect from this snapshot on.
+	 * 0 (also for snapshots stored before the budget existed) means the fixed policy.
+	 */
+	private int itsMessageBudget;
+	
+	/**
+	 * Next temporary id of the thread at the time the snapshot was taken 
+	 * (see {@link TmpIdManager#getNextId()}), or 0 if unknown.
+	 */
+	private long itsNextTmpId;
+	
+	/**
+	 * As long values can be encoded with deltas (see {@link CompactValueReceiver}),
+	 * we need the current value at the time the snapshot was taken.
+	 */
+	private long itsLongCurrentValue;
+	
+	/**
+	 * Value prediction table of the thread at the time the snapshot was taken
+	 * (see {@link ThreadReplayer#getPrediction(int)}), or null if prediction is not used.
+	 * Only the non-zero entries are stored in the serialized form.
+	 */
+	private long[] itsPredictions;
+	
 	private int itsIntValuesIndex;
 	private int[] itsIntValues;
 	
@@ -111,6 +137,16 @@ public class LocalsSnapshot implements Serializable
 		itsProbeId = aBuffer.getInt();
 		itsBehIdCurrentValue = aBuffer.getInt();
 		itsObjIdCurrentValue = aBuffer.getLong();
+		itsMessageBudget = aBuffer.getInt();
+		itsNextTmpId = aBuffer.getLong();
+		itsLongCurrentValue = aBuffer.getLong();
+		
+		int thePredictionsCount = aBuffer.getShort();
+		if (thePredictionsCount > 0) 
+		{
+			itsPredictions = new long[AgentConfig.VALUE_PREDICTION_SIZE];
+			for(int i=0;i<thePredictionsCount;i++) itsPredictions[aBuffer.getShort()] = aBuffer.getLong();
+		}
 		
 		itsIntValuesIndex = aBuffer.getShort();
 		itsIntValues = new int[itsIntValuesIndex];
@@ -144,6 +180,19 @@ public class LocalsSnapshot implements Serializable
 		aBuffer.putInt(itsProbeId);
 		aBuffer.putInt(itsBehIdCurrentValue);
 		aBuffer.putLong(itsObjIdCurrentValue);
+		aBuffer.putInt(itsMessageBudget);
+		aBuffer.putLong(itsNextTmpId);
+		aBuffer.putLong(itsLongCurrentValue);
+		
+		int thePredictionsCount = 0;
+		if (itsPredictions != null) for(int i=0;i<itsPredictions.length;i++) if (itsPredictions[i] != 0) thePredictionsCount++;
+		aBuffer.putShort((short) thePredictionsCount);
+		if (thePredictionsCount > 0) for(int i=0;i<itsPredictions.length;i++) 
+		{
+			if (itsPredictions[i] == 0) continue;
+			aBuffer.putShort((short) i);
+			aBuffer.putLong(itsPredictions[i]);
+		}
 		
 		aBuffer.putShort((short) itsIntValues.length);
 		aBuffer.putInts(itsIntValues);
@@ -190,7 +239,50 @@ public class LocalsSnapshot implements Serializable
 	{
 		return itsObjIdCurrentValue;
 	}
-	
+
+	public int getMessageBudget()
+	{
+		return itsMessageBudget;
+	}
+
+	public void setMessageBudget(int aMessageBudget)
+	{
+		itsMessageBudget = aMessageBudget;
+	}
+
+	public long getNextTmpId()
+	{
+		return itsNextTmpId;
+	}
+
+	public void setNextTmpId(long aNextTmpId)
+	{
+		itsNextTmpId = aNextTmpId;
+	}
+
+	public long getLongCurrentValue()
+	{
+		return itsLongCurrentValue;
+	}
+
+	public void setLongCurrentValue(long aLongCurrentValue)
+	{
+		itsLongCurrentValue = aLongCurrentValue;
+	}
+
+	public long[] getPredictions()
+	{
+		return itsPredictions;
+	}
+
+	/**
+	 * Sets the value prediction table of this snapshot to a copy of the given table.
+	 */
+	public void setPredictions(long[] aPredictions)
+	{
+		itsPredictions = aPredictions.clone();
+	}
+
 	public void alloc(
 			int aIntValuesCount, 
 			int aLongValuesCount, 
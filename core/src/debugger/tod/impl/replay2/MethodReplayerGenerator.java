@@ -680,13 +680,31 @@ public abstract class MethodReplayerGenerator
 	}
 
 	/**
-	 * Invokes one of the value() methods of {@link EventCollector}. 
+	 * Invokes one of the value() methods of {@link EventCollector}, or
+	 * {@link EventCollector#refValue(long)} for references. 
 	 * Assumes that the collector and the value are on the stack
 	 * @param s
 	 */
 	public static void invokeValue(SList s, Type aType)
 	{
-		s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "value", "("+getActualReplayType(aType).getDescriptor()+")V");
+		Type theType = getActualReplayType(aType);
+		if (theType.getSort() == Type.OBJECT)
+		{
+			invokeGetId(s);
+			s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "refValue", "(J)V");
+		}
+		else
+		{
+			s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "value", "("+theType.getDescriptor()+")V");
+		}
+	}
+	
+	/**
+	 * Replaces the {@link ObjectId} on top of the stack by its id.
+	 */
+	private static void invokeGetId(SList s)
+	{
+		s.INVOKESTATIC(CLS_EVENTCOLLECTOR_REPLAY, "getId", "("+DSC_OBJECTID+")J");
 	}
 	
 	private void processInstructions(InsnList aInsns)
@@ -1197,7 +1215,15 @@ public abstract class MethodReplayerGenerator
 		s.SWAP();
 		s.pushInt(StructureDatabaseUtils.getFieldSlotIndex(itsDatabase, aNode.owner, aNode.name, true));
 		
-		if (DebugFlags.USE_FIELD_CACHE)
+		if (DebugFlags.USE_VALUE_PREDICTION && MethodInfo.isPredictedRead(aNode))
+		{
+			int thePredictionSlot = itsMethodInfo.getPredictionSlot(getBehaviorId(), aNode);
+			pushPrediction(s, thePredictionSlot, theType);
+			String theExpectMethodDesc = "("+DSC_THREADREPLAYER+DSC_OBJECTID+"I"+theType.getDescriptor()+")"+theType.getDescriptor();
+			s.INVOKESTATIC(CLS_INSCOPEREPLAYERFRAME, theExpectMethodName, theExpectMethodDesc);
+			updatePrediction(s, thePredictionSlot, theType);
+		}
+		else if (DebugFlags.USE_FIELD_CACHE)
 		{
 			Integer theCacheSlot = itsMethodInfo.getCacheSlot(aNode);
 			s.ILOAD(theCacheSlot);
@@ -1228,8 +1254,9 @@ public abstract class MethodReplayerGenerator
 		s.DUP();
 		
 		s.ALOAD(itsTmpTargetVar);
+		invokeGetId(s);
 		s.LDC(StructureDatabaseUtils.getFieldSlotIndex(itsDatabase, aNode.owner, aNode.name, true));
-		s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "fieldWrite", "("+DSC_OBJECTID+"I)V");
+		s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "fieldWrite", "(JI)V");
 		
 		s.ILOAD(theType, itsTmpValueVar);
 		invokeValue(s, theType);
@@ -1252,8 +1279,9 @@ public abstract class MethodReplayerGenerator
 		s.DUP();
 		
 		s.ALOAD(itsTmpTargetVar);
+		invokeGetId(s);
 		s.ILOAD(itsTmpIndexVar);
-		s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "arrayWrite", "("+DSC_OBJECTID+"I)V");
+		s.INVOKEVIRTUAL(CLS_EVENTCOLLECTOR_REPLAY, "arrayWrite", "(JI)V");
 		
 		s.ILOAD(theElementType, itsTmpValueVar);
 		invokeValue(s, theElementType);
@@ -1277,12 +1305,49 @@ public abstract class MethodReplayerGenerator
 		s.ALOAD(itsThreadReplayerSlot);
 		s.ALOAD(itsTmpTargetVar);
 		s.ILOAD(itsTmpIndexVar);
-		String theExpectMethodDesc = "("+DSC_THREADREPLAYER+DSC_OBJECTID+"I)"+theType.getDescriptor();
-		s.INVOKESTATIC(CLS_INSCOPEREPLAYERFRAME, theExpectMethodName, theExpectMethodDesc);
+		
+		if (DebugFlags.USE_VALUE_PREDICTION && MethodInfo.isPredictedRead(aNode))
+		{
+			int thePredictionSlot = itsMethodInfo.getPredictionSlot(getBehaviorId(), aNode);
+			pushPrediction(s, thePredictionSlot, theType);
+			String theExpectMethodDesc = "("+DSC_THREADREPLAYER+DSC_OBJECTID+"I"+theType.getDescriptor()+")"+theType.getDescriptor();
+			s.INVOKESTATIC(CLS_INSCOPEREPLAYERFRAME, theExpectMethodName, theExpectMethodDesc);
+			updatePrediction(s, thePredictionSlot, theType);
+		}
+		else
+		{
+			String theExpectMethodDesc = "("+DSC_THREADREPLAYER+DSC_OBJECTID+"I)"+theType.getDescriptor();
+			s.INVOKESTATIC(CLS_INSCOPEREPLAYERFRAME, theExpectMethodName, theExpectMethodDesc);
+		}
 
 		aInsns.insert(aNode, s);
 		aInsns.remove(aNode);
 	}
+	
+	/**
+	 * Pushes the value predicted by the given slot of the value prediction table
+	 * (see {@link DebugFlags#USE_VALUE_PREDICTION}).
+	 */
+	private void pushPrediction(SList s, int aPredictionSlot, Type aType)
+	{
+		s.ALOAD(itsThreadReplayerSlot);
+		s.pushInt(aPredictionSlot);
+		s.INVOKEVIRTUAL(CLS_THREADREPLAYER, "getPrediction", "(I)J");
+		s.fromLongBits(aType);
+	}
+	
+	/**
+	 * Records the value on top of the stack (which is left untouched) in the given 
+	 * slot of the value prediction table, as the agent does.
+	 */
+	private void updatePrediction(SList s, int aPredictionSlot, Type aType)
+	{
+		s.DUP(aType);
+		s.toLongBits(aType);
+		s.ALOAD(itsThreadReplayerSlot);
+		s.pushInt(aPredictionSlot);
+		s.INVOKESTATIC(CLS_INSCOPEREPLAYERFRAME, "updatePrediction", "(J"+DSC_THREADREPLAYER+"I)V");
+	}
 
 	private void processArrayLength(InsnList aInsns, InsnNode aNode)
 	{
@@ -68,34 +68,34 @@ public class ReifyEventCollector extends EventCollector
 	}
 	
 	@Override
-	public void fieldRead(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldRead(long aTargetId, int aFieldSlotIndex)
 	{
 		itsEventList.startEvent(EventList.FieldReadEvent.TYPE);
-		itsEventList.put(aTarget);
+		itsEventList.put(aTargetId);
 		itsEventList.put(aFieldSlotIndex);
 	}
 
 	@Override
-	public void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldWrite(long aTargetId, int aFieldSlotIndex)
 	{
 		itsEventList.startEvent(EventList.FieldWriteEvent.TYPE);
-		itsEventList.put(aTarget);
+		itsEventList.put(aTargetId);
 		itsEventList.put(aFieldSlotIndex);
 	}
 
 	@Override
-	public void arrayRead(ObjectId aTarget, int aIndex)
+	public void arrayRead(long aTargetId, int aIndex)
 	{
 		itsEventList.startEvent(EventList.ArrayReadEvent.TYPE);
-		itsEventList.put(aTarget);
+		itsEventList.put(aTargetId);
 		itsEventList.put(aIndex);
 	}
 	
 	@Override
-	public void arrayWrite(ObjectId aTarget, int aIndex)
+	public void arrayWrite(long aTargetId, int aIndex)
 	{
 		itsEventList.startEvent(EventList.ArrayWriteEvent.TYPE);
-		itsEventList.put(aTarget);
+		itsEventList.put(aTargetId);
 		itsEventList.put(aIndex);
 	}
 	
@@ -113,9 +113,9 @@ public class ReifyEventCollector extends EventCollector
 	}
 
 	@Override
-	public void value(ObjectId aValue)
+	public void refValue(long aValueId)
 	{
-		itsEventList.put(aValue);
+		itsEventList.put(aValueId);
 	}
 
 	@Override
@@ -173,6 +173,24 @@ public class ReifyEventCollector extends EventCollector
 		private DataOutputStream itsDataOut = new DataOutputStream(itsOut);
 		private byte[] itsDataBuffer;
 		
+		/**
+		 * Bit vector of cflow events: bit i is set if event i is a cflow event.
+		 */
+		private long[] itsCFlowBits = new long[256];
+		
+		/**
+		 * Number of cflow events before each superblock of {@link #SUPERBLOCK_WORDS} words.
+		 */
+		private int[] itsCFlowSamples = new int[32];
+		
+		private int itsCFlowCount = 0;
+		
+		/**
+		 * Number of words of {@link #itsCFlowBits} per sample of {@link #itsCFlowSamples}.
+		 */
+		private static final int SUPERBLOCK_WORDS = 8;
+		private static final int SUPERBLOCK_SHIFT = 9; // 64*8 bits
+		
 		public EventList(int aThreadId, long aBlockId)
 		{
 			itsThreadId = aThreadId;
@@ -191,6 +209,7 @@ public class ReifyEventCollector extends EventCollector
 		
 		private void startEvent(byte aType)
 		{
+			markCFlow(itsEventTypes.size(), isCFlowType(aType));
 			itsEventTypes.add(aType);
 			itsDataOffsets.add(itsOut.size());
 			itsDataBuffer = null;
@@ -200,11 +219,123 @@ public class ReifyEventCollector extends EventCollector
 		{
 			return itsEventTypes.size();
 		}
+
+		/**
+		 * Returns an estimate of the memory used by this list, in bytes.
+		 */
+		public long getFootprint()
+		{
+			long theSize = 64; // Headers and fields
+			theSize += itsEventTypes.size();
+			theSize += 4L*itsDataOffsets.size();
+			theSize += itsDataBuffer != null ? 2L*itsOut.size() : itsOut.size();
+			theSize += 8L*itsCFlowBits.length + 4L*itsCFlowSamples.length;
+			return theSize;
+		}
+
+		/**
+		 * Records whether the event at the given (next) position is a cflow event.
+		 */
+		private void markCFlow(int aPosition, boolean aCFlow)
+		{
+			int theWord = aPosition >>> 6;
+			if ((aPosition & ((1 << SUPERBLOCK_SHIFT)-1)) == 0)
+			{
+				int theSample = aPosition >>> SUPERBLOCK_SHIFT;
+				if (theSample >= itsCFlowSamples.length) 
+				{
+					int[] theSamples = new int[itsCFlowSamples.length*2];
+					System.arraycopy(itsCFlowSamples, 0, theSamples, 0, itsCFlowSamples.length);
+					itsCFlowSamples = theSamples;
+				}
+				itsCFlowSamples[theSample] = itsCFlowCount;
+			}
+			
+			if (! aCFlow) return;
+			
+			if (theWord >= itsCFlowBits.length) 
+			{
+				long[] theBits = new long[itsCFlowBits.length*2];
+				System.arraycopy(itsCFlowBits, 0, theBits, 0, itsCFlowBits.length);
+				itsCFlowBits = theBits;
+			}
+			itsCFlowBits[theWord] |= 1L << (aPosition & 63);
+			itsCFlowCount++;
+		}
+		
+		/**
+		 * Returns the number of cflow events.
+		 */
+		public int getCFlowEventsCount()
+		{
+			return itsCFlowCount;
+		}
+		
+		/**
+		 * Returns the number of cflow events that occur strictly before the given position.
+		 * @param aPosition A position between 0 and {@link #size()} inclusive.
+		 */
+		public int getCFlowRank(int aPosition)
+		{
+			if (aPosition < 0 || aPosition > size()) throw new IndexOutOfBoundsException(""+aPosition);
+			if (aPosition == size()) return itsCFlowCount;
+			
+			int theWord = aPosition >>> 6;
+			int theRank = itsCFlowSamples[aPosition >>> SUPERBLOCK_SHIFT];
+			for(int i=theWord & ~(SUPERBLOCK_WORDS-1);i<theWord;i++) theRank += Long.bitCount(cflowWord(i));
+			
+			long theMask = (1L << (aPosition & 63)) - 1;
+			return theRank + Long.bitCount(cflowWord(theWord) & theMask);
+		}
+		
+		/**
+		 * Returns the position of the cflow event of the given rank, ie. the 
+		 * position p such that {@link #isCFlowEvent(int)} is true for p and 
+		 * {@link #getCFlowRank(int)} returns aRank for p.
+		 */
+		public int getCFlowEventPosition(int aRank)
+		{
+			if (aRank < 0 || aRank >= itsCFlowCount) throw new IndexOutOfBoundsException(""+aRank);
+			
+			// Find the last superblock that starts with fewer than aRank+1 cflow events
+			int theLow = 0;
+			int theHigh = ((size()-1) >>> SUPERBLOCK_SHIFT);
+			while (theLow < theHigh)
+			{
+				int theMid = (theLow + theHigh + 1) >>> 1;
+				if (itsCFlowSamples[theMid] <= aRank) theLow = theMid;
+				else theHigh = theMid-1;
+			}
+			
+			int theRemaining = aRank - itsCFlowSamples[theLow];
+			int theWord = theLow * SUPERBLOCK_WORDS;
+			while(true)
+			{
+				long theBits = cflowWord(theWord);
+				int theCount = Long.bitCount(theBits);
+				if (theRemaining < theCount)
+				{
+					for(int i=0;i<theRemaining;i++) theBits &= theBits-1; // Clear lowest set bit
+					return (theWord << 6) + Long.numberOfTrailingZeros(theBits);
+				}
+				theRemaining -= theCount;
+				theWord++;
+			}
+		}
+		
+		private long cflowWord(int aWord)
+		{
+			return aWord < itsCFlowBits.length ? itsCFlowBits[aWord] : 0;
+		}
 		
 		public boolean isCFlowEvent(int aIndex)
 		{
-			byte theType = getEventType(aIndex);
-			switch(theType)
+			return isCFlowType(getEventType(aIndex));
+		}
+		
+		private static boolean isCFlowType(byte aType)
+		{
+			switch(aType)
 			{
 			case BehaviorCallEvent.TYPE:
 			case BehaviorReturnEvent.TYPE:
@@ -281,11 +412,6 @@ public class ReifyEventCollector extends EventCollector
 			}
 		}
 		
-		private void put(ObjectId aObjectId)
-		{
-			put(aObjectId != null ? aObjectId.getId() : 0L);
-		}
-		
 		private static ObjectId getObjectId(DataInputStream aStream) throws IOException
 		{
 			long theId = aStream.readLong();
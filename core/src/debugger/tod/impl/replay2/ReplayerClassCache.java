@@ -0,0 +1,299 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import zz.utils.Utils;
+
+/**
+ * A persistent cache of generated replayer classes, packed in a single file.
+ * Entries are keyed by class name and by a digest of the bytecode the class 
+ * was generated from, so that an entry generated for an older version of a 
+ * class is ignored. The payload of each entry is checked against its CRC
+ * the first time it is read.
+ * <p>
+ * The file is an append-only sequence of records. Existing records are 
+ * memory-mapped when the cache is opened; records added afterwards are kept 
+ * in memory. A truncated trailing record (eg. after a crash) is discarded.
+ * @author gpothier
+ */
+public class ReplayerClassCache
+{
+	private static final int MAGIC = 0x70d1ca;
+	
+	/**
+	 * Must be incremented whenever the replayer generators change.
+	 */
+	private static final int VERSION = 3;
+	
+	private static final int HEADER_SIZE = 8;
+	
+	private final RandomAccessFile itsFile;
+	private MappedByteBuffer itsBuffer;
+	private final Map<String, Entry> itsEntries = new HashMap<String, Entry>();
+	
+	private int itsHits = 0;
+	private int itsMisses = 0;
+	private int itsStale = 0;
+	private int itsCorrupted = 0;
+	
+	public ReplayerClassCache(File aFile) 
+	{
+		try
+		{
+			aFile.getParentFile().mkdirs();
+			itsFile = new RandomAccessFile(aFile, "rw");
+			load();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private void load() throws IOException
+	{
+		long theSize = itsFile.length();
+		if (theSize >= HEADER_SIZE)
+		{
+			itsBuffer = itsFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, theSize);
+			if (itsBuffer.getInt(0) == MAGIC && itsBuffer.getInt(4) == VERSION)
+			{
+				int thePos = HEADER_SIZE;
+				while(thePos < theSize)
+				{
+					int theNext = readEntry(thePos);
+					if (theNext == -1) break;
+					thePos = theNext;
+				}
+				
+				if (thePos < theSize) 
+				{
+					Utils.println("Replayer class cache: discarding %d trailing bytes", theSize-thePos);
+					itsFile.setLength(thePos);
+				}
+				return;
+			}
+			
+			// Different format: start over
+			itsBuffer = null;
+			itsEntries.clear();
+		}
+		
+		itsFile.setLength(0);
+		itsFile.writeInt(MAGIC);
+		itsFile.writeInt(VERSION);
+	}
+	
+	/**
+	 * Reads the header of the record at the given position.
+	 * @return The position of the next record, or -1 if the record is incomplete.
+	 */
+	private int readEntry(int aPos)
+	{
+		int theLimit = itsBuffer.limit();
+		if (aPos + 2 > theLimit) return -1;
+		int theNameLength = itsBuffer.getShort(aPos) & 0xffff;
+		int thePos = aPos + 2;
+		if (thePos + theNameLength + 16 > theLimit) return -1;
+		
+		char[] theName = new char[theNameLength];
+		for(int i=0;i<theNameLength;i++) theName[i] = (char) itsBuffer.get(thePos++);
+		long theDigest = itsBuffer.getLong(thePos);
+		int theCRC = itsBuffer.getInt(thePos+8);
+		int theLength = itsBuffer.getInt(thePos+12);
+		thePos += 16;
+		if (theLength < 0 || thePos + theLength > theLimit) return -1;
+		
+		// Later records override earlier ones
+		itsEntries.put(new String(theName), new Entry(theDigest, theCRC, thePos, theLength, null));
+		return thePos + theLength;
+	}
+	
+	/**
+	 * Returns the bytecode of the given class, or null if the cache does not 
+	 * contain a valid entry for the given digest.
+	 */
+	public synchronized byte[] get(String aName, long aDigest)
+	{
+		Entry theEntry = itsEntries.get(aName);
+		if (theEntry == null)
+		{
+			itsMisses++;
+			return null;
+		}
+		
+		if (theEntry.digest != aDigest)
+		{
+			itsStale++;
+			return null;
+		}
+		
+		byte[] theBytecode = theEntry.bytecode;
+		if (theBytecode == null)
+		{
+			theBytecode = new byte[theEntry.length];
+			ByteBuffer theSource = itsBuffer.duplicate();
+			theSource.position(theEntry.offset);
+			theSource.get(theBytecode);
+			
+			if (! theEntry.validated)
+			{
+				if (crc(theBytecode) != theEntry.crc)
+				{
+					itsCorrupted++;
+					itsEntries.remove(aName);
+					return null;
+				}
+				theEntry.validated = true;
+			}
+		}
+		
+		itsHits++;
+		return theBytecode;
+	}
+	
+	/**
+	 * Whether the cache contains an entry for the given class and digest.
+	 * The entry is not validated.
+	 */
+	public synchronized boolean contains(String aName, long aDigest)
+	{
+		Entry theEntry = itsEntries.get(aName);
+		return theEntry != null && theEntry.digest == aDigest;
+	}
+	
+	/**
+	 * Adds an entry to the cache, and appends it to the cache file.
+	 */
+	public synchronized void put(String aName, long aDigest, byte[] aBytecode)
+	{
+		int theCRC = crc(aBytecode);
+		
+		try
+		{
+			ByteArrayOutputStream theOut = new ByteArrayOutputStream(aBytecode.length + aName.length() + 18);
+			DataOutputStream theData = new DataOutputStream(theOut);
+			theData.writeShort(aName.length());
+			theData.writeBytes(aName);
+			theData.writeLong(aDigest);
+			theData.writeInt(theCRC);
+			theData.writeInt(aBytecode.length);
+			theData.write(aBytecode);
+			theData.flush();
+			
+			itsFile.seek(itsFile.length());
+			itsFile.write(theOut.toByteArray());
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		
+		Entry theEntry = new Entry(aDigest, theCRC, -1, aBytecode.length, aBytecode);
+		theEntry.validated = true;
+		itsEntries.put(aName, theEntry);
+	}
+	
+	private static int crc(byte[] aData)
+	{
+		CRC32 theCRC = new CRC32();
+		theCRC.update(aData);
+		return (int) theCRC.getValue();
+	}
+	
+	public int getHits()
+	{
+		return itsHits;
+	}
+	
+	public int getMisses()
+	{
+		return itsMisses;
+	}
+	
+	/**
+	 * Number of lookups that found an entry generated from a different bytecode.
+	 */
+	public int getStale()
+	{
+		return itsStale;
+	}
+	
+	/**
+	 * Number of entries whose payload did not match their CRC.
+	 */
+	public int getCorrupted()
+	{
+		return itsCorrupted;
+	}
+	
+	public synchronized int size()
+	{
+		return itsEntries.size();
+	}
+	
+	private static class Entry
+	{
+		public final long digest;
+		public final int crc;
+		
+		/**
+		 * Offset of the payload in the mapped buffer, if {@link #bytecode} is null.
+		 */
+		public final int offset;
+		public final int length;
+		public final byte[] bytecode;
+		
+		public boolean validated = false;
+		
+		public Entry(long aDigest, int aCRC, int aOffset, int aLength, byte[] aBytecode)
+		{
+			digest = aDigest;
+			crc = aCRC;
+			offset = aOffset;
+			length = aLength;
+			bytecode = aBytecode;
+		}
+	}
+}
@@ -34,12 +34,13 @@ package tod.impl.replay2;
 import static tod.impl.bci.asm2.BCIUtils.*;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -48,6 +49,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
@@ -57,12 +61,14 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import tod.core.DebugFlags;
 import tod.core.config.TODConfig;
 import tod.core.database.structure.IBehaviorInfo;
 import tod.core.database.structure.IClassInfo;
 import tod.core.database.structure.IMutableBehaviorInfo;
 import tod.core.database.structure.IMutableStructureDatabase;
 import tod.core.database.structure.IStructureDatabase;
+import tod.core.database.structure.IStructureDatabase.SnapshotProbeInfo;
 import tod.impl.bci.asm2.BCIUtils;
 import tod.impl.replay2.MethodReplayerGenerator.MethodSignature;
 import tod.impl.server.BufferStream;
@@ -79,7 +85,20 @@ public class ReplayerLoader extends ClassLoader
 	private final ClassLoader itsParent;
 	private TODConfig itsConfig;
 	private final IMutableStructureDatabase itsDatabase;
-	private final File itsCacheBase;
+	private final ReplayerClassCache itsCache;
+	
+	/**
+	 * Digests of the original bytecode of classes, used as cache keys.
+	 */
+	private final Map<IClassInfo, Long> itsDigests = new HashMap<IClassInfo, Long>();
+	
+	/**
+	 * Ids of the behaviors for which a replayer class was requested.
+	 */
+	private final Set<Integer> itsRequestedBehaviorIds = new HashSet<Integer>();
+	
+	private int itsGeneratedCount = 0;
+	private long itsGenerationTime = 0;
 	private final Map<String, byte[]> itsClassesMap = new HashMap<String, byte[]>();
 	
 	private boolean itsFirstPass;
@@ -101,7 +120,8 @@ public class ReplayerLoader extends ClassLoader
 		itsFirstPass = aFirstPass;
 		modifyBaseClasses(aDatabase);
 		
-		itsCacheBase = new File(TODConfig.TMPDIR+"/replayer/"+itsDatabase.getId()+(itsFirstPass ? "/first" : "/partial"));
+		itsCache = new ReplayerClassCache(new File(
+				TODConfig.TMPDIR+"/replayer/"+itsDatabase.getId()+(itsFirstPass ? "/first.pack" : "/partial.pack")));
 		
 		try
 		{
@@ -189,7 +209,7 @@ public class ReplayerLoader extends ClassLoader
 			&& ! aName.equals(EventCollector.class.getName());
 	}
 	
-	private ClassNode getClassNode(IClassInfo aClass)
+	private synchronized ClassNode getClassNode(IClassInfo aClass)
 	{
 		ClassNode theClassNode = itsClassNodeCache.get(aClass);
 		if (theClassNode == null)
@@ -251,71 +271,232 @@ public class ReplayerLoader extends ClassLoader
 				aSnapshotProbeId > 0 ? itsDatabase.getSnapshotProbeInfo(aSnapshotProbeId) : null).generate();
 	}
 	
-	@Override
-	public Class loadClass(String aName) throws ClassNotFoundException
+	/**
+	 * Returns the digest of the original bytecode of the given class.
+	 */
+	private long getDigest(IClassInfo aClass)
 	{
-		byte[] theBytecode;
-		if (aName.startsWith(MethodReplayerGenerator.REPLAY_CLASS_PREFIX))
+		synchronized (itsDigests)
 		{
-			File theCachedClassFile = new File(itsCacheBase, aName);
-			if (theCachedClassFile.exists())
+			Long theDigest = itsDigests.get(aClass);
+			if (theDigest == null)
 			{
+				byte[] theMD5;
 				try
 				{
-					theBytecode = Utils.readInputStream_byte(new FileInputStream(theCachedClassFile));
+					MessageDigest theDigester = MessageDigest.getInstance("MD5");
+					theDigester.update(aClass.getBytecode().original);
+					// The generated replayers also depend on this flag
+					theDigester.update((byte) (DebugFlags.USE_VALUE_PREDICTION ? 1 : 0));
+					theMD5 = theDigester.digest();
 				}
-				catch (IOException e)
+				catch (NoSuchAlgorithmException e)
 				{
 					throw new RuntimeException(e);
 				}
+				long theValue = 0;
+				for(int i=0;i<8;i++) theValue = (theValue << 8) | (theMD5[i] & 0xff);
+				theDigest = theValue;
+				itsDigests.put(aClass, theDigest);
+			}
+			return theDigest;
+		}
+	}
+	
+	/**
+	 * Returns the id of the behavior whose replayer is the given class, or -1
+	 * if it is not a replayer class. 
+	 */
+	private static int getBehaviorId(String aName)
+	{
+		if (! aName.startsWith(MethodReplayerGenerator.REPLAY_CLASS_PREFIX)) return -1;
+		String theName = aName.substring(MethodReplayerGenerator.REPLAY_CLASS_PREFIX.length());
+		int i = theName.indexOf('_');
+		return Integer.parseInt(i == -1 ? theName : theName.substring(0, i));
+	}
+	
+	/**
+	 * Returns the key under which the given class is stored in the cache.
+	 * Snapshot classes only depend on their name.
+	 */
+	private long getCacheDigest(String aName)
+	{
+		int theBehaviorId = getBehaviorId(aName);
+		if (theBehaviorId == -1) return 0;
+		return getDigest(itsDatabase.getBehavior(theBehaviorId, true).getDeclaringType());
+	}
+	
+	/**
+	 * Returns the bytecode of a replayer or snapshot class, either from the cache
+	 * or by generating it.
+	 */
+	private byte[] getGeneratedClass(String aName)
+	{
+		int theBehaviorId = getBehaviorId(aName);
+		if (theBehaviorId != -1) 
+		{
+			synchronized (itsRequestedBehaviorIds)
+			{
+				itsRequestedBehaviorIds.add(theBehaviorId);
+			}
+		}
+		
+		long theDigest = getCacheDigest(aName);
+		byte[] theBytecode = itsCache.get(aName, theDigest);
+		if (theBytecode == null)
+		{
+			theBytecode = generateClass(aName);
+			itsCache.put(aName, theDigest, theBytecode);
+		}
+		return theBytecode;
+	}
+	
+	private byte[] generateClass(String aName)
+	{
+		long t0 = System.nanoTime();
+		byte[] theBytecode;
+		if (aName.startsWith(MethodReplayerGenerator.SNAPSHOT_CLASS_PREFIX))
+		{
+			String theSignature = aName.substring(MethodReplayerGenerator.SNAPSHOT_CLASS_PREFIX.length());
+			theBytecode = createSnapshotClass(theSignature);
+		}
+		else
+		{
+			String theName = aName.substring(MethodReplayerGenerator.REPLAY_CLASS_PREFIX.length());
+			if (itsFirstPass)
+			{
+				int id = Integer.parseInt(theName);
+				theBytecode = createFirstPassReplayerClass(id);
 			}
 			else
 			{
-				String theName = aName.substring(MethodReplayerGenerator.REPLAY_CLASS_PREFIX.length());
-				if (itsFirstPass)
+				String[] theParts = theName.split("_");
+				if (theParts.length == 1)
 				{
-					int id = Integer.parseInt(theName);
-					theBytecode = createFirstPassReplayerClass(id);
+					// Non-startup replayer
+					int theBehaviorId = Integer.parseInt(theParts[0]);
+					theBytecode = createPartialReplayerClass(theBehaviorId, 0);
 				}
 				else
 				{
-					String[] theParts = theName.split("_");
-					if (theParts.length == 1)
-					{
-						// Non-startup replayer
-						int theBehaviorId = Integer.parseInt(theParts[0]);
-						theBytecode = createPartialReplayerClass(theBehaviorId, 0);
-					}
-					else
-					{
-						// Startup replayer
-						int theBehaviorId = Integer.parseInt(theParts[0]);
-						int theSnapshotProbeId = Integer.parseInt(theParts[1]);
-						theBytecode = createPartialReplayerClass(theBehaviorId, theSnapshotProbeId);
-					}
-				}
-				
-				try
-				{
-					theCachedClassFile.getParentFile().mkdirs();
-					theCachedClassFile.createNewFile();
-					FileOutputStream theFileOutputStream = new FileOutputStream(theCachedClassFile);
-					theFileOutputStream.write(theBytecode);
-					theFileOutputStream.flush();
-					theFileOutputStream.close();
+					// Startup replayer
+					int theBehaviorId = Integer.parseInt(theParts[0]);
+					int theSnapshotProbeId = Integer.parseInt(theParts[1]);
+					theBytecode = createPartialReplayerClass(theBehaviorId, theSnapshotProbeId);
 				}
-				catch (IOException e)
+			}
+		}
+		assert theBytecode != null;
+		long t1 = System.nanoTime();
+		
+		synchronized (this)
+		{
+			itsGeneratedCount++;
+			itsGenerationTime += t1-t0;
+		}
+		return theBytecode;
+	}
+	
+	/**
+	 * Returns the ids of the behaviors for which a replayer class was requested
+	 * so far.
+	 */
+	public int[] getRequestedBehaviorIds()
+	{
+		synchronized (itsRequestedBehaviorIds)
+		{
+			int[] theResult = new int[itsRequestedBehaviorIds.size()];
+			int i = 0;
+			for (Integer theId : itsRequestedBehaviorIds) theResult[i++] = theId;
+			return theResult;
+		}
+	}
+	
+	/**
+	 * Generates in parallel the partial replayer classes of the given behaviors 
+	 * and snapshot probes that are not already in the cache, so that later
+	 * partial replays do not have to generate them.
+	 * @param aBehaviorIds Behaviors for which to generate a regular replayer.
+	 * @param aSnapshotProbeIds Snapshot probes for which to generate a startup replayer.
+	 */
+	public void generateAhead(int[] aBehaviorIds, int[] aSnapshotProbeIds)
+	{
+		assert ! itsFirstPass;
+		long t0 = System.currentTimeMillis();
+		
+		List<String> theNames = new ArrayList<String>();
+		for (int theId : aBehaviorIds) theNames.add(MethodReplayerGenerator.REPLAY_CLASS_PREFIX+theId);
+		for (int theId : aSnapshotProbeIds)
+		{
+			SnapshotProbeInfo theProbe = itsDatabase.getSnapshotProbeInfo(theId);
+			if (theProbe == null) continue;
+			theNames.add(MethodReplayerGenerator.REPLAY_CLASS_PREFIX+theProbe.behaviorId+"_"+theProbe.id);
+		}
+		
+		ExecutorService theExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		List<Future<?>> theFutures = new ArrayList<Future<?>>();
+		int theCount = 0;
+		for (final String theName : theNames)
+		{
+			final long theDigest = getCacheDigest(theName);
+			if (itsCache.contains(theName, theDigest)) continue;
+			
+			theCount++;
+			theFutures.add(theExecutor.submit(new Runnable()
+			{
+				public void run()
 				{
-					throw new RuntimeException(e);
+					itsCache.put(theName, theDigest, generateClass(theName));
 				}
-			}
+			}));
 		}
-		else if (aName.startsWith(MethodReplayerGenerator.SNAPSHOT_CLASS_PREFIX))
+		
+		try
 		{
-			String theSignature = aName.substring(MethodReplayerGenerator.SNAPSHOT_CLASS_PREFIX.length());
-			theBytecode = createSnapshotClass(theSignature);
-			BCIUtils.writeClass(TODConfig.TMPDIR+"/replayer", aName, theBytecode);
-			assert theBytecode != null;
+			for (Future<?> theFuture : theFutures) theFuture.get();
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			theExecutor.shutdown();
+		}
+		
+		long t1 = System.currentTimeMillis();
+		Utils.println("Generated %d replayer classes ahead of time in %dms", theCount, t1-t0);
+		printStats();
+	}
+	
+	public void printStats()
+	{
+		Utils.println(
+				"Replayer classes: %d cached, %d hits, %d misses, %d stale, %d corrupted; generated %d in %dms", 
+				itsCache.size(),
+				itsCache.getHits(),
+				itsCache.getMisses(),
+				itsCache.getStale(),
+				itsCache.getCorrupted(),
+				itsGeneratedCount,
+				itsGenerationTime/1000000);
+	}
+	
+	/**
+	 * Synchronized because blocks can be replayed concurrently (see BlockCache),
+	 * and a class must be defined only once.
+	 */
+	@Override
+	public synchronized Class loadClass(String aName) throws ClassNotFoundException
+	{
+		Class theClass = findLoadedClass(aName);
+		if (theClass != null) return theClass;
+		
+		byte[] theBytecode;
+		if (aName.startsWith(MethodReplayerGenerator.REPLAY_CLASS_PREFIX)
+				|| aName.startsWith(MethodReplayerGenerator.SNAPSHOT_CLASS_PREFIX))
+		{
+			theBytecode = getGeneratedClass(aName);
 		}
 		else
 		{
@@ -0,0 +1,127 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import tod.core.DebugFlags;
+
+/**
+ * Decides, at each SYNC message, whether a new block (and thus a {@link LocalsSnapshot})
+ * should start.
+ * <p>
+ * With the fixed policy, blocks span at least {@link DebugFlags#STIQ_SNAPSHOT_INTERVAL}
+ * of trace time. With the adaptive policy ({@link DebugFlags#STIQ_ADAPTIVE}),
+ * each thread has a message budget per block, derived from the replay cost per 
+ * message measured during the first pass so that partially replaying a block takes 
+ * about {@link DebugFlags#STIQ_MAX_BLOCK_TIME}. Message-dense threads thus get
+ * small blocks, and sparse threads get few snapshots.
+ * In both cases blocks contain at least {@link DebugFlags#STIQ_MIN_BLOCK_SIZE} messages.
+ * <p>
+ * Partial replays must end blocks exactly where the first pass did, so the 
+ * decision only depends on the stream and on the budget. The budget only 
+ * changes when a snapshot is registered, and is stored in each snapshot
+ * (see {@link LocalsSnapshot#getMessageBudget()}).
+ * @author gpothier
+ */
+public class SnapshotPolicy
+{
+	/**
+	 * Weight of the last block in the moving average of the cost per message.
+	 */
+	private static final float SMOOTHING = 0.25f;
+	
+	/**
+	 * Messages per block, or 0 for the fixed policy.
+	 */
+	private int itsBudget;
+	
+	/**
+	 * Moving average of the replay time per message (ns), or -1 if unknown.
+	 */
+	private float itsCostPerMessage = -1;
+	
+	public SnapshotPolicy()
+	{
+		itsBudget = DebugFlags.STIQ_ADAPTIVE ? DebugFlags.STIQ_MAX_BLOCK_SIZE : 0;
+	}
+	
+	/**
+	 * Whether a snapshot is due at a SYNC message.
+	 * @param aDelta Trace time since the last snapshot.
+	 * @param aMessages Number of messages since the last snapshot.
+	 */
+	public boolean isSnapshotDue(long aDelta, int aMessages)
+	{
+		if (aMessages < DebugFlags.STIQ_MIN_BLOCK_SIZE) return false;
+		if (itsBudget == 0) return aDelta >= DebugFlags.STIQ_SNAPSHOT_INTERVAL;
+		return aMessages >= itsBudget || aDelta >= DebugFlags.STIQ_MAX_SNAPSHOT_INTERVAL;
+	}
+	
+	/**
+	 * Called by the first pass when a snapshot is registered, to adapt the budget of the next blocks.
+	 * @param aMessages Number of messages of the block.
+	 * @param aReplayTime Time taken to replay the block (ns).
+	 */
+	public void blockFinished(int aMessages, long aReplayTime)
+	{
+		// Snapshots of outer frames that follow the first snapshot of a block 
+		// delimit short spans, which give unreliable estimates.
+		if (itsBudget == 0 || aMessages == 0 || aMessages < DebugFlags.STIQ_MIN_BLOCK_SIZE) return;
+		
+		float theCost = 1f*aReplayTime/aMessages;
+		if (itsCostPerMessage < 0) itsCostPerMessage = theCost;
+		else itsCostPerMessage += SMOOTHING*(theCost-itsCostPerMessage);
+		
+		long theBudget = itsCostPerMessage > 0 ? 
+				(long) (DebugFlags.STIQ_MAX_BLOCK_TIME/itsCostPerMessage) 
+				: DebugFlags.STIQ_MAX_BLOCK_SIZE;
+		
+		theBudget = Math.min(theBudget, DebugFlags.STIQ_MAX_BLOCK_SIZE);
+		theBudget = Math.max(theBudget, Math.max(DebugFlags.STIQ_MIN_BLOCK_SIZE, 1));
+		itsBudget = (int) theBudget;
+	}
+	
+	/**
+	 * Returns the current number of messages per block, or 0 for the fixed policy.
+	 */
+	public int getBudget()
+	{
+		return itsBudget;
+	}
+	
+	/**
+	 * Sets the budget, eg. to the budget of the snapshot a partial replay starts from.
+	 */
+	public void setBudget(int aBudget)
+	{
+		itsBudget = aBudget;
+	}
+}
@@ -47,27 +47,27 @@ public class TeeCollector extends EventCollector
 	}
 
 	@Override
-	public void fieldRead(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldRead(long aTargetId, int aFieldSlotIndex)
 	{
-		for(EventCollector theCollector : itsCollectors) theCollector.fieldRead(aTarget, aFieldSlotIndex);
+		for(EventCollector theCollector : itsCollectors) theCollector.fieldRead(aTargetId, aFieldSlotIndex);
 	}
 
 	@Override
-	public void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldWrite(long aTargetId, int aFieldSlotIndex)
 	{
-		for(EventCollector theCollector : itsCollectors) theCollector.fieldWrite(aTarget, aFieldSlotIndex);
+		for(EventCollector theCollector : itsCollectors) theCollector.fieldWrite(aTargetId, aFieldSlotIndex);
 	}
 
 	@Override
-	public void arrayRead(ObjectId aTarget, int aIndex)
+	public void arrayRead(long aTargetId, int aIndex)
 	{
-		for(EventCollector theCollector : itsCollectors) theCollector.arrayRead(aTarget, aIndex);
+		for(EventCollector theCollector : itsCollectors) theCollector.arrayRead(aTargetId, aIndex);
 	}
 
 	@Override
-	public void arrayWrite(ObjectId aTarget, int aIndex)
+	public void arrayWrite(long aTargetId, int aIndex)
 	{
-		for(EventCollector theCollector : itsCollectors) theCollector.arrayWrite(aTarget, aIndex);
+		for(EventCollector theCollector : itsCollectors) theCollector.arrayWrite(aTargetId, aIndex);
 	}
 
 	@Override
@@ -77,9 +77,9 @@ public class TeeCollector extends EventCollector
 	}
 
 	@Override
-	public void value(ObjectId aValue)
+	public void refValue(long aValueId)
 	{
-		for(EventCollector theCollector : itsCollectors) theCollector.value(aValue);
+		for(EventCollector theCollector : itsCollectors) theCollector.refValue(aValueId);
 	}
 
 	@Override
@@ -112,6 +112,12 @@ public class TeeCollector extends EventCollector
 		for(EventCollector theCollector : itsCollectors) theCollector.localsSnapshot(aSnapshot);
 	}
 
+	@Override
+	public void blockFinished(int aMessageCount, long aReplayTime)
+	{
+		for(EventCollector theCollector : itsCollectors) theCollector.blockFinished(aMessageCount, aReplayTime);
+	}
+
 	@Override
 	public void enter(int aBehaviorId, int aArgsCount)
 	{
@@ -136,11 +142,23 @@ public class TeeCollector extends EventCollector
 		for(EventCollector theCollector : itsCollectors) theCollector.registerString(aId, aString);
 	}
 
+	@Override
+	public void registerStringAlias(long aId, long aContentId)
+	{
+		for(EventCollector theCollector : itsCollectors) theCollector.registerStringAlias(aId, aContentId);
+	}
+
 	@Override
 	public void associateIds(long aTmpId, long aRealId)
 	{
 		for(EventCollector theCollector : itsCollectors) theCollector.associateIds(aTmpId, aRealId);
 	}
+
+	@Override
+	public void replayFinished()
+	{
+		for(EventCollector theCollector : itsCollectors) theCollector.replayFinished();
+	}
 	
 	
 }
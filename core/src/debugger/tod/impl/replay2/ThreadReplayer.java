@@ -31,6 +31,8 @@ Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.replay2;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -43,6 +45,7 @@ import tod.core.database.structure.IStructureDatabase;
 import tod.core.database.structure.ObjectId;
 import tod.impl.server.BufferStream;
 import tod.impl.server.BufferStream.EndOfStreamException;
+import tod2.agent.AgentConfig;
 import tod2.agent.Message;
 import tod2.agent.ValueType;
 import zz.utils.Utils;
@@ -57,12 +60,21 @@ public abstract class ThreadReplayer
 	public static final boolean ECHO = false;
 	public static boolean ECHO_FORREAL = true;
 	
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+	
 	static
 	{
 		if (ECHO) System.err.println("*** WARNING: ThreadReplayer.ECHO == true");
+		if (CPU_TIME && ! THREAD_MX_BEAN.isThreadCpuTimeEnabled()) THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
 		
 		Utils.println("STIQ - Min. block size: %d", DebugFlags.STIQ_MIN_BLOCK_SIZE);
 		Utils.println("STIQ - Snapshot interval: %d", DebugFlags.STIQ_SNAPSHOT_INTERVAL);
+		if (DebugFlags.STIQ_ADAPTIVE) Utils.println(
+				"STIQ - Adaptive: max. block time: %d, max. block size: %d, max. interval: %d", 
+				DebugFlags.STIQ_MAX_BLOCK_TIME,
+				DebugFlags.STIQ_MAX_BLOCK_SIZE,
+				DebugFlags.STIQ_MAX_SNAPSHOT_INTERVAL);
 	}
 	
 	private final int itsThreadId;
@@ -76,6 +88,19 @@ public abstract class ThreadReplayer
 	private final IntDeltaReceiver itsBehIdReceiver = new IntDeltaReceiver();
 	private final LongDeltaReceiver itsObjIdReceiver = new LongDeltaReceiver();
 	
+	/**
+	 * Whether integral values are sent with the compact encoding, 
+	 * see {@link TODConfig#AGENT_COMPACT_VALUES}.
+	 */
+	private final boolean itsCompactValues;
+	private final CompactValueReceiver itsValueReceiver = new CompactValueReceiver();
+	
+	/**
+	 * Mirror of the value prediction table of the agent's ThreadData
+	 * (see {@link DebugFlags#USE_VALUE_PREDICTION}).
+	 */
+	private final long[] itsPredictions = new long[AgentConfig.VALUE_PREDICTION_SIZE];
+	
 	/**
 	 * The monitoring modes of each behavior, indexed by behavior id.
 	 * The mode is updated whenever we receive a {@link Message#TRACEDMETHODS_VERSION} message.
@@ -92,6 +117,16 @@ public abstract class ThreadReplayer
 	private int itsMessagesSinceLastSnapshot = 0;
 	private long itsLastSync = 0;
 	private long itsLastSnapshotTimestamp = 0;
+	
+	private final SnapshotPolicy itsSnapshotPolicy = new SnapshotPolicy();
+	
+	/**
+	 * CPU time of the replayer thread when the last snapshot was registered (ns),
+	 * used to measure the replay cost of blocks. CPU time excludes the time spent
+	 * waiting for packets. It is -1 until the first snapshot, as the replayer is 
+	 * created by another thread.
+	 */
+	private long itsLastSnapshotTime = -1;
 
 	public ThreadReplayer(
 			ReplayerLoader aLoader,
@@ -109,6 +144,7 @@ public abstract class ThreadReplayer
 		itsCollector = aCollector;
 		itsTmpIdManager = aTmpIdManager;
 		itsStream = aBuffer;
+		itsCompactValues = itsConfig.get(TODConfig.AGENT_COMPACT_VALUES);
 	}
 	
 	public BufferStream getStream()
@@ -374,8 +410,9 @@ public abstract class ThreadReplayer
 		
 		itsLastSync = theTimestamp;
 		
-		boolean theSnapshotDue = theTimestamp-itsLastSnapshotTimestamp >= DebugFlags.STIQ_SNAPSHOT_INTERVAL
-				&& itsMessagesSinceLastSnapshot >= DebugFlags.STIQ_MIN_BLOCK_SIZE;
+		boolean theSnapshotDue = itsSnapshotPolicy.isSnapshotDue(
+				theTimestamp-itsLastSnapshotTimestamp, 
+				itsMessagesSinceLastSnapshot);
 				
 //		Utils.println(
 //				"SYNC - tid: %d, ts: %d, delta: %.02f, msgs: %d, due: %s", 
@@ -405,8 +442,17 @@ public abstract class ThreadReplayer
 //				aSnapshot.getBlockId(),
 //				0.000001f*(itsLastSync-itsLastSnapshotTimestamp));
 		
+		long theTime = getThreadTime();
+		if (itsLastSnapshotTime >= 0)
+		{
+			itsCollector.blockFinished(itsMessagesSinceLastSnapshot, theTime-itsLastSnapshotTime);
+			itsSnapshotPolicy.blockFinished(itsMessagesSinceLastSnapshot, theTime-itsLastSnapshotTime);
+		}
+		aSnapshot.setMessageBudget(itsSnapshotPolicy.getBudget());
+		
 		itsMessagesSinceLastSnapshot = 0;
 		itsLastSnapshotTimestamp = itsLastSync;
+		itsLastSnapshotTime = theTime;
 		
 		registerSnapshot0(aSnapshot);
 	}
@@ -415,6 +461,20 @@ public abstract class ThreadReplayer
 	{
 	}
 	
+	/**
+	 * Returns the CPU time of the current thread (ns), or the wall-clock time 
+	 * if the JVM does not support thread CPU time.
+	 */
+	private static long getThreadTime()
+	{
+		return CPU_TIME ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+	
+	public SnapshotPolicy getSnapshotPolicy()
+	{
+		return itsSnapshotPolicy;
+	}
+	
 	public IntDeltaReceiver getBehIdReceiver()
 	{
 		return itsBehIdReceiver;
@@ -430,6 +490,33 @@ public abstract class ThreadReplayer
 		return itsTmpIdManager;
 	}
 	
+	public CompactValueReceiver getValueReceiver()
+	{
+		return itsValueReceiver;
+	}
+	
+	/**
+	 * Returns the raw bits of the value last read at the read sites that map 
+	 * to the given prediction slot.
+	 */
+	public long getPrediction(int aSlot)
+	{
+		return itsPredictions[aSlot];
+	}
+	
+	public void setPrediction(int aSlot, long aBits)
+	{
+		itsPredictions[aSlot] = aBits;
+	}
+	
+	/**
+	 * Returns the value prediction table. Not a copy.
+	 */
+	public long[] getPredictions()
+	{
+		return itsPredictions;
+	}
+	
 	public ObjectId readRef()
 	{
 		byte theType = itsStream.get();
@@ -475,7 +562,7 @@ public abstract class ThreadReplayer
 	
 	public int readInt()
 	{
-		return getStream().getInt();
+		return itsCompactValues ? itsValueReceiver.receiveInt(itsStream) : itsStream.getInt();
 	}
 	
 	public boolean readBoolean()
@@ -490,12 +577,12 @@ public abstract class ThreadReplayer
 	
 	public char readChar()
 	{
-		return getStream().getChar();
+		return itsCompactValues ? itsValueReceiver.receiveChar(itsStream) : itsStream.getChar();
 	}
 	
 	public short readShort()
 	{
-		return getStream().getShort();
+		return itsCompactValues ? itsValueReceiver.receiveShort(itsStream) : itsStream.getShort();
 	}
 	
 	public float readFloat()
@@ -505,7 +592,7 @@ public abstract class ThreadReplayer
 	
 	public long readLong()
 	{
-		return getStream().getLong();
+		return itsCompactValues ? itsValueReceiver.receiveLong(itsStream) : itsStream.getLong();
 	}
 	
 	public double readDouble()
@@ -684,7 +771,7 @@ public abstract class ThreadReplayer
 		try
 		{
 			replay_OOS_loop();
-			return getStream().getInt();
+			return readInt();
 		}
 		catch (BehaviorExitException e)
 		{
@@ -726,7 +813,7 @@ public abstract class ThreadReplayer
 		try
 		{
 			replay_OOS_loop();
-			return getStream().getShort();
+			return readShort();
 		}
 		catch (BehaviorExitException e)
 		{
@@ -740,7 +827,7 @@ public abstract class ThreadReplayer
 		try
 		{
 			replay_OOS_loop();
-			return getStream().getChar();
+			return readChar();
 		}
 		catch (BehaviorExitException e)
 		{
@@ -754,7 +841,7 @@ public abstract class ThreadReplayer
 		try
 		{
 			replay_OOS_loop();
-			return getStream().getLong();
+			return readLong();
 		}
 		catch (BehaviorExitException e)
 		{
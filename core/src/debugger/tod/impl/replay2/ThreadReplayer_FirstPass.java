@@ -62,13 +62,20 @@ public class ThreadReplayer_FirstPass extends ThreadReplayer
 	{
 		if (ThreadReplayer.ECHO && ThreadReplayer.ECHO_FORREAL)
 			Utils.println("Creating snapshot: probe %d, #%d.", aProbeId, itsSnapshotCount++);
-		return new LocalsSnapshot(
+		LocalsSnapshot theSnapshot = new LocalsSnapshot(
 				itsLastTimestamp,
 				getStream().getPacketStartOffset(), 
 				getStream().position(), 
 				aProbeId,
 				getBehIdReceiver().getCurrentValue(),
 				getObjIdReceiver().getCurrentValue());
+		
+		// Updated when the snapshot is registered, except for the initial snapshot
+		theSnapshot.setMessageBudget(getSnapshotPolicy().getBudget());
+		theSnapshot.setNextTmpId(getTmpIdManager().getNextId());
+		theSnapshot.setLongCurrentValue(getValueReceiver().getCurrentLongValue());
+		if (DebugFlags.USE_VALUE_PREDICTION) theSnapshot.setPredictions(getPredictions());
+		return theSnapshot;
 	}
 
 	@Override
@@ -60,6 +60,8 @@ public class ThreadReplayer_Partial extends ThreadReplayer
 		super(aLoader, aThreadId, aConfig, aDatabase, aCollector, aTmpIdManager, aBuffer);
 		itsSnapshot = aSnapshot;
 		setLastSnapshotTimestamp(itsSnapshot.getBlockId());
+		getSnapshotPolicy().setBudget(itsSnapshot.getMessageBudget());
+		if (itsSnapshot.getNextTmpId() != 0) getTmpIdManager().setNextId(itsSnapshot.getNextTmpId());
 	}
 
 	@Override
@@ -112,6 +114,9 @@ public class ThreadReplayer_Partial extends ThreadReplayer
 		System.out.println("ThreadReplayer_Partial.replay()");
 		getBehIdReceiver().setCurrentValue(itsSnapshot.getBehIdCurrentValue());
 		getObjIdReceiver().setCurrentValue(itsSnapshot.getObjIdCurrentValue());
+		getValueReceiver().setCurrentLongValue(itsSnapshot.getLongCurrentValue());
+		long[] thePredictions = itsSnapshot.getPredictions();
+		if (thePredictions != null) System.arraycopy(thePredictions, 0, getPredictions(), 0, thePredictions.length);
 		
 		try
 		{
@@ -31,39 +31,93 @@ Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.replay2;
 
-import gnu.trove.TLongLongHashMap;
-
 /**
  * Creates and manages temporary ids.
  * Temporary ids are used when an operation produces an object but we cannot
  * determine its actual id yet. For instance, the NEW bytecode produces an uninitialized
  * object, of which we cannot obtain the id (because of the verifier).
+ * <p>
+ * Each thread replayer has its own manager, which allocates ids in a range 
+ * reserved for its thread, so that no synchronization is needed. Ids are 
+ * allocated sequentially within the range, and the position in the sequence 
+ * is saved in snapshots (see {@link LocalsSnapshot#getNextTmpId()}), so that 
+ * partial replays allocate the same ids as the first pass.
  * @author gpothier
  */
 public class TmpIdManager
 {
+	/**
+	 * Number of bits of the sequence number within the range of a thread.
+	 */
+	private static final int SEQ_BITS = 40;
+	
+	/**
+	 * Number of bits of the thread id. Temporary ids are thus below 2^61, 
+	 * and do not collide with the slot ids of locals (see Indexer.localToSlotId).
+	 */
+	private static final int THREAD_BITS = 20;
+	
 	private final EventCollector itsCollector;
-	private long itsNextId = 2; // We use even ids. Odd ids are created by the agent
+	private final long itsBase;
+	private long itsNextSeq = 1;
 	
-	public TmpIdManager(EventCollector aCollector)
+	/**
+	 * @param aCollector The collector of the thread, which receives the associations
+	 * between temporary and real ids.
+	 */
+	public TmpIdManager(EventCollector aCollector, int aThreadId)
 	{
 		itsCollector = aCollector;
+		itsBase = (long) (aThreadId & ((1 << THREAD_BITS)-1)) << SEQ_BITS;
 	}
-
-	public synchronized long nextId()
+	
+	/**
+	 * Returns a new temporary id. 
+	 * We use even ids. Odd ids are created by the agent.
+	 */
+	public long nextId()
+	{
+		return (itsBase + itsNextSeq++) << 1;
+	}
+	
+	/**
+	 * Returns the id that the next call to {@link #nextId()} will return.
+	 */
+	public long getNextId()
 	{
-		long theId = itsNextId;
-		itsNextId += 2;
-		return theId;
+		return (itsBase + itsNextSeq) << 1;
+	}
+	
+	/**
+	 * Resumes allocation at the given id, previously obtained through {@link #getNextId()}.
+	 */
+	public void setNextId(long aNextId)
+	{
+		itsNextSeq = (aNextId >>> 1) - itsBase;
+		if (itsNextSeq < 1 || itsNextSeq >= (1L << SEQ_BITS)) throw new IllegalArgumentException("Not in range: "+aNextId);
 	}
 	
 	/**
 	 * Associates a temporary id with the corresponding real one, once the relation is known.
 	 */
-	public synchronized void associate(long aTmpId, long aRealId)
+	public void associate(long aTmpId, long aRealId)
 	{
 		if (itsCollector != null) itsCollector.associateIds(aTmpId, aRealId);
 	}
-
-
+	
+	/**
+	 * Whether the given object id is a temporary id.
+	 */
+	public static boolean isTmpId(long aId)
+	{
+		return aId != 0 && (aId & 1) == 0 && aId < (1L << (SEQ_BITS+THREAD_BITS+1));
+	}
+	
+	/**
+	 * Returns the (truncated) id of the thread that allocated the given temporary id.
+	 */
+	public static int getThreadId(long aTmpId)
+	{
+		return (int) (aTmpId >>> (SEQ_BITS+1));
+	}
 }
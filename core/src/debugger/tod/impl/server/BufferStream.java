@@ -31,25 +31,63 @@ Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.server;
 
-import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
-import tod.utils.ByteBuffer;
-
 /**
- * Mimics the API of {@link ByteBuffer} but simulates an infinite buffer.
+ * Mimics the API of {@link PacketBuffer} but simulates an infinite buffer.
  * Clients may have to wait while the buffer stream is waiting for a new buffer.
  * The buffer stream assumes that primitive operations do not span multiple buffers.
+ * <p>
+ * Values are decoded directly from a byte array holding the current packet:
+ * the backing array of heap packets, or a copy made in a single bulk transfer
+ * for direct (memory-mapped) packets. This keeps the per-value cost of the
+ * replayers down to a bounds check and a few array reads.
+ * <p>
+ * Packets are taken from the queue in batches, so that the producer and the
+ * replayer do not have to hand over each packet (and wake each other up) 
+ * individually.
  * @author gpothier
  */
 public class BufferStream 
 {
 	private static final PacketBuffer EOF = new PacketBuffer(new byte[0], -1);
+	private static final byte[] EMPTY = new byte[0];
+	
+	/**
+	 * Maximum number of packets waiting to be processed.
+	 */
+	private static final int QUEUE_SIZE = 32;
+	
+	private ArrayBlockingQueue<PacketBuffer> itsBuffers = new ArrayBlockingQueue<PacketBuffer>(QUEUE_SIZE);
+	
+	/**
+	 * Packets taken from the queue and not processed yet.
+	 */
+	private final List<PacketBuffer> itsBatch = new ArrayList<PacketBuffer>(QUEUE_SIZE);
+	private int itsBatchPosition = 0;
 	
-	private ArrayBlockingQueue<PacketBuffer> itsBuffers = new ArrayBlockingQueue<PacketBuffer>(8);
 	private PacketBuffer itsCurrentBuffer;
 	private boolean itsFinished = false;
 	
+	/**
+	 * The bytes of the current packet, between {@link #itsPosition} and {@link #itsLimit}.
+	 */
+	private byte[] itsBytes = EMPTY;
+	private int itsPosition = 0;
+	private int itsLimit = 0;
+	
+	/**
+	 * Index in {@link #itsBytes} of the start of the current packet.
+	 */
+	private int itsOrigin = 0;
+	
+	/**
+	 * Receives the contents of packets that have no backing array.
+	 */
+	private byte[] itsScratch = EMPTY;
+	
 	/**
 	 * Returns the offset from the beginning of the file of the currently processed packet.
 	 */
@@ -58,24 +96,87 @@ public class BufferStream
 		return itsCurrentBuffer != null ? itsCurrentBuffer.getPacketStartOffset() : 0;
 	}
 	
-	private void checkBuffer()
+	/**
+	 * Ensures that the current packet has remaining bytes, waiting for the next
+	 * packet if needed.
+	 * @return False if the end of the stream is reached.
+	 */
+	private boolean checkBuffer()
 	{
-		if (itsCurrentBuffer == null || itsCurrentBuffer.remaining() == 0)
+		while (itsPosition >= itsLimit)
 		{
 			try
 			{
-				if (! itsFinished || ! itsBuffers.isEmpty()) 
+				PacketBuffer theBuffer = nextPacket();
+				if (theBuffer == null || theBuffer == EOF)
 				{
-					itsCurrentBuffer = itsBuffers.take();
-					if (itsCurrentBuffer == EOF) itsCurrentBuffer = null;
+					itsCurrentBuffer = null;
+					itsBytes = EMPTY;
+					itsPosition = itsLimit = itsOrigin = 0;
+					return false;
 				}
-				else itsCurrentBuffer = null;
+				
+				load(theBuffer);
 			}
 			catch (InterruptedException e)
 			{
 				throw new RuntimeException(e);
 			}
 		}
+		return true;
+	}
+	
+	/**
+	 * Returns the next packet, waiting for it if needed.
+	 * @return The next packet, or null/{@link #EOF} if there are no more packets.
+	 */
+	private PacketBuffer nextPacket() throws InterruptedException
+	{
+		if (itsBatchPosition == itsBatch.size())
+		{
+			itsBatch.clear();
+			itsBatchPosition = 0;
+			
+			if (itsFinished && itsBuffers.isEmpty()) return null;
+			itsBatch.add(itsBuffers.take());
+			itsBuffers.drainTo(itsBatch);
+		}
+		
+		return itsBatch.get(itsBatchPosition++);
+	}
+	
+	/**
+	 * Makes the remaining bytes of the given packet the current bytes.
+	 */
+	private void load(PacketBuffer aBuffer)
+	{
+		int theStart = aBuffer.position();
+		int theRemaining = aBuffer.remaining();
+		
+		if (aBuffer.hasArray())
+		{
+			itsBytes = aBuffer.array();
+			itsPosition = aBuffer.arrayOffset() + theStart;
+		}
+		else
+		{
+			if (itsScratch.length < theRemaining) itsScratch = new byte[Math.max(theRemaining, 2*itsScratch.length)];
+			aBuffer.get(itsScratch, 0, theRemaining);
+			itsBytes = itsScratch;
+			itsPosition = 0;
+		}
+		
+		itsCurrentBuffer = aBuffer;
+		itsLimit = itsPosition + theRemaining;
+		itsOrigin = itsPosition - theStart;
+	}
+	
+	/**
+	 * Same as {@link #checkBuffer()}, but throws an exception at the end of the stream.
+	 */
+	private void checkAvailable()
+	{
+		if (! checkBuffer()) throw new EndOfStreamException();
 	}
 	
 	/**
@@ -104,92 +205,107 @@ public class BufferStream
 
 	public final int remaining()
 	{
-		checkBuffer();
-		return itsCurrentBuffer == null && itsFinished ? 0 : Integer.MAX_VALUE;
+		return checkBuffer() ? Integer.MAX_VALUE : 0;
 	}
 	
 	public final int position()
 	{
-		return itsCurrentBuffer != null ? itsCurrentBuffer.position() : 0;
+		return itsPosition - itsOrigin;
 	}	
 	
 	public final void get(byte[] aBuffer, int aOffset, int aLength)
 	{
-		checkBuffer();
-		itsCurrentBuffer.get(aBuffer, aOffset, aLength);
+		if (itsPosition >= itsLimit) checkAvailable();
+		if (itsPosition + aLength > itsLimit) throw new IndexOutOfBoundsException();
+		System.arraycopy(itsBytes, itsPosition, aBuffer, aOffset, aLength);
+		itsPosition += aLength;
 	}
 	
 	public final byte get()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.get();
+		if (itsPosition >= itsLimit) checkAvailable();
+		return itsBytes[itsPosition++];
 	}
 	
 	public final byte peek()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.peek();
+		if (itsPosition >= itsLimit) checkAvailable();
+		return itsBytes[itsPosition];
 	}
 	
 	public final char getChar()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getChar();
+		return (char) getShort();
 	}
 	
 	public final short getShort()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getShort();
+		if (itsPosition >= itsLimit) checkAvailable();
+		int thePosition = itsPosition;
+		if (thePosition + 2 > itsLimit) throw new IndexOutOfBoundsException();
+		byte[] theBytes = itsBytes;
+		itsPosition = thePosition + 2;
+		return (short) ((theBytes[thePosition] & 0xff) | (theBytes[thePosition+1] << 8));
 	}
 	
 	public final int getInt()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getInt();
+		if (itsPosition >= itsLimit) checkAvailable();
+		int thePosition = itsPosition;
+		if (thePosition + 4 > itsLimit) throw new IndexOutOfBoundsException();
+		itsPosition = thePosition + 4;
+		return getInt(itsBytes, thePosition);
 	}
 	
 	public final long getLong()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getLong();
+		if (itsPosition >= itsLimit) checkAvailable();
+		int thePosition = itsPosition;
+		if (thePosition + 8 > itsLimit) throw new IndexOutOfBoundsException();
+		itsPosition = thePosition + 8;
+		byte[] theBytes = itsBytes;
+		return (getInt(theBytes, thePosition) & 0xffffffffL) | ((long) getInt(theBytes, thePosition+4) << 32);
+	}
+	
+	private static int getInt(byte[] aBytes, int aPosition)
+	{
+		return (aBytes[aPosition] & 0xff) 
+			| ((aBytes[aPosition+1] & 0xff) << 8) 
+			| ((aBytes[aPosition+2] & 0xff) << 16) 
+			| (aBytes[aPosition+3] << 24);
 	}
 	
 	public final float getFloat()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getFloat();
+		return Float.intBitsToFloat(getInt());
 	}
 	
 	public final double getDouble()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getDouble();
+		return Double.longBitsToDouble(getLong());
 	}
 	
 	/**
-	 * Reads a string written by {@link #putString(String)}
+	 * Reads a string (length followed by UTF-16 chars), see {@link PacketBuffer#getString()}.
 	 */
 	public final String getString()
 	{
-		checkBuffer();
-		if (itsCurrentBuffer == null) throw new EndOfStreamException();
-		return itsCurrentBuffer.getString();
+		int theLength = getInt();
+		if (itsPosition + 2*theLength > itsLimit) throw new IndexOutOfBoundsException();
+		char[] theChars = new char[theLength];
+		for(int i=0;i<theLength;i++) theChars[i] = getChar();
+		return new String(theChars);
 	}
 	
 	public void skipAll()
 	{
 		itsFinished = true;
 		itsBuffers.clear();
+		itsBatch.clear();
+		itsBatchPosition = 0;
 		itsCurrentBuffer = null;
+		itsBytes = EMPTY;
+		itsPosition = itsLimit = itsOrigin = 0;
 	}
 	
 	public static class EndOfStreamException extends RuntimeException
@@ -0,0 +1,502 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tod.utils.LZ4Codec;
+
+/**
+ * A {@link RawTraceInput} that reads a block-compressed raw trace 
+ * (see {@link CompressedTraceOutput}).
+ * <p>
+ * The file starts with a header (magic number, version and a random file id), followed by blocks.
+ * Each block has a header (uncompressed size, stored size, compression method) 
+ * followed by its data. Offsets seen by clients (eg. packet start offsets recorded 
+ * in snapshots and in the {@link RawTraceThreadIndex}) are offsets in the uncompressed 
+ * trace, so that both formats are interchangeable.
+ * <p>
+ * A block index (uncompressed start and file offset of each block) is built by 
+ * scanning the block headers the first time a file is read, and is extended when 
+ * the file grows. It is shared by all the inputs of the same file, as long as the
+ * file id does not change (ie. the file is not rewritten). Seeking to an offset therefore 
+ * only requires decompressing the block that contains it. Packets that span blocks are copied.
+ * @author gpothier
+ */
+public class CompressedTraceInput implements RawTraceInput
+{
+	public static final int MAGIC = 0x544f445a; // "TODZ"
+	public static final int VERSION = 2;
+	
+	/**
+	 * Uncompressed size of blocks. Matches cannot reach back more than 64KB anyway,
+	 * so larger blocks would not compress much better, but would make seeks slower.
+	 */
+	public static final int BLOCK_SIZE = 64*1024;
+	
+	/**
+	 * Header size of the current version: magic (4), version (4), file id (8).
+	 * Version 1 files have no file id.
+	 */
+	public static final int HEADER_SIZE = 16;
+	private static final int HEADER_SIZE_V1 = 8;
+	static final int BLOCK_HEADER_SIZE = 9;
+	
+	static final byte METHOD_STORED = 0;
+	static final byte METHOD_LZ4 = 1;
+	
+	/**
+	 * Maximum number of block indexes kept in {@link #itsIndexes}.
+	 */
+	private static final int MAX_INDEXES = 64;
+	
+	/**
+	 * Block indexes of the most recently opened files, shared by all the inputs
+	 * of the same file, so that opening an input for a partial replay does not 
+	 * rescan the block headers. Indexes are removed when their segment is dropped
+	 * (see {@link #forget(File)}), or when too many files were opened since.
+	 */
+	private static final Map<String, BlockIndex> itsIndexes = new LinkedHashMap<String, BlockIndex>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, BlockIndex> aEldest)
+		{
+			return size() > MAX_INDEXES;
+		}
+	};
+	
+	private final RandomAccessFile itsFile;
+	private final FileChannel itsChannel;
+	private final BlockIndex itsIndex;
+	
+	private final ByteBuffer itsHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+	
+	private int itsCurrentBlock = -1;
+	private long itsCurrentStart;
+	private byte[] itsCurrentData;
+	private int itsCurrentSize;
+	
+	private long itsPosition;
+	
+	private long itsDecompressedBlocks = 0;
+	
+	public CompressedTraceInput(File aFile) throws IOException
+	{
+		this(aFile, 0);
+	}
+	
+	/**
+	 * Creates an input positioned at the given (uncompressed) offset.
+	 */
+	public CompressedTraceInput(File aFile, long aStartOffset) throws IOException
+	{
+		itsFile = new RandomAccessFile(aFile, "r");
+		itsChannel = itsFile.getChannel();
+		
+		if (itsFile.readInt() != MAGIC) throw new IOException("Not a compressed trace: "+aFile);
+		int theVersion = itsFile.readInt();
+		switch(theVersion)
+		{
+		case 1:
+			// No file id, the index cannot be shared
+			itsIndex = new BlockIndex(0, HEADER_SIZE_V1);
+			break;
+			
+		case VERSION:
+			itsIndex = getIndex(aFile, itsFile.readLong());
+			break;
+			
+		default: throw new IOException("Unsupported compressed trace version: "+theVersion);
+		}
+		
+		itsPosition = aStartOffset;
+	}
+	
+	/**
+	 * Returns the shared block index of the given file.
+	 * @param aFileId The id stored in the header of the file. If it does not match 
+	 * the id of the cached index, the file was rewritten and the index is rebuilt.
+	 */
+	private static BlockIndex getIndex(File aFile, long aFileId) throws IOException
+	{
+		String theKey = aFile.getCanonicalPath();
+		synchronized (itsIndexes)
+		{
+			BlockIndex theIndex = itsIndexes.get(theKey);
+			if (theIndex == null || theIndex.getFileId() != aFileId)
+			{
+				theIndex = new BlockIndex(aFileId, HEADER_SIZE);
+				itsIndexes.put(theKey, theIndex);
+			}
+			return theIndex;
+		}
+	}
+	
+	/**
+	 * Discards the block index of the given file, eg. when the file is deleted.
+	 */
+	public static void forget(File aFile) throws IOException
+	{
+		String theKey = aFile.getCanonicalPath();
+		synchronized (itsIndexes)
+		{
+			itsIndexes.remove(theKey);
+		}
+	}
+	
+	/**
+	 * Whether the given file is a block-compressed trace.
+	 */
+	public static boolean isCompressed(File aFile) throws IOException
+	{
+		if (aFile.length() < HEADER_SIZE_V1) return false;
+		RandomAccessFile theFile = new RandomAccessFile(aFile, "r");
+		try
+		{
+			return theFile.readInt() == MAGIC;
+		}
+		finally
+		{
+			theFile.close();
+		}
+	}
+	
+	/**
+	 * Opens the given raw trace file, which can be compressed or not.
+	 */
+	public static RawTraceInput open(File aFile, long aStartOffset) throws IOException
+	{
+		return isCompressed(aFile) ? 
+				new CompressedTraceInput(aFile, aStartOffset) 
+				: new MappedTraceInput(aFile, aStartOffset);
+	}
+	
+	private static void readHeader(FileChannel aChannel, ByteBuffer aHeader, long aOffset) throws IOException
+	{
+		aHeader.clear();
+		while(aHeader.hasRemaining())
+		{
+			if (aChannel.read(aHeader, aOffset + aHeader.position()) < 0) throw new EOFException();
+		}
+	}
+	
+	/**
+	 * Returns the index of the block that contains the given offset, or -1 if 
+	 * the offset is past the end of the trace.
+	 */
+	private int findBlock(long aOffset) throws IOException
+	{
+		if (itsCurrentBlock >= 0 
+				&& aOffset >= itsCurrentStart 
+				&& aOffset < itsCurrentStart + itsCurrentSize) 
+			return itsCurrentBlock;
+		
+		return itsIndex.find(itsChannel, aOffset);
+	}
+	
+	private void loadBlock(int aBlock) throws IOException
+	{
+		long theOffset = itsIndex.getOffset(aBlock);
+		readHeader(itsChannel, itsHeader, theOffset);
+		int theSize = itsHeader.getInt(0);
+		int theStoredSize = itsHeader.getInt(4);
+		byte theMethod = itsHeader.get(8);
+		
+		byte[] theStored = new byte[theStoredSize];
+		ByteBuffer theBuffer = ByteBuffer.wrap(theStored);
+		while(theBuffer.hasRemaining())
+		{
+			long thePos = theOffset + BLOCK_HEADER_SIZE + theBuffer.position();
+			if (itsChannel.read(theBuffer, thePos) < 0) throw new EOFException();
+		}
+		
+		byte[] theData;
+		switch(theMethod)
+		{
+		case METHOD_STORED: 
+			theData = theStored;
+			break;
+			
+		case METHOD_LZ4:
+			// A new array for each block: packets handed out are slices of it
+			theData = new byte[theSize];
+			LZ4Codec.decompress(theStored, 0, theStoredSize, theData, 0, theSize);
+			break;
+			
+		default: throw new IOException("Unknown compression method: "+theMethod);
+		}
+		
+		itsCurrentBlock = aBlock;
+		itsCurrentStart = itsIndex.getStart(aBlock);
+		itsCurrentData = theData;
+		itsCurrentSize = theSize;
+		itsDecompressedBlocks++;
+	}
+	
+	/**
+	 * Reads the given number of bytes.
+	 * @return A little-endian buffer whose remaining bytes are the bytes read.
+	 */
+	private ByteBuffer read(int aCount) throws IOException
+	{
+		int theBlock = findBlock(itsPosition);
+		if (theBlock < 0) throw new EOFException();
+		if (theBlock != itsCurrentBlock) loadBlock(theBlock);
+		
+		int theOffset = (int) (itsPosition - itsCurrentStart);
+		if (theOffset + aCount <= itsCurrentSize)
+		{
+			itsPosition += aCount;
+			return ByteBuffer.wrap(itsCurrentData, theOffset, aCount).slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+		
+		// The data spans several blocks.
+		// Check that they are all available before consuming anything (see TailingTraceInput)
+		if (findBlock(itsPosition + aCount - 1) < 0) throw new EOFException();
+		
+		byte[] theBytes = new byte[aCount];
+		int theCopied = 0;
+		while(theCopied < aCount)
+		{
+			theBlock = findBlock(itsPosition);
+			if (theBlock < 0) throw new EOFException();
+			if (theBlock != itsCurrentBlock) loadBlock(theBlock);
+			
+			theOffset = (int) (itsPosition - itsCurrentStart);
+			int theCount = Math.min(aCount - theCopied, itsCurrentSize - theOffset);
+			System.arraycopy(itsCurrentData, theOffset, theBytes, theCopied, theCount);
+			theCopied += theCount;
+			itsPosition += theCount;
+		}
+		
+		return ByteBuffer.wrap(theBytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	public int readPacketType() throws IOException
+	{
+		if (findBlock(itsPosition) < 0) return -1;
+		return read(1).get() & 0xff;
+	}
+
+	public int readInt() throws IOException
+	{
+		return read(4).getInt();
+	}
+
+	public long readLong() throws IOException
+	{
+		return read(8).getLong();
+	}
+
+	public String readString() throws IOException
+	{
+		long theStart = itsPosition;
+		int theLength = readInt();
+		ByteBuffer theBuffer;
+		try
+		{
+			theBuffer = read(2*theLength);
+		}
+		catch (EOFException e)
+		{
+			// Don't consume the length if the chars are not available yet
+			itsPosition = theStart;
+			throw e;
+		}
+		
+		char[] theChars = new char[theLength];
+		for(int i=0;i<theLength;i++) theChars[i] = theBuffer.getChar();
+		return new String(theChars);
+	}
+
+	public PacketBuffer readPacket(long aPacketStartOffset, int aLength) throws IOException
+	{
+		return new PacketBuffer(read(aLength), aPacketStartOffset);
+	}
+
+	/**
+	 * Skips the given number of bytes. Skipped blocks are not decompressed.
+	 */
+	public void skip(long aCount)
+	{
+		itsPosition += aCount;
+	}
+	
+	/**
+	 * Returns the (uncompressed) offset of the next byte to read.
+	 */
+	public long getPosition()
+	{
+		return itsPosition;
+	}
+	
+	/**
+	 * Returns the uncompressed size of the trace, as of the last update of the block index.
+	 */
+	public long getSize()
+	{
+		return itsIndex.getSize();
+	}
+	
+	/**
+	 * Number of blocks decompressed so far.
+	 */
+	public long getDecompressedBlocks()
+	{
+		return itsDecompressedBlocks;
+	}
+	
+	public void close() throws IOException
+	{
+		itsCurrentData = null;
+		itsFile.close();
+	}
+	
+	/**
+	 * The uncompressed start and file offset of each block of a file.
+	 */
+	private static class BlockIndex
+	{
+		private final long itsFileId;
+		
+		private long[] itsStarts = new long[1024];
+		private long[] itsOffsets = new long[1024];
+		private int itsCount = 0;
+		
+		/**
+		 * Uncompressed size of the indexed blocks.
+		 */
+		private long itsSize = 0;
+		
+		/**
+		 * Offset in the file of the next block to index.
+		 */
+		private long itsNextOffset;
+		
+		private final ByteBuffer itsHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		
+		public BlockIndex(long aFileId, int aHeaderSize)
+		{
+			itsFileId = aFileId;
+			itsNextOffset = aHeaderSize;
+		}
+		
+		/**
+		 * Indexes the blocks that were completely written since the last call.
+		 */
+		private void update(FileChannel aChannel) throws IOException
+		{
+			long theFileSize = aChannel.size();
+			while(itsNextOffset + BLOCK_HEADER_SIZE <= theFileSize)
+			{
+				readHeader(aChannel, itsHeader, itsNextOffset);
+				int theSize = itsHeader.getInt(0);
+				int theStoredSize = itsHeader.getInt(4);
+				
+				long theNext = itsNextOffset + BLOCK_HEADER_SIZE + theStoredSize;
+				if (theNext > theFileSize) break; // Block is being written
+				
+				if (itsCount == itsStarts.length)
+				{
+					long[] theStarts = new long[itsCount*2];
+					System.arraycopy(itsStarts, 0, theStarts, 0, itsCount);
+					itsStarts = theStarts;
+					
+					long[] theOffsets = new long[itsCount*2];
+					System.arraycopy(itsOffsets, 0, theOffsets, 0, itsCount);
+					itsOffsets = theOffsets;
+				}
+				
+				itsStarts[itsCount] = itsSize;
+				itsOffsets[itsCount] = itsNextOffset;
+				itsCount++;
+				
+				itsSize += theSize;
+				itsNextOffset = theNext;
+			}
+		}
+		
+		/**
+		 * Returns the index of the block that contains the given offset, or -1 if 
+		 * the offset is past the end of the trace.
+		 */
+		public synchronized int find(FileChannel aChannel, long aOffset) throws IOException
+		{
+			if (aOffset >= itsSize) 
+			{
+				update(aChannel);
+				if (aOffset >= itsSize) return -1;
+			}
+			
+			int theLow = 0;
+			int theHigh = itsCount-1;
+			while(theLow < theHigh)
+			{
+				int theMid = (theLow + theHigh + 1) >>> 1;
+				if (itsStarts[theMid] <= aOffset) theLow = theMid;
+				else theHigh = theMid-1;
+			}
+			return theLow;
+		}
+		
+		public synchronized long getStart(int aBlock)
+		{
+			return itsStarts[aBlock];
+		}
+		
+		public synchronized long getOffset(int aBlock)
+		{
+			return itsOffsets[aBlock];
+		}
+		
+		public synchronized long getSize()
+		{
+			return itsSize;
+		}
+		
+		/**
+		 * The id of the indexed file, see {@link CompressedTraceOutput}.
+		 */
+		public long getFileId()
+		{
+			return itsFileId;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import tod.utils.LZ4Codec;
+
+/**
+ * Writes a raw trace in the block-compressed format read by {@link CompressedTraceInput}.
+ * The trace is cut into blocks of {@link CompressedTraceInput#BLOCK_SIZE} bytes (the 
+ * last block, or a block terminated by {@link #flush()}, can be shorter), and each block 
+ * is compressed with {@link LZ4Codec}. Blocks that do not shrink are stored as is.
+ * Block boundaries do not follow packet boundaries.
+ * <p>
+ * The header contains a random file id, so that readers can tell that a file 
+ * was rewritten (eg. a segment file name reused by a restarted recorder).
+ * @author gpothier
+ */
+public class CompressedTraceOutput extends OutputStream
+{
+	private final DataOutputStream itsOut;
+	private final LZ4Codec itsCodec = new LZ4Codec();
+	
+	private final byte[] itsBlock = new byte[CompressedTraceInput.BLOCK_SIZE];
+	private int itsBlockSize = 0;
+	private final byte[] itsCompressed = new byte[LZ4Codec.maxCompressedLength(CompressedTraceInput.BLOCK_SIZE)];
+	
+	private long itsRawSize = 0;
+	private long itsCompressedSize = 0;
+	
+	public CompressedTraceOutput(OutputStream aOut) throws IOException
+	{
+		itsOut = new DataOutputStream(aOut);
+		itsOut.writeInt(CompressedTraceInput.MAGIC);
+		itsOut.writeInt(CompressedTraceInput.VERSION);
+		itsOut.writeLong(new Random().nextLong());
+		itsCompressedSize = CompressedTraceInput.HEADER_SIZE;
+	}
+	
+	@Override
+	public void write(int aByte) throws IOException
+	{
+		itsBlock[itsBlockSize++] = (byte) aByte;
+		if (itsBlockSize == itsBlock.length) writeBlock();
+	}
+	
+	@Override
+	public void write(byte[] aBuffer, int aOffset, int aLength) throws IOException
+	{
+		while(aLength > 0)
+		{
+			int theCount = Math.min(aLength, itsBlock.length - itsBlockSize);
+			System.arraycopy(aBuffer, aOffset, itsBlock, itsBlockSize, theCount);
+			itsBlockSize += theCount;
+			aOffset += theCount;
+			aLength -= theCount;
+			
+			if (itsBlockSize == itsBlock.length) writeBlock();
+		}
+	}
+	
+	/**
+	 * Same as {@link #write(byte[], int, int)}, for NIO buffers.
+	 * The position of the buffer is moved to its limit.
+	 */
+	public void write(java.nio.ByteBuffer aBuffer) throws IOException
+	{
+		while(aBuffer.hasRemaining())
+		{
+			int theCount = Math.min(aBuffer.remaining(), itsBlock.length - itsBlockSize);
+			aBuffer.get(itsBlock, itsBlockSize, theCount);
+			itsBlockSize += theCount;
+			
+			if (itsBlockSize == itsBlock.length) writeBlock();
+		}
+	}
+	
+	private void writeBlock() throws IOException
+	{
+		if (itsBlockSize == 0) return;
+		
+		int theLength = itsCodec.compress(itsBlock, 0, itsBlockSize, itsCompressed, 0);
+		boolean theStored = theLength >= itsBlockSize;
+		
+		itsOut.writeInt(itsBlockSize);
+		itsOut.writeInt(theStored ? itsBlockSize : theLength);
+		itsOut.writeByte(theStored ? CompressedTraceInput.METHOD_STORED : CompressedTraceInput.METHOD_LZ4);
+		if (theStored) itsOut.write(itsBlock, 0, itsBlockSize);
+		else itsOut.write(itsCompressed, 0, theLength);
+		
+		itsRawSize += itsBlockSize;
+		itsCompressedSize += CompressedTraceInput.BLOCK_HEADER_SIZE + (theStored ? itsBlockSize : theLength);
+		itsBlockSize = 0;
+	}
+	
+	/**
+	 * Terminates the current block and flushes the underlying stream, so that
+	 * the data written so far can be read. Flushing often reduces the compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		writeBlock();
+		itsOut.flush();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		writeBlock();
+		itsOut.close();
+	}
+	
+	/**
+	 * Number of uncompressed bytes written to the file so far.
+	 */
+	public long getRawSize()
+	{
+		return itsRawSize;
+	}
+	
+	/**
+	 * Size of the file so far.
+	 */
+	public long getCompressedSize()
+	{
+		return itsCompressedSize;
+	}
+}
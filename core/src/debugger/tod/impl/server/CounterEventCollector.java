@@ -31,7 +31,6 @@ Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.server;
 
-import tod.core.database.structure.ObjectId;
 import tod.impl.replay2.EventCollector;
 
 public class CounterEventCollector extends EventCollector
@@ -53,13 +52,13 @@ public class CounterEventCollector extends EventCollector
 	}
 	
 	@Override
-	public void fieldRead(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldRead(long aTargetId, int aFieldSlotIndex)
 	{
 		itsFieldReads++;
 	}
 
 	@Override
-	public void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldWrite(long aTargetId, int aFieldSlotIndex)
 	{
 		itsFieldWrites++;
 	}
@@ -31,9 +31,7 @@ Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.server;
 
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -50,7 +48,6 @@ import tod.impl.replay2.LocalsSnapshot;
 import tod.impl.replay2.ReplayerLoader;
 import tod.impl.replay2.ReplayerWrapper;
 import tod.impl.replay2.TmpIdManager;
-import tod.utils.ByteBuffer;
 import tod2.agent.Message;
 import zz.utils.Utils;
 
@@ -60,11 +57,9 @@ import zz.utils.Utils;
  */
 public abstract class DBSideIOThread
 {
-	private static final int BUFFER_SIZE = 4096;
-	
 	private final TODConfig itsConfig;
 	private final IMutableStructureDatabase itsDatabase;
-	private final InputStream itsIn;
+	private final RawTraceInput itsIn;
 	private final LocalsSnapshot itsSnapshot;
 	
 	/**
@@ -87,9 +82,20 @@ public abstract class DBSideIOThread
 	 */
 	private int itsInitialSkip;
 	
+	/**
+	 * Index of the packets of each thread. Built during the initial replay,
+	 * required for partial replays.
+	 */
+	private RawTraceThreadIndex itsThreadIndex;
+	
+	/**
+	 * For sharded indexing, the index of the shard handled by this IO thread.
+	 */
+	private int itsShard = 0;
+	private int itsShardCount = 1;
+	
 	private final ReplayerLoader itsLoader;
 	private final List<ThreadReplayerThread> itsReplayerThreads = new ArrayList<ThreadReplayerThread>();
-	private TmpIdManager itsTmpIdManager;
 	
 	/**
 	 * A collector for data that do not pertain to a particular thread.
@@ -100,6 +106,11 @@ public abstract class DBSideIOThread
 	private int itsPacketCount = 0;
 	
 	public DBSideIOThread(TODConfig aConfig, IMutableStructureDatabase aDatabase, InputStream aIn, LocalsSnapshot aSnapshot)
+	{
+		this(aConfig, aDatabase, new StreamTraceInput(aIn), aSnapshot);
+	}
+	
+	public DBSideIOThread(TODConfig aConfig, IMutableStructureDatabase aDatabase, RawTraceInput aIn, LocalsSnapshot aSnapshot)
 	{
 		this(
 				aConfig, 
@@ -115,6 +126,22 @@ public abstract class DBSideIOThread
 			InputStream aIn, 
 			LocalsSnapshot aSnapshot,
 			ReplayerLoader aLoader)
+	{
+		this(aConfig, aDatabase, new StreamTraceInput(aIn), aSnapshot, aLoader);
+	}
+	
+	/**
+	 * Creates an IO thread that reads from the given input. 
+	 * For a partial replay, the input must be positioned at the start
+	 * of the snapshot's packet.
+	 * @see MappedTraceInput
+	 */
+	public DBSideIOThread(
+			TODConfig aConfig, 
+			IMutableStructureDatabase aDatabase, 
+			RawTraceInput aIn, 
+			LocalsSnapshot aSnapshot,
+			ReplayerLoader aLoader)
 	{
 		itsConfig = aConfig;
 		itsDatabase = aDatabase;
@@ -129,12 +156,57 @@ public abstract class DBSideIOThread
 		itsInitialSkip = aInitialSkip;
 	}
 	
+	/**
+	 * Sets the offset, in the trace, of the first byte of the input (for an initial 
+	 * replay). The offsets registered in the thread index are relative to the start
+	 * of the trace, so this must be set when the input does not start at 0, eg. when
+	 * the first segments of a segmented trace were dropped 
+	 * (see {@link TraceManifest#getBaseOffset()}).
+	 */
+	public void setStartOffset(long aStartOffset)
+	{
+		itsProcessedSize = aStartOffset;
+	}
+	
+	/**
+	 * Sets the per-thread packet index. For an initial replay, the index is
+	 * filled as the trace is read (unless it was loaded from disk). 
+	 * For a partial replay, the index is used to skip directly to the next packet
+	 * of the replayed thread.
+	 */
+	public void setThreadIndex(RawTraceThreadIndex aThreadIndex)
+	{
+		itsThreadIndex = aThreadIndex;
+	}
+	
+	public RawTraceThreadIndex getThreadIndex()
+	{
+		return itsThreadIndex;
+	}
+	
+	/**
+	 * Restricts this IO thread to the threads whose id modulo the shard count 
+	 * is the given shard. The packets of the other threads are skipped.
+	 * Only shard 0 registers strings and fills the thread index, 
+	 * and the structure database is not saved at the end of a sharded replay: 
+	 * the caller must save it once all the shards are finished. 
+	 */
+	public void setShard(int aShard, int aShardCount)
+	{
+		itsShard = aShard;
+		itsShardCount = aShardCount;
+	}
+	
 	public void run()
 	{
 		try
 		{
 			if (itsSnapshot == null) itsStaticCollector = createCollector(-1);
-			itsTmpIdManager = new TmpIdManager(itsStaticCollector);
+			if (itsThreadIndex == null)
+			{
+				if (itsSnapshot != null) throw new IllegalStateException("Partial replay requires a thread index");
+				itsThreadIndex = new RawTraceThreadIndex();
+			}
 			
 			Utils.println("Starting replay.");
 			long t0 = System.currentTimeMillis();
@@ -142,13 +214,15 @@ public abstract class DBSideIOThread
 			loop:
 			while(! itsFinished && itsThrown == null)
 			{
-				int thePacketType = itsIn.read();
+				int thePacketType = itsIn.readPacketType();
 				itsProcessedSize++;
 				
 				switch(thePacketType)
 				{
 				case Message.PACKET_TYPE_THREAD: processThreadPacket(); break;
 				case Message.PACKET_TYPE_STRING: processStringPacket(); break;
+				case Message.PACKET_TYPE_STRING_LATIN1: processLatin1StringPacket(); break;
+				case Message.PACKET_TYPE_STRING_ALIAS: processStringAliasPacket(); break;
 				case -1: break loop;
 				default: throw new RuntimeException("Not handled: "+thePacketType);
 				}
@@ -192,7 +266,8 @@ public abstract class DBSideIOThread
 		{
 			try
 			{
-				if (itsSnapshot == null) itsDatabase.save();
+				itsIn.close();
+				if (itsSnapshot == null && itsShardCount == 1) itsDatabase.save();
 			}
 			catch (IOException e)
 			{
@@ -220,50 +295,29 @@ public abstract class DBSideIOThread
 		return theThread;
 	}
 	
-	private void readFully(byte[] aBuffer) throws IOException
-	{
-		readFully(aBuffer, aBuffer.length);
-	}
-	
-	private void readFully(byte[] aBuffer, int aCount) throws IOException
-	{
-		int l = aCount;
-		int c = 0;
-		while(c < l) 
-		{
-			int r = itsIn.read(aBuffer, c, l-c);
-			if (r == -1) throw new EOFException();
-			c += r;
-		}
-	}
-	
-	private void skip(long aCount) throws IOException
-	{
-		while(aCount > 0) aCount -= itsIn.skip(aCount);
-	}
-	
 	private void processThreadPacket() throws IOException
 	{
 		long thePacketStartOffset = itsProcessedSize-1;
 
-		int theThreadId = ByteBuffer.getIntL(itsIn);
-		int theLength = ByteBuffer.getIntL(itsIn);
+		int theThreadId = itsIn.readInt();
+		int theLength = itsIn.readInt();
 		
-		if (itsSnapshot == null)
+		if (itsSnapshot == null && itsShard == 0)
 		{
 			// During the initial replay, register the start of each thread packet.
-			RawTraceThreadIndex.startThreadPacket(theThreadId, thePacketStartOffset);
+			itsThreadIndex.startThreadPacket(theThreadId, thePacketStartOffset);
 		}
 		
 		// The first thread of a partial replay is the only thread to replay
 		if (itsSnapshot != null && itsReplayThreadId == 0) itsReplayThreadId = theThreadId;
 		
-		if (itsReplayThreadId == 0 || itsReplayThreadId == theThreadId) 
+		boolean theReplay = itsReplayThreadId == 0 ? 
+				theThreadId % itsShardCount == itsShard
+				: itsReplayThreadId == theThreadId;
+		
+		if (theReplay) 
 		{
-			PacketBuffer theBuffer = new PacketBuffer(new byte[BUFFER_SIZE], thePacketStartOffset);
-			readFully(theBuffer.array(), theLength);
-			theBuffer.position(0);
-			theBuffer.limit(theLength);
+			PacketBuffer theBuffer = itsIn.readPacket(thePacketStartOffset, theLength);
 			
 			if (itsInitialSkip > 0)
 			{
@@ -279,7 +333,7 @@ public abstract class DBSideIOThread
 			
 			if (itsReplayThreadId == theThreadId)
 			{
-				long theNextPacketOffset = RawTraceThreadIndex.getNextThreadPacketOffset(theThreadId, thePacketStartOffset);
+				long theNextPacketOffset = itsThreadIndex.getNextThreadPacketOffset(theThreadId, thePacketStartOffset);
 				if (theNextPacketOffset == -1) 
 				{
 					System.out.println("Partial replay: last packet for thread");
@@ -291,7 +345,7 @@ public abstract class DBSideIOThread
 					if (theSkip > 0)
 					{
 //						Utils.println("Partial replay: skipping %d", theSkip);
-						skip(theSkip);
+						itsIn.skip(theSkip);
 						itsProcessedSize += theSkip;
 					}
 				}
@@ -299,7 +353,7 @@ public abstract class DBSideIOThread
 		}
 		else
 		{
-			skip(theLength);
+			itsIn.skip(theLength);
 		}
 
 		itsProcessedSize += 8 + theLength;
@@ -307,20 +361,58 @@ public abstract class DBSideIOThread
 	
 	private void processStringPacket() throws IOException
 	{
-		long theObjectId = ByteBuffer.getLongL(itsIn);
-		String theString = ByteBuffer.getString(itsIn);
+		long theObjectId = itsIn.readLong();
+		String theString = itsIn.readString();
 		
-		if (itsStaticCollector != null) itsStaticCollector.registerString(new ObjectId(theObjectId), theString);
+		if (itsStaticCollector != null && itsShard == 0) itsStaticCollector.registerString(new ObjectId(theObjectId), theString);
 		
 		itsProcessedSize += 8 + 4 + theString.length()*2;
 	}
 	
+	private void processLatin1StringPacket() throws IOException
+	{
+		long thePacketStartOffset = itsProcessedSize-1;
+		long theObjectId = itsIn.readLong();
+		int theLength = itsIn.readInt();
+		
+		if (itsStaticCollector != null && itsShard == 0) 
+		{
+			PacketBuffer theBuffer = itsIn.readPacket(thePacketStartOffset, theLength);
+			char[] theChars = new char[theLength];
+			for(int i=0;i<theLength;i++) theChars[i] = (char) (theBuffer.get() & 0xff);
+			itsStaticCollector.registerString(new ObjectId(theObjectId), new String(theChars));
+		}
+		else
+		{
+			itsIn.skip(theLength);
+		}
+		
+		itsProcessedSize += 8 + 4 + theLength;
+	}
+	
+	private void processStringAliasPacket() throws IOException
+	{
+		long theObjectId = itsIn.readLong();
+		long theContentId = itsIn.readLong();
+		
+		if (itsStaticCollector != null && itsShard == 0) itsStaticCollector.registerStringAlias(theObjectId, theContentId);
+		
+		itsProcessedSize += 8 + 8;
+	}
+	
 	public static void main(String[] args) throws InterruptedException
 	{
 		try
 		{
 			TODConfig theConfig = new TODConfig();
-			File theEventsFile = new File(theConfig.get(TODConfig.DB_RAW_EVENTS_DIR)+"/events.raw");
+			File theEventsDir = new File(theConfig.get(TODConfig.DB_RAW_EVENTS_DIR));
+			
+			// Traces written by the Recorder are segmented
+			TraceManifest theManifest = TraceManifest.load(theEventsDir);
+			long theStartOffset = theManifest != null ? theManifest.getBaseOffset() : 0;
+			RawTraceInput theInput = theManifest != null ?
+					new SegmentedTraceInput(theEventsDir, theManifest)
+					: CompressedTraceInput.open(new File(theEventsDir, "events.raw"), 0);
 
 			String theScopeMD5 = Utils.md5String(theConfig.get(TODConfig.SCOPE_TRACE_FILTER).getBytes());
 			File theDbFile = new File(theConfig.get(TODConfig.DB_RAW_EVENTS_DIR)+"/db-"+theScopeMD5+".raw");
@@ -329,7 +421,7 @@ public abstract class DBSideIOThread
 			
 			final Map<Integer, EventCollector> theCollectors = new HashMap<Integer, EventCollector>();  
 			
-			DBSideIOThread theIOThread = new DBSideIOThread(theConfig, theDatabase, new FileInputStream(theEventsFile), null)
+			DBSideIOThread theIOThread = new DBSideIOThread(theConfig, theDatabase, theInput, null)
 			{
 				@Override
 				protected EventCollector createCollector(int aThreadId)
@@ -351,6 +443,7 @@ public abstract class DBSideIOThread
 					}
 				}
 			};
+			theIOThread.setStartOffset(theStartOffset);
 			theIOThread.run();
 			
 			System.out.println("Collectors:");
@@ -390,7 +483,7 @@ public abstract class DBSideIOThread
 					itsConfig, 
 					itsDatabase, 
 					itsCollector, 
-					itsTmpIdManager, 
+					new TmpIdManager(itsCollector, itsThreadId), 
 					itsStream);
 
 			start();
@@ -408,6 +501,7 @@ public abstract class DBSideIOThread
 			try
 			{
 				itsReplayer.replay();
+				itsCollector.replayFinished();
 				if (itsReplayThreadId > 0) itsFinished = true;
 			}
 			catch (Throwable t)
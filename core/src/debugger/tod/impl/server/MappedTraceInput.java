@@ -0,0 +1,188 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link RawTraceInput} that memory-maps the raw events file.
+ * Packets are handed out as slices of the mapping, so that replayers read
+ * directly from the page cache, and skipping is a simple position change.
+ * <p>
+ * The file is mapped through a sliding window, as a single mapping cannot 
+ * exceed 2GB. A new window is mapped when the next read does not fit in the 
+ * current one; previous windows are released once no packet references them.
+ * @author gpothier
+ */
+public class MappedTraceInput implements RawTraceInput
+{
+	/**
+	 * Size of the mapped window.
+	 */
+	private static final int WINDOW_SIZE = 1 << 28;
+	
+	private final RandomAccessFile itsFile;
+	private final FileChannel itsChannel;
+	private long itsSize;
+	
+	private MappedByteBuffer itsWindow;
+	
+	/**
+	 * Offset in the file of the beginning of the current window.
+	 */
+	private long itsWindowStart = 0;
+	
+	/**
+	 * Offset in the file of the next byte to read.
+	 */
+	private long itsPosition;
+	
+	public MappedTraceInput(File aFile) throws IOException
+	{
+		this(aFile, 0);
+	}
+
+	/**
+	 * Creates an input positioned at the given offset.
+	 */
+	public MappedTraceInput(File aFile, long aStartOffset) throws IOException
+	{
+		itsFile = new RandomAccessFile(aFile, "r");
+		itsChannel = itsFile.getChannel();
+		itsSize = itsChannel.size();
+		itsPosition = aStartOffset;
+	}
+	
+	/**
+	 * Ensures that the next given number of bytes are in the current window,
+	 * and returns the position of the next byte within the window.
+	 */
+	private int ensure(int aCount) throws IOException
+	{
+		long theEnd = itsPosition + aCount;
+		if (theEnd > itsSize)
+		{
+			// The file might have grown since it was opened
+			itsSize = itsChannel.size();
+			if (theEnd > itsSize) throw new EOFException();
+		}
+		
+		if (itsWindow == null || itsPosition < itsWindowStart || theEnd > itsWindowStart+itsWindow.limit())
+		{
+			itsWindowStart = itsPosition;
+			long theSize = Math.min(Math.max(WINDOW_SIZE, aCount), itsSize-itsWindowStart);
+			itsWindow = itsChannel.map(FileChannel.MapMode.READ_ONLY, itsWindowStart, theSize);
+			itsWindow.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		
+		return (int) (itsPosition - itsWindowStart);
+	}
+	
+	public int readPacketType() throws IOException
+	{
+		if (itsPosition >= itsSize)
+		{
+			itsSize = itsChannel.size();
+			if (itsPosition >= itsSize) return -1;
+		}
+		
+		int thePos = ensure(1);
+		itsPosition++;
+		return itsWindow.get(thePos) & 0xff;
+	}
+
+	public int readInt() throws IOException
+	{
+		int thePos = ensure(4);
+		itsPosition += 4;
+		return itsWindow.getInt(thePos);
+	}
+
+	public long readLong() throws IOException
+	{
+		int thePos = ensure(8);
+		itsPosition += 8;
+		return itsWindow.getLong(thePos);
+	}
+
+	public String readString() throws IOException
+	{
+		// Don't consume the length if the chars are not available yet (see TailingTraceInput)
+		int thePos = ensure(4);
+		int theLength = itsWindow.getInt(thePos);
+		thePos = ensure(4 + 2*theLength) + 4;
+		itsPosition += 4 + 2*theLength;
+		
+		char[] theChars = new char[theLength];
+		for(int i=0;i<theLength;i++) theChars[i] = itsWindow.getChar(thePos + 2*i);
+		return new String(theChars);
+	}
+
+	public PacketBuffer readPacket(long aPacketStartOffset, int aLength) throws IOException
+	{
+		int thePos = ensure(aLength);
+		itsPosition += aLength;
+		
+		java.nio.ByteBuffer theSlice = itsWindow.duplicate();
+		theSlice.limit(thePos+aLength);
+		theSlice.position(thePos);
+		return new PacketBuffer(theSlice.slice(), aPacketStartOffset);
+	}
+
+	/**
+	 * Skips the given number of bytes. This does not touch the file.
+	 */
+	public void skip(long aCount)
+	{
+		itsPosition += aCount;
+	}
+	
+	/**
+	 * Returns the offset of the next byte to read.
+	 */
+	public long getPosition()
+	{
+		return itsPosition;
+	}
+	
+	public void close() throws IOException
+	{
+		itsWindow = null;
+		itsFile.close();
+	}
+}
@@ -23,6 +23,7 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 package tod.impl.server;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -33,6 +34,9 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import tod.core.DebugFlags;
 import tod.core.bci.IInstrumenter;
@@ -50,6 +54,7 @@ import tod2.agent.AgentConfig;
 public abstract class NativeAgentPeer extends SocketThread
 {
 	public static final byte INSTRUMENT_CLASS = 50;
+	public static final byte INSTRUMENT_CLASS_TAGGED = 51;
 	public static final byte USE_CACHED_CLASS = 52;
 	public static final byte FLUSH = 99;
 	public static final byte OBJECT_HASH = 1;
@@ -58,6 +63,8 @@ public abstract class NativeAgentPeer extends SocketThread
 	public static final byte SET_CAPTURE_EXCEPTIONS = 83;
 	public static final byte SET_HOST_BITS = 84;
 	public static final byte SET_CACHE_PATH = 85;
+	public static final byte SET_PIPELINED = 86;
+	public static final byte SET_COMPACT_VALUES = 87;
 
 	public static final byte CONFIG_DONE = 99;
 	
@@ -100,6 +107,19 @@ public abstract class NativeAgentPeer extends SocketThread
 	
 	private File itsBadClassesDir;
 	
+	/**
+	 * Instruments the classes of tagged requests, 
+	 * see {@link #processTaggedInstrumentClassCommand(DataInputStream, DataOutputStream)}.
+	 * Created lazily.
+	 */
+	private ExecutorService itsInstrumentationExecutor;
+	
+	/**
+	 * Lock for writing responses to the agent, as tagged responses are 
+	 * sent by the instrumentation threads.
+	 */
+	private final Object itsOutputLock = new Object();
+	
 
 	/**
 	 * Starts a peer that uses an already connected socket.
@@ -183,6 +203,11 @@ public abstract class NativeAgentPeer extends SocketThread
 	{
 		itsHostName = null;
 		setConfigured();
+		
+		synchronized (this)
+		{
+			if (itsInstrumentationExecutor != null) itsInstrumentationExecutor.shutdown();
+		}
 	}
 	
 	protected final void processCommand (
@@ -196,6 +221,10 @@ public abstract class NativeAgentPeer extends SocketThread
 			processInstrumentClassCommand(aInputStream, aOutputStream);
 			break;
 			
+		case INSTRUMENT_CLASS_TAGGED:
+			processTaggedInstrumentClassCommand(aInputStream, aOutputStream);
+			break;
+			
 		case USE_CACHED_CLASS:
 			processUseCachedClassCommand(aInputStream);
 			break;
@@ -252,6 +281,12 @@ public abstract class NativeAgentPeer extends SocketThread
 		theOutStream.writeByte(SET_CACHE_PATH);
 		theOutStream.writeUTF(theCachePath);
 		
+		theOutStream.writeByte(SET_PIPELINED);
+		theOutStream.writeByte(itsConfig.get(TODConfig.AGENT_PIPELINED_INSTRUMENTATION) ? 1 : 0);
+		
+		theOutStream.writeByte(SET_COMPACT_VALUES);
+		theOutStream.writeByte(itsConfig.get(TODConfig.AGENT_COMPACT_VALUES) ? 1 : 0);
+		
 		// Finish
 		theOutStream.writeByte(CONFIG_DONE);
 		theOutStream.flush();
@@ -276,7 +311,7 @@ public abstract class NativeAgentPeer extends SocketThread
 	
 	/**
 	 * Processes an INSTRUMENT_CLASS command sent by the agent.
-	 * @param aInstrumenter The instrumenter that will do the BCI of the class
+	 * The class is instrumented synchronously.
 	 * @param aInputStream Input stream connected to the agent
 	 * @param aOutputStream Output stream connected to the agent
 	 */
@@ -285,33 +320,126 @@ public abstract class NativeAgentPeer extends SocketThread
 			DataOutputStream aOutputStream) throws IOException
 	{
 		String theClassName = aInputStream.readUTF();
-		int theLength = aInputStream.readInt();
-		InstrumentedClass theInstrumentedClass = null;
-		Throwable theError = null;
+		byte[] theBytecode = readBytecode(theClassName, aInputStream);
+		byte[] theResponse = instrument(theClassName, theBytecode);
 		
+		synchronized (itsOutputLock)
+		{
+			aOutputStream.write(theResponse);
+			aOutputStream.flush();
+		}
+	}
+	
+	/**
+	 * Processes an INSTRUMENT_CLASS_TAGGED command sent by the agent.
+	 * The class is instrumented by a worker thread, and the response, prefixed
+	 * by the tag of the request, is sent as soon as it is ready. The agent can 
+	 * therefore have several outstanding requests, and responses can be sent 
+	 * out of order.
+	 * @param aInputStream Input stream connected to the agent
+	 * @param aOutputStream Output stream connected to the agent
+	 */
+	private void processTaggedInstrumentClassCommand(
+			DataInputStream aInputStream, 
+			final DataOutputStream aOutputStream) throws IOException
+	{
+		final int theTag = aInputStream.readInt();
+		final String theClassName = aInputStream.readUTF();
+		final byte[] theBytecode = readBytecode(theClassName, aInputStream);
+		
+		getInstrumentationExecutor().execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					byte[] theResponse = instrument(theClassName, theBytecode);
+					synchronized (itsOutputLock)
+					{
+						aOutputStream.writeInt(theTag);
+						aOutputStream.write(theResponse);
+						aOutputStream.flush();
+					}
+				}
+				catch (IOException e)
+				{
+					System.err.println("[NativeAgentPeer] Could not send instrumented class "+theClassName);
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+	
+	private synchronized ExecutorService getInstrumentationExecutor()
+	{
+		if (itsInstrumentationExecutor == null)
+		{
+			int theThreads = itsConfig.get(TODConfig.INSTRUMENTER_THREADS);
+			if (theThreads <= 0) theThreads = Runtime.getRuntime().availableProcessors();
+			
+			itsInstrumentationExecutor = Executors.newFixedThreadPool(theThreads, new ThreadFactory()
+			{
+				private int itsCount = 0;
+				
+				public synchronized Thread newThread(Runnable aRunnable)
+				{
+					Thread theThread = new Thread(aRunnable, "Instrumenter "+(itsCount++)+" ("+itsHostName+")");
+					theThread.setDaemon(true);
+					return theThread;
+				}
+			});
+		}
+		return itsInstrumentationExecutor;
+	}
+	
+	/**
+	 * Reads the bytecode of a class to instrument.
+	 * @return The bytecode, or null if the class is empty.
+	 */
+	private byte[] readBytecode(String aClassName, DataInputStream aInputStream) throws IOException
+	{
+		int theLength = aInputStream.readInt();
 		if (theLength > 0)
 		{
 			byte[] theBytecode = new byte[theLength];
 			aInputStream.readFully(theBytecode);
-			
-			if (DebugFlags.INSTRUMENTER_LOG) System.out.println("Instrumenting "+theClassName+"... ");
+			return theBytecode;
+		}
+		else
+		{
+			System.err.println("[TOD] Warning: empty class: "+aClassName);
+			return null;
+		}
+	}
+
+	/**
+	 * Instruments the given class.
+	 * @return The response to send to the agent.
+	 */
+	private byte[] instrument(String aClassName, byte[] aBytecode) throws IOException
+	{
+		InstrumentedClass theInstrumentedClass = null;
+		Throwable theError = null;
+		
+		if (aBytecode != null)
+		{
+			if (DebugFlags.INSTRUMENTER_LOG) System.out.println("Instrumenting "+aClassName+"... ");
 			try
 			{
-				theInstrumentedClass = itsInstrumenter.instrumentClass(theClassName, theBytecode, itsUseJava14);
+				theInstrumentedClass = itsInstrumenter.instrumentClass(aClassName, aBytecode, itsUseJava14);
 			}
 			catch (Throwable e)
 			{
-				storeClass(itsBadClassesDir, theClassName, theBytecode);
+				storeClass(itsBadClassesDir, aClassName, aBytecode);
 				
-				System.err.println("Error during instrumentation of "+theClassName+", reporting to client: ");
+				System.err.println("Error during instrumentation of "+aClassName+", reporting to client: ");
 				e.printStackTrace();
 				theError = e;
 			}
 		}
-		else
-		{
-			System.err.println("[TOD] Warning: empty class: "+theClassName);
-		}
+		
+		ByteArrayOutputStream theBuffer = new ByteArrayOutputStream();
+		DataOutputStream theOutputStream = new DataOutputStream(theBuffer);
 
 		if (theInstrumentedClass != null)
 		{
@@ -319,37 +447,38 @@ public abstract class NativeAgentPeer extends SocketThread
 			
 			if (itsStoreClassesDir != null)
 			{
-				storeClass(itsStoreClassesDir, theClassName, theInstrumentedClass.bytecode);
+				storeClass(itsStoreClassesDir, aClassName, theInstrumentedClass.bytecode);
 				if (DebugFlags.INSTRUMENTER_LOG) System.out.println("Written class to "+itsStoreClassesDir);
 			}
 			
 			// Write out instrumented bytecode
-			aOutputStream.writeInt(theInstrumentedClass.bytecode.length);
-			aOutputStream.write(theInstrumentedClass.bytecode);
+			theOutputStream.writeInt(theInstrumentedClass.bytecode.length);
+			theOutputStream.write(theInstrumentedClass.bytecode);
 			
 			// Write out class id
-			aOutputStream.writeInt(theInstrumentedClass.id);
+			theOutputStream.writeInt(theInstrumentedClass.id);
 			
 			// Write out class info
-			aOutputStream.writeInt(theInstrumentedClass.info.length);
-			aOutputStream.write(theInstrumentedClass.info);
+			theOutputStream.writeInt(theInstrumentedClass.info.length);
+			theOutputStream.write(theInstrumentedClass.info);
 		}
 		else if (theError != null)
 		{
-			aOutputStream.writeInt(-1);
+			theOutputStream.writeInt(-1);
 			StringWriter theStringWriter = new StringWriter();
 			PrintWriter thePrintWriter = new PrintWriter(theStringWriter);
-			thePrintWriter.println("Error occurred in database process while instrumenting "+theClassName+":");
+			thePrintWriter.println("Error occurred in database process while instrumenting "+aClassName+":");
 			theError.printStackTrace(thePrintWriter);
-			aOutputStream.writeUTF(theStringWriter.toString());
+			theOutputStream.writeUTF(theStringWriter.toString());
 		}
 		else
 		{
-			System.out.println("Not instrumented: "+theClassName);
-			aOutputStream.writeInt(0);
+			System.out.println("Not instrumented: "+aClassName);
+			theOutputStream.writeInt(0);
 		}
 		
-		aOutputStream.flush();
+		theOutputStream.flush();
+		return theBuffer.toByteArray();
 	}
 	
 	private void processUseCachedClassCommand(DataInputStream aInputStream) throws IOException
@@ -36,7 +36,6 @@ import gnu.trove.TIntIterator;
 import gnu.trove.TLongArrayList;
 import gnu.trove.TLongHashSet;
 import gnu.trove.TLongIterator;
-import tod.core.database.structure.ObjectId;
 import tod.impl.replay2.EventCollector;
 import zz.utils.Utils;
 
@@ -56,23 +55,25 @@ public class ObjectAccessDistributionEventCollector extends CounterEventCollecto
 	}
 
 	@Override
-	public void fieldRead(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldRead(long aTargetId, int aFieldSlotIndex)
 	{
-		super.fieldRead(aTarget, aFieldSlotIndex);
-//		fieldAccess(aTarget, aFieldId);
+		super.fieldRead(aTargetId, aFieldSlotIndex);
+//		fieldAccess(aTargetId, aFieldId);
 	}
 
 	@Override
-	public void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
+	public void fieldWrite(long aTargetId, int aFieldSlotIndex)
 	{
-		super.fieldWrite(aTarget, aFieldSlotIndex);
-		fieldAccess(aTarget, aFieldSlotIndex);
+		super.fieldWrite(aTargetId, aFieldSlotIndex);
+		fieldAccess(aTargetId, aFieldSlotIndex);
 	}
 	
-	protected void fieldAccess(ObjectId aTarget, int aFieldSlotIndex)
+	/**
+	 * @param aTargetId Id of the target, 0 for static fields.
+	 */
+	protected void fieldAccess(long aTargetId, int aFieldSlotIndex)
 	{
-		long id = aTarget != null ? aTarget.getId() : -1;
-		itsObjectsSet.add(id);
+		itsObjectsSet.add(aTargetId);
 		itsTotalAccesses++;
 	}
 
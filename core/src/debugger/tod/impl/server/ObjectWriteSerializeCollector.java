@@ -45,7 +45,6 @@ import java.io.IOException;
 import org.python.modules.synchronize;
 
 import tod.core.config.TODConfig;
-import tod.core.database.structure.ObjectId;
 import tod.impl.replay2.EventCollector;
 
 public class ObjectWriteSerializeCollector extends EventCollector
@@ -69,13 +68,13 @@ public class ObjectWriteSerializeCollector extends EventCollector
 		}
 	}
 	
-	private static synchronized void writeWrite(int aThreadId, ObjectId aTarget, int aFieldId)
+	private static synchronized void writeWrite(int aThreadId, long aTargetId, int aFieldId)
 	{
 		try
 		{
 			itsStream.writeByte(WRITE);
 			itsStream.writeInt(aThreadId);
-			itsStream.writeLong(aTarget != null ? aTarget.getId() : 0);
+			itsStream.writeLong(aTargetId);
 			itsStream.writeInt(aFieldId);
 		}
 		catch (IOException e)
@@ -111,9 +110,9 @@ public class ObjectWriteSerializeCollector extends EventCollector
 	}
 	
 	@Override
-	public void fieldWrite(ObjectId aTarget, int aFieldId)
+	public void fieldWrite(long aTargetId, int aFieldId)
 	{
-		writeWrite(itsThreadId, aTarget, aFieldId);
+		writeWrite(itsThreadId, aTargetId, aFieldId);
 	}
 	
 	@Override
@@ -137,7 +136,7 @@ public class ObjectWriteSerializeCollector extends EventCollector
 				case WRITE:
 					long theId = theStream.readLong();
 					int theFieldId = theStream.readInt();
-					aReplayer.getCollector(theThreadId).fieldWrite(theId != 0 ? new ObjectId(theId) : null, theFieldId);
+					aReplayer.getCollector(theThreadId).fieldWrite(theId, theFieldId);
 					break;
 				case SYNC:
 					long theTimestamp = theStream.readLong();
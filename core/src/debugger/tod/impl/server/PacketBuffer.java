@@ -31,18 +31,33 @@ Inc. MD5 Message-Digest Algorithm".
 */
 package tod.impl.server;
 
-import tod.utils.ByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
-public class PacketBuffer extends ByteBuffer
+/**
+ * The contents of a thread packet of the raw trace, as seen by a replayer.
+ * Packets are backed by a little-endian {@link ByteBuffer}, which is either a 
+ * heap buffer filled from a stream or a slice of a memory-mapped trace file
+ * (see {@link MappedTraceInput}), in which case no copy takes place.
+ * @author gpothier
+ */
+public class PacketBuffer
 {
+	private final ByteBuffer itsBuffer;
+	
 	/**
 	 * The offset in the file where this packet starts
 	 */
-	private long itsPacketStartOffset;
+	private final long itsPacketStartOffset;
 
 	public PacketBuffer(byte[] aBytes, long aPacketStartOffset)
 	{
-		super(aBytes);
+		this(ByteBuffer.wrap(aBytes), aPacketStartOffset);
+	}
+	
+	public PacketBuffer(ByteBuffer aBuffer, long aPacketStartOffset)
+	{
+		itsBuffer = aBuffer.order(ByteOrder.LITTLE_ENDIAN);
 		itsPacketStartOffset = aPacketStartOffset;
 	}
 
@@ -50,4 +65,108 @@ public class PacketBuffer extends ByteBuffer
 	{
 		return itsPacketStartOffset;
 	}
+	
+	public final int position()
+	{
+		return itsBuffer.position();
+	}
+	
+	public final void position(int aPosition)
+	{
+		itsBuffer.position(aPosition);
+	}
+	
+	public final int limit()
+	{
+		return itsBuffer.limit();
+	}
+	
+	public final void limit(int aLimit)
+	{
+		itsBuffer.limit(aLimit);
+	}
+	
+	public final int remaining()
+	{
+		return itsBuffer.remaining();
+	}
+	
+	/**
+	 * Whether this packet is backed by an accessible byte array,
+	 * see {@link #array()}.
+	 */
+	public final boolean hasArray()
+	{
+		return itsBuffer.hasArray();
+	}
+
+	/**
+	 * Returns the backing array of this packet. Position 0 of the packet
+	 * corresponds to index {@link #arrayOffset()} of the array.
+	 */
+	public final byte[] array()
+	{
+		return itsBuffer.array();
+	}
+
+	public final int arrayOffset()
+	{
+		return itsBuffer.arrayOffset();
+	}
+
+	public final void get(byte[] aBuffer, int aOffset, int aLength)
+	{
+		itsBuffer.get(aBuffer, aOffset, aLength);
+	}
+	
+	public final byte get()
+	{
+		return itsBuffer.get();
+	}
+	
+	public final byte peek()
+	{
+		return itsBuffer.get(itsBuffer.position());
+	}
+	
+	public final char getChar()
+	{
+		return itsBuffer.getChar();
+	}
+	
+	public final short getShort()
+	{
+		return itsBuffer.getShort();
+	}
+	
+	public final int getInt()
+	{
+		return itsBuffer.getInt();
+	}
+	
+	public final long getLong()
+	{
+		return itsBuffer.getLong();
+	}
+	
+	public final float getFloat()
+	{
+		return itsBuffer.getFloat();
+	}
+	
+	public final double getDouble()
+	{
+		return itsBuffer.getDouble();
+	}
+	
+	/**
+	 * Reads a string (length followed by UTF-16 chars).
+	 */
+	public final String getString()
+	{
+		int theLength = itsBuffer.getInt();
+		char[] theChars = new char[theLength];
+		for(int i=0;i<theLength;i++) theChars[i] = itsBuffer.getChar();
+		return new String(theChars);
+	}
 }
@@ -0,0 +1,77 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.IOException;
+
+/**
+ * Sequential access to the raw events file (events.raw), as read by
+ * {@link DBSideIOThread}. 
+ * @author gpothier
+ */
+public interface RawTraceInput
+{
+	/**
+	 * Reads the type byte of the next packet.
+	 * @return The packet type, or -1 at the end of the trace.
+	 */
+	public int readPacketType() throws IOException;
+	
+	/**
+	 * Reads a little-endian int.
+	 */
+	public int readInt() throws IOException;
+	
+	/**
+	 * Reads a little-endian long.
+	 */
+	public long readLong() throws IOException;
+	
+	/**
+	 * Reads a string (length followed by UTF-16 chars).
+	 */
+	public String readString() throws IOException;
+	
+	/**
+	 * Reads the payload of a thread packet.
+	 * @param aPacketStartOffset Offset of the packet header in the file.
+	 * @param aLength Size of the payload.
+	 */
+	public PacketBuffer readPacket(long aPacketStartOffset, int aLength) throws IOException;
+	
+	/**
+	 * Skips the given number of bytes.
+	 */
+	public void skip(long aCount) throws IOException;
+	
+	public void close() throws IOException;
+}
@@ -33,22 +33,216 @@ package tod.impl.server;
 
 import gnu.trove.TLongArrayList;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 import zz.utils.Utils;
 
 /**
- * A per-thread index of raw trace packets.
- * For now this is a quickly hacked in-memory solution
+ * A per-thread index of raw trace packets: for each thread, the sorted list of 
+ * the start offsets of its packets in the raw trace file.
+ * The index is built in memory during the initial replay, and can then be saved
+ * next to the raw trace file (see {@link #save(File, long)}) so that it does not have
+ * to be rebuilt after a restart (see {@link #load(File)}).
+ * <p>
+ * On disk, the offsets of each thread are delta-encoded as variable-length integers.
+ * Every {@link #SAMPLING}th offset is also stored in full in a checkpoint table, so that
+ * a lookup only needs a binary search among checkpoints followed by the decoding of
+ * at most {@link #SAMPLING} deltas. The file is memory-mapped, not loaded.
+ * <p>
+ * During online indexing the index is queried by partial replays while it is
+ * still being filled, hence the synchronization.
  * @author gpothier
  */
 public class RawTraceThreadIndex
 {
-	private static List<TLongArrayList> itsThreadIndexes = new ArrayList<TLongArrayList>();
+	private static final int MAGIC = 0x70d1d8;
+	private static final int VERSION = 1;
 	
-	public static void startThreadPacket(int aThreadId, long aOffset)
+	/**
+	 * Number of entries between two checkpoints.
+	 */
+	private static final int SAMPLING = 64;
+	
+	/**
+	 * Size of each thread entry in the directory:
+	 * thread id (4), packet count (4), checkpoints position (8), data position (8). 
+	 */
+	private static final int DIRECTORY_ENTRY_SIZE = 24;
+	
+	/**
+	 * Indexes being built, per thread (only when not loaded from disk).
+	 */
+	private final List<TLongArrayList> itsThreadIndexes = new ArrayList<TLongArrayList>();
+	
+	/**
+	 * Per-thread indexes of a loaded file.
+	 */
+	private final List<MappedThreadIndex> itsMappedIndexes = new ArrayList<MappedThreadIndex>();
+	private final MappedByteBuffer itsBuffer;
+	
+	/**
+	 * Creates an empty index, to be filled with {@link #startThreadPacket(int, long)}.
+	 */
+	public RawTraceThreadIndex()
+	{
+		itsBuffer = null;
+	}
+	
+	private RawTraceThreadIndex(MappedByteBuffer aBuffer)
 	{
+		itsBuffer = aBuffer;
+		
+		int theThreadCount = itsBuffer.getInt(16);
+		for(int i=0;i<theThreadCount;i++)
+		{
+			int theEntryPos = 20 + i*DIRECTORY_ENTRY_SIZE;
+			int theThreadId = itsBuffer.getInt(theEntryPos);
+			MappedThreadIndex theIndex = new MappedThreadIndex(
+					itsBuffer.getInt(theEntryPos+4),
+					(int) itsBuffer.getLong(theEntryPos+8),
+					(int) itsBuffer.getLong(theEntryPos+16));
+			Utils.listSet(itsMappedIndexes, theThreadId, theIndex);
+		}
+	}
+	
+	/**
+	 * Returns the file that holds the index of the given raw trace file.
+	 */
+	public static File getIndexFile(File aEventsFile)
+	{
+		return new File(aEventsFile.getPath()+".tidx");
+	}
+	
+	/**
+	 * Loads the saved index of the given raw trace file.
+	 * @param aTraceSize The current size of the trace (for a segmented trace, 
+	 * the end offset of its last segment).
+	 * @return The index, or null if there is no index or if it is stale 
+	 * (ie. the trace has changed since the index was saved).
+	 */
+	public static RawTraceThreadIndex load(File aEventsFile, long aTraceSize) throws IOException
+	{
+		File theFile = getIndexFile(aEventsFile);
+		if (! theFile.exists()) return null;
+		
+		RandomAccessFile theRAF = new RandomAccessFile(theFile, "r");
+		try
+		{
+			FileChannel theChannel = theRAF.getChannel();
+			MappedByteBuffer theBuffer = theChannel.map(FileChannel.MapMode.READ_ONLY, 0, theChannel.size());
+			
+			if (theBuffer.getInt(0) != MAGIC || theBuffer.getInt(4) != VERSION) 
+			{
+				Utils.println("Ignoring invalid thread index: %s", theFile);
+				return null;
+			}
+			
+			long theTraceSize = theBuffer.getLong(8);
+			if (theTraceSize != aTraceSize)
+			{
+				Utils.println("Ignoring stale thread index: %s", theFile);
+				return null;
+			}
+			
+			return new RawTraceThreadIndex(theBuffer);
+		}
+		finally
+		{
+			// The mapping remains valid after the channel is closed
+			theRAF.close();
+		}
+	}
+	
+	/**
+	 * Saves this index next to the given raw trace file.
+	 * @param aTraceSize The size of the trace that was indexed.
+	 */
+	public synchronized void save(File aEventsFile, long aTraceSize) throws IOException
+	{
+		if (itsBuffer != null) return; // Already on disk
+		
+		int theThreadCount = 0;
+		for (TLongArrayList theIndex : itsThreadIndexes) if (theIndex != null) theThreadCount++;
+		
+		ByteArrayOutputStream theDataBuffer = new ByteArrayOutputStream();
+		DataOutputStream theData = new DataOutputStream(theDataBuffer);
+
+		long theBase = 20 + theThreadCount*DIRECTORY_ENTRY_SIZE;
+
+		DataOutputStream theOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(aEventsFile))));
+		try
+		{
+			theOut.writeInt(MAGIC);
+			theOut.writeInt(VERSION);
+			theOut.writeLong(aTraceSize);
+			theOut.writeInt(theThreadCount);
+			
+			for(int theThreadId=0;theThreadId<itsThreadIndexes.size();theThreadId++)
+			{
+				TLongArrayList theIndex = itsThreadIndexes.get(theThreadId);
+				if (theIndex == null) continue;
+				
+				// Checkpoints
+				long theCheckpointsPos = theBase + theData.size();
+				int theCheckpointsCount = (theIndex.size()+SAMPLING-1)/SAMPLING;
+				int theDeltasStart = theData.size() + theCheckpointsCount*12;
+				
+				ByteArrayOutputStream theDeltasBuffer = new ByteArrayOutputStream();
+				long thePrevious = 0;
+				for(int i=0;i<theIndex.size();i++)
+				{
+					long theOffset = theIndex.get(i);
+					if (i % SAMPLING == 0)
+					{
+						theData.writeLong(theOffset);
+						theData.writeInt(theDeltasBuffer.size());
+					}
+					else writeVarLong(theDeltasBuffer, theOffset-thePrevious);
+					thePrevious = theOffset;
+				}
+				
+				assert theData.size() == theDeltasStart;
+				theDeltasBuffer.writeTo(theData);
+				
+				theOut.writeInt(theThreadId);
+				theOut.writeInt(theIndex.size());
+				theOut.writeLong(theCheckpointsPos);
+				theOut.writeLong(theBase + theDeltasStart);
+			}
+			
+			theData.flush();
+			theDataBuffer.writeTo(theOut);
+		}
+		finally
+		{
+			theOut.close();
+		}
+	}
+	
+	private static void writeVarLong(ByteArrayOutputStream aOut, long aValue)
+	{
+		while((aValue & ~0x7fL) != 0)
+		{
+			aOut.write((int) ((aValue & 0x7f) | 0x80));
+			aValue >>>= 7;
+		}
+		aOut.write((int) aValue);
+	}
+	
+	public synchronized void startThreadPacket(int aThreadId, long aOffset)
+	{
+		if (itsBuffer != null) return; // Already indexed
+		
 		TLongArrayList theIndex = Utils.listGet(itsThreadIndexes, aThreadId);
 		if (theIndex == null)
 		{
@@ -58,12 +252,98 @@ public class RawTraceThreadIndex
 		theIndex.add(aOffset);
 	}
 	
-	public static long getNextThreadPacketOffset(int aThreadId, long aCurrentPacketOffset)
+	/**
+	 * Returns the offset of the packet of the given thread that follows the given packet,
+	 * or -1 if it is the last packet of the thread.
+	 */
+	public synchronized long getNextThreadPacketOffset(int aThreadId, long aCurrentPacketOffset)
 	{
+		if (itsBuffer != null)
+		{
+			MappedThreadIndex theIndex = Utils.listGet(itsMappedIndexes, aThreadId);
+			return theIndex.getNext(aCurrentPacketOffset);
+		}
+		
 		TLongArrayList theIndex = Utils.listGet(itsThreadIndexes, aThreadId);
 		int thePos = theIndex.binarySearch(aCurrentPacketOffset);
 		assert thePos >= 0;
 		if (thePos == theIndex.size()-1) return -1;
 		else return theIndex.get(thePos+1);
 	}
+	
+	/**
+	 * The on-disk index of a single thread.
+	 * @author gpothier
+	 */
+	private class MappedThreadIndex
+	{
+		private final int itsCount;
+		private final int itsCheckpointsPos;
+		private final int itsDeltasPos;
+		
+		public MappedThreadIndex(int aCount, int aCheckpointsPos, int aDeltasPos)
+		{
+			itsCount = aCount;
+			itsCheckpointsPos = aCheckpointsPos;
+			itsDeltasPos = aDeltasPos;
+		}
+		
+		private long getCheckpoint(int aIndex)
+		{
+			return itsBuffer.getLong(itsCheckpointsPos + aIndex*12);
+		}
+		
+		private int getCheckpointDeltaPos(int aIndex)
+		{
+			return itsDeltasPos + itsBuffer.getInt(itsCheckpointsPos + aIndex*12 + 8);
+		}
+		
+		public long getNext(long aOffset)
+		{
+			// Find the last checkpoint that is <= aOffset
+			int theCheckpointsCount = (itsCount+SAMPLING-1)/SAMPLING;
+			int lo = 0;
+			int hi = theCheckpointsCount-1;
+			while(lo < hi)
+			{
+				int mid = (lo+hi+1) >>> 1;
+				if (getCheckpoint(mid) <= aOffset) lo = mid;
+				else hi = mid-1;
+			}
+			
+			// Decode deltas from there
+			int theEntry = lo*SAMPLING;
+			long theValue = getCheckpoint(lo);
+			int thePos = getCheckpointDeltaPos(lo);
+			
+			boolean theFound = theValue == aOffset;
+			while(++theEntry < itsCount)
+			{
+				if (theEntry % SAMPLING == 0) 
+				{
+					theValue = getCheckpoint(theEntry/SAMPLING);
+				}
+				else
+				{
+					long theDelta = 0;
+					int theShift = 0;
+					byte b;
+					do
+					{
+						b = itsBuffer.get(thePos++);
+						theDelta |= ((long) (b & 0x7f)) << theShift;
+						theShift += 7;
+					} while ((b & 0x80) != 0);
+					theValue += theDelta;
+				}
+				
+				if (theFound) return theValue;
+				if (theValue == aOffset) theFound = true;
+				else if (theValue > aOffset) break;
+			}
+			
+			assert theFound : "Packet not found: "+aOffset;
+			return -1;
+		}
+	}
 }
@@ -0,0 +1,303 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import tod.impl.server.TraceManifest.Segment;
+
+/**
+ * A {@link RawTraceInput} that reads the segments of a {@link TraceManifest} 
+ * one after the other, as if they were a single raw events file.
+ * Offsets (eg. packet start offsets) are logical: the offset of a byte in 
+ * a segment is shifted by the sizes of the preceding segments, including
+ * dropped ones (see {@link TraceManifest#getBaseOffset()}).
+ * <p>
+ * Packets never span segments (see {@link tod.impl.database.Recorder}).
+ * Segments can be compressed or not (see {@link CompressedTraceInput#open(File, long)}).
+ * <p>
+ * In follow mode, the input reads segments that are still being written: the 
+ * manifest is reloaded when the end of the known data is reached, an open segment
+ * is read up to its current end, and the end of the trace is reported when no 
+ * more data is available yet (see {@link TailingTraceInput}). Otherwise, segments 
+ * are only read up to the size recorded in the manifest.
+ * @author gpothier
+ */
+public class SegmentedTraceInput implements RawTraceInput
+{
+	private final File itsDirectory;
+	private final boolean itsFollow;
+	private List<Segment> itsSegments;
+	
+	/**
+	 * Logical offset of the start of each segment. Only the offsets of the segments
+	 * that follow complete segments are exact.
+	 */
+	private long[] itsStarts;
+	
+	private int itsCurrentIndex = -1;
+	private RawTraceInput itsCurrent;
+	
+	/**
+	 * Offset of the next byte to read in the current segment.
+	 */
+	private long itsSegmentPosition;
+	
+	/**
+	 * Creates an input positioned at the start of the first remaining segment 
+	 * (see {@link TraceManifest#getBaseOffset()}).
+	 */
+	public SegmentedTraceInput(File aDirectory, TraceManifest aManifest) throws IOException
+	{
+		this(aDirectory, aManifest, aManifest.getBaseOffset(), false);
+	}
+	
+	/**
+	 * Creates an input positioned at the given logical offset.
+	 */
+	public SegmentedTraceInput(
+			File aDirectory, 
+			TraceManifest aManifest, 
+			long aStartOffset, 
+			boolean aFollow) throws IOException
+	{
+		itsDirectory = aDirectory;
+		itsFollow = aFollow;
+		setManifest(aManifest);
+		
+		if (aStartOffset < itsStarts[0]) 
+		{
+			throw new IOException("Trace data before offset "+itsStarts[0]+" was dropped (requested: "+aStartOffset+")");
+		}
+		
+		int theIndex = 0;
+		while(theIndex < itsSegments.size()-1 && aStartOffset >= itsStarts[theIndex+1]) theIndex++;
+		open(theIndex, aStartOffset - itsStarts[theIndex]);
+	}
+	
+	/**
+	 * Opens the trace stored in the given directory: the segments of its manifest
+	 * if there is one (in follow mode), or the single events.raw file otherwise.
+	 */
+	public static RawTraceInput open(File aDirectory, long aStartOffset) throws IOException
+	{
+		TraceManifest theManifest = TraceManifest.load(aDirectory);
+		return theManifest != null ?
+				new SegmentedTraceInput(aDirectory, theManifest, aStartOffset, true)
+				: CompressedTraceInput.open(new File(aDirectory, "events.raw"), aStartOffset);
+	}
+	
+	private void setManifest(TraceManifest aManifest)
+	{
+		itsSegments = aManifest.getSegments();
+		itsStarts = new long[itsSegments.size()+1];
+		itsStarts[0] = aManifest.getBaseOffset();
+		for(int i=0;i<itsSegments.size();i++) itsStarts[i+1] = itsStarts[i] + itsSegments.get(i).getSize();
+	}
+	
+	/**
+	 * Reloads the manifest, in follow mode. The current segment, or the last one
+	 * if we are past it, keeps its logical offset.
+	 */
+	private void reload() throws IOException
+	{
+		TraceManifest theManifest = TraceManifest.load(itsDirectory);
+		if (theManifest == null) throw new IOException("Manifest disappeared: "+itsDirectory);
+		
+		if (itsSegments.isEmpty())
+		{
+			setManifest(theManifest);
+			itsCurrentIndex = 0;
+			return;
+		}
+		
+		int theAnchor = Math.min(itsCurrentIndex, itsSegments.size()-1);
+		String theAnchorFile = itsSegments.get(theAnchor).getFileName();
+		long theAnchorStart = itsStarts[theAnchor];
+		int theDelta = itsCurrentIndex - theAnchor;
+		List<Segment> theOldSegments = itsSegments;
+		
+		setManifest(theManifest);
+		
+		// Segments before the anchor might have been dropped
+		int theIndex = 0;
+		while(theIndex < itsSegments.size() && ! itsSegments.get(theIndex).getFileName().equals(theAnchorFile)) theIndex++;
+		if (theIndex == itsSegments.size()) throw new IOException("Segment dropped while being read: "+theAnchorFile);
+		
+		// The block indexes of the dropped segments are not needed anymore
+		for(int i=0;i<theAnchor-theIndex;i++) CompressedTraceInput.forget(theOldSegments.get(i).getFile(itsDirectory));
+		
+		long theShift = theAnchorStart - itsStarts[theIndex];
+		for(int i=0;i<itsStarts.length;i++) itsStarts[i] += theShift;
+		itsCurrentIndex = theIndex + theDelta;
+	}
+	
+	private void open(int aIndex, long aOffset) throws IOException
+	{
+		if (itsCurrent != null) itsCurrent.close();
+		itsCurrentIndex = aIndex;
+		itsSegmentPosition = aOffset;
+		itsCurrent = null;
+		if (aIndex >= itsSegments.size()) return;
+		
+		File theFile = itsSegments.get(aIndex).getFile(itsDirectory);
+		
+		// In follow mode, wait until the format of the file can be determined 
+		if (itsFollow && theFile.length() < CompressedTraceInput.HEADER_SIZE && ! itsSegments.get(aIndex).isComplete()) return;
+		
+		itsCurrent = CompressedTraceInput.open(theFile, aOffset);
+	}
+	
+	/**
+	 * Returns the total size of the segments, as recorded in the manifest.
+	 */
+	public long getSize()
+	{
+		return itsStarts[itsStarts.length-1];
+	}
+	
+	/**
+	 * Returns the logical offset of the next byte to read.
+	 */
+	public long getPosition()
+	{
+		if (itsCurrentIndex >= itsSegments.size()) return getSize();
+		return itsStarts[itsCurrentIndex] + itsSegmentPosition;
+	}
+	
+	public int readPacketType() throws IOException
+	{
+		while(true)
+		{
+			if (itsCurrentIndex >= itsSegments.size())
+			{
+				if (! itsFollow) return -1;
+				reload();
+				if (itsCurrentIndex >= itsSegments.size()) return -1;
+			}
+			
+			if (itsCurrent == null)
+			{
+				// In follow mode, the file might not be ready yet
+				if (itsFollow) reload();
+				open(itsCurrentIndex, itsSegmentPosition);
+				if (itsCurrent == null) return -1;
+			}
+			
+			// Unless following, don't read past the size recorded in the manifest: the segment 
+			// might be longer if the host was still recording when the manifest was saved.
+			Segment theSegment = itsSegments.get(itsCurrentIndex);
+			if (itsFollow || itsSegmentPosition < theSegment.getSize())
+			{
+				int theType = itsCurrent.readPacketType();
+				if (theType != -1) 
+				{
+					itsSegmentPosition++;
+					return theType;
+				}
+			}
+			
+			if (itsFollow)
+			{
+				// Only leave a segment once it is complete and completely read
+				if (! theSegment.isComplete())
+				{
+					reload();
+					if (! itsSegments.get(itsCurrentIndex).isComplete()) return -1;
+					
+					// Read again, the last data might have been written before completion
+					continue;
+				}
+				
+				if (itsSegmentPosition < theSegment.getSize()) 
+				{
+					throw new IOException("Truncated segment: "+theSegment.getFileName());
+				}
+			}
+			
+			open(itsCurrentIndex+1, 0);
+		}
+	}
+
+	public int readInt() throws IOException
+	{
+		int theValue = itsCurrent.readInt();
+		itsSegmentPosition += 4;
+		return theValue;
+	}
+
+	public long readLong() throws IOException
+	{
+		long theValue = itsCurrent.readLong();
+		itsSegmentPosition += 8;
+		return theValue;
+	}
+
+	public String readString() throws IOException
+	{
+		String theString = itsCurrent.readString();
+		itsSegmentPosition += 4 + 2*theString.length();
+		return theString;
+	}
+
+	public PacketBuffer readPacket(long aPacketStartOffset, int aLength) throws IOException
+	{
+		PacketBuffer theBuffer = itsCurrent.readPacket(aPacketStartOffset, aLength);
+		itsSegmentPosition += aLength;
+		return theBuffer;
+	}
+
+	public void skip(long aCount) throws IOException
+	{
+		if (itsCurrentIndex >= itsSegments.size()) return;
+		long theTarget = getPosition() + aCount;
+		if (theTarget < itsStarts[itsCurrentIndex+1] || (itsFollow && itsCurrentIndex == itsSegments.size()-1)) 
+		{
+			if (itsCurrent != null) itsCurrent.skip(aCount);
+			itsSegmentPosition += aCount;
+		}
+		else
+		{
+			int theIndex = itsCurrentIndex;
+			while(theIndex < itsSegments.size() && theTarget >= itsStarts[theIndex+1]) theIndex++;
+			open(theIndex, theIndex < itsSegments.size() ? theTarget - itsStarts[theIndex] : 0);
+		}
+	}
+
+	public void close() throws IOException
+	{
+		if (itsCurrent != null) itsCurrent.close();
+		itsCurrent = null;
+	}
+}
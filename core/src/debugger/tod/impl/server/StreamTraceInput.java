@@ -0,0 +1,97 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import tod.utils.ByteBuffer;
+
+/**
+ * A {@link RawTraceInput} that reads from an {@link InputStream}.
+ * Each packet is copied into its own heap buffer, and skipping is linear
+ * in the number of skipped bytes.
+ * @author gpothier
+ */
+public class StreamTraceInput implements RawTraceInput
+{
+	private final InputStream itsIn;
+
+	public StreamTraceInput(InputStream aIn)
+	{
+		itsIn = aIn;
+	}
+	
+	public int readPacketType() throws IOException
+	{
+		return itsIn.read();
+	}
+
+	public int readInt() throws IOException
+	{
+		return ByteBuffer.getIntL(itsIn);
+	}
+
+	public long readLong() throws IOException
+	{
+		return ByteBuffer.getLongL(itsIn);
+	}
+
+	public String readString() throws IOException
+	{
+		return ByteBuffer.getString(itsIn);
+	}
+
+	public PacketBuffer readPacket(long aPacketStartOffset, int aLength) throws IOException
+	{
+		byte[] theBytes = new byte[aLength];
+		int c = 0;
+		while(c < aLength) 
+		{
+			int r = itsIn.read(theBytes, c, aLength-c);
+			if (r == -1) throw new EOFException();
+			c += r;
+		}
+		return new PacketBuffer(theBytes, aPacketStartOffset);
+	}
+
+	public void skip(long aCount) throws IOException
+	{
+		while(aCount > 0) aCount -= itsIn.skip(aCount);
+	}
+	
+	public void close() throws IOException
+	{
+		itsIn.close();
+	}
+}
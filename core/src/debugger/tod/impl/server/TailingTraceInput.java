@@ -0,0 +1,203 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A {@link RawTraceInput} that follows a raw trace that is still being written,
+ * for online indexing. When the end of the underlying input is reached, the input
+ * waits for more data instead of reporting the end of the trace, until
+ * {@link #finish()} is called or the trace stays idle for longer than the
+ * given timeout.
+ * <p>
+ * The underlying input must not consume anything when a read fails with an
+ * {@link EOFException}, so that the read can be retried once the data is available
+ * (this is the case of {@link MappedTraceInput} and {@link CompressedTraceInput}).
+ * @author gpothier
+ */
+public class TailingTraceInput implements RawTraceInput
+{
+	/**
+	 * Time to wait before checking again for new data, in milliseconds.
+	 */
+	private static final int POLL_INTERVAL = 50;
+	
+	private final RawTraceInput itsInput;
+	
+	/**
+	 * See constructor.
+	 */
+	private final long itsIdleTimeout;
+	
+	private volatile boolean itsFinished = false;
+	
+	/**
+	 * Time at which the last piece of data was read.
+	 */
+	private long itsLastData = System.currentTimeMillis();
+	
+	/**
+	 * @param aIdleTimeout Time, in milliseconds, after which the trace is considered
+	 * complete if no new data arrived, or 0 to wait until {@link #finish()} is called.
+	 */
+	public TailingTraceInput(RawTraceInput aInput, long aIdleTimeout)
+	{
+		itsInput = aInput;
+		itsIdleTimeout = aIdleTimeout;
+	}
+	
+	/**
+	 * Indicates that the trace will not grow anymore: the remaining data is 
+	 * read and then the end of the trace is reported.
+	 */
+	public void finish()
+	{
+		itsFinished = true;
+	}
+	
+	/**
+	 * Waits for more data.
+	 * @param aFinished Whether the trace was already finished before the failed read.
+	 * @return False if the trace is complete.
+	 */
+	private boolean await(boolean aFinished) throws IOException
+	{
+		if (aFinished) return false;
+		
+		// Retry once: the data might have been written before the call to finish
+		if (itsFinished) return true;
+		
+		if (itsIdleTimeout > 0 && System.currentTimeMillis() - itsLastData > itsIdleTimeout) return false;
+		
+		try
+		{
+			Thread.sleep(POLL_INTERVAL);
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException("Interrupted");
+		}
+		return true;
+	}
+	
+	public int readPacketType() throws IOException
+	{
+		while(true)
+		{
+			boolean theFinished = itsFinished;
+			int theType = itsInput.readPacketType();
+			if (theType != -1) 
+			{
+				itsLastData = System.currentTimeMillis();
+				return theType;
+			}
+			if (! await(theFinished)) return -1;
+		}
+	}
+
+	public int readInt() throws IOException
+	{
+		while(true)
+		{
+			boolean theFinished = itsFinished;
+			try
+			{
+				return itsInput.readInt();
+			}
+			catch (EOFException e)
+			{
+				// The packet is not completely written yet
+				if (! await(theFinished)) throw e;
+			}
+		}
+	}
+
+	public long readLong() throws IOException
+	{
+		while(true)
+		{
+			boolean theFinished = itsFinished;
+			try
+			{
+				return itsInput.readLong();
+			}
+			catch (EOFException e)
+			{
+				if (! await(theFinished)) throw e;
+			}
+		}
+	}
+
+	public String readString() throws IOException
+	{
+		while(true)
+		{
+			boolean theFinished = itsFinished;
+			try
+			{
+				return itsInput.readString();
+			}
+			catch (EOFException e)
+			{
+				if (! await(theFinished)) throw e;
+			}
+		}
+	}
+
+	public PacketBuffer readPacket(long aPacketStartOffset, int aLength) throws IOException
+	{
+		while(true)
+		{
+			boolean theFinished = itsFinished;
+			try
+			{
+				return itsInput.readPacket(aPacketStartOffset, aLength);
+			}
+			catch (EOFException e)
+			{
+				if (! await(theFinished)) throw e;
+			}
+		}
+	}
+
+	public void skip(long aCount) throws IOException
+	{
+		itsInput.skip(aCount);
+	}
+
+	public void close() throws IOException
+	{
+		itsInput.close();
+	}
+}
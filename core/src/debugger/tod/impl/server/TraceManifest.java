@@ -0,0 +1,316 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a raw trace made of several segments, typically one or more per debugged VM
+ * (see {@link tod.impl.database.Recorder}). Each segment is a regular raw events file.
+ * The manifest is a text file with one line per segment, stored next to the segments 
+ * (see {@link #getFile(File)}). It is rewritten (atomically) whenever a segment 
+ * is added, completed or dropped, so that it can be read while recording.
+ * <p>
+ * The oldest segments can be dropped to bound the size of the trace (see
+ * {@link #applyRetention(long, long)}). The total size of the dropped segments is kept 
+ * as the base offset of the trace, so that the logical offsets of the remaining data 
+ * (see {@link SegmentedTraceInput}) do not change.
+ * @author gpothier
+ */
+public class TraceManifest
+{
+	private static final String HEADER_V1 = "# TOD trace manifest v1";
+	private static final String HEADER = "# TOD trace manifest v2";
+	
+	private final List<Segment> itsSegments = new ArrayList<Segment>();
+	
+	/**
+	 * Total size of the dropped segments.
+	 */
+	private long itsBaseOffset = 0;
+	
+	/**
+	 * Returns the manifest file of the trace stored in the given directory.
+	 */
+	public static File getFile(File aDirectory)
+	{
+		return new File(aDirectory, "segments.manifest");
+	}
+	
+	/**
+	 * Loads the manifest of the trace stored in the given directory.
+	 * @return The manifest, or null if the directory does not contain a segmented trace.
+	 */
+	public static TraceManifest load(File aDirectory) throws IOException
+	{
+		File theFile = getFile(aDirectory);
+		if (! theFile.exists()) return null;
+		
+		TraceManifest theManifest = new TraceManifest();
+		BufferedReader theReader = new BufferedReader(new FileReader(theFile));
+		try
+		{
+			String theLine = theReader.readLine();
+			boolean theV1 = HEADER_V1.equals(theLine);
+			if (! theV1 && ! HEADER.equals(theLine)) throw new IOException("Bad manifest header: "+theLine);
+			
+			while((theLine = theReader.readLine()) != null)
+			{
+				if (theLine.length() == 0) continue;
+				String[] theFields = theLine.split("\t");
+				
+				if (! theV1 && theFields.length == 2 && "base".equals(theFields[0]))
+				{
+					theManifest.itsBaseOffset = Long.parseLong(theFields[1]);
+					continue;
+				}
+				
+				if (theFields.length != (theV1 ? 5 : 6)) throw new IOException("Bad manifest line: "+theLine);
+				
+				Segment theSegment = new Segment(
+						theFields[0], 
+						Integer.parseInt(theFields[1]), 
+						theFields[2]);
+				theSegment.itsSize = Long.parseLong(theFields[3]);
+				theSegment.itsComplete = "complete".equals(theFields[4]);
+				if (! theV1) theSegment.itsCompletionTime = Long.parseLong(theFields[5]);
+				theManifest.itsSegments.add(theSegment);
+			}
+		}
+		finally
+		{
+			theReader.close();
+		}
+		
+		return theManifest;
+	}
+	
+	/**
+	 * Writes this manifest in the given directory. The file is replaced atomically.
+	 */
+	public synchronized void save(File aDirectory) throws IOException
+	{
+		File theFile = getFile(aDirectory);
+		File theTmpFile = new File(theFile.getPath()+".tmp");
+		
+		PrintWriter theWriter = new PrintWriter(new FileWriter(theTmpFile));
+		try
+		{
+			theWriter.println(HEADER);
+			theWriter.println("base\t"+itsBaseOffset);
+			for (Segment theSegment : itsSegments)
+			{
+				theWriter.print(theSegment.getFileName());
+				theWriter.print('\t');
+				theWriter.print(theSegment.getHostId());
+				theWriter.print('\t');
+				theWriter.print(theSegment.getHostName().replace('\t', ' '));
+				theWriter.print('\t');
+				theWriter.print(theSegment.getSize());
+				theWriter.print('\t');
+				theWriter.print(theSegment.isComplete() ? "complete" : "open");
+				theWriter.print('\t');
+				theWriter.println(theSegment.getCompletionTime());
+			}
+		}
+		finally
+		{
+			theWriter.close();
+		}
+		
+		theFile.delete();
+		if (! theTmpFile.renameTo(theFile)) throw new IOException("Could not write "+theFile);
+	}
+	
+	public synchronized Segment addSegment(String aFileName, int aHostId, String aHostName)
+	{
+		Segment theSegment = new Segment(aFileName, aHostId, aHostName);
+		itsSegments.add(theSegment);
+		return theSegment;
+	}
+	
+	public synchronized List<Segment> getSegments()
+	{
+		return Collections.unmodifiableList(new ArrayList<Segment>(itsSegments));
+	}
+	
+	/**
+	 * Returns the logical offset of the first byte of the first segment, ie. 
+	 * the total size of the segments that were dropped.
+	 */
+	public synchronized long getBaseOffset()
+	{
+		return itsBaseOffset;
+	}
+	
+	/**
+	 * Drops the oldest complete segments while the total size of the segments 
+	 * exceeds the given size, or while the oldest segment was completed before the given time.
+	 * Only a prefix of complete segments is dropped, so that the logical offsets
+	 * of the remaining segments do not change.
+	 * The files of the segments are not deleted.
+	 * @param aMaxSize Maximum total size, or 0 for no limit.
+	 * @param aMinCompletionTime Segments completed before this time are dropped (0 for no limit).
+	 * @return The dropped segments.
+	 */
+	public synchronized List<Segment> applyRetention(long aMaxSize, long aMinCompletionTime)
+	{
+		List<Segment> theDropped = new ArrayList<Segment>();
+		long theSize = getTotalSize();
+		while(! itsSegments.isEmpty())
+		{
+			Segment theSegment = itsSegments.get(0);
+			if (! theSegment.isComplete()) break;
+			
+			boolean theTooLarge = aMaxSize > 0 && theSize > aMaxSize;
+			boolean theTooOld = theSegment.getCompletionTime() < aMinCompletionTime;
+			if (! theTooLarge && ! theTooOld) break;
+			
+			itsSegments.remove(0);
+			itsBaseOffset += theSegment.getSize();
+			theSize -= theSegment.getSize();
+			theDropped.add(theSegment);
+		}
+		return theDropped;
+	}
+	
+	/**
+	 * Returns the total size of the segments.
+	 */
+	public synchronized long getTotalSize()
+	{
+		long theSize = 0;
+		for (Segment theSegment : itsSegments) theSize += theSegment.getSize();
+		return theSize;
+	}
+	
+	/**
+	 * Whether all the segments are complete.
+	 */
+	public synchronized boolean isComplete()
+	{
+		for (Segment theSegment : itsSegments) if (! theSegment.isComplete()) return false;
+		return true;
+	}
+	
+	/**
+	 * A segment of the trace: (part of) the raw events sent by a single host.
+	 * Packets never span segments.
+	 */
+	public static class Segment
+	{
+		private final String itsFileName;
+		private final int itsHostId;
+		private final String itsHostName;
+		
+		private long itsSize = 0;
+		private boolean itsComplete = false;
+		private long itsCompletionTime = 0;
+		
+		public Segment(String aFileName, int aHostId, String aHostName)
+		{
+			itsFileName = aFileName;
+			itsHostId = aHostId;
+			itsHostName = aHostName;
+		}
+
+		/**
+		 * The name of the segment's raw events file, relative to the manifest.
+		 */
+		public String getFileName()
+		{
+			return itsFileName;
+		}
+		
+		public File getFile(File aDirectory)
+		{
+			return new File(aDirectory, itsFileName);
+		}
+
+		/**
+		 * The id assigned to the host by the recorder, or 0 if unknown.
+		 */
+		public int getHostId()
+		{
+			return itsHostId;
+		}
+
+		public String getHostName()
+		{
+			return itsHostName;
+		}
+
+		/**
+		 * Number of bytes written to the segment (as of the last save of the manifest).
+		 */
+		public synchronized long getSize()
+		{
+			return itsSize;
+		}
+		
+		public synchronized void setSize(long aSize)
+		{
+			itsSize = aSize;
+		}
+
+		/**
+		 * Whether the host has disconnected, ie. the segment will not grow anymore.
+		 */
+		public synchronized boolean isComplete()
+		{
+			return itsComplete;
+		}
+		
+		public synchronized void setComplete(long aSize)
+		{
+			itsSize = aSize;
+			itsComplete = true;
+			itsCompletionTime = System.currentTimeMillis();
+		}
+		
+		/**
+		 * The time at which the segment was completed, or 0 if it is not complete.
+		 */
+		public synchronized long getCompletionTime()
+		{
+			return itsCompletionTime;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package tod.utils;
+
+import java.util.Arrays;
+
+/**
+ * A pure Java compressor for the LZ4 block format: sequences of literals
+ * followed by a back-reference (16-bit offset) of at least 4 bytes.
+ * The compressor uses a single-entry hash table of 4-byte sequences and 
+ * skips faster through incompressible data, which favors speed over ratio.
+ * <p>
+ * Instances are not thread-safe, as the hash table is reused between calls.
+ * Decompression is stateless.
+ * @author gpothier
+ */
+public class LZ4Codec
+{
+	private static final int MIN_MATCH = 4;
+	
+	/**
+	 * The last literals of a block are never part of a match.
+	 */
+	private static final int LAST_LITERALS = 5;
+	
+	/**
+	 * A match cannot start within the last 12 bytes of a block.
+	 */
+	private static final int MF_LIMIT = 12;
+	
+	private static final int MAX_OFFSET = 65535;
+	
+	private static final int HASH_LOG = 14;
+	
+	private final int[] itsHashTable = new int[1 << HASH_LOG];
+	
+	/**
+	 * Returns the maximum size of the compressed form of a block of the given size.
+	 */
+	public static int maxCompressedLength(int aLength)
+	{
+		return aLength + aLength/255 + 16;
+	}
+	
+	private static int readInt(byte[] aBuffer, int aOffset)
+	{
+		return (aBuffer[aOffset] & 0xff)
+			| (aBuffer[aOffset+1] & 0xff) << 8
+			| (aBuffer[aOffset+2] & 0xff) << 16
+			| (aBuffer[aOffset+3] & 0xff) << 24;
+	}
+	
+	private static int hash(int aValue)
+	{
+		return (aValue * -1640531535) >>> (32 - HASH_LOG);
+	}
+	
+	private static int writeLength(byte[] aBuffer, int aOffset, int aLength)
+	{
+		while(aLength >= 255)
+		{
+			aBuffer[aOffset++] = (byte) 255;
+			aLength -= 255;
+		}
+		aBuffer[aOffset++] = (byte) aLength;
+		return aOffset;
+	}
+	
+	/**
+	 * Writes a sequence: a token, the literals and, if aMatchLength > 0, the match.
+	 * @return The position after the sequence.
+	 */
+	private static int writeSequence(
+			byte[] aSrc, int aAnchor, int aLiteralLength,
+			int aOffset, int aMatchLength,
+			byte[] aDest, int aPos)
+	{
+		int theTokenPos = aPos++;
+		int theToken;
+		
+		if (aLiteralLength >= 15)
+		{
+			theToken = 15 << 4;
+			aPos = writeLength(aDest, aPos, aLiteralLength-15);
+		}
+		else theToken = aLiteralLength << 4;
+		
+		System.arraycopy(aSrc, aAnchor, aDest, aPos, aLiteralLength);
+		aPos += aLiteralLength;
+		
+		if (aMatchLength > 0)
+		{
+			aDest[aPos++] = (byte) aOffset;
+			aDest[aPos++] = (byte) (aOffset >>> 8);
+			
+			int theLength = aMatchLength - MIN_MATCH;
+			if (theLength >= 15)
+			{
+				theToken |= 15;
+				aPos = writeLength(aDest, aPos, theLength-15);
+			}
+			else theToken |= theLength;
+		}
+		
+		aDest[theTokenPos] = (byte) theToken;
+		return aPos;
+	}
+	
+	/**
+	 * Compresses a block.
+	 * @param aDest Must have room for {@link #maxCompressedLength(int)} bytes.
+	 * @return The size of the compressed block.
+	 */
+	public int compress(byte[] aSrc, int aSrcOffset, int aLength, byte[] aDest, int aDestOffset)
+	{
+		int theEnd = aSrcOffset + aLength;
+		int theMatchLimit = theEnd - LAST_LITERALS;
+		int theMFLimit = theEnd - MF_LIMIT;
+		
+		int theAnchor = aSrcOffset;
+		int thePos = aDestOffset;
+		
+		if (aLength > MF_LIMIT)
+		{
+			Arrays.fill(itsHashTable, -1);
+			
+			int i = aSrcOffset;
+			while(i < theMFLimit)
+			{
+				int theHash = hash(readInt(aSrc, i));
+				int theRef = itsHashTable[theHash];
+				itsHashTable[theHash] = i;
+				
+				if (theRef < 0 || i - theRef > MAX_OFFSET || readInt(aSrc, theRef) != readInt(aSrc, i))
+				{
+					// Skip faster when no match is found for a while
+					i += 1 + ((i - theAnchor) >>> 6);
+					continue;
+				}
+				
+				// Extend the match backwards
+				while(i > theAnchor && theRef > aSrcOffset && aSrc[i-1] == aSrc[theRef-1])
+				{
+					i--;
+					theRef--;
+				}
+				
+				int theMatchLength = MIN_MATCH;
+				while(i + theMatchLength < theMatchLimit && aSrc[i + theMatchLength] == aSrc[theRef + theMatchLength]) 
+					theMatchLength++;
+				
+				thePos = writeSequence(aSrc, theAnchor, i - theAnchor, i - theRef, theMatchLength, aDest, thePos);
+				
+				i += theMatchLength;
+				theAnchor = i;
+				
+				if (i < theMFLimit) itsHashTable[hash(readInt(aSrc, i-2))] = i-2;
+			}
+		}
+		
+		thePos = writeSequence(aSrc, theAnchor, theEnd - theAnchor, 0, 0, aDest, thePos);
+		return thePos - aDestOffset;
+	}
+	
+	/**
+	 * Decompresses a block.
+	 * @param aLength The size of the decompressed block.
+	 * @throws IllegalArgumentException If the block is malformed.
+	 */
+	public static void decompress(
+			byte[] aSrc, int aSrcOffset, int aSrcLength, 
+			byte[] aDest, int aDestOffset, int aLength)
+	{
+		int theSrcEnd = aSrcOffset + aSrcLength;
+		int theDestEnd = aDestOffset + aLength;
+		int i = aSrcOffset;
+		int o = aDestOffset;
+		
+		try
+		{
+			while(true)
+			{
+				int theToken = aSrc[i++] & 0xff;
+				
+				// Literals
+				int theLiteralLength = theToken >>> 4;
+				if (theLiteralLength == 15)
+				{
+					int b;
+					do
+					{
+						b = aSrc[i++] & 0xff;
+						theLiteralLength += b;
+					} while(b == 255);
+				}
+				
+				if (i + theLiteralLength > theSrcEnd || o + theLiteralLength > theDestEnd) 
+					throw new IllegalArgumentException("Corrupted block");
+				
+				System.arraycopy(aSrc, i, aDest, o, theLiteralLength);
+				i += theLiteralLength;
+				o += theLiteralLength;
+				
+				if (i == theSrcEnd) break; // Last sequence has no match
+				
+				// Match
+				int theOffset = (aSrc[i] & 0xff) | (aSrc[i+1] & 0xff) << 8;
+				i += 2;
+				int theRef = o - theOffset;
+				if (theOffset == 0 || theRef < aDestOffset) throw new IllegalArgumentException("Corrupted block");
+				
+				int theMatchLength = theToken & 0x0f;
+				if (theMatchLength == 15)
+				{
+					int b;
+					do
+					{
+						b = aSrc[i++] & 0xff;
+						theMatchLength += b;
+					} while(b == 255);
+				}
+				theMatchLength += MIN_MATCH;
+				
+				if (o + theMatchLength > theDestEnd) throw new IllegalArgumentException("Corrupted block");
+				
+				if (theOffset >= theMatchLength) 
+				{
+					System.arraycopy(aDest, theRef, aDest, o, theMatchLength);
+					o += theMatchLength;
+				}
+				else
+				{
+					// Overlapping copy (repeated pattern)
+					for(int j=0;j<theMatchLength;j++) aDest[o++] = aDest[theRef++];
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("Corrupted block", e);
+		}
+		
+		if (o != theDestEnd) throw new IllegalArgumentException("Corrupted block");
+	}
+}
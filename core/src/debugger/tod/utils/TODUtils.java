@@ -22,6 +22,7 @@ RSA Data Security, Inc. MD5 Message-Digest Algorithm".
 */
 package tod.utils;
 
+import gnu.trove.TIntArrayList;
 import gnu.trove.TLongArrayList;
 
 import java.awt.EventQueue;
@@ -111,6 +112,18 @@ public class TODUtils
 		while (aList.size() < aIndex) aList.add(0);
 		aList.add(aValue);
 	}
+	
+	public static void TIntArrayListSet(TIntArrayList aList, int aIndex, int aValue)
+	{
+		if (aList.size() > aIndex) 
+		{
+			aList.set(aIndex, aValue);
+			return;
+		}
+		
+		while (aList.size() < aIndex) aList.add(0);
+		aList.add(aValue);
+	}
 
 	
 }
@@ -0,0 +1,186 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.experiments.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import tod.BenchBase;
+import tod.BenchBase.BenchResults;
+import tod.core.database.structure.ObjectId;
+import tod.impl.replay2.EventCollector;
+
+/**
+ * Compares the cost of reference events delivered to an {@link EventCollector}
+ * through an {@link ObjectId} wrapper that is allocated for the callback 
+ * (as replayers used to do) and through the primitive id callbacks.
+ * Reports events/s, GC activity and, if the VM supports it, allocated bytes.
+ * @author gpothier
+ */
+public class CollectorCallbackBench
+{
+	private static final int N = 200000000;
+	private static final int IDS = 1 << 16;
+	
+	private static final long[] TARGETS = new long[IDS];
+	
+	static
+	{
+		Random theRandom = new Random(0);
+		for(int i=0;i<IDS;i++) TARGETS[i] = 2*theRandom.nextInt(1 << 24) + 1;
+	}
+	
+	public static void main(String[] args)
+	{
+		System.out.println("Warming up");
+		bench(false, N/10);
+		bench(true, N/10);
+		
+		System.out.println("Starting bench");
+		benchPrint(false);
+		benchPrint(true);
+	}
+	
+	private static void benchPrint(final boolean aPrimitive)
+	{
+		long g0 = getGcCount();
+		long a0 = getAllocatedBytes();
+		final long[] theResult = new long[1];
+		BenchResults b = BenchBase.benchmark(new Runnable()
+		{
+			public void run()
+			{
+				theResult[0] = bench(aPrimitive, N);
+			}
+		});
+		long g1 = getGcCount();
+		long a1 = getAllocatedBytes();
+		
+		float theRate = b.totalTime > 0 ? 1000f*N/b.totalTime : 0;
+		System.out.println(
+				(aPrimitive ? "Primitive ids" : "ObjectId wrappers")
+				+": "+b
+				+" ("+(long) theRate+" events/s, "
+				+(g1-g0)+" GCs, "
+				+(a0 >= 0 ? ((a1-a0)/N)+" bytes/event" : "allocation n/a")
+				+") ["+theResult[0]+"]");
+	}
+	
+	/**
+	 * Sends n field write events to a rotating set of collectors. Several
+	 * collector classes are used so that the call sites are megamorphic,
+	 * as they are in generated replayers; otherwise the JIT would inline
+	 * the callbacks and eliminate the wrappers.
+	 */
+	private static long bench(boolean aPrimitive, int n)
+	{
+		SlotCollector[] theCollectors = {
+				new SlotCollector(), 
+				new SlotCollector() {}, 
+				new SlotCollector() {}};
+		
+		if (aPrimitive)
+		{
+			for(int i=0;i<n;i++) 
+			{
+				EventCollector theCollector = theCollectors[i % 3];
+				theCollector.fieldWrite(TARGETS[i & (IDS-1)], i & 7);
+				theCollector.refValue(TARGETS[(i+1) & (IDS-1)]);
+			}
+		}
+		else
+		{
+			for(int i=0;i<n;i++) 
+			{
+				EventCollector theCollector = theCollectors[i % 3];
+				theCollector.fieldWrite(new ObjectId(TARGETS[i & (IDS-1)]), i & 7);
+				theCollector.value(new ObjectId(TARGETS[(i+1) & (IDS-1)]));
+			}
+		}
+		
+		long theSum = 0;
+		for (SlotCollector theCollector : theCollectors) theSum += theCollector.itsSum;
+		return theSum;
+	}
+	
+	private static long getGcCount()
+	{
+		long theCount = 0;
+		for (GarbageCollectorMXBean theBean : ManagementFactory.getGarbageCollectorMXBeans()) 
+		{
+			theCount += theBean.getCollectionCount();
+		}
+		return theCount;
+	}
+	
+	/**
+	 * Returns the number of bytes allocated by the current thread, or -1 if the
+	 * VM does not provide this information.
+	 */
+	private static long getAllocatedBytes()
+	{
+		try
+		{
+			ThreadMXBean theBean = ManagementFactory.getThreadMXBean();
+			Class theClass = Class.forName("com.sun.management.ThreadMXBean");
+			Method theMethod = theClass.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) theMethod.invoke(theBean, Thread.currentThread().getId());
+		}
+		catch (Exception e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Does what the indexer's collector does with field writes.
+	 */
+	private static class SlotCollector extends EventCollector
+	{
+		private long itsSum;
+		
+		@Override
+		public void fieldWrite(long aTargetId, int aFieldSlotIndex)
+		{
+			itsSum += aTargetId != 0 ? aTargetId + 2*aFieldSlotIndex : 1;
+		}
+		
+		@Override
+		public void refValue(long aValueId)
+		{
+			itsSum ^= aValueId;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.experiments.bench;
+
+import tod.BenchBase;
+import tod.BenchBase.BenchResults;
+import tod2.agent.util.IdBlockAllocator;
+
+/**
+ * Measures the contention of object id allocation in the agent: a single
+ * synchronized counter (the former ObjectIdentity.nextId) versus per-thread 
+ * {@link IdBlockAllocator}s, with 1, 8 and 64 allocating threads.
+ * @author gpothier
+ */
+public class ObjectIdAllocationBench
+{
+	private static final int N = 100000000;
+	private static final int[] THREADS = {1, 8, 64};
+	
+	private static long itsNextId = 1;
+	private static volatile long t;
+	
+	private static synchronized long nextId(int aSlots)
+	{
+		long theId = itsNextId;
+		itsNextId += 2*aSlots;
+		return theId;
+	}
+	
+	private static final IdBlockAllocator.Source SOURCE = new IdBlockAllocator.Source()
+	{
+		public long reserve(long aCount)
+		{
+			synchronized (ObjectIdAllocationBench.class)
+			{
+				long theId = itsNextId;
+				itsNextId += aCount;
+				return theId;
+			}
+		}
+	};
+	
+	public static void main(String[] args)
+	{
+		System.out.println("Warming up");
+		bench(false, 4, N/10);
+		bench(true, 4, N/10);
+		
+		System.out.println("Starting bench");
+		for (int theThreads : THREADS)
+		{
+			benchPrint(false, theThreads);
+			benchPrint(true, theThreads);
+		}
+	}
+	
+	private static void benchPrint(final boolean aBlocks, final int aThreads)
+	{
+		BenchResults b = BenchBase.benchmark(new Runnable()
+		{
+			public void run()
+			{
+				bench(aBlocks, aThreads, N);
+			}
+		});
+		
+		float theRate = b.totalTime > 0 ? 1000f*N/b.totalTime : 0;
+		System.out.println(
+				(aBlocks ? "Blocks" : "Synchronized")
+				+" - "+aThreads+" threads: "+b
+				+" ("+(long) theRate+" ids/s)");
+	}
+	
+	/**
+	 * Allocates n ids split among the given number of threads.
+	 */
+	private static void bench(final boolean aBlocks, int aThreads, int n)
+	{
+		final int theCount = n/aThreads;
+		Thread[] theThreads = new Thread[aThreads];
+		for(int i=0;i<aThreads;i++)
+		{
+			theThreads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					long s = 0;
+					if (aBlocks)
+					{
+						IdBlockAllocator theAllocator = new IdBlockAllocator(SOURCE);
+						for(int j=0;j<theCount;j++) s += theAllocator.next((j & 7) + 1);
+					}
+					else
+					{
+						for(int j=0;j<theCount;j++) s += nextId((j & 7) + 1);
+					}
+					t += s;
+				}
+			};
+		}
+		
+		for (Thread theThread : theThreads) theThread.start();
+		try
+		{
+			for (Thread theThread : theThreads) theThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.experiments.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import tod.core.config.TODConfig;
+import tod.impl.replay2.IntDeltaReceiver;
+import tod.impl.replay2.LongDeltaReceiver;
+import tod.impl.server.BufferStream;
+import tod.impl.server.MappedTraceInput;
+import tod.impl.server.PacketBuffer;
+import tod.impl.server.RawTraceInput;
+import tod2.agent.Message;
+import zz.utils.Utils;
+
+/**
+ * Measures the decoding throughput of {@link BufferStream}, as used by the 
+ * replayers, on the thread packets of an existing raw trace.
+ * <p>
+ * The packets are fed to the stream by a producer thread, like in 
+ * {@link tod.impl.server.DBSideIOThread}, and are decoded as a sequence of 
+ * 16-byte records that mimic the access pattern of the replayers 
+ * (message type, delta-encoded id, short, full id, long value). 
+ * Packets are truncated to a multiple of the record size, as primitive 
+ * reads must not span packets.
+ * Both memory-mapped packets and heap packets (as produced by stream and 
+ * compressed inputs) are measured.
+ * <p>
+ * Usage: BufferStreamBench [events.raw] (defaults to the file in the raw events dir).
+ * @author gpothier
+ */
+public class BufferStreamBench
+{
+	private static final int RECORD_SIZE = 16;
+	private static final int ROUNDS = 5;
+	
+	/**
+	 * Maximum size of the corpus, so that it fits in memory.
+	 */
+	private static final long MAX_CORPUS_SIZE = 256*1024*1024;
+	
+	private static long itsChecksum = 0;
+	
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		File theRawFile = args.length > 0 ?
+				new File(args[0])
+				: new File(new TODConfig().get(TODConfig.DB_RAW_EVENTS_DIR), "events.raw");
+		
+		List<PacketBuffer> theMappedPackets = new ArrayList<PacketBuffer>();
+		List<PacketBuffer> theHeapPackets = new ArrayList<PacketBuffer>();
+		long theSize = load(new MappedTraceInput(theRawFile), theMappedPackets, theHeapPackets);
+		
+		Utils.println("Corpus: %d packets, %.1fMB", theMappedPackets.size(), mb(theSize));
+		
+		for(int i=0;i<ROUNDS;i++)
+		{
+			long t0 = System.nanoTime();
+			decode(theMappedPackets);
+			long t1 = System.nanoTime();
+			decode(theHeapPackets);
+			long t2 = System.nanoTime();
+			
+			Utils.println(
+					"Decode: mapped %.1fMB/s, heap %.1fMB/s",
+					mbs(theSize, t1-t0),
+					mbs(theSize, t2-t1));
+		}
+		
+		Utils.println("(checksum: %d)", itsChecksum);
+	}
+	
+	/**
+	 * Collects the thread packets of the given input.
+	 * @return The total size of the collected packets.
+	 */
+	private static long load(
+			RawTraceInput aInput, 
+			List<PacketBuffer> aMappedPackets, 
+			List<PacketBuffer> aHeapPackets) throws IOException
+	{
+		long thePosition = 0;
+		long theSize = 0;
+		while(theSize < MAX_CORPUS_SIZE)
+		{
+			int theType = aInput.readPacketType();
+			if (theType == -1) break;
+			
+			switch(theType)
+			{
+			case Message.PACKET_TYPE_THREAD:
+				aInput.readInt();
+				int theLength = aInput.readInt();
+				PacketBuffer thePacket = aInput.readPacket(thePosition, theLength);
+				thePosition += 9 + theLength;
+				
+				int theUsed = theLength - theLength % RECORD_SIZE;
+				if (theUsed == 0) break;
+				
+				thePacket.limit(theUsed);
+				aMappedPackets.add(thePacket);
+				
+				byte[] theBytes = new byte[theUsed];
+				thePacket.get(theBytes, 0, theUsed);
+				thePacket.position(0);
+				aHeapPackets.add(new PacketBuffer(theBytes, thePacket.getPacketStartOffset()));
+				
+				theSize += theUsed;
+				break;
+				
+			case Message.PACKET_TYPE_STRING:
+				aInput.readLong();
+				String theString = aInput.readString();
+				thePosition += 13 + 2*theString.length();
+				break;
+				
+			case Message.PACKET_TYPE_STRING_LATIN1:
+				aInput.readLong();
+				int theStringLength = aInput.readInt();
+				aInput.skip(theStringLength);
+				thePosition += 13 + theStringLength;
+				break;
+				
+			case Message.PACKET_TYPE_STRING_ALIAS:
+				aInput.readLong();
+				aInput.readLong();
+				thePosition += 17;
+				break;
+				
+			default: throw new RuntimeException("Not handled: "+theType);
+			}
+		}
+		return theSize;
+	}
+	
+	private static void decode(final List<PacketBuffer> aPackets) throws InterruptedException
+	{
+		final BufferStream theStream = new BufferStream();
+		Thread theProducer = new Thread("producer")
+		{
+			@Override
+			public void run()
+			{
+				for (PacketBuffer thePacket : aPackets) 
+				{
+					thePacket.position(0);
+					theStream.pushBuffer(thePacket);
+				}
+				theStream.pushBuffer(null);
+			}
+		};
+		theProducer.start();
+		
+		IntDeltaReceiver theBehIdReceiver = new IntDeltaReceiver();
+		LongDeltaReceiver theObjIdReceiver = new LongDeltaReceiver();
+		long theChecksum = 0;
+		while(theStream.remaining() > 0)
+		{
+			theChecksum += theStream.get();
+			theChecksum += theObjIdReceiver.receiveDelta(theStream);
+			theChecksum += theStream.getShort();
+			theChecksum += theBehIdReceiver.receiveFull(theStream);
+			theChecksum += theStream.getLong();
+		}
+		
+		theProducer.join();
+		itsChecksum += theChecksum;
+	}
+	
+	private static float mb(long aBytes)
+	{
+		return aBytes/(1024f*1024f);
+	}
+	
+	private static float mbs(long aBytes, long aNanos)
+	{
+		return mb(aBytes)/(aNanos/1000000000f);
+	}
+}
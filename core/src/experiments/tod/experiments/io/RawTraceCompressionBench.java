@@ -0,0 +1,196 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.experiments.io;
+
+import gnu.trove.TLongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import tod.core.config.TODConfig;
+import tod.impl.server.CompressedTraceInput;
+import tod.impl.server.CompressedTraceOutput;
+import tod.impl.server.MappedTraceInput;
+import tod.impl.server.RawTraceInput;
+import tod2.agent.Message;
+import zz.utils.Utils;
+
+/**
+ * Measures the compression ratio and the write/read throughput of the 
+ * block-compressed raw trace format ({@link CompressedTraceOutput}, 
+ * {@link CompressedTraceInput}) on an existing uncompressed raw trace, 
+ * eg. one recorded from the testcase programs.
+ * <p>
+ * Usage: RawTraceCompressionBench [events.raw] (defaults to the file in the raw events dir).
+ * @author gpothier
+ */
+public class RawTraceCompressionBench
+{
+	private static final int SEEKS = 1000;
+	
+	public static void main(String[] args) throws IOException
+	{
+		File theRawFile = args.length > 0 ?
+				new File(args[0])
+				: new File(new TODConfig().get(TODConfig.DB_RAW_EVENTS_DIR), "events.raw");
+		
+		File theCompressedFile = new File(theRawFile.getPath()+".z");
+		
+		// Write
+		long t0 = System.nanoTime();
+		InputStream theIn = new BufferedInputStream(new FileInputStream(theRawFile), 1024*1024);
+		CompressedTraceOutput theOut = new CompressedTraceOutput(new FileOutputStream(theCompressedFile));
+		byte[] theBuffer = new byte[64*1024];
+		int theRead;
+		while((theRead = theIn.read(theBuffer)) > 0) theOut.write(theBuffer, 0, theRead);
+		theIn.close();
+		theOut.close();
+		long t1 = System.nanoTime();
+		
+		long theRawSize = theOut.getRawSize();
+		Utils.println(
+				"Compressed %.1fMB to %.1fMB (ratio %.2f), write: %.1fMB/s",
+				mb(theRawSize),
+				mb(theOut.getCompressedSize()),
+				1f*theRawSize/theOut.getCompressedSize(),
+				mbs(theRawSize, t1-t0));
+		
+		// Sequential read
+		TLongArrayList thePacketOffsets = new TLongArrayList();
+		for(int i=0;i<3;i++)
+		{
+			thePacketOffsets.clear();
+			long t2 = System.nanoTime();
+			scan(new MappedTraceInput(theRawFile), thePacketOffsets);
+			long t3 = System.nanoTime();
+			scan(new CompressedTraceInput(theCompressedFile), null);
+			long t4 = System.nanoTime();
+			
+			Utils.println(
+					"Read: uncompressed %.1fMB/s, compressed %.1fMB/s",
+					mbs(theRawSize, t3-t2),
+					mbs(theRawSize, t4-t3));
+		}
+		
+		// Seeks (as done by partial replay)
+		if (thePacketOffsets.size() > 0)
+		{
+			Random theRandom = new Random(0);
+			long[] theOffsets = new long[SEEKS];
+			for(int i=0;i<SEEKS;i++) theOffsets[i] = thePacketOffsets.get(theRandom.nextInt(thePacketOffsets.size()));
+			
+			long t5 = System.nanoTime();
+			for (long theOffset : theOffsets) readPacketAt(new MappedTraceInput(theRawFile, theOffset));
+			long t6 = System.nanoTime();
+			for (long theOffset : theOffsets) readPacketAt(new CompressedTraceInput(theCompressedFile, theOffset));
+			long t7 = System.nanoTime();
+			
+			Utils.println(
+					"Seek + read packet: uncompressed %.1fus, compressed %.1fus",
+					0.001f*(t6-t5)/SEEKS,
+					0.001f*(t7-t6)/SEEKS);
+		}
+		
+		theCompressedFile.delete();
+	}
+	
+	/**
+	 * Reads all the packets of the given input.
+	 * @param aPacketOffsets If not null, receives the start offset of each thread packet.
+	 */
+	private static void scan(RawTraceInput aInput, TLongArrayList aPacketOffsets) throws IOException
+	{
+		long thePosition = 0;
+		while(true)
+		{
+			int theType = aInput.readPacketType();
+			if (theType == -1) break;
+			
+			switch(theType)
+			{
+			case Message.PACKET_TYPE_THREAD:
+				if (aPacketOffsets != null) aPacketOffsets.add(thePosition);
+				aInput.readInt();
+				int theLength = aInput.readInt();
+				aInput.readPacket(thePosition, theLength);
+				thePosition += 9 + theLength;
+				break;
+				
+			case Message.PACKET_TYPE_STRING:
+				aInput.readLong();
+				String theString = aInput.readString();
+				thePosition += 13 + 2*theString.length();
+				break;
+				
+			case Message.PACKET_TYPE_STRING_LATIN1:
+				aInput.readLong();
+				int theStringLength = aInput.readInt();
+				aInput.skip(theStringLength);
+				thePosition += 13 + theStringLength;
+				break;
+				
+			case Message.PACKET_TYPE_STRING_ALIAS:
+				aInput.readLong();
+				aInput.readLong();
+				thePosition += 17;
+				break;
+				
+			default: throw new RuntimeException("Not handled: "+theType);
+			}
+		}
+		aInput.close();
+	}
+	
+	private static void readPacketAt(RawTraceInput aInput) throws IOException
+	{
+		aInput.readPacketType();
+		aInput.readInt();
+		int theLength = aInput.readInt();
+		if (theLength > 0) aInput.readPacket(0, theLength).get();
+		aInput.close();
+	}
+	
+	private static float mb(long aBytes)
+	{
+		return aBytes/(1024f*1024f);
+	}
+	
+	private static float mbs(long aBytes, long aNanos)
+	{
+		return mb(aBytes)/(aNanos/1000000000f);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.core.database.structure;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod2.agent.AgentConfig;
+import tod2.agent.AgentUtils;
+
+public class TestObjectId
+{
+	private static final int[] HOSTS = {0, 1, 2, 255, 0xffff};
+	private static final long[] IDS = {1, 2, 3, 0x1234567, AgentConfig.OBJECT_ID_MASK};
+	
+	@Test
+	public void testRoundTrip()
+	{
+		for (int theHost : HOSTS) for (long theId : IDS)
+		{
+			long theObjectId = AgentUtils.makeObjectId(theHost, theId);
+			Assert.assertTrue(theObjectId > 0);
+			Assert.assertEquals(theHost, AgentUtils.getHostId(theObjectId));
+			Assert.assertEquals(theId, AgentUtils.getIntraHostId(theObjectId));
+			
+			// Real ids are odd and temporary ids are even
+			Assert.assertEquals(theId & 1, theObjectId & 1);
+		}
+	}
+	
+	@Test
+	public void testSlots()
+	{
+		for (int theHost : HOSTS)
+		{
+			long theBase = AgentUtils.makeObjectId(theHost, 101);
+			for (int i=0;i<10;i++)
+			{
+				// Field slots are addressed by adding to the id of the object
+				long theSlotId = theBase+i;
+				Assert.assertEquals(theHost, AgentUtils.getHostId(theSlotId));
+				Assert.assertEquals(101+i, AgentUtils.getIntraHostId(theSlotId));
+			}
+		}
+	}
+}
@@ -46,6 +46,8 @@ import tod.impl.replay2.ReifyEventCollector;
 import tod.impl.replay2.ReifyEventCollector.Event;
 import tod.impl.replay2.ReplayerLoader;
 import tod.impl.server.DBSideIOThread;
+import tod.impl.server.MappedTraceInput;
+import tod.impl.server.RawTraceThreadIndex;
 import zz.utils.Utils;
 
 public class PartialReplayTest
@@ -55,7 +57,8 @@ public class PartialReplayTest
 			TODConfig aConfig, 
 			IMutableStructureDatabase aDatabase, 
 			LocalsSnapshot aSnapshot,
-			ReplayerLoader aLoader) throws IOException
+			ReplayerLoader aLoader,
+			RawTraceThreadIndex aThreadIndex) throws IOException
 	{
 		Utils.println(
 				"Partial replay of snapshot: %d (block id: %d, packet start offset: %d, packet offset: %d)", 
@@ -64,14 +67,12 @@ public class PartialReplayTest
 				aSnapshot.getPacketStartOffset(),
 				aSnapshot.getPacketOffset());
 		
-		FileInputStream fis = new FileInputStream(aEventsFile);
-		long theBytesToSkip = aSnapshot.getPacketStartOffset();
-		while(theBytesToSkip > 0) theBytesToSkip -= fis.skip(theBytesToSkip);
+		MappedTraceInput theInput = new MappedTraceInput(aEventsFile, aSnapshot.getPacketStartOffset());
 		
 		final ReifyEventCollector theCollector = new ReifyEventCollector();
 		final boolean[] theCollectorCreated = {false};
 		
-		DBSideIOThread theIOThread = new DBSideIOThread(aConfig, aDatabase, fis, aSnapshot, aLoader)
+		DBSideIOThread theIOThread = new DBSideIOThread(aConfig, aDatabase, theInput, aSnapshot, aLoader)
 		{
 			@Override
 			protected EventCollector createCollector(int aThreadId)
@@ -83,6 +84,7 @@ public class PartialReplayTest
 		};
 		
 		theIOThread.setInitialSkip(aSnapshot.getPacketOffset());
+		theIOThread.setThreadIndex(aThreadIndex);
 		theIOThread.run();
 		
 		return theCollector.getEvents();
@@ -105,6 +107,7 @@ public class PartialReplayTest
 		File theDbFile = new File(theConfig.get(TODConfig.DB_RAW_EVENTS_DIR)+"/db-"+theScopeMD5+".raw");
 
 		IMutableStructureDatabase theDatabase = StructureDatabase.create(theConfig, theDbFile, true);
+		RawTraceThreadIndex theThreadIndex = new RawTraceThreadIndex();
 
 		try
 		{
@@ -118,6 +121,7 @@ public class PartialReplayTest
 					return theCollector;
 				}
 			};
+			theIOThread.setThreadIndex(theThreadIndex);
 			theIOThread.run();
 		}
 		catch (Throwable e)
@@ -141,7 +145,7 @@ public class PartialReplayTest
 				Utils.println("Snapshot #%d", i++);
 				try
 				{
-					List<Event> theEvents = partialReplay(theEventsFile, theConfig, theDatabase, theSnapshot, theLoader);
+					List<Event> theEvents = partialReplay(theEventsFile, theConfig, theDatabase, theSnapshot, theLoader, theThreadIndex);
 					int theCount = theEvents.size();
 					int theCFlowCount = countCFlowEvents(theEvents);
 					theTotalCount += theCount;
@@ -0,0 +1,144 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod2.agent.Message;
+import gnu.trove.TLongArrayList;
+
+
+public class TestPacketBoundaryTracker
+{
+	/**
+	 * Creates a stream of random thread and string packets (of all kinds).
+	 * @param aBoundaries Receives the start offset of each packet, and the end of the stream.
+	 */
+	private static ByteBuffer createStream(Random aRandom, int aCount, TLongArrayList aBoundaries)
+	{
+		ByteBuffer theBuffer = ByteBuffer.allocate(aCount*1100).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i=0;i<aCount;i++)
+		{
+			aBoundaries.add(theBuffer.position());
+			int theType = aRandom.nextInt(8);
+			if (theType == 0)
+			{
+				int theLength = aRandom.nextInt(20);
+				theBuffer.put(Message.PACKET_TYPE_STRING);
+				theBuffer.putLong(aRandom.nextLong());
+				theBuffer.putInt(theLength);
+				for(int j=0;j<theLength;j++) theBuffer.putChar((char) aRandom.nextInt());
+			}
+			else if (theType == 1)
+			{
+				int theLength = aRandom.nextInt(20);
+				theBuffer.put(Message.PACKET_TYPE_STRING_LATIN1);
+				theBuffer.putLong(aRandom.nextLong());
+				theBuffer.putInt(theLength);
+				for(int j=0;j<theLength;j++) theBuffer.put((byte) aRandom.nextInt());
+			}
+			else if (theType == 2)
+			{
+				theBuffer.put(Message.PACKET_TYPE_STRING_ALIAS);
+				theBuffer.putLong(aRandom.nextLong());
+				theBuffer.putLong(aRandom.nextLong());
+			}
+			else
+			{
+				int theLength = aRandom.nextInt(1000);
+				theBuffer.put(Message.PACKET_TYPE_THREAD);
+				theBuffer.putInt(aRandom.nextInt());
+				theBuffer.putInt(theLength);
+				for(int j=0;j<theLength;j++) theBuffer.put((byte) aRandom.nextInt());
+			}
+		}
+		aBoundaries.add(theBuffer.position());
+		theBuffer.flip();
+		return theBuffer;
+	}
+	
+	/**
+	 * Feeds the stream in random chunks and checks that each split happens
+	 * at the first boundary past the requested offset.
+	 */
+	@Test public void testSplit() throws IOException
+	{
+		Random theRandom = new Random(0);
+		TLongArrayList theBoundaries = new TLongArrayList();
+		ByteBuffer theStream = createStream(theRandom, 2000, theBoundaries);
+		int theEnd = theStream.limit();
+		
+		PacketBoundaryTracker theTracker = new PacketBoundaryTracker();
+		int theSplitSize = 10000;
+		long theSegmentStart = 0;
+		int theSplits = 0;
+		
+		int thePos = 0;
+		while(thePos < theEnd)
+		{
+			int theChunkEnd = Math.min(thePos + 1 + theRandom.nextInt(5000), theEnd);
+			while(true)
+			{
+				long theMin = theSegmentStart + theSplitSize;
+				int theBoundary = theTracker.advance(theStream, thePos, theChunkEnd, theMin);
+				if (theBoundary < 0) break;
+				
+				int theIndex = theBoundaries.binarySearch(theBoundary);
+				Assert.assertTrue("Not a boundary: "+theBoundary, theIndex >= 0);
+				Assert.assertTrue(theBoundary >= theMin);
+				Assert.assertTrue("Missed boundary", theIndex == 0 || theBoundaries.get(theIndex-1) < theMin);
+				
+				theSegmentStart = theBoundary;
+				thePos = theBoundary;
+				theSplits++;
+			}
+			thePos = theChunkEnd;
+		}
+		
+		Assert.assertEquals(theEnd, theTracker.getPosition());
+		Assert.assertTrue(theSplits > 10);
+	}
+	
+	@Test(expected = IOException.class) 
+	public void testBadType() throws IOException
+	{
+		ByteBuffer theBuffer = ByteBuffer.wrap(new byte[] {42, 0, 0});
+		new PacketBoundaryTracker().advance(theBuffer, 0, 3, Long.MAX_VALUE);
+	}
+}
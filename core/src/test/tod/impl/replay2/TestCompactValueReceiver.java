@@ -0,0 +1,110 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod.impl.server.BufferStream;
+import tod.impl.server.PacketBuffer;
+
+
+public class TestCompactValueReceiver
+{
+	private static BufferStream createStream(int... aBytes)
+	{
+		byte[] theBytes = new byte[aBytes.length];
+		for(int i=0;i<aBytes.length;i++) theBytes[i] = (byte) aBytes[i];
+		
+		BufferStream theStream = new BufferStream();
+		theStream.pushBuffer(new PacketBuffer(theBytes, 0));
+		theStream.pushBuffer(null);
+		return theStream;
+	}
+	
+	@Test public void testInts()
+	{
+		BufferStream theStream = createStream(
+				0x00, 
+				0x01, 
+				0x02, 
+				0xd8, 0x04, 
+				0xff, 0xff, 0xff, 0xff, 0x0f, 
+				0xfe, 0xff, 0xff, 0xff, 0x0f);
+		
+		CompactValueReceiver theReceiver = new CompactValueReceiver();
+		Assert.assertEquals(0, theReceiver.receiveInt(theStream));
+		Assert.assertEquals(-1, theReceiver.receiveInt(theStream));
+		Assert.assertEquals(1, theReceiver.receiveInt(theStream));
+		Assert.assertEquals(300, theReceiver.receiveInt(theStream));
+		Assert.assertEquals(Integer.MIN_VALUE, theReceiver.receiveInt(theStream));
+		Assert.assertEquals(Integer.MAX_VALUE, theReceiver.receiveInt(theStream));
+	}
+	
+	@Test public void testShortsAndChars()
+	{
+		BufferStream theStream = createStream(
+				0x03, 
+				0xff, 0xff, 0x03, 
+				0x41, 
+				0xe9, 0x01, 
+				0xff, 0xff, 0x03);
+		
+		CompactValueReceiver theReceiver = new CompactValueReceiver();
+		Assert.assertEquals(-2, theReceiver.receiveShort(theStream));
+		Assert.assertEquals(Short.MIN_VALUE, theReceiver.receiveShort(theStream));
+		Assert.assertEquals('A', theReceiver.receiveChar(theStream));
+		Assert.assertEquals('\u00e9', theReceiver.receiveChar(theStream));
+		Assert.assertEquals('\uffff', theReceiver.receiveChar(theStream));
+	}
+	
+	@Test public void testLongDeltas()
+	{
+		BufferStream theStream = createStream(
+				0xc8, 0x01, 
+				0x02, 
+				0x01, 
+				0xfe, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x01);
+		
+		CompactValueReceiver theReceiver = new CompactValueReceiver();
+		Assert.assertEquals(100, theReceiver.receiveLong(theStream));
+		Assert.assertEquals(101, theReceiver.receiveLong(theStream));
+		Assert.assertEquals(100, theReceiver.receiveLong(theStream));
+		Assert.assertEquals(100+Long.MAX_VALUE, theReceiver.receiveLong(theStream));
+		
+		// Resume from a snapshot
+		theReceiver = new CompactValueReceiver();
+		theReceiver.setCurrentLongValue(1000);
+		Assert.assertEquals(1001, theReceiver.receiveLong(createStream(0x02)));
+	}
+}
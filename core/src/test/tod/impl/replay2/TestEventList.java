@@ -0,0 +1,157 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod.impl.replay2.ReifyEventCollector.EventList;
+
+/**
+ * Checks the cflow rank and select operations of {@link EventList}
+ * against a linear scan.
+ * @author gpothier
+ */
+public class TestEventList
+{
+	private static final int SAMPLE = 512;
+	
+	@Test public void testEmpty()
+	{
+		EventList theList = new EventList(1, 0);
+		Assert.assertEquals(0, theList.getCFlowEventsCount());
+		Assert.assertEquals(0, theList.getCFlowRank(0));
+		
+		try
+		{
+			theList.getCFlowEventPosition(0);
+			Assert.fail();
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+		}
+	}
+	
+	@Test public void testNoCFlow()
+	{
+		ReifyEventCollector theCollector = new ReifyEventCollector(1, 0);
+		for(int i=0;i<3*SAMPLE;i++) theCollector.localWrite(i);
+		check(theCollector.getEventList());
+	}
+	
+	@Test public void testAllCFlow()
+	{
+		ReifyEventCollector theCollector = new ReifyEventCollector(1, 0);
+		for(int i=0;i<3*SAMPLE;i++) theCollector.exit();
+		check(theCollector.getEventList());
+	}
+	
+	@Test public void testSampleBoundaries()
+	{
+		// Lists that end just before, on and just after sample boundaries
+		for(int theSize : new int[] {1, SAMPLE-1, SAMPLE, SAMPLE+1, 2*SAMPLE-1, 2*SAMPLE, 2*SAMPLE+1})
+		{
+			// Only the events at sample boundaries are cflow events
+			ReifyEventCollector theCollector = new ReifyEventCollector(1, 0);
+			for(int i=0;i<theSize;i++) 
+			{
+				if (i % SAMPLE == 0) theCollector.enter(1, 0);
+				else theCollector.sync(i);
+			}
+			check(theCollector.getEventList());
+			
+			// Only the events just before sample boundaries are cflow events
+			theCollector = new ReifyEventCollector(1, 0);
+			for(int i=0;i<theSize;i++) 
+			{
+				if (i % SAMPLE == SAMPLE-1) theCollector.exitException();
+				else theCollector.sync(i);
+			}
+			check(theCollector.getEventList());
+		}
+	}
+	
+	@Test public void testRandom()
+	{
+		Random theRandom = new Random(0);
+		for(int theDensity : new int[] {2, 10, 100})
+		{
+			ReifyEventCollector theCollector = new ReifyEventCollector(1, 0);
+			int theSize = 10*SAMPLE + theRandom.nextInt(SAMPLE);
+			for(int i=0;i<theSize;i++)
+			{
+				if (theRandom.nextInt(theDensity) == 0)
+				{
+					switch(theRandom.nextInt(3))
+					{
+					case 0: theCollector.enter(1, 0); break;
+					case 1: theCollector.exit(); break;
+					default: theCollector.exitException(); break;
+					}
+				}
+				else theCollector.fieldRead(i, 0);
+			}
+			check(theCollector.getEventList());
+		}
+	}
+	
+	/**
+	 * Compares rank and select with a linear scan, at every position.
+	 */
+	private static void check(EventList aList)
+	{
+		int theRank = 0;
+		for(int i=0;i<aList.size();i++)
+		{
+			Assert.assertEquals("position "+i, theRank, aList.getCFlowRank(i));
+			if (aList.isCFlowEvent(i))
+			{
+				Assert.assertEquals("rank "+theRank, i, aList.getCFlowEventPosition(theRank));
+				theRank++;
+			}
+		}
+		Assert.assertEquals(theRank, aList.getCFlowRank(aList.size()));
+		Assert.assertEquals(theRank, aList.getCFlowEventsCount());
+		
+		try
+		{
+			aList.getCFlowEventPosition(theRank);
+			Assert.fail();
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod.utils.ByteBuffer;
+import tod2.agent.AgentConfig;
+
+
+public class TestLocalsSnapshot
+{
+	private static LocalsSnapshot copy(LocalsSnapshot aSnapshot)
+	{
+		ByteBuffer theBuffer = ByteBuffer.allocate(4096);
+		aSnapshot.write(theBuffer);
+		theBuffer.flip();
+		return new LocalsSnapshot(theBuffer);
+	}
+	
+	private static LocalsSnapshot createSnapshot()
+	{
+		LocalsSnapshot theSnapshot = new LocalsSnapshot(1, 2, 3, 4, 5, 6);
+		theSnapshot.alloc(1, 0, 0, 0, 0);
+		theSnapshot.pushInt(42);
+		return theSnapshot;
+	}
+	
+	@Test public void testPredictions()
+	{
+		LocalsSnapshot theSnapshot = createSnapshot();
+		
+		long[] thePredictions = new long[AgentConfig.VALUE_PREDICTION_SIZE];
+		thePredictions[0] = -1;
+		thePredictions[17] = 1234567890123L;
+		thePredictions[AgentConfig.VALUE_PREDICTION_SIZE-1] = Double.doubleToRawLongBits(0.5);
+		theSnapshot.setPredictions(thePredictions);
+		
+		// The snapshot must not be affected by later updates of the table
+		thePredictions[17] = 0;
+		
+		LocalsSnapshot theCopy = copy(theSnapshot);
+		long[] theCopiedPredictions = theCopy.getPredictions();
+		Assert.assertEquals(AgentConfig.VALUE_PREDICTION_SIZE, theCopiedPredictions.length);
+		for(int i=0;i<theCopiedPredictions.length;i++)
+		{
+			long theExpected = i == 17 ? 1234567890123L : thePredictions[i];
+			Assert.assertEquals(theExpected, theCopiedPredictions[i]);
+		}
+		
+		Assert.assertEquals(42, theCopy.popInt());
+	}
+	
+	@Test public void testNoPredictions()
+	{
+		LocalsSnapshot theCopy = copy(createSnapshot());
+		Assert.assertNull(theCopy.getPredictions());
+		Assert.assertEquals(4, theCopy.getProbeId());
+		Assert.assertEquals(42, theCopy.popInt());
+	}
+}
@@ -0,0 +1,91 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod.core.DebugFlags;
+
+
+public class TestSnapshotPolicy
+{
+	private static final long MS = 1000000L;
+	
+	@Test public void testFixed()
+	{
+		SnapshotPolicy thePolicy = new SnapshotPolicy();
+		thePolicy.setBudget(0);
+		
+		int theMin = DebugFlags.STIQ_MIN_BLOCK_SIZE;
+		Assert.assertFalse(thePolicy.isSnapshotDue(DebugFlags.STIQ_SNAPSHOT_INTERVAL, theMin-1));
+		Assert.assertFalse(thePolicy.isSnapshotDue(DebugFlags.STIQ_SNAPSHOT_INTERVAL-1, Integer.MAX_VALUE));
+		Assert.assertTrue(thePolicy.isSnapshotDue(DebugFlags.STIQ_SNAPSHOT_INTERVAL, theMin));
+		
+		// No adaptation
+		thePolicy.blockFinished(theMin*10, 1000*MS);
+		Assert.assertEquals(0, thePolicy.getBudget());
+	}
+	
+	@Test public void testAdaptive()
+	{
+		SnapshotPolicy thePolicy = new SnapshotPolicy();
+		thePolicy.setBudget(DebugFlags.STIQ_MAX_BLOCK_SIZE);
+		
+		int theMin = DebugFlags.STIQ_MIN_BLOCK_SIZE;
+		Assert.assertFalse(thePolicy.isSnapshotDue(DebugFlags.STIQ_SNAPSHOT_INTERVAL, theMin));
+		Assert.assertTrue(thePolicy.isSnapshotDue(0, DebugFlags.STIQ_MAX_BLOCK_SIZE));
+		Assert.assertTrue(thePolicy.isSnapshotDue(DebugFlags.STIQ_MAX_SNAPSHOT_INTERVAL, theMin));
+		Assert.assertFalse(thePolicy.isSnapshotDue(DebugFlags.STIQ_MAX_SNAPSHOT_INTERVAL, theMin-1));
+		
+		// Expensive messages: the budget shrinks towards the target time
+		int theMessages = theMin*10;
+		for(int i=0;i<50;i++) thePolicy.blockFinished(theMessages, 4*DebugFlags.STIQ_MAX_BLOCK_TIME);
+		int theBudget = thePolicy.getBudget();
+		Assert.assertTrue(""+theBudget, Math.abs(theBudget - Math.max(theMessages/4, theMin)) <= theBudget/100+1);
+		Assert.assertTrue(thePolicy.isSnapshotDue(0, theBudget));
+		Assert.assertFalse(thePolicy.isSnapshotDue(0, theBudget-1));
+		
+		// Short spans are ignored
+		thePolicy.blockFinished(theMin-1, 1000*DebugFlags.STIQ_MAX_BLOCK_TIME);
+		Assert.assertEquals(theBudget, thePolicy.getBudget());
+		
+		// Very expensive messages: never below the minimum block size
+		for(int i=0;i<50;i++) thePolicy.blockFinished(theMin, 1000*DebugFlags.STIQ_MAX_BLOCK_TIME);
+		Assert.assertEquals(Math.max(theMin, 1), thePolicy.getBudget());
+		
+		// Cheap messages: never above the maximum block size
+		for(int i=0;i<50;i++) thePolicy.blockFinished(theMessages, 1);
+		Assert.assertEquals(DebugFlags.STIQ_MAX_BLOCK_SIZE, thePolicy.getBudget());
+	}
+}
@@ -0,0 +1,87 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.replay2;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class TestTmpIdManager
+{
+	@Test public void testRanges()
+	{
+		TmpIdManager theManager1 = new TmpIdManager(null, 1);
+		TmpIdManager theManager2 = new TmpIdManager(null, 2);
+		
+		long theLast1 = 0;
+		for(int i=0;i<1000;i++)
+		{
+			long theId1 = theManager1.nextId();
+			long theId2 = theManager2.nextId();
+			
+			Assert.assertTrue(TmpIdManager.isTmpId(theId1));
+			Assert.assertTrue(TmpIdManager.isTmpId(theId2));
+			Assert.assertEquals(0, theId1 & 1);
+			Assert.assertEquals(1, TmpIdManager.getThreadId(theId1));
+			Assert.assertEquals(2, TmpIdManager.getThreadId(theId2));
+			Assert.assertTrue(theId1 > theLast1);
+			theLast1 = theId1;
+		}
+		
+		Assert.assertFalse(TmpIdManager.isTmpId(0));
+		Assert.assertFalse(TmpIdManager.isTmpId(theLast1+1));
+		Assert.assertFalse(TmpIdManager.isTmpId(0x4000000000000000L));
+	}
+	
+	@Test public void testResume()
+	{
+		TmpIdManager theManager = new TmpIdManager(null, 5);
+		for(int i=0;i<10;i++) theManager.nextId();
+		long theNext = theManager.getNextId();
+		long[] theIds = new long[10];
+		for(int i=0;i<theIds.length;i++) theIds[i] = theManager.nextId();
+		
+		TmpIdManager theResumed = new TmpIdManager(null, 5);
+		theResumed.setNextId(theNext);
+		for(int i=0;i<theIds.length;i++) Assert.assertEquals(theIds[i], theResumed.nextId());
+		
+		try
+		{
+			new TmpIdManager(null, 6).setNextId(theNext);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+}
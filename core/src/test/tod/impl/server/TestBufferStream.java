@@ -0,0 +1,144 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod.impl.server.BufferStream.EndOfStreamException;
+
+
+public class TestBufferStream
+{
+	private static final int PACKETS = 200;
+	
+	/**
+	 * Writes a packet of random values, in the format read by {@link #check(Random, BufferStream)}.
+	 * The packet is stored in a heap or direct buffer, possibly with a non-zero array offset.
+	 */
+	private static PacketBuffer createPacket(Random aRandom, int aIndex)
+	{
+		ByteBuffer theBuffer = ByteBuffer.allocate(100).order(ByteOrder.LITTLE_ENDIAN);
+		theBuffer.put((byte) aRandom.nextInt());
+		theBuffer.putShort((short) aRandom.nextInt());
+		theBuffer.putChar((char) aRandom.nextInt());
+		theBuffer.putInt(aRandom.nextInt());
+		theBuffer.putLong(aRandom.nextLong());
+		theBuffer.putFloat(aRandom.nextFloat());
+		theBuffer.putDouble(aRandom.nextDouble());
+		theBuffer.putInt(3);
+		theBuffer.putChar('a').putChar('\u00e9').putChar((char) aRandom.nextInt());
+		theBuffer.flip();
+		
+		ByteBuffer thePacket;
+		switch(aIndex % 3)
+		{
+		case 0:
+			thePacket = theBuffer;
+			break;
+			
+		case 1:
+			thePacket = ByteBuffer.allocateDirect(theBuffer.remaining());
+			thePacket.put(theBuffer).flip();
+			break;
+			
+		default:
+			ByteBuffer theLarger = ByteBuffer.allocate(theBuffer.remaining()+7);
+			theLarger.position(7);
+			theLarger.put(theBuffer);
+			theLarger.position(7);
+			thePacket = theLarger.slice();
+		}
+		
+		return new PacketBuffer(thePacket, aIndex*1000);
+	}
+	
+	private static void check(Random aRandom, BufferStream aStream, int aIndex)
+	{
+		byte theByte = (byte) aRandom.nextInt();
+		Assert.assertEquals(theByte, aStream.peek());
+		Assert.assertEquals(theByte, aStream.get());
+		Assert.assertEquals(aIndex*1000, aStream.getPacketStartOffset());
+		Assert.assertEquals(1, aStream.position());
+		Assert.assertEquals((short) aRandom.nextInt(), aStream.getShort());
+		Assert.assertEquals((char) aRandom.nextInt(), aStream.getChar());
+		Assert.assertEquals(aRandom.nextInt(), aStream.getInt());
+		Assert.assertEquals(aRandom.nextLong(), aStream.getLong());
+		Assert.assertEquals(aRandom.nextFloat(), aStream.getFloat());
+		Assert.assertEquals(aRandom.nextDouble(), aStream.getDouble());
+		Assert.assertEquals("a\u00e9"+(char) aRandom.nextInt(), aStream.getString());
+	}
+	
+	@Test public void testRead() throws InterruptedException
+	{
+		final BufferStream theStream = new BufferStream();
+		Thread theProducer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				Random theRandom = new Random(0);
+				for(int i=0;i<PACKETS;i++) 
+				{
+					theStream.pushBuffer(createPacket(theRandom, i));
+					if (i % 50 == 0) Thread.yield();
+				}
+				theStream.pushBuffer(null);
+			}
+		};
+		theProducer.start();
+		
+		Random theRandom = new Random(0);
+		for(int i=0;i<PACKETS;i++) 
+		{
+			Assert.assertTrue(theStream.remaining() > 0);
+			check(theRandom, theStream, i);
+		}
+		
+		Assert.assertEquals(0, theStream.remaining());
+		theProducer.join();
+		
+		try
+		{
+			theStream.get();
+			Assert.fail();
+		}
+		catch (EndOfStreamException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class TestCompressedTraceInput
+{
+	/**
+	 * Writes a compressed trace that contains the given number of ints, starting at the given value.
+	 */
+	private static void write(File aFile, int aFirst, int aCount) throws IOException
+	{
+		ByteBuffer theBuffer = ByteBuffer.allocate(aCount*4).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i=0;i<aCount;i++) theBuffer.putInt(aFirst+i);
+		theBuffer.flip();
+		
+		CompressedTraceOutput theOut = new CompressedTraceOutput(new FileOutputStream(aFile));
+		theOut.write(theBuffer);
+		theOut.close();
+	}
+	
+	private static void check(File aFile, int aFirst, int aCount) throws IOException
+	{
+		RawTraceInput theInput = CompressedTraceInput.open(aFile, 0);
+		try
+		{
+			for(int i=0;i<aCount;i++) Assert.assertEquals("At "+i, aFirst+i, theInput.readInt());
+			Assert.assertEquals(-1, theInput.readPacketType());
+		}
+		finally
+		{
+			theInput.close();
+		}
+	}
+	
+	/**
+	 * A file that is rewritten with more data must not be read with the 
+	 * block index of its previous version.
+	 */
+	@Test
+	public void testRewrite() throws IOException
+	{
+		File theFile = File.createTempFile("events", ".raw");
+		try
+		{
+			write(theFile, 0, 40000);
+			check(theFile, 0, 40000);
+			
+			write(theFile, 1000000, 100000);
+			check(theFile, 1000000, 100000);
+			
+			CompressedTraceInput.forget(theFile);
+			check(theFile, 1000000, 100000);
+		}
+		finally
+		{
+			theFile.delete();
+		}
+	}
+}
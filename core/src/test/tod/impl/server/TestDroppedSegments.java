@@ -0,0 +1,163 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.impl.server;
+
+import gnu.trove.TLongArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import tod.impl.replay2.EventCollector;
+import tod.impl.server.TraceManifest.Segment;
+import tod2.agent.Message;
+
+
+public class TestDroppedSegments
+{
+	private static final int SEGMENTS = 3;
+	private static final int PACKETS = 10;
+	private static final int PAYLOAD = 20;
+	private static final int PACKET_SIZE = 1 + 4 + 4 + PAYLOAD;
+	
+	/**
+	 * Writes a segment made of thread packets of threads 1 and 3, alternately.
+	 * @param aOffsets Receives the logical offsets of the packets of thread 1.
+	 */
+	private static void writeSegment(File aFile, long aStartOffset, TLongArrayList aOffsets) throws IOException
+	{
+		ByteBuffer theBuffer = ByteBuffer.allocate(PACKETS*PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i=0;i<PACKETS;i++)
+		{
+			int theThreadId = i % 2 == 0 ? 1 : 3;
+			if (theThreadId == 1) aOffsets.add(aStartOffset + theBuffer.position());
+			theBuffer.put(Message.PACKET_TYPE_THREAD);
+			theBuffer.putInt(theThreadId);
+			theBuffer.putInt(PAYLOAD);
+			for(int j=0;j<PAYLOAD;j++) theBuffer.put((byte) j);
+		}
+		
+		FileOutputStream theOut = new FileOutputStream(aFile);
+		try
+		{
+			theOut.write(theBuffer.array());
+		}
+		finally
+		{
+			theOut.close();
+		}
+	}
+	
+	private static File createTempDir() throws IOException
+	{
+		File theDir = File.createTempFile("segments", "");
+		theDir.delete();
+		if (! theDir.mkdir()) throw new IOException("Could not create "+theDir);
+		return theDir;
+	}
+	
+	/**
+	 * Indexes a trace whose first segment was dropped: the offsets of the thread 
+	 * index must be the logical offsets of the remaining packets.
+	 */
+	@Test
+	public void testIndexDroppedHead() throws IOException
+	{
+		File theDir = createTempDir();
+		try
+		{
+			TraceManifest theManifest = new TraceManifest();
+			TLongArrayList theOffsets = new TLongArrayList();
+			long theSegmentSize = PACKETS*PACKET_SIZE;
+			for(int i=0;i<SEGMENTS;i++)
+			{
+				Segment theSegment = theManifest.addSegment("events-"+i+".raw", 1, "test");
+				writeSegment(theSegment.getFile(theDir), i*theSegmentSize, theOffsets);
+				theSegment.setComplete(theSegmentSize);
+			}
+			
+			Assert.assertEquals(1, theManifest.applyRetention((SEGMENTS-1)*theSegmentSize, 0).size());
+			theManifest.save(theDir);
+			new File(theDir, "events-0.raw").delete();
+			
+			theManifest = TraceManifest.load(theDir);
+			Assert.assertEquals(theSegmentSize, theManifest.getBaseOffset());
+			
+			try
+			{
+				new SegmentedTraceInput(theDir, theManifest, 0, false);
+				Assert.fail("Opened dropped data");
+			}
+			catch (IOException e)
+			{
+				// Expected
+			}
+			
+			// With two shards, shard 0 does not replay odd threads but still fills the thread index.
+			DBSideIOThread theIOThread = new DBSideIOThread(
+					null, 
+					null, 
+					new SegmentedTraceInput(theDir, theManifest), 
+					null,
+					null)
+			{
+				@Override
+				protected EventCollector createCollector(int aThreadId)
+				{
+					return new EventCollector() {};
+				}
+			};
+			theIOThread.setStartOffset(theManifest.getBaseOffset());
+			theIOThread.setShard(0, 2);
+			theIOThread.run();
+			
+			RawTraceThreadIndex theIndex = theIOThread.getThreadIndex();
+			int theFirst = PACKETS/2; // The packets of thread 1 in the dropped segment
+			for(int i=theFirst;i<theOffsets.size()-1;i++)
+			{
+				Assert.assertEquals(theOffsets.get(i+1), theIndex.getNextThreadPacketOffset(1, theOffsets.get(i)));
+			}
+			Assert.assertEquals(-1, theIndex.getNextThreadPacketOffset(1, theOffsets.get(theOffsets.size()-1)));
+		}
+		finally
+		{
+			for (File theFile : theDir.listFiles()) theFile.delete();
+			theDir.delete();
+		}
+	}
+}
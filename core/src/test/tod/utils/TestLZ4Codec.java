@@ -0,0 +1,114 @@
+/*
+TOD - Trace Oriented Debugger.
+Copyright (c) 2006-2008, Guillaume Pothier
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this 
+      list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice, 
+      this list of conditions and the following disclaimer in the documentation 
+      and/or other materials provided with the distribution.
+    * Neither the name of the University of Chile nor the names of its contributors 
+      may be used to endorse or promote products derived from this software without 
+      specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+
+Parts of this work rely on the MD5 algorithm "derived from the RSA Data Security, 
+Inc. MD5 Message-Digest Algorithm".
+*/
+package tod.utils;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class TestLZ4Codec
+{
+	private static void checkRoundTrip(byte[] aData)
+	{
+		LZ4Codec theCodec = new LZ4Codec();
+		byte[] theCompressed = new byte[LZ4Codec.maxCompressedLength(aData.length)+3];
+		int theLength = theCodec.compress(aData, 0, aData.length, theCompressed, 3);
+		Assert.assertTrue(theLength <= LZ4Codec.maxCompressedLength(aData.length));
+		
+		byte[] theResult = new byte[aData.length+5];
+		LZ4Codec.decompress(theCompressed, 3, theLength, theResult, 5, aData.length);
+		for(int i=0;i<aData.length;i++) Assert.assertEquals("At "+i, aData[i], theResult[i+5]);
+	}
+	
+	@Test public void testSmall()
+	{
+		checkRoundTrip(new byte[0]);
+		checkRoundTrip(new byte[] {1});
+		checkRoundTrip(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+	}
+	
+	@Test public void testRandom()
+	{
+		Random theRandom = new Random(0);
+		byte[] theData = new byte[100000];
+		theRandom.nextBytes(theData);
+		checkRoundTrip(theData);
+	}
+	
+	@Test public void testRepetitive()
+	{
+		byte[] theData = new byte[200000];
+		for(int i=0;i<theData.length;i++) theData[i] = (byte) (i % 7);
+		checkRoundTrip(theData);
+		
+		LZ4Codec theCodec = new LZ4Codec();
+		byte[] theCompressed = new byte[LZ4Codec.maxCompressedLength(theData.length)];
+		int theLength = theCodec.compress(theData, 0, theData.length, theCompressed, 0);
+		Assert.assertTrue(theLength < theData.length/100);
+	}
+	
+	@Test public void testMixed()
+	{
+		// Trace-like data: small integers with repeated patterns and some noise
+		Random theRandom = new Random(1);
+		byte[] theData = new byte[300000];
+		for(int i=0;i<theData.length;i++) 
+		{
+			theData[i] = theRandom.nextInt(10) == 0 ? 
+					(byte) theRandom.nextInt() 
+					: (byte) ((i/16) % 32);
+		}
+		checkRoundTrip(theData);
+	}
+	
+	@Test public void testCorrupted()
+	{
+		byte[] theData = new byte[1000];
+		for(int i=0;i<theData.length;i++) theData[i] = (byte) (i % 13);
+		
+		LZ4Codec theCodec = new LZ4Codec();
+		byte[] theCompressed = new byte[LZ4Codec.maxCompressedLength(theData.length)];
+		int theLength = theCodec.compress(theData, 0, theData.length, theCompressed, 0);
+		
+		try
+		{
+			LZ4Codec.decompress(theCompressed, 0, theLength-1, new byte[theData.length], 0, theData.length);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package tod.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import tod.BenchBase;
+import tod.BenchBase.BenchResults;
+import tod.impl.evdbng.DebuggerGridConfigNG;
+import tod.impl.evdbng.db.Stats;
+import tod.impl.evdbng.db.file.Page;
+import tod.impl.evdbng.db.file.classic.BufferManager;
+import tod.impl.evdbng.db.file.classic.ClassicPagedFile;
+
+/**
+ * Measures the hit rate and throughput of the page replacement policy of
+ * {@link BufferManager} under a mixed workload: random lookups in a small set of
+ * hot pages (like the interior pages of B-trees during queries), interleaved
+ * with sequential scans and page appends (like indexing and snapshot replay).
+ * <p>
+ * The policy is selected with -Dpage-replacement=lru|2q. The buffer size can
+ * be set with -Dpage-buffer-size (defaults to 16m for this benchmark).
+ * @author gpothier
+ */
+public class BufferPolicyBench
+{
+	private static final int ROUNDS = 2000;
+	private static final int LOOKUPS_PER_ROUND = 200;
+	private static final int SCANS_PER_ROUND = 100;
+	private static final int APPENDS_PER_ROUND = 10;
+
+	private static final int QUERY_THREADS = 4;
+	private static final int CONCURRENT_LOOKUPS = 1000000;
+
+	private static int itsHotPages;
+	private static int itsScanPages;
+
+	private static ClassicPagedFile itsHotFile;
+	private static ClassicPagedFile itsScanFile;
+	
+	private static volatile boolean itsDone = false;
+
+	public static void main(String[] args) throws Exception
+	{
+		if (System.getProperty("page-buffer-size") == null) System.setProperty("page-buffer-size", "16m");
+
+		BufferManager theManager = BufferManager.getInstance();
+		int theBuffers = (int) theManager.getBufferCount();
+		System.out.println("Policy: "+DebuggerGridConfigNG.DB_PAGE_REPLACEMENT+", "+theBuffers+" buffers");
+
+		itsHotPages = theBuffers/8;
+		itsScanPages = theBuffers*2;
+
+		File theDir = new File(System.getProperty("java.io.tmpdir"), "buffer-policy-bench");
+		theDir.mkdirs();
+		itsHotFile = ClassicPagedFile.create(new File(theDir, "hot"), true);
+		itsScanFile = ClassicPagedFile.create(new File(theDir, "scan"), true);
+
+		fill(itsHotFile, itsHotPages);
+		fill(itsScanFile, itsScanPages);
+		theManager.flush();
+
+		mixed(theManager);
+		concurrent(theManager);
+	}
+
+	private static void fill(ClassicPagedFile aFile, int aCount)
+	{
+		for (int i=0;i<aCount;i++)
+		{
+			Page thePage = aFile.create(Stats.ACC_MISC);
+			thePage.writeLong(0, thePage.getPageId());
+		}
+	}
+
+	/**
+	 * Single-threaded mixed workload. Hits are counted per access by
+	 * watching the number of page reads of the buffer manager.
+	 */
+	private static void mixed(final BufferManager aManager)
+	{
+		final long[] theCounts = new long[4]; // hot accesses, hot misses, scan accesses, scan misses
+
+		BenchResults b = BenchBase.benchmark(new Runnable()
+		{
+			public void run()
+			{
+				Random theRandom = new Random(0);
+				int theScanPos = 0;
+				for (int r=0;r<ROUNDS;r++)
+				{
+					for (int i=0;i<LOOKUPS_PER_ROUND;i++)
+					{
+						long theReads = aManager.getReadCount();
+						read(itsHotFile, theRandom.nextInt(itsHotPages)+1);
+						theCounts[0]++;
+						if (aManager.getReadCount() != theReads) theCounts[1]++;
+					}
+
+					for (int i=0;i<SCANS_PER_ROUND;i++)
+					{
+						long theReads = aManager.getReadCount();
+						read(itsScanFile, theScanPos+1);
+						theCounts[2]++;
+						if (aManager.getReadCount() != theReads) theCounts[3]++;
+						theScanPos = (theScanPos+1) % itsScanPages;
+					}
+
+					fill(itsScanFile, APPENDS_PER_ROUND);
+				}
+			}
+		});
+
+		long theAccesses = theCounts[0]+theCounts[2];
+		System.out.println("Mixed: "+b);
+		System.out.println(String.format(
+				"  hot hit rate: %.2f%%, scan hit rate: %.2f%%, overall: %.2f%%, %d accesses/s",
+				hitRate(theCounts[0], theCounts[1]),
+				hitRate(theCounts[2], theCounts[3]),
+				hitRate(theAccesses, theCounts[1]+theCounts[3]),
+				1000L*theAccesses/Math.max(b.totalTime, 1)));
+	}
+
+	/**
+	 * Several threads perform hot lookups while the main thread scans.
+	 */
+	private static void concurrent(final BufferManager aManager) throws InterruptedException
+	{
+		final long theReads0 = aManager.getReadCount();
+		Thread theScanner = new Thread("scanner")
+		{
+			@Override
+			public void run()
+			{
+				int theScanPos = 0;
+				while(! itsDone)
+				{
+					read(itsScanFile, theScanPos+1);
+					theScanPos = (theScanPos+1) % itsScanPages;
+				}
+			}
+		};
+		theScanner.start();
+
+		BenchResults b = BenchBase.benchmark(new Runnable()
+		{
+			public void run()
+			{
+				Thread[] theThreads = new Thread[QUERY_THREADS];
+				for (int i=0;i<theThreads.length;i++)
+				{
+					final int theSeed = i;
+					theThreads[i] = new Thread("query "+i)
+					{
+						@Override
+						public void run()
+						{
+							Random theRandom = new Random(theSeed);
+							for (int j=0;j<CONCURRENT_LOOKUPS;j++) read(itsHotFile, theRandom.nextInt(itsHotPages)+1);
+						}
+					};
+					theThreads[i].start();
+				}
+
+				try
+				{
+					for (Thread theThread : theThreads) theThread.join();
+				}
+				catch (InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		});
+
+		itsDone = true;
+		theScanner.join();
+
+		long theLookups = (long) QUERY_THREADS*CONCURRENT_LOOKUPS;
+		System.out.println("Concurrent ("+QUERY_THREADS+" query threads + 1 scanner): "+b);
+		System.out.println(String.format(
+				"  %d lookups/s, %d page reads",
+				1000L*theLookups/Math.max(b.totalTime, 1),
+				aManager.getReadCount()-theReads0));
+	}
+
+	private static long read(ClassicPagedFile aFile, int aPageId)
+	{
+		return aFile.get(aPageId).readLong(0);
+	}
+
+	private static float hitRate(long aAccesses, long aMisses)
+	{
+		return aAccesses > 0 ? 100f*(aAccesses-aMisses)/aAccesses : 0;
+	}
+}
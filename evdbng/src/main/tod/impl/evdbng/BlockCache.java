@@ -0,0 +1,349 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package tod.impl.evdbng;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import tod.impl.replay2.ReifyEventCollector.EventList;
+import zz.utils.Utils;
+
+/**
+ * A thread-safe cache of partially replayed blocks, bounded by the estimated
+ * footprint of the cached {@link EventList}s (see {@link EventList#getFootprint()}).
+ * Blocks are evicted in least-recently-used order.
+ * <p>
+ * A block is replayed only once even if several threads request it at the same
+ * time: the first thread replays it and the others wait for the result. Replays
+ * are done outside the cache lock.
+ * <p>
+ * When prefetch is enabled, each access to a block schedules the replay of the
+ * previous and next blocks of the same thread in a background thread, as
+ * stepping and inspection usually move to neighbouring blocks.
+ * @author gpothier
+ */
+public abstract class BlockCache
+{
+	/**
+	 * Maximum number of pending prefetch requests. Further requests are dropped.
+	 */
+	private static final int PREFETCH_QUEUE_SIZE = 16;
+
+	private final long itsMaxFootprint;
+	private final boolean itsPrefetch;
+
+	/**
+	 * Entries in access order.
+	 */
+	private final LinkedHashMap<Key, Entry> itsEntries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+
+	/**
+	 * Total footprint of the loaded entries.
+	 */
+	private long itsFootprint = 0;
+
+	private final ArrayBlockingQueue<Entry> itsPrefetchQueue = new ArrayBlockingQueue<Entry>(PREFETCH_QUEUE_SIZE);
+	private Thread itsPrefetcher;
+
+	private long itsHits = 0;
+	private long itsMisses = 0;
+	private long itsEvictions = 0;
+	private long itsPrefetches = 0;
+	private long itsUsefulPrefetches = 0;
+
+	public BlockCache(long aMaxFootprint, boolean aPrefetch)
+	{
+		itsMaxFootprint = aMaxFootprint;
+		itsPrefetch = aPrefetch;
+	}
+
+	/**
+	 * Replays the given block.
+	 */
+	protected abstract EventList fetch(int aThreadId, long aBlockId);
+
+	/**
+	 * Returns the id of the block that precedes the given block in the same
+	 * thread, or -1 if there is none.
+	 */
+	protected abstract long getPreviousBlockId(int aThreadId, long aBlockId);
+
+	/**
+	 * Returns the id of the block that follows the given block in the same
+	 * thread, or -1 if there is none or if it cannot be replayed yet.
+	 */
+	protected abstract long getNextBlockId(int aThreadId, long aBlockId);
+
+	/**
+	 * Returns the events of the given block, replaying it if it is not
+	 * in the cache.
+	 */
+	public EventList get(int aThreadId, long aBlockId)
+	{
+		Key theKey = new Key(aThreadId, aBlockId);
+		Entry theEntry;
+		boolean theLoad = false;
+
+		synchronized (this)
+		{
+			theEntry = itsEntries.get(theKey);
+			if (theEntry == null)
+			{
+				theEntry = new Entry(theKey, false);
+				itsEntries.put(theKey, theEntry);
+				theLoad = true;
+				itsMisses++;
+			}
+			else
+			{
+				itsHits++;
+				if (theEntry.prefetched && ! theEntry.used)
+				{
+					itsUsefulPrefetches++;
+
+					// Don't wait behind other prefetches
+					if (itsPrefetchQueue.remove(theEntry)) theLoad = true;
+				}
+			}
+			theEntry.used = true;
+		}
+
+		if (theLoad) load(theEntry);
+		EventList theEvents = theEntry.await();
+
+		if (itsPrefetch)
+		{
+			prefetch(aThreadId, getPreviousBlockId(aThreadId, aBlockId));
+			prefetch(aThreadId, getNextBlockId(aThreadId, aBlockId));
+		}
+
+		return theEvents;
+	}
+
+	private void prefetch(int aThreadId, long aBlockId)
+	{
+		if (aBlockId < 0) return;
+		Key theKey = new Key(aThreadId, aBlockId);
+
+		synchronized (this)
+		{
+			if (itsEntries.containsKey(theKey)) return;
+
+			Entry theEntry = new Entry(theKey, true);
+			if (! itsPrefetchQueue.offer(theEntry)) return;
+			itsEntries.put(theKey, theEntry);
+			itsPrefetches++;
+
+			if (itsPrefetcher == null)
+			{
+				itsPrefetcher = new Prefetcher();
+				itsPrefetcher.start();
+			}
+		}
+	}
+
+	/**
+	 * Replays the block of the given entry, and publishes the result.
+	 */
+	private void load(Entry aEntry)
+	{
+		EventList theEvents = null;
+		Throwable theError = null;
+		try
+		{
+			theEvents = fetch(aEntry.key.threadId, aEntry.key.blockId);
+		}
+		catch (Throwable e)
+		{
+			theError = e;
+		}
+
+		synchronized (this)
+		{
+			if (theError != null)
+			{
+				// Next request will retry
+				if (itsEntries.get(aEntry.key) == aEntry) itsEntries.remove(aEntry.key);
+			}
+			else
+			{
+				aEntry.footprint = theEvents.getFootprint();
+				itsFootprint += aEntry.footprint;
+				evict(aEntry);
+			}
+		}
+
+		aEntry.set(theEvents, theError);
+	}
+
+	/**
+	 * Evicts least recently used entries until the footprint is below the limit.
+	 * Entries that are being loaded, and the given entry, are never evicted.
+	 */
+	private void evict(Entry aKeep)
+	{
+		Iterator<Entry> theIterator = itsEntries.values().iterator();
+		while(itsFootprint > itsMaxFootprint && theIterator.hasNext())
+		{
+			Entry theEntry = theIterator.next();
+			if (theEntry == aKeep || theEntry.footprint < 0) continue;
+
+			theIterator.remove();
+			itsFootprint -= theEntry.footprint;
+			itsEvictions++;
+		}
+	}
+
+	public synchronized long getHits()
+	{
+		return itsHits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return itsMisses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return itsEvictions;
+	}
+
+	/**
+	 * Number of blocks scheduled for prefetching.
+	 */
+	public synchronized long getPrefetches()
+	{
+		return itsPrefetches;
+	}
+
+	/**
+	 * Number of prefetched blocks that were later requested.
+	 */
+	public synchronized long getUsefulPrefetches()
+	{
+		return itsUsefulPrefetches;
+	}
+
+	/**
+	 * Estimated memory used by the cached blocks, in bytes.
+	 */
+	public synchronized long getFootprint()
+	{
+		return itsFootprint;
+	}
+
+	public synchronized void printStats()
+	{
+		Utils.println(
+				"Block cache: %d hits, %d misses, %d evictions, %d/%d useful prefetches, %dk used",
+				itsHits,
+				itsMisses,
+				itsEvictions,
+				itsUsefulPrefetches,
+				itsPrefetches,
+				itsFootprint/1024);
+	}
+
+	private class Prefetcher extends Thread
+	{
+		public Prefetcher()
+		{
+			super("Block prefetcher");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(true) load(itsPrefetchQueue.take());
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static final class Key
+	{
+		public final int threadId;
+		public final long blockId;
+
+		public Key(int aThreadId, long aBlockId)
+		{
+			threadId = aThreadId;
+			blockId = aBlockId;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * threadId + (int) (blockId ^ (blockId >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj) return true;
+			if (! (obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return threadId == other.threadId && blockId == other.blockId;
+		}
+	}
+
+	private static final class Entry
+	{
+		public final Key key;
+		public final boolean prefetched;
+
+		/**
+		 * Whether the entry was requested through {@link BlockCache#get(int, long)}.
+		 * Guarded by the cache lock.
+		 */
+		public boolean used = false;
+
+		/**
+		 * Footprint of the events, or -1 while the entry is being loaded.
+		 * Guarded by the cache lock.
+		 */
+		public long footprint = -1;
+
+		private EventList itsEvents;
+		private Throwable itsError;
+		private boolean itsDone = false;
+
+		public Entry(Key aKey, boolean aPrefetched)
+		{
+			key = aKey;
+			prefetched = aPrefetched;
+		}
+
+		public synchronized void set(EventList aEvents, Throwable aError)
+		{
+			itsEvents = aEvents;
+			itsError = aError;
+			itsDone = true;
+			notifyAll();
+		}
+
+		public synchronized EventList await()
+		{
+			try
+			{
+				while(! itsDone) wait();
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+
+			if (itsError != null) throw new RuntimeException("Could not replay block", itsError);
+			return itsEvents;
+		}
+	}
+}
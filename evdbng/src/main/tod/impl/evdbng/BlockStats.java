@@ -0,0 +1,79 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package tod.impl.evdbng;
+
+import tod.impl.replay2.SnapshotPolicy;
+import zz.utils.Utils;
+
+/**
+ * Distribution of the sizes and first pass replay times of the blocks 
+ * delimited by snapshots during indexing (see {@link SnapshotPolicy}).
+ * @author gpothier
+ */
+class BlockStats
+{
+	/**
+	 * Number of blocks per size class. Class i holds the blocks of less than 2^i messages.
+	 */
+	private final long[] itsCounts = new long[32];
+	
+	private long itsBlocks = 0;
+	private long itsMessages = 0;
+	private int itsMaxMessages = 0;
+	private long itsTime = 0;
+	private long itsMaxTime = 0;
+	
+	public synchronized void add(int aMessages, long aTime)
+	{
+		itsCounts[32-Integer.numberOfLeadingZeros(aMessages)]++;
+		itsBlocks++;
+		itsMessages += aMessages;
+		itsMaxMessages = Math.max(itsMaxMessages, aMessages);
+		itsTime += aTime;
+		itsMaxTime = Math.max(itsMaxTime, aTime);
+	}
+	
+	public synchronized void add(BlockStats aStats)
+	{
+		synchronized (aStats)
+		{
+			for(int i=0;i<itsCounts.length;i++) itsCounts[i] += aStats.itsCounts[i];
+			itsBlocks += aStats.itsBlocks;
+			itsMessages += aStats.itsMessages;
+			itsMaxMessages = Math.max(itsMaxMessages, aStats.itsMaxMessages);
+			itsTime += aStats.itsTime;
+			itsMaxTime = Math.max(itsMaxTime, aStats.itsMaxTime);
+		}
+	}
+	
+	public synchronized void print(String aTitle)
+	{
+		if (itsBlocks == 0) return;
+		
+		StringBuilder theDistribution = new StringBuilder();
+		for(int i=0;i<itsCounts.length;i++)
+		{
+			if (itsCounts[i] == 0) continue;
+			if (theDistribution.length() > 0) theDistribution.append(", ");
+			theDistribution.append("<").append(formatSize(1L << i)).append(": ").append(itsCounts[i]);
+		}
+		
+		Utils.println(
+				"%s: %d blocks, avg. %d messages (max. %d), avg. replay %.02fms (max. %.02fms) - %s",
+				aTitle,
+				itsBlocks,
+				itsMessages/itsBlocks,
+				itsMaxMessages,
+				0.000001f*itsTime/itsBlocks,
+				0.000001f*itsMaxTime,
+				theDistribution);
+	}
+	
+	private static String formatSize(long aSize)
+	{
+		if (aSize >= 1024*1024) return (aSize/(1024*1024))+"M";
+		else if (aSize >= 1024) return (aSize/1024)+"k";
+		else return ""+aSize;
+	}
+}
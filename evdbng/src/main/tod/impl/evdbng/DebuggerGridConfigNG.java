@@ -24,6 +24,7 @@ package tod.impl.evdbng;
 
 import sun.misc.VM;
 import tod.impl.evdbng.db.file.SimpleTree;
+import tod.impl.evdbng.db.file.classic.BufferManager;
 import tod.utils.ConfigUtils;
 import zz.utils.bit.BitUtils;
 
@@ -108,9 +109,53 @@ public class DebuggerGridConfigNG
 	public static final long DB_PAGE_BUFFER_SIZE = 
 		ConfigUtils.readSize("page-buffer-size", getDefaultPageBufferSize());
 	
+	/**
+	 * Page replacement policy of the page buffer: "lru" or "2q".
+	 * See {@link BufferManager}.
+	 */
+	public static final String DB_PAGE_REPLACEMENT =
+		ConfigUtils.readString("page-replacement", "lru");
+	
+	/**
+	 * Maximum memory used by the cache of partially replayed blocks.
+	 * See {@link BlockCache}.
+	 */
+	public static final long DB_BLOCK_CACHE_SIZE =
+		ConfigUtils.readSize("block-cache-size", "64m");
+	
+	/**
+	 * Whether the neighbours of accessed blocks are replayed in the background.
+	 */
+	public static final boolean DB_BLOCK_PREFETCH =
+		ConfigUtils.readBoolean("block-prefetch", true);
+	
+	/**
+	 * Whether the blocks of the different threads are replayed and scanned
+	 * in parallel when looking for the last write to a field.
+	 * See {@link Indexer}.
+	 */
+	public static final boolean DB_PARALLEL_INSPECTION =
+		ConfigUtils.readBoolean("parallel-inspection", true);
+	
 	public static final int DB_THREADS =
 		ConfigUtils.readInt("db-threads", getDefaultDbThreads());
 	
+	/**
+	 * Number of shards used to index the raw trace. Each shard replays
+	 * a disjoint subset of the threads in its own IO thread.
+	 * See {@link Indexer#indexTrace()}.
+	 */
+	public static final int DB_INDEX_SHARDS =
+		ConfigUtils.readInt("db-index-shards", 1);
+	
+	/**
+	 * Interval, in milliseconds, between two checkpoints of online indexing,
+	 * ie. between two advances of the watermark.
+	 * See {@link Indexer#startOnline(long)}.
+	 */
+	public static final int DB_ONLINE_CHECKPOINT_INTERVAL =
+		ConfigUtils.readInt("db-online-checkpoint-interval", 2000);
+	
 	/**
 	 * Size of database tasks, ie number of primitive operations
 	 * they contain.
@@ -1,23 +1,29 @@
 package tod.impl.evdbng;
 
+import gnu.trove.TIntHashSet;
+import gnu.trove.TLongArrayList;
+
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import tod.core.config.TODConfig;
 import tod.core.database.structure.IMutableStructureDatabase;
 import tod.core.database.structure.ObjectId;
 import tod.impl.database.structure.standard.StructureDatabase;
+import tod.impl.evdbng.db.DBExecutor;
+import tod.impl.evdbng.db.DBExecutor.DBTask;
 import tod.impl.evdbng.db.SnapshotIndex;
 import tod.impl.evdbng.db.Stats;
 import tod.impl.evdbng.db.StringIndex;
+import tod.impl.evdbng.db.TmpIdIndex;
 import tod.impl.evdbng.db.cflowindex.CFlowIndex;
 import tod.impl.evdbng.db.fieldwriteindex.Pipeline;
 import tod.impl.evdbng.db.fieldwriteindex.Pipeline.PerThreadIndex;
@@ -35,9 +41,15 @@ import tod.impl.replay2.ReifyEventCollector.EventList.Event;
 import tod.impl.replay2.ReifyEventCollector.EventList.FieldReadEvent;
 import tod.impl.replay2.ReifyEventCollector.EventList.FieldWriteEvent;
 import tod.impl.replay2.ReplayerLoader;
+import tod.impl.replay2.TmpIdManager;
+import tod.impl.server.CompressedTraceInput;
 import tod.impl.server.DBSideIOThread;
+import tod.impl.server.RawTraceInput;
+import tod.impl.server.RawTraceThreadIndex;
+import tod.impl.server.SegmentedTraceInput;
+import tod.impl.server.TailingTraceInput;
+import tod.impl.server.TraceManifest;
 import zz.utils.Utils;
-import zz.utils.cache.MRUBuffer;
 
 public class Indexer 
 {
@@ -50,12 +62,67 @@ public class Indexer
 	private final Pipeline itsFieldWritePipeline;
 	private final StringIndex itsStringIndex;
 	private List<Collector> itsCollectors = new ArrayList<Collector>();
-	private BlocksBuffer itsBlocksBuffer = new BlocksBuffer();
+	private final BlockCache itsBlockCache = new BlockCache(
+			DebuggerGridConfigNG.DB_BLOCK_CACHE_SIZE, 
+			DebuggerGridConfigNG.DB_BLOCK_PREFETCH)
+	{
+		@Override
+		protected EventList fetch(int aThreadId, long aBlockId)
+		{
+			return partialReplay(aThreadId, aBlockId);
+		}
+		
+		@Override
+		protected long getPreviousBlockId(int aThreadId, long aBlockId)
+		{
+			SnapshotIndex theIndex = getSnapshotIndex(aThreadId);
+			return theIndex != null ? theIndex.getPreviousBlockId(aBlockId) : -1;
+		}
+		
+		@Override
+		protected long getNextBlockId(int aThreadId, long aBlockId)
+		{
+			SnapshotIndex theIndex = getSnapshotIndex(aThreadId);
+			if (theIndex == null) return -1;
+			long theId = theIndex.getNextBlockId(aBlockId);
+			return theId < itsWatermark ? theId : -1;
+		}
+	};
 	
 	private int itsDirectoryOffset = 0;
 	
 	private ReplayerLoader itsPartialReplayerLoader;
 	
+	/**
+	 * Per-thread index of the packets of the raw trace, saved alongside the trace file.
+	 */
+	private RawTraceThreadIndex itsThreadIndex;
+	
+	/**
+	 * Blocks whose id is lower than the watermark are completely indexed.
+	 * See {@link #getWatermark()}.
+	 */
+	private volatile long itsWatermark = Long.MAX_VALUE;
+	
+	/**
+	 * Serializes checkpoints and the end of indexing.
+	 */
+	private final Object itsCheckpointMonitor = new Object();
+	
+	/**
+	 * Inputs of online indexing, see {@link #stopOnline()}.
+	 */
+	private final List<TailingTraceInput> itsTailingInputs = new ArrayList<TailingTraceInput>();
+	private boolean itsStopRequested = false;
+	private Thread itsOnlineThread;
+	
+	/**
+	 * The first failure of indexing (of a shard, or of the online indexing thread), if any. 
+	 * The index is then incomplete: the thread index is not saved and the watermark 
+	 * stays at the last checkpoint, see {@link #finishIndexing(DBSideIOThread[], ReplayerLoader, long)}.
+	 */
+	private volatile Throwable itsFailure;
+	
 	public Indexer(TODConfig aConfig, IMutableStructureDatabase aDatabase, File aEventsFile, PagedFile aIndexFile)
 	{
 		itsConfig = aConfig;
@@ -67,16 +134,55 @@ public class Indexer
 		
 		itsFieldWritePipeline = new Pipeline(createPidSlot());
 		itsStringIndex = new StringIndex("strings", createPidSlot());
+		
+		try
+		{
+			itsThreadIndex = RawTraceThreadIndex.load(itsEventsFile, getTraceSize());
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Opens the raw trace at the given (logical) offset. The trace is either 
+	 * the events file, or the segments of the manifest stored next to it.
+	 */
+	private RawTraceInput openTrace(long aOffset) throws IOException
+	{
+		return SegmentedTraceInput.open(itsEventsFile.getParentFile(), aOffset);
+	}
+	
+	/**
+	 * Returns the current size of the raw trace, see {@link RawTraceThreadIndex#load(File, long)}.
+	 */
+	private long getTraceSize() throws IOException
+	{
+		TraceManifest theManifest = TraceManifest.load(itsEventsFile.getParentFile());
+		return theManifest != null ? 
+				theManifest.getBaseOffset() + theManifest.getTotalSize() 
+				: itsEventsFile.length();
+	}
+	
+	/**
+	 * Returns the (logical) offset of the first byte of the raw trace that was not dropped,
+	 * see {@link TraceManifest#getBaseOffset()}.
+	 */
+	private long getTraceStart() throws IOException
+	{
+		TraceManifest theManifest = TraceManifest.load(itsEventsFile.getParentFile());
+		return theManifest != null ? theManifest.getBaseOffset() : 0;
 	}
 	
-	private PidSlot createPidSlot()
+	private synchronized PidSlot createPidSlot()
 	{
 		PidSlot theSlot = new PidSlot(Stats.ACC_MISC, itsDirectoryPage, itsDirectoryOffset);
 		itsDirectoryOffset += PidSlot.size();
 		return theSlot;
 	}
 	
-	private Collector createCollector(int aThreadId)
+	private synchronized Collector createCollector(int aThreadId)
 	{
 		Collector theCollector = new Collector(aThreadId);
 		if (aThreadId >= 0) Utils.listSet(itsCollectors, aThreadId, theCollector);
@@ -88,57 +194,406 @@ public class Indexer
 		itsStringIndex.addString(aId.getId(), aString);
 	}
 	
+	private void registerStringAlias(long aId, long aContentId)
+	{
+		itsStringIndex.addAlias(aId, aContentId);
+	}
+	
 	private void flush()
 	{
 		itsFieldWritePipeline.flush();
-		for (Collector theCollector : itsCollectors) if (theCollector != null) theCollector.flush();
+		BlockStats theBlockStats = new BlockStats();
+		for (Collector theCollector : itsCollectors) 
+		{
+			if (theCollector == null) continue;
+			theCollector.flush();
+			theBlockStats.add(theCollector.itsBlockStats);
+		}
+		theBlockStats.print("All threads");
 	}
 	
+	/**
+	 * Indexes the whole raw trace. If {@link DebuggerGridConfigNG#DB_INDEX_SHARDS}
+	 * is greater than 1, the threads of the trace are split across that many 
+	 * IO threads that run in parallel. Each shard writes the per-thread indexes
+	 * of its threads; they all share the field write pipeline, which merges 
+	 * their blocks.
+	 */
 	public void indexTrace() 
 	{
 		long t0 = System.currentTimeMillis();
-		DBSideIOThread theIOThread;
-		try
+		ReplayerLoader theLoader = createFirstPassLoader();
+		DBSideIOThread[] theIOThreads = createIOThreads(theLoader, -1);
+		runShards(theIOThreads);
+		finishIndexing(theIOThreads, theLoader, t0);
+	}
+	
+	/**
+	 * Starts indexing the raw trace while it is still being recorded. 
+	 * Indexing runs in the background, and the watermark (see {@link #getWatermark()}) 
+	 * advances every {@link DebuggerGridConfigNG#DB_ONLINE_CHECKPOINT_INTERVAL} ms.
+	 * Queries must be restricted to the blocks that precede the watermark.
+	 * @param aIdleTimeout Time (ms) after which the recording is considered 
+	 * finished if the trace does not grow, or 0 to wait for {@link #stopOnline()}.
+	 */
+	public void startOnline(final long aIdleTimeout)
+	{
+		synchronized (itsTailingInputs)
 		{
-			theIOThread = new DBSideIOThread(itsConfig, itsDatabase, new FileInputStream(itsEventsFile), null)
+			if (itsOnlineThread != null) throw new IllegalStateException("Online indexing already started");
+			
+			itsWatermark = 0;
+			
+			// Filled by the first shard, used by partial replays while indexing goes on.
+			itsThreadIndex = new RawTraceThreadIndex();
+			
+			itsOnlineThread = new Thread("Online indexer")
 			{
 				@Override
-				protected EventCollector createCollector(int aThreadId)
+				public void run()
 				{
-					return Indexer.this.createCollector(aThreadId);
+					try
+					{
+						if (! awaitTrace()) return;
+						
+						long t0 = System.currentTimeMillis();
+						ReplayerLoader theLoader = createFirstPassLoader();
+						DBSideIOThread[] theIOThreads = createIOThreads(theLoader, aIdleTimeout);
+						runShards(theIOThreads);
+						finishIndexing(theIOThreads, theLoader, t0);
+					}
+					catch (Throwable e)
+					{
+						// Reported by waitIndexed
+						setFailure(e);
+					}
 				}
 			};
+			itsOnlineThread.start();
+			new Checkpointer().start();
+		}
+	}
+	
+	/**
+	 * Indicates that the recording is finished, and waits until the rest of 
+	 * the trace is indexed.
+	 */
+	public void stopOnline() throws InterruptedException
+	{
+		synchronized (itsTailingInputs)
+		{
+			itsStopRequested = true;
+			for (TailingTraceInput theInput : itsTailingInputs) theInput.finish();
+		}
+		waitIndexed();
+	}
+	
+	/**
+	 * Waits until online indexing is finished.
+	 * @throws RuntimeException if indexing failed. The watermark then stays 
+	 * at the last checkpoint.
+	 */
+	public void waitIndexed() throws InterruptedException
+	{
+		Thread theThread;
+		synchronized (itsTailingInputs)
+		{
+			theThread = itsOnlineThread;
+		}
+		if (theThread != null) theThread.join();
+		
+		Throwable theFailure = itsFailure;
+		if (theFailure != null) throw new RuntimeException("Indexing failed", theFailure);
+	}
+	
+	/**
+	 * Returns the watermark of the index: all the blocks (of all threads) whose id
+	 * (ie. start timestamp) is lower than the watermark are completely indexed, and 
+	 * queries about them are consistent. 
+	 * Blocks past the watermark are not available yet.
+	 * The watermark only changes during online indexing (see {@link #startOnline(long)}),
+	 * and is {@link Long#MAX_VALUE} once the whole trace is indexed. If online indexing
+	 * fails, it stays at the last checkpoint (see {@link #waitIndexed()}).
+	 */
+	public long getWatermark()
+	{
+		return itsWatermark;
+	}
+	
+	/**
+	 * Waits until the manifest of the raw trace exists, or until the format of 
+	 * the events file can be determined (see {@link CompressedTraceInput#open(File, long)}).
+	 * @return False if online indexing was stopped before.
+	 */
+	private boolean awaitTrace()
+	{
+		File theManifestFile = TraceManifest.getFile(itsEventsFile.getParentFile());
+		try
+		{
+			while(! theManifestFile.exists() && itsEventsFile.length() < CompressedTraceInput.HEADER_SIZE)
+			{
+				synchronized (itsTailingInputs)
+				{
+					if (itsStopRequested) break;
+				}
+				Thread.sleep(100);
+			}
 		}
-		catch (FileNotFoundException e)
+		catch (InterruptedException e)
 		{
 			throw new RuntimeException(e);
 		}
 		
+		if (theManifestFile.exists() || itsEventsFile.length() > 0) return true;
+		
+		itsWatermark = Long.MAX_VALUE;
+		return false;
+	}
+	
+	private ReplayerLoader createFirstPassLoader()
+	{
+		return new ReplayerLoader(
+				DBSideIOThread.class.getClassLoader(), 
+				itsConfig, 
+				itsDatabase, 
+				true);
+	}
+	
+	/**
+	 * Creates one IO thread per shard. 
+	 * @param aIdleTimeout If non-negative, the trace is followed while it is being
+	 * written (see {@link TailingTraceInput}).
+	 */
+	private DBSideIOThread[] createIOThreads(ReplayerLoader aLoader, long aIdleTimeout)
+	{
+		int theShardCount = DebuggerGridConfigNG.DB_INDEX_SHARDS;
+		DBSideIOThread[] theIOThreads = new DBSideIOThread[theShardCount];
 		try
 		{
-			theIOThread.run();
+			long theStartOffset = getTraceStart();
+			for(int i=0;i<theShardCount;i++)
+			{
+				RawTraceInput theInput = openTrace(theStartOffset);
+				if (aIdleTimeout >= 0)
+				{
+					TailingTraceInput theTailingInput = new TailingTraceInput(theInput, aIdleTimeout);
+					synchronized (itsTailingInputs)
+					{
+						itsTailingInputs.add(theTailingInput);
+						if (itsStopRequested) theTailingInput.finish();
+					}
+					theInput = theTailingInput;
+				}
+				
+				theIOThreads[i] = new DBSideIOThread(itsConfig, itsDatabase, theInput, null, aLoader)
+				{
+					@Override
+					protected EventCollector createCollector(int aThreadId)
+					{
+						return Indexer.this.createCollector(aThreadId);
+					}
+				};
+				theIOThreads[i].setStartOffset(theStartOffset);
+				theIOThreads[i].setThreadIndex(itsThreadIndex);
+				theIOThreads[i].setShard(i, theShardCount);
+			}
 		}
-		catch(Exception e)
+		catch (IOException e)
 		{
-			e.printStackTrace();
+			throw new RuntimeException(e);
+		}
+		return theIOThreads;
+	}
+	
+	private void runShards(DBSideIOThread[] aIOThreads)
+	{
+		int theShardCount = aIOThreads.length;
+		if (theShardCount == 1) runShard(aIOThreads[0]);
+		else
+		{
+			Utils.println("Indexing with %d shards", theShardCount);
+			Thread[] theThreads = new Thread[theShardCount];
+			for(int i=0;i<theShardCount;i++)
+			{
+				final DBSideIOThread theIOThread = aIOThreads[i];
+				theThreads[i] = new Thread("Indexer shard "+i)
+				{
+					@Override
+					public void run()
+					{
+						runShard(theIOThread);
+					}
+				};
+				theThreads[i].start();
+			}
+			
+			try
+			{
+				for (Thread theThread : theThreads) theThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Called once all the shards are finished. If a shard failed, the thread index 
+	 * is not saved, as it would be taken for the index of the whole trace, and the 
+	 * failure is rethrown.
+	 */
+	private void finishIndexing(DBSideIOThread[] aIOThreads, ReplayerLoader aLoader, long t0)
+	{
+		Throwable theFailure = itsFailure;
+		try
+		{
+			if (aIOThreads.length > 1) itsDatabase.save();
+			
+			// Only the first shard fills the thread index
+			itsThreadIndex = aIOThreads[0].getThreadIndex();
+			if (theFailure == null) itsThreadIndex.save(itsEventsFile, getTraceSize());
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
 		}
+		
+		synchronized (itsCheckpointMonitor)
+		{
+			flush();
 			
-		flush();
+			// Events past the failure were not indexed
+			if (theFailure == null) 
+			{
+				itsWatermark = Long.MAX_VALUE;
+				dropStaleThreads();
+			}
+		}
+		
+		if (theFailure != null) throw new RuntimeException("Indexing failed, the thread index was not saved", theFailure);
+		
 		long t1 = System.currentTimeMillis();
 		Utils.println("Indexing took %d ms", t1-t0);
+		if (itsStringIndex.getMissingOriginals() > 0)
+		{
+			Utils.println("String aliases without original: %d", itsStringIndex.getMissingOriginals());
+		}
+		aLoader.printStats();
 		Stats.print();
+		
+		generateReplayersAhead(aLoader);
+	}
+	
+	/**
+	 * Advances the watermark during online indexing: the new watermark is the 
+	 * earliest start of the current block of all threads, as earlier blocks
+	 * are closed. Their field writes are made visible before the watermark
+	 * is published.
+	 * Note that a thread that stays idle holds back the watermark.
+	 */
+	private void checkpoint()
+	{
+		synchronized (itsCheckpointMonitor)
+		{
+			if (itsWatermark == Long.MAX_VALUE || itsFailure != null) return;
+			
+			long theWatermark = Long.MAX_VALUE;
+			synchronized (this)
+			{
+				for (Collector theCollector : itsCollectors) 
+				{
+					if (theCollector == null || theCollector.itsThreadId <= 0) continue;
+					theWatermark = Math.min(theWatermark, theCollector.itsCompleteBefore);
+				}
+			}
+			
+			dropStaleThreads();
+			
+			// No thread, or all threads finished but more might come
+			if (theWatermark == Long.MAX_VALUE || theWatermark <= itsWatermark) return;
+			
+			itsFieldWritePipeline.sync(theWatermark);
+			itsWatermark = theWatermark;
+		}
+	}
+	
+	/**
+	 * Drops the per-thread indexes of the finished threads whose blocks all start
+	 * in segments of the raw trace that were dropped (see {@link TraceManifest#applyRetention(long, long)}):
+	 * these blocks cannot be replayed anymore. 
+	 * Note that the pages of the dropped indexes are not reused, as {@link PagedFile}
+	 * cannot deallocate pages.
+	 */
+	private void dropStaleThreads()
+	{
+		long theStartOffset;
+		try
+		{
+			theStartOffset = getTraceStart();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		if (theStartOffset == 0) return;
+		
+		synchronized (this)
+		{
+			for(int i=0;i<itsCollectors.size();i++)
+			{
+				Collector theCollector = itsCollectors.get(i);
+				if (theCollector == null || theCollector.itsThreadId <= 0) continue;
+				
+				// The replay of the thread is not finished, it might have more blocks
+				if (theCollector.itsCompleteBefore != Long.MAX_VALUE) continue;
+				
+				if (theCollector.itsLastSnapshotOffset >= theStartOffset) continue;
+				
+				Utils.println("Dropping the index of thread %d (trace dropped)", i);
+				itsCollectors.set(i, null);
+			}
+		}
+	}
+	
+	private void runShard(DBSideIOThread aIOThread)
+	{
+		try
+		{
+			aIOThread.run();
+		}
+		catch(Throwable e)
+		{
+			setFailure(e);
+		}
+	}
+	
+	private synchronized void setFailure(Throwable aFailure)
+	{
+		if (itsFailure == null) itsFailure = aFailure;
+	}
+	
+	/**
+	 * Returns the real id corresponding to the given id if it is a temporary id
+	 * whose association is known, otherwise returns the given id.
+	 */
+	public long getRealId(long aId)
+	{
+		if (! TmpIdManager.isTmpId(aId)) return aId;
+		Collector theCollector = Utils.listGet(itsCollectors, TmpIdManager.getThreadId(aId));
+		if (theCollector == null || theCollector.itsTmpIdIndex == null) return aId;
+		long theRealId = theCollector.itsTmpIdIndex.getRealId(aId);
+		return theRealId != 0 ? theRealId : aId;
 	}
 	
 	private void replaySnapshot(LocalsSnapshot aSnapshot, EventList aEventList) throws IOException
 	{
-		FileInputStream fis = new FileInputStream(itsEventsFile);
-		long theBytesToSkip = aSnapshot.getPacketStartOffset();
-		while(theBytesToSkip > 0) theBytesToSkip -= fis.skip(theBytesToSkip);
+		RawTraceInput theInput = openTrace(aSnapshot.getPacketStartOffset());
 		
-		final ReifyEventCollector theCollector = new ReifyEventCollector(aEventList);
+		final ReifyEventCollector theCollector = new ResolvingCollector(aEventList);
 		final boolean[] theCollectorCreated = {false};
 		
-		DBSideIOThread theIOThread = new DBSideIOThread(itsConfig, itsDatabase, fis, aSnapshot, itsPartialReplayerLoader)
+		DBSideIOThread theIOThread = new DBSideIOThread(itsConfig, itsDatabase, theInput, aSnapshot, itsPartialReplayerLoader)
 		{
 			@Override
 			protected EventCollector createCollector(int aThreadId)
@@ -150,12 +605,18 @@ public class Indexer
 		};
 		
 		theIOThread.setInitialSkip(aSnapshot.getPacketOffset());
+		theIOThread.setThreadIndex(itsThreadIndex);
 		theIOThread.run();
 	}
 	
 	public Block getBlock(int aThreadId, long aBlockId)
 	{
-		return itsBlocksBuffer.get(new BlockKey(aThreadId, aBlockId));
+		if (aBlockId >= itsWatermark) 
+		{
+			if (itsFailure != null) throw new IllegalStateException("Block not indexed, indexing failed: "+aBlockId, itsFailure);
+			throw new IllegalArgumentException("Block not indexed yet: "+aBlockId+" (watermark: "+itsWatermark+")");
+		}
+		return new Block(itsBlockCache.get(aThreadId, aBlockId));
 	}
 	
 	private static void timedGc()
@@ -166,7 +627,12 @@ public class Indexer
 		Utils.println("GC: %dms", t1-t0);
 	}
 	
-	private EventList partialReplay(int aThreadId, long aBlockId)
+	public BlockCache getBlockCache()
+	{
+		return itsBlockCache;
+	}
+	
+	private synchronized ReplayerLoader getPartialReplayerLoader()
 	{
 		if (itsPartialReplayerLoader == null)
 		{
@@ -175,10 +641,40 @@ public class Indexer
 					itsConfig, 
 					itsDatabase, false);
 		}
+		return itsPartialReplayerLoader;
+	}
+	
+	/**
+	 * Generates the partial replayers of the behaviors and snapshot probes
+	 * that were seen during indexing.
+	 */
+	private void generateReplayersAhead(ReplayerLoader aFirstPassLoader)
+	{
+		TIntHashSet theProbeIds = new TIntHashSet();
+		for (Collector theCollector : itsCollectors) 
+		{
+			if (theCollector != null) theProbeIds.addAll(theCollector.itsSnapshotProbeIds.toArray());
+		}
+		
+		getPartialReplayerLoader().generateAhead(
+				aFirstPassLoader.getRequestedBehaviorIds(), 
+				theProbeIds.toArray());
+	}
+	
+	private SnapshotIndex getSnapshotIndex(int aThreadId)
+	{
+		Collector theCollector = Utils.listGet(itsCollectors, aThreadId);
+		return theCollector != null ? theCollector.itsSnapshotIndex : null;
+	}
+	
+	private EventList partialReplay(int aThreadId, long aBlockId)
+	{
+		getPartialReplayerLoader();
 		
 		Utils.println("Replaying: %s %s", aThreadId, aBlockId);
 		long t0 = System.currentTimeMillis();
 		Collector theCollector = Utils.listGet(itsCollectors, aThreadId);
+		if (theCollector == null) throw new IllegalArgumentException("Thread not indexed, or its trace was dropped: "+aThreadId);
 		SnapshotIndex theIndex = theCollector.itsSnapshotIndex;
 		LocalsSnapshot theSnapshot = theIndex.getSnapshot(aBlockId++);
 		EventList theEventList = new EventList(aThreadId, aBlockId);
@@ -199,99 +695,19 @@ public class Indexer
 		}
 	}
 	
-	private final class Block
+	private static final class Block
 	{
-		private final BlockKey itsKey;
 		private final EventList itsEvents;
 		
-		public Block(BlockKey aKey, EventList aEvents)
+		public Block(EventList aEvents)
 		{
-			itsKey = aKey;
 			itsEvents = aEvents;
 		}
 		
-		public BlockKey getKey()
-		{
-			return itsKey;
-		}
-		
 		public EventList getEvents()
 		{
 			return itsEvents;
 		}
-		
-	}
-	
-	private final class BlockKey
-	{
-		private final int itsThreadId;
-		private final long itsBlockId;
-		
-		public BlockKey(int aThreadId, long aBlockId)
-		{
-			itsThreadId = aThreadId;
-			itsBlockId = aBlockId;
-		}
-		
-		public int getThreadId()
-		{
-			return itsThreadId;
-		}
-		
-		public long getBlockId()
-		{
-			return itsBlockId;
-		}
-		
-		@Override
-		public int hashCode()
-		{
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + getOuterType().hashCode();
-			result = prime * result + (int) (itsBlockId ^ (itsBlockId >>> 32));
-			result = prime * result + itsThreadId;
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj)
-		{
-			if (this == obj) return true;
-			if (obj == null) return false;
-			if (getClass() != obj.getClass()) return false;
-			BlockKey other = (BlockKey) obj;
-			if (!getOuterType().equals(other.getOuterType())) return false;
-			if (itsBlockId != other.itsBlockId) return false;
-			if (itsThreadId != other.itsThreadId) return false;
-			return true;
-		}
-
-		private Indexer getOuterType()
-		{
-			return Indexer.this;
-		}
-	}
-	
-	private class BlocksBuffer extends MRUBuffer<BlockKey, Block>
-	{
-		public BlocksBuffer()
-		{
-			super(8);
-		}
-
-		@Override
-		protected BlockKey getKey(Block aValue)
-		{
-			return aValue.getKey();
-		}
-
-		@Override
-		protected Block fetch(BlockKey aKey)
-		{
-			EventList theEvents = partialReplay(aKey.getThreadId(), aKey.getBlockId());
-			return new Block(aKey, theEvents);
-		}
 	}
 	
 	public static class EventRef
@@ -309,15 +725,28 @@ public class Indexer
 	}
 	
 	public static long fieldToSlotId(ObjectId aTarget, int aFieldSlotIndex)
+	{
+		return fieldToSlotId(EventCollector.getId(aTarget), aFieldSlotIndex);
+	}
+	
+	/**
+	 * Same as {@link #fieldToSlotId(ObjectId, int)}, with 0 meaning a null target (static field).
+	 */
+	public static long fieldToSlotId(long aTargetId, int aFieldSlotIndex)
 	{
 		// Must keep the id odd because of temp ids.
-		return aTarget != null ? aTarget.getId() + 2*aFieldSlotIndex : 1; 
+		return aTargetId != 0 ? aTargetId + 2*aFieldSlotIndex : 1; 
 	}
 	
 	public static long arrayToSlotId(ObjectId aTarget, int aIndex)
+	{
+		return arrayToSlotId(aTarget.getId(), aIndex);
+	}
+	
+	public static long arrayToSlotId(long aTargetId, int aIndex)
 	{
 		// Must keep the id odd because of temp ids.
-		return aTarget.getId() + 2*aIndex; 
+		return aTargetId + 2*aIndex; 
 	}
 	
 	public static long localToSlotId(int aThreadId, int aDepth, int aSlot)
@@ -332,6 +761,50 @@ public class Indexer
 			+ (aSlot & 0xff);
 	}
 	
+	/**
+	 * A {@link ReifyEventCollector} that replaces temporary ids by real ids
+	 * when the association is known, so that the events of partial replays
+	 * refer to the same objects as queries.
+	 * @author gpothier
+	 */
+	private class ResolvingCollector extends ReifyEventCollector
+	{
+		public ResolvingCollector(EventList aEventList)
+		{
+			super(aEventList);
+		}
+
+		@Override
+		public void fieldRead(long aTargetId, int aFieldSlotIndex)
+		{
+			super.fieldRead(getRealId(aTargetId), aFieldSlotIndex);
+		}
+
+		@Override
+		public void fieldWrite(long aTargetId, int aFieldSlotIndex)
+		{
+			super.fieldWrite(getRealId(aTargetId), aFieldSlotIndex);
+		}
+
+		@Override
+		public void arrayRead(long aTargetId, int aIndex)
+		{
+			super.arrayRead(getRealId(aTargetId), aIndex);
+		}
+
+		@Override
+		public void arrayWrite(long aTargetId, int aIndex)
+		{
+			super.arrayWrite(getRealId(aTargetId), aIndex);
+		}
+
+		@Override
+		public void refValue(long aValueId)
+		{
+			super.refValue(getRealId(aValueId));
+		}
+	}
+	
 	private static final boolean NO_INDEXING = false;
 	
 	/**
@@ -346,12 +819,33 @@ public class Indexer
 		private long itsLastSync;
 		private int itsSnapshotSeq = 0;
 		private final SnapshotIndex itsSnapshotIndex;
+		private final TmpIdIndex itsTmpIdIndex;
 		private int itsCurrentDepth = 0;
 		
 		private long itsLastSnapshotTimestamp;
+		
+		/**
+		 * The blocks of this thread that start before this timestamp are complete,
+		 * see {@link Indexer#checkpoint()}.
+		 */
+		private volatile long itsCompleteBefore = 0;
+		
+		/**
+		 * The offset of the packet of the last snapshot of this thread, or -1. 
+		 * See {@link Indexer#dropStaleThreads()}.
+		 */
+		private volatile long itsLastSnapshotOffset = -1;
+		
 		private long itsTotalSnapshotDeltas;
 		private int itsSnapshotsCount;
 		
+		private final BlockStats itsBlockStats = new BlockStats();
+		
+		/**
+		 * Snapshot probes seen by this collector, see {@link Indexer#generateReplayersAhead(ReplayerLoader)}.
+		 */
+		private final TIntHashSet itsSnapshotProbeIds = new TIntHashSet();
+		
 		public Collector(int aThreadId)
 		{
 			itsThreadId = aThreadId;
@@ -360,6 +854,7 @@ public class Indexer
 				itsFieldsIndex = null;
 				itsCFlowIndex = null;
 				itsSnapshotIndex = null;
+				itsTmpIdIndex = null;
 			}
 			else
 			{
@@ -368,28 +863,30 @@ public class Indexer
 					itsFieldsIndex = itsFieldWritePipeline.getIndex(itsThreadId);
 					itsCFlowIndex = new CFlowIndex(createPidSlot());
 					itsSnapshotIndex = new SnapshotIndex("snapshots", createPidSlot());
+					itsTmpIdIndex = new TmpIdIndex("tmpIds", createPidSlot());
 				}
 				else
 				{
 					itsFieldsIndex = null;
 					itsCFlowIndex = null;
 					itsSnapshotIndex = null;
+					itsTmpIdIndex = null;
 				}
 			}
 		}
 
 		@Override
-		public void fieldWrite(ObjectId aTarget, int aFieldSlotIndex)
+		public void fieldWrite(long aTargetId, int aFieldSlotIndex)
 		{
 			if (NO_INDEXING) return;
-			itsFieldsIndex.registerAccess(fieldToSlotId(aTarget, aFieldSlotIndex));
+			itsFieldsIndex.registerAccess(fieldToSlotId(aTargetId, aFieldSlotIndex));
 		}
 		
 		@Override
-		public void arrayWrite(ObjectId aTarget, int aIndex)
+		public void arrayWrite(long aTargetId, int aIndex)
 		{
 			if (NO_INDEXING) return;
-			itsFieldsIndex.registerAccess(arrayToSlotId(aTarget, aIndex));
+			itsFieldsIndex.registerAccess(arrayToSlotId(aTargetId, aIndex));
 		}
 		
 		@Override
@@ -424,14 +921,23 @@ public class Indexer
 
 				itsCFlowIndex.snapshot(itsLastSync);
 				itsFieldsIndex.startBlock(itsLastSync);
+				itsCompleteBefore = itsLastSync;
 			}
 			itsSnapshotIndex.addSnapshot(itsLastSync+itsSnapshotSeq, aSnapshot);
+			itsLastSnapshotOffset = aSnapshot.getPacketStartOffset();
+			if (aSnapshot.getProbeId() > 0) itsSnapshotProbeIds.add(aSnapshot.getProbeId());
 			// There can be several snapshots for the same block 
 			// (because of mandatory snapshots after method calls).
 			// So we must differentiate them.
 			itsSnapshotSeq++; 
 		}
 		
+		@Override
+		public void blockFinished(int aMessageCount, long aReplayTime)
+		{
+			itsBlockStats.add(aMessageCount, aReplayTime);
+		}
+		
 		@Override
 		public void enter(int aBehaviorId, int aArgsCount)
 		{
@@ -464,6 +970,28 @@ public class Indexer
 			Indexer.this.registerString(aId, aString);
 		}
 		
+		@Override
+		public void registerStringAlias(long aId, long aContentId)
+		{
+			if (NO_INDEXING) return;
+			Indexer.this.registerStringAlias(aId, aContentId);
+		}
+		
+		@Override
+		public void associateIds(long aTmpId, long aRealId)
+		{
+			if (NO_INDEXING) return;
+			itsTmpIdIndex.associate(aTmpId, aRealId);
+		}
+		
+		@Override
+		public void replayFinished()
+		{
+			if (NO_INDEXING) return;
+			if (itsFieldsIndex != null) itsFieldsIndex.flush();
+			itsCompleteBefore = Long.MAX_VALUE;
+		}
+		
 		/**
 		 * Waits until all the processes associated with this collector are finished.
 		 */
@@ -472,6 +1000,37 @@ public class Indexer
 			if (NO_INDEXING) return;
 			if (itsCFlowIndex != null) itsCFlowIndex.flush();
 			Utils.println("Avg. snapshot delta: %.02fms", 0.000001f*itsTotalSnapshotDeltas/itsSnapshotsCount);
+			itsBlockStats.print("Thread "+itsThreadId);
+		}
+	}
+	
+	/**
+	 * Periodically advances the watermark during online indexing.
+	 * @author gpothier
+	 */
+	private class Checkpointer extends Thread
+	{
+		public Checkpointer()
+		{
+			super("Online indexing checkpoints");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(itsWatermark != Long.MAX_VALUE && itsFailure == null)
+				{
+					Thread.sleep(DebuggerGridConfigNG.DB_ONLINE_CHECKPOINT_INTERVAL);
+					checkpoint();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
 		}
 	}
 	
@@ -483,6 +1042,15 @@ public class Indexer
 		private int itsMaxResults;
 		private int itsOperations;
 		
+		/**
+		 * Time of each operation, in ns.
+		 */
+		private TLongArrayList itsTimes = new TLongArrayList();
+		
+		/**
+		 * Records an operation
+		 * @param aTime Duration of the operation, in ns.
+		 */
 		public void operation(long aTime, int aResults)
 		{
 			assert aTime >= 0;
@@ -492,17 +1060,39 @@ public class Indexer
 			if (aTime > itsMaxTime) itsMaxTime = aTime;
 			if (aResults > itsMaxResults) itsMaxResults = aResults;
 			itsOperations++;
+			itsTimes.add(aTime);
+		}
+		
+		/**
+		 * Returns the given percentile of operation times, in ms.
+		 */
+		private float percentile(long[] aSortedTimes, double aPercentile)
+		{
+			if (aSortedTimes.length == 0) return 0;
+			int theIndex = (int) Math.ceil(aPercentile * aSortedTimes.length / 100) - 1;
+			return 0.000001f * aSortedTimes[Math.max(theIndex, 0)];
 		}
 		
 		public void print()
 		{
 			Utils.println(
-					"Avg time: %fms, Avg results: %.02f, max time: %d, max skip: %d, operations: %d", 
-					1f*itsTotalTime/itsOperations, 
+					"Avg time: %fms, Avg results: %.02f, max time: %fms, max skip: %d, operations: %d", 
+					0.000001f*itsTotalTime/itsOperations, 
 					1f*itsTotalResults/itsOperations,
-					itsMaxTime,
+					0.000001f*itsMaxTime,
 					itsMaxResults,
 					itsOperations);
+			
+			long[] theTimes = itsTimes.toNativeArray();
+			Arrays.sort(theTimes);
+			Utils.println(
+					"Latency: p50: %.02fms, p90: %.02fms, p99: %.02fms, p99.9: %.02fms (parallel: %s, %d threads)",
+					percentile(theTimes, 50),
+					percentile(theTimes, 90),
+					percentile(theTimes, 99),
+					percentile(theTimes, 99.9),
+					DebuggerGridConfigNG.DB_PARALLEL_INSPECTION,
+					DebuggerGridConfigNG.DB_THREADS);
 		}
 	}
 
@@ -704,9 +1294,9 @@ public class Indexer
 				{
 					try
 					{
-						long t0 = System.currentTimeMillis();
+						long t0 = System.nanoTime();
 						EventRef[] theEventRefs = inspect(theFieldData.objectId, theFieldData.slotIndex, theEvent);
-						long t1 = System.currentTimeMillis();
+						long t1 = System.nanoTime();
 						itsInspectionBenchData.operation(t1-t0, theEventRefs.length);
 						theSuccessCount++;
 					}
@@ -738,57 +1328,164 @@ public class Indexer
 		}
 
 		itsInspectionBenchData.print();
+		itsBlockCache.printStats();
 	}
 	
+	/**
+	 * Finds the last writes to the given field before the reference event.
+	 * The candidate blocks of each thread are replayed and scanned in parallel
+	 * by the {@link DBExecutor} (see {@link DebuggerGridConfigNG#DB_PARALLEL_INSPECTION}).
+	 */
 	private EventRef[] inspect(ObjectId aObjectId, int aFieldId, EventRef aReferenceEventRef)
 	{
-		List<EventRef> theResult = new ArrayList<Indexer.EventRef>();
 		ThreadIds theThreadIds = itsFieldWritePipeline.inspect(fieldToSlotId(aObjectId, aFieldId), aReferenceEventRef);
 		
+		List<BlockScan> theScans = new ArrayList<BlockScan>();
 		for(int theThreadId : theThreadIds.sameBlockThreadIds)
 		{
-			Block theBlock = getBlock(theThreadId, aReferenceEventRef.blockId);
-			EventList theEvents = theBlock.getEvents();
-			EventRef theLastCandidate = null;
+			int theLimit = theThreadId == aReferenceEventRef.threadId ? 
+					aReferenceEventRef.positionInBlock 
+					: Integer.MAX_VALUE;
 			
-			for(int i=0;i<theEvents.size();i++)
+			theScans.add(new BlockScan(theThreadId, aReferenceEventRef.blockId, theLimit, aObjectId, aFieldId));
+		}
+		
+		int theSameBlockScans = theScans.size();
+
+		if (theThreadIds.prevBlockThreadIds != null) for(int theThreadId : theThreadIds.prevBlockThreadIds)
+		{
+			theScans.add(new BlockScan(theThreadId, theThreadIds.prevBlockId, Integer.MAX_VALUE, aObjectId, aFieldId));
+		}
+		
+		runScans(theScans);
+		
+		List<EventRef> theResult = new ArrayList<Indexer.EventRef>();
+		for(int i=0;i<theScans.size();i++)
+		{
+			BlockScan theScan = theScans.get(i);
+			EventRef theLastCandidate = theScan.getResult();
+			if (i < theSameBlockScans)
 			{
-				if (theEvents.getEventType(i) == EventList.FieldWriteEvent.TYPE)
-				{
-					FieldWriteEvent theEvent = (FieldWriteEvent) theEvents.getEvent(i);
-					if (ObjectId.equals(aObjectId, theEvent.getObjectId()) && aFieldId == theEvent.getFieldId())
-						theLastCandidate = new EventRef(theThreadId, aReferenceEventRef.blockId, i);
-				}
-				if (theThreadId == aReferenceEventRef.threadId && i >= aReferenceEventRef.positionInBlock) break;
+				assert theScan.itsThreadId == aReferenceEventRef.threadId || theLastCandidate != null;
+				if (theLastCandidate != null) theResult.add(theLastCandidate);
+			}
+			else
+			{
+				assert theLastCandidate != null;
+				theResult.add(theLastCandidate);
+			}
+		}
+		
+		return theResult.toArray(new EventRef[theResult.size()]);
+	}
+	
+	/**
+	 * Runs the given scans, in parallel if possible, and waits for them to complete.
+	 */
+	private void runScans(List<BlockScan> aScans)
+	{
+		if (aScans.size() <= 1 
+				|| DebuggerGridConfigNG.DB_THREADS <= 1 
+				|| ! DebuggerGridConfigNG.DB_PARALLEL_INSPECTION)
+		{
+			for (BlockScan theScan : aScans) theScan.run();
+		}
+		else
+		{
+			CountDownLatch theLatch = new CountDownLatch(aScans.size());
+			for (BlockScan theScan : aScans) 
+			{
+				theScan.itsLatch = theLatch;
+				DBExecutor.getInstance().submit(theScan);
 			}
 			
-			assert theThreadId == aReferenceEventRef.threadId || theLastCandidate != null;
-			
-			if (theLastCandidate != null) theResult.add(theLastCandidate);
+			try
+			{
+				theLatch.await();
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Replays a block and looks for the last write to a given field.
+	 * Tasks of a given thread are always executed by the same worker.
+	 * @author gpothier
+	 */
+	private class BlockScan extends DBTask
+	{
+		private final int itsThreadId;
+		private final long itsBlockId;
+		
+		/**
+		 * Position of the last event to scan. 
+		 */
+		private final int itsLimit;
+		
+		private final ObjectId itsObjectId;
+		private final int itsFieldId;
+		
+		private CountDownLatch itsLatch;
+		private EventRef itsResult;
+		private Throwable itsError;
+		
+		public BlockScan(int aThreadId, long aBlockId, int aLimit, ObjectId aObjectId, int aFieldId)
+		{
+			itsThreadId = aThreadId;
+			itsBlockId = aBlockId;
+			itsLimit = aLimit;
+			itsObjectId = aObjectId;
+			itsFieldId = aFieldId;
 		}
 
-		if (theThreadIds.prevBlockThreadIds != null) for(int theThreadId : theThreadIds.prevBlockThreadIds)
+		@Override
+		public int getGroup()
 		{
-			Block theBlock = getBlock(theThreadId, theThreadIds.prevBlockId);
-			EventList theEvents = theBlock.getEvents();
-			EventRef theLastCandidate = null;
-			
-			for(int i=0;i<theEvents.size();i++)
+			return itsThreadId;
+		}
+
+		@Override
+		public void run()
+		{
+			try
 			{
-				if (theEvents.getEventType(i) == EventList.FieldWriteEvent.TYPE)
+				Block theBlock = getBlock(itsThreadId, itsBlockId);
+				EventList theEvents = theBlock.getEvents();
+				
+				for(int i=0;i<theEvents.size();i++)
 				{
-					FieldWriteEvent theEvent = (FieldWriteEvent) theEvents.getEvent(i);
-					if (ObjectId.equals(aObjectId, theEvent.getObjectId()) && aFieldId == theEvent.getFieldId())
-						theLastCandidate = new EventRef(theThreadId, theThreadIds.prevBlockId, i);
+					if (theEvents.getEventType(i) == EventList.FieldWriteEvent.TYPE)
+					{
+						FieldWriteEvent theEvent = (FieldWriteEvent) theEvents.getEvent(i);
+						if (ObjectId.equals(itsObjectId, theEvent.getObjectId()) && itsFieldId == theEvent.getFieldId())
+							itsResult = new EventRef(itsThreadId, itsBlockId, i);
+					}
+					if (i >= itsLimit) break;
 				}
 			}
-			
-			assert theLastCandidate != null;
-			
-			theResult.add(theLastCandidate);
+			catch (Throwable e)
+			{
+				itsError = e;
+			}
+			finally
+			{
+				if (itsLatch != null) itsLatch.countDown();
+			}
 		}
 		
-		return theResult.toArray(new EventRef[theResult.size()]);
+		/**
+		 * Returns the last matching write, rethrowing the error of the scan if any.
+		 */
+		public EventRef getResult()
+		{
+			if (itsError instanceof RuntimeException) throw (RuntimeException) itsError;
+			if (itsError instanceof Error) throw (Error) itsError;
+			if (itsError != null) throw new RuntimeException(itsError);
+			return itsResult;
+		}
 	}
 	
 	private StepBenchData itsStepBenchData;
@@ -895,12 +1592,7 @@ public class Indexer
 		Block theBlock = getBlock(aEventRef.threadId, aEventRef.blockId);
 		EventList theEvents = theBlock.getEvents();
 		
-		for(int i=0;i<aEventRef.positionInBlock;i++)
-		{
-			if (theEvents.isCFlowEvent(i)) thePosition++;
-		}
-		
-		return thePosition;
+		return thePosition + theEvents.getCFlowRank(aEventRef.positionInBlock);
 	}
 	
 	private EventRef cflow_positionToEvent(int aThreadId, long aPosition)
@@ -915,12 +1607,9 @@ public class Indexer
 		Block theBlock = getBlock(aThreadId, theBlockId);
 		EventList theEvents = theBlock.getEvents();
 		
-		int thePositionInBlock = 0;
-		while (theStartPosition < aPosition)
-		{
-			if (theEvents.isCFlowEvent(thePositionInBlock)) theStartPosition++;
-			thePositionInBlock++;
-		}
+		// The event that follows the cflow event of rank (aPosition - theStartPosition - 1)
+		int theRank = (int) (aPosition - theStartPosition);
+		int thePositionInBlock = theRank > 0 ? theEvents.getCFlowEventPosition(theRank-1)+1 : 0;
 
 		return new EventRef(aThreadId, theBlockId, thePositionInBlock);
 	}
@@ -952,7 +1641,14 @@ public class Indexer
 			PagedFile theIndexFile = MappedPagedFile.create(new File(theConfig.get(TODConfig.DB_RAW_EVENTS_DIR)+"/index.tod"), true);
 			final Indexer theIndexer = new Indexer(theConfig, theDatabase, theEventsFile, theIndexFile);
 
-			theIndexer.indexTrace();
+			if (args.length > 0 && "-online".equals(args[0]))
+			{
+				// Index until the trace stops growing for 10s
+				theIndexer.startOnline(10000);
+				theIndexer.waitIndexed();
+			}
+			else theIndexer.indexTrace();
+			
 			theIndexer.benchStepping();
 			theIndexer.benchInspection();
 		}
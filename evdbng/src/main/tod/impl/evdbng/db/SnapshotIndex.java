@@ -13,7 +13,7 @@ import tod.impl.evdbng.db.file.Page.PidSlot;
 import tod.impl.replay2.LocalsSnapshot;
 
 /**
- * An index that stores arbitrary-length strings identified by a long id.
+ * An index that stores the {@link LocalsSnapshot}s of a thread, identified by a long id.
  * @author gpothier
  */
 public class SnapshotIndex extends LongInsertableBTree
@@ -27,7 +27,7 @@ public class SnapshotIndex extends LongInsertableBTree
 		itsDataStream = new ChainedPageIOStream(Stats.ACC_SNAPSHOTS, getFile());
 	}
 
-	public void addSnapshot(long aId, LocalsSnapshot aSnapshot)
+	public synchronized void addSnapshot(long aId, LocalsSnapshot aSnapshot)
 	{
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		try
@@ -46,13 +46,56 @@ public class SnapshotIndex extends LongInsertableBTree
 		int thePid = theCurrentStream.getPage().getPageId();
 		int theOffset = theCurrentStream.getPos();
 		assert (theOffset & ~0xffff) == 0;
-		long theValue = (thePid << 16) | theOffset;
+		long theValue = ((long) thePid << 16) | theOffset;
 		add(aId, theValue);
 		itsDataStream.writeInt(theData.length, 0);
 		itsDataStream.writeBytes(theData, 0, theData.length);
 	}
 	
-	public LocalsSnapshot getSnapshot(long aId)
+	/**
+	 * Whether there is a snapshot with the given id. Does not read the snapshot.
+	 */
+	public synchronized boolean hasSnapshot(long aId)
+	{
+		return getTupleAt(aId, true) != null;
+	}
+	
+	/**
+	 * Returns the id of the first snapshot of the block that precedes the block
+	 * starting at the given id, or -1 if there is none.
+	 * The snapshots of a block have consecutive ids, starting at the id of the block.
+	 */
+	public synchronized long getPreviousBlockId(long aBlockId)
+	{
+		LongTuple theTuple = getTupleAt(aBlockId-1, false);
+		if (theTuple == null) return -1;
+		
+		long theId = theTuple.getKey();
+		while(getTupleAt(theId-1, true) != null) theId--;
+		return theId;
+	}
+	
+	/**
+	 * Returns the id of the block that follows the block starting at the given id,
+	 * or -1 if there is none.
+	 */
+	public synchronized long getNextBlockId(long aBlockId)
+	{
+		long theId = aBlockId;
+		while(true)
+		{
+			LongTuple theTuple = getTupleAfter(theId);
+			if (theTuple == null) return -1;
+			if (theTuple.getKey() != theId+1) return theTuple.getKey();
+			theId++;
+		}
+	}
+	
+	/**
+	 * Synchronized, as snapshots are looked up while they are being added during 
+	 * online indexing.
+	 */
+	public synchronized LocalsSnapshot getSnapshot(long aId)
 	{
 		LongTuple theTuple = getTupleAt(aId, true);
 		if (theTuple == null) return null;
@@ -4,15 +4,39 @@ import tod.impl.evdbng.db.file.LongInsertableBTree;
 import tod.impl.evdbng.db.file.Page.ChainedPageIOStream;
 import tod.impl.evdbng.db.file.Page.PageIOStream;
 import tod.impl.evdbng.db.file.Page.PidSlot;
+import zz.utils.Utils;
 
 /**
  * An index that stores arbitrary-length strings identified by a long id.
+ * The index maps each id to the location of the content of the string, so that
+ * strings with the same content can share a single copy: aliases sent by the agent
+ * (see {@link #addAlias(long, long)}) reuse the location of the original string,
+ * and recently stored contents are looked up in a bounded cache.
  * @author gpothier
  */
 public class StringIndex extends LongInsertableBTree
 {
+	private static final int CONTENT_CACHE_BITS = 12;
+	private static final int CONTENT_CACHE_MASK = (1 << CONTENT_CACHE_BITS)-1;
+
+	/**
+	 * Strings longer than this are not kept in the content cache.
+	 */
+	private static final int CONTENT_CACHE_MAX_LENGTH = 4096;
+
 	private ChainedPageIOStream itsDataStream;
-	
+
+	/**
+	 * Direct-mapped cache of recently stored contents, and their locations.
+	 */
+	private final String[] itsCachedContents = new String[CONTENT_CACHE_MASK+1];
+	private final long[] itsCachedLocations = new long[CONTENT_CACHE_MASK+1];
+
+	/**
+	 * Number of aliases whose original string was not found.
+	 */
+	private int itsMissingOriginals = 0;
+
 	public StringIndex(String aName, PidSlot aRootSlot)
 	{
 		super(aName, Stats.ACC_STRINGS, aRootSlot);
@@ -22,12 +46,61 @@ public class StringIndex extends LongInsertableBTree
 
 	public void addString(long aId, String aValue)
 	{
+		int theSlot = -1;
+		if (aValue.length() <= CONTENT_CACHE_MAX_LENGTH)
+		{
+			int h = aValue.hashCode();
+			theSlot = (h ^ (h >>> CONTENT_CACHE_BITS)) & CONTENT_CACHE_MASK;
+			String theCached = itsCachedContents[theSlot];
+			if (theCached != null && theCached.equals(aValue))
+			{
+				add(aId, itsCachedLocations[theSlot]);
+				return;
+			}
+		}
+
 		PageIOStream theCurrentStream = itsDataStream.getCurrentStream();
 		int thePid = theCurrentStream.getPage().getPageId();
 		int theOffset = theCurrentStream.getPos();
 		assert (theOffset & ~0xffff) == 0;
-		long theValue = (thePid << 16) | theOffset;
-		add(aId, theValue);
+		long theLocation = ((long) thePid << 16) | theOffset;
+		add(aId, theLocation);
 		itsDataStream.writeString(aValue);
+
+		if (theSlot >= 0)
+		{
+			itsCachedContents[theSlot] = aValue;
+			itsCachedLocations[theSlot] = theLocation;
+		}
+	}
+
+	/**
+	 * Registers a string whose content is the same as that of a previously
+	 * registered string.
+	 * @param aContentId Id of the previously registered string.
+	 */
+	public void addAlias(long aId, long aContentId)
+	{
+		LongTuple theTuple = getTupleAt(aContentId, true);
+
+		if (theTuple == null)
+		{
+			// The original string can be missing if the segment that contained it was dropped
+			// before the agent cleared its string cache.
+			if (itsMissingOriginals == 0) Utils.println("Original of string alias not found: %d -> %d", aId, aContentId);
+			itsMissingOriginals++;
+			return;
+		}
+
+		add(aId, theTuple.getData());
+	}
+
+	/**
+	 * Returns the number of aliases that were dropped because their original 
+	 * string was not found.
+	 */
+	public int getMissingOriginals()
+	{
+		return itsMissingOriginals;
 	}
 }
@@ -0,0 +1,38 @@
+/*
+ * Created on Oct 18, 2026
+ */
+package tod.impl.evdbng.db;
+
+import tod.impl.evdbng.db.file.LongInsertableBTree;
+import tod.impl.evdbng.db.file.Page.PidSlot;
+import tod.impl.replay2.TmpIdManager;
+
+/**
+ * An index that maps the temporary ids allocated by the replayer of a thread
+ * (see {@link TmpIdManager}) to the corresponding real object ids.
+ * @author gpothier
+ */
+public class TmpIdIndex extends LongInsertableBTree
+{
+	public TmpIdIndex(String aName, PidSlot aRootSlot)
+	{
+		super(aName, Stats.ACC_OBJECTS, aRootSlot);
+	}
+
+	public synchronized void associate(long aTmpId, long aRealId)
+	{
+		add(aTmpId, aRealId);
+	}
+	
+	/**
+	 * Returns the real id associated with the given temporary id, or 0 if
+	 * no association has been registered yet.
+	 * Synchronized, as ids are looked up while they are being added during 
+	 * online indexing.
+	 */
+	public synchronized long getRealId(long aTmpId)
+	{
+		LongTuple theTuple = getTupleAt(aTmpId, true);
+		return theTuple != null ? theTuple.getData() : 0;
+	}
+}
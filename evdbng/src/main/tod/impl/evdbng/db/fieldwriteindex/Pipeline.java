@@ -62,12 +62,27 @@ public class Pipeline
 	
 	private int itsSortedBlocksSize = 0;
 	
+	/**
+	 * Sort jobs are counted per epoch, so that {@link #sync(long)} can wait for 
+	 * the blocks posted before it started while new blocks keep coming.
+	 */
+	private final Object itsEpochMonitor = new Object();
+	private final Object itsSyncMonitor = new Object();
+	private int itsEpoch = 0;
+	private final int[] itsPendingSorts = new int[2];
+	
+	/**
+	 * Number of inversion jobs that are submitted but not finished.
+	 * Guarded by {@link #itsEpochMonitor}.
+	 */
+	private int itsPendingInverts = 0;
+	
 	public Pipeline(PidSlot aDirectoryPageSlot)
 	{
 		itsIndex = new OnDiskIndex(aDirectoryPageSlot);
 	}
 	
-	public PerThreadIndex getIndex(int aThreadId)
+	public synchronized PerThreadIndex getIndex(int aThreadId)
 	{
 		PerThreadIndex theIndex = Utils.listGet(itsPerThreadIndexes, aThreadId);
 		if (theIndex == null)
@@ -112,6 +127,62 @@ public class Pipeline
 		waitJobs();
 	}
 	
+	/**
+	 * Makes the blocks whose id is lower than the given id visible to queries, 
+	 * without waiting for the other blocks. Used by online indexing, while
+	 * blocks are still being posted. The current blocks of the per-thread indexes
+	 * are not posted.
+	 */
+	public void sync(long aBlockId)
+	{
+		// Not synchronized on this, as submitting jobs requires that lock.
+		// Only one sync at a time, as the epoch counters have two slots.
+		synchronized (itsSyncMonitor)
+		{
+			syncBefore(aBlockId);
+		}
+	}
+	
+	private void syncBefore(long aBlockId)
+	{
+		try
+		{
+			synchronized (itsEpochMonitor)
+			{
+				int theSlot = itsEpoch & 1;
+				itsEpoch++;
+				while(itsPendingSorts[theSlot] > 0 || itsPendingInverts > 0) itsEpochMonitor.wait();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+		
+		ArrayList<AbstractBlockData> thePicked = new ArrayList<AbstractBlockData>();
+		synchronized (itsSortedBlocksMonitor)
+		{
+			ArrayList<AbstractBlockData> theRemaining = new ArrayList<AbstractBlockData>(itsSortedBlocks.size());
+			for(int i=0;i<itsSortedBlocks.size();i++)
+			{
+				AbstractBlockData theData = itsSortedBlocks.get(i);
+				if (theData.getBlockId() < aBlockId) 
+				{
+					thePicked.add(theData);
+					itsSortedBlocksSize -= theData.getSize();
+				}
+				else theRemaining.add(theData);
+			}
+			itsSortedBlocks = theRemaining;
+		}
+		
+		if (! thePicked.isEmpty())
+		{
+			Collections.sort(thePicked);
+			new InvertBlocksTask(thePicked).run();
+		}
+	}
+	
 	private void submit(final Runnable aTask)
 	{
 		incSubmittedJobs();
@@ -134,7 +205,32 @@ public class Pipeline
 	
 	private void postBlockSort(RawBlockData aData)
 	{
-		submit(new SortBlockTask(aData));
+		final int theSlot;
+		synchronized (itsEpochMonitor)
+		{
+			theSlot = itsEpoch & 1;
+			itsPendingSorts[theSlot]++;
+		}
+		
+		final SortBlockTask theTask = new SortBlockTask(aData);
+		submit(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					theTask.run();
+				}
+				finally
+				{
+					synchronized (itsEpochMonitor)
+					{
+						itsPendingSorts[theSlot]--;
+						itsEpochMonitor.notifyAll();
+					}
+				}
+			}
+		});
 	}
 	
 	private void postCompactBlock(RawBlockData aData)
@@ -144,7 +240,30 @@ public class Pipeline
 	
 	private void postInvertBlocks(ArrayList<AbstractBlockData> aBlocks)
 	{
-		submit(new InvertBlocksTask(aBlocks));
+		synchronized (itsEpochMonitor)
+		{
+			itsPendingInverts++;
+		}
+		
+		final InvertBlocksTask theTask = new InvertBlocksTask(aBlocks);
+		submit(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					theTask.run();
+				}
+				finally
+				{
+					synchronized (itsEpochMonitor)
+					{
+						itsPendingInverts--;
+						itsEpochMonitor.notifyAll();
+					}
+				}
+			}
+		});
 	}
 	
 	private void addSortedBlock(AbstractBlockData aData)
@@ -194,8 +313,12 @@ public class Pipeline
 	
 	public ThreadIds inspect(long aSlotId, EventRef aReferenceEventRef)
 	{
-		ObjectAccessStore theStore = itsIndex.getStore(aSlotId, true);
-		return theStore.getThreadIds(aReferenceEventRef.blockId);
+		// Inversion tasks can write to the index concurrently (see sync)
+		synchronized(itsIndex)
+		{
+			ObjectAccessStore theStore = itsIndex.getStore(aSlotId, true);
+			return theStore.getThreadIds(aReferenceEventRef.blockId);
+		}
 	}
 	
 	/**
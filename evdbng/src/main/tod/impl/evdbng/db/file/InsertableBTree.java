@@ -255,6 +255,43 @@ public abstract class InsertableBTree<T extends Tuple>
 		return itsTupleBufferFactory.readTuple(aKey, theStream);
 	}
 	
+	/**
+	 * Returns the first tuple whose key is strictly greater than the given key,
+	 * or null if there is none.
+	 */
+	public T getTupleAfter(long aKey)
+	{
+		return getTupleAfter(getRootPage(), getRootLevel(), aKey);
+	}
+	
+	private T getTupleAfter(Page aPage, int aLevel, long aKey)
+	{
+		int theCount = getPageHeader_TupleCount(aPage);
+		if (aLevel == 0)
+		{
+			ensureSorted(aPage);
+			int theIndex = indexOf(aPage, 0, aKey);
+			theIndex = theIndex >= 0 ? theIndex+1 : -theIndex-1;
+			if (theIndex >= theCount) return null;
+			
+			PageIOStream theStream = aPage.asIOStream();
+			theStream.setPos(getPageHeaderSize() + theIndex*(8+itsTupleBufferFactory.getDataSize()) + 8);
+			return itsTupleBufferFactory.readTuple(getKeyAt(aPage, 0, theIndex), theStream);
+		}
+		
+		// The child that could contain the key might only hold smaller keys,
+		// in which case the result is the first tuple of the next child.
+		int theIndex = indexOf(aPage, aLevel, aKey);
+		if (theIndex < 0) theIndex = Math.max(-theIndex-2, 0);
+		for(int i=theIndex;i<theCount;i++)
+		{
+			Page theChild = getFile().get(getInternalPidAt(aPage, i));
+			T theTuple = getTupleAfter(theChild, aLevel-1, aKey);
+			if (theTuple != null) return theTuple;
+		}
+		return null;
+	}
+	
 	private String internalPageToString(Page aPage)
 	{
 		StringBuilder theBuilder = new StringBuilder();
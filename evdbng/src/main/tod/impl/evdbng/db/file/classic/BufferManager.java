@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import gnu.trove.TLongHashSet;
 import tod.impl.evdbng.DebuggerGridConfigNG;
 import tod.impl.evdbng.db.file.classic.ClassicPagedFile.FilePage;
 import zz.utils.Utils;
@@ -46,6 +47,7 @@ import zz.utils.primitive.FixedIntStack;
 
 /**
  * Manages the shared buffer of {@link ClassicPagedFile}s.
+ * The page replacement policy is selected by {@link DebuggerGridConfigNG#DB_PAGE_REPLACEMENT}.
  * @author gpothier
  */
 public class BufferManager
@@ -97,11 +99,18 @@ public class BufferManager
 		
 		itsAttachedPages = new FilePage[itsBufferCount];
 		
-		itsPageReplacementAlgorithm = new LRUAlgorithm(itsBufferCount);
+		itsPageReplacementAlgorithm = createAlgorithm(DebuggerGridConfigNG.DB_PAGE_REPLACEMENT);
 		
 		Monitor.getInstance().register(this);
 	}
 	
+	private PageReplacementAlgorithm createAlgorithm(String aName)
+	{
+		if ("lru".equals(aName)) return new LRUAlgorithm(itsBufferCount);
+		else if ("2q".equals(aName)) return new TwoQueueAlgorithm(itsBufferCount);
+		else throw new IllegalArgumentException("Unknown page replacement policy: "+aName);
+	}
+	
 	public ByteBuffer getBuffer()
 	{
 		return itsBuffer;
@@ -133,10 +142,12 @@ public class BufferManager
 	 * Note that many things can happen before the freed buffer is known, such as
 	 * writing pages, etc. It is guaranteed that when this method exits normally,
 	 * the lock is taken.
+	 * @param aFile The file of the page that will be placed in the buffer.
+	 * @param aPageId The id of the page that will be placed in the buffer.
 	 */
-	private int getFreeBuffer(ReentrantLock aLock)
+	private int getFreeBuffer(ReentrantLock aLock, ClassicPagedFile aFile, int aPageId)
 	{
-		return itsPageReplacementAlgorithm.getFreeBuffer(aLock);
+		return itsPageReplacementAlgorithm.getFreeBuffer(aLock, aFile, aPageId);
 	}
 
 	/**
@@ -199,7 +210,7 @@ public class BufferManager
 	{
 		try
 		{
-			int theBufferId = getFreeBuffer(itsLock);
+			int theBufferId = getFreeBuffer(itsLock, aFile, aPageId);
 			ByteBuffer thePageData = getPageData(theBufferId);
 			
 			// Clear the page
@@ -293,7 +304,7 @@ public class BufferManager
 			
 		try
 		{
-			int theBufferId = getFreeBuffer(itsLock);
+			int theBufferId = getFreeBuffer(itsLock, aPage.getFile(), aPage.getPageId());
 			aPage.getFile().read(aPage, theBufferId);
 			
 			assert itsAttachedPages[theBufferId] == null;
@@ -315,6 +326,15 @@ public class BufferManager
 		itsPageReplacementAlgorithm.use(aBufferId);
 	}
 	
+	/**
+	 * Registers a read access of the given buffer. Contrary to {@link #use(int)},
+	 * this is called for every access so it must not take any lock.
+	 */
+	public void access(int aBufferId)
+	{
+		itsPageReplacementAlgorithm.access(aBufferId);
+	}
+	
 	/**
 	 * Indicates to the page manager that this page is not going to be used anymore.
 	 * This is optional, not calling it has no adverse effects, and the effect of calling
@@ -453,6 +473,18 @@ public class BufferManager
 		return itsCollisions;
 	}
 	
+	@Probe(key = "page reads", aggr = AggregationType.SUM)
+	public long getReadCount()
+	{
+		return itsReadCount;
+	}
+	
+	@Probe(key = "page writes", aggr = AggregationType.SUM)
+	public long getWriteCount()
+	{
+		return itsWriteCount;
+	}
+	
 //	private static class ConcurrentBitSet
 //	{
 //		private final BitSet itsDelegate = new BitSet();
@@ -552,6 +584,15 @@ public class BufferManager
 		 */
 		public abstract void use(int aBufferId);
 		
+		/**
+		 * Indicates that the specified buffer has been read. This method is 
+		 * called on every page access, so it must not take any lock.
+		 * Does nothing by default.
+		 */
+		public void access(int aBufferId)
+		{
+		}
+		
 		/**
 		 * Indicates that the specified buffer will not be used in the near future.
 		 */
@@ -559,8 +600,10 @@ public class BufferManager
 		
 		/**
 		 * Returns a free buffer, paging out other buffers if necessary.
+		 * @param aFile The file of the page that will be placed in the buffer.
+		 * @param aPageId The id of the page that will be placed in the buffer.
 		 */
-		public abstract int getFreeBuffer(ReentrantLock aLock);
+		public abstract int getFreeBuffer(ReentrantLock aLock, ClassicPagedFile aFile, int aPageId);
 		
 		/**
 		 * Called when a buffer has been freed so as to update the algorithm's state.
@@ -656,7 +699,7 @@ public class BufferManager
 		}
 		
 		@Override
-		public int getFreeBuffer(ReentrantLock aLock)
+		public int getFreeBuffer(ReentrantLock aLock, ClassicPagedFile aFile, int aPageId)
 		{
 			itsLock.lock(); // TODO: this is safe for semantics but might deadlock
 			if (itsFreeBuffersIds.isEmpty())
@@ -865,7 +908,7 @@ public class BufferManager
 		}
 
 		@Override
-		public int getFreeBuffer(ReentrantLock aLock)
+		public int getFreeBuffer(ReentrantLock aLock, ClassicPagedFile aFile, int aPageId)
 		{
 			while(true)
 			{
@@ -903,6 +946,339 @@ public class BufferManager
 	}
 
 
+	/**
+	 * The 2Q algorithm (Johnson and Shasha, VLDB'94), which resists sequential scans.
+	 * A page that is loaded goes to a FIFO queue (A1in); when it is evicted from
+	 * it its key is remembered in a ghost queue (A1out). Only pages that are loaded
+	 * again while they are in the ghost queue go to the main queue (Am), so that
+	 * pages read once by a scan (indexing, snapshot replay) do not push the hot 
+	 * pages out.
+	 * <p>
+	 * The main queue is managed as a clock: accesses only set a reference bit,
+	 * without taking any lock, and the bits are examined during eviction.
+	 * @author gpothier
+	 */
+	private class TwoQueueAlgorithm extends PageReplacementAlgorithm
+	{
+		/**
+		 * Target size of A1in, in percent of the buffer count.
+		 */
+		private static final int IN_PERCENT = 25;
+		
+		/**
+		 * Size of A1out, in percent of the buffer count.
+		 */
+		private static final int OUT_PERCENT = 50;
+		
+		private static final byte NONE = 0;
+		private static final byte IN = 1;
+		private static final byte MAIN = 2;
+		
+		private final ReentrantLock itsLock = new ReentrantLock();
+		
+		private final int itsBufferCount;
+		private final int itsMaxIn;
+		
+		/**
+		 * The queue each buffer is in.
+		 */
+		private final byte[] itsQueues;
+		
+		/**
+		 * Reference bits. Written without synchronization.
+		 */
+		private final byte[] itsReferenced;
+		
+		private final BufferQueue itsIn;
+		private final BufferQueue itsMain;
+		
+		/**
+		 * Keys of the pages recently evicted from A1in, 
+		 * see {@link #getKey(ClassicPagedFile, int)}.
+		 */
+		private final TLongHashSet itsOut = new TLongHashSet();
+		
+		/**
+		 * Keys of {@link #itsOut}, in insertion order.
+		 */
+		private final long[] itsOutRing;
+		private int itsOutPos = 0;
+		
+		/**
+		 * Buffers that do not hold a page, either because they were never used
+		 * or because they were flushed. Protected by the buffer manager's lock.
+		 */
+		private final BitSet itsFreeBuffers = new BitSet();
+		private int itsFreeCount;
+		private int itsFreeHint = 0;
+		
+		public TwoQueueAlgorithm(int aBufferCount)
+		{
+			itsBufferCount = aBufferCount;
+			itsMaxIn = Math.max(aBufferCount*IN_PERCENT/100, 1);
+			
+			itsQueues = new byte[aBufferCount];
+			itsReferenced = new byte[aBufferCount];
+			itsIn = new BufferQueue(aBufferCount);
+			itsMain = new BufferQueue(aBufferCount);
+			itsOutRing = new long[Math.max(aBufferCount*OUT_PERCENT/100, 1)];
+			
+			itsFreeBuffers.set(0, aBufferCount);
+			itsFreeCount = aBufferCount;
+		}
+		
+		@Override
+		public void clear()
+		{
+		}
+		
+		@Override
+		public void use(int aBufferId)
+		{
+			itsReferenced[aBufferId] = 1;
+		}
+		
+		@Override
+		public void access(int aBufferId)
+		{
+			itsReferenced[aBufferId] = 1;
+		}
+		
+		@Override
+		public void free(int aBufferId)
+		{
+			itsReferenced[aBufferId] = 0;
+		}
+		
+		@Override
+		public void bufferFreed(int aBufferId)
+		{
+			// The buffer manager's lock is held. The buffer stays in its queue
+			// until it is reused. 
+			if (! itsFreeBuffers.get(aBufferId))
+			{
+				itsFreeBuffers.set(aBufferId);
+				itsFreeCount++;
+			}
+		}
+		
+		@Override
+		public int getFreeBuffer(ReentrantLock aLock, ClassicPagedFile aFile, int aPageId)
+		{
+			long theKey = getKey(aFile, aPageId);
+			while(true)
+			{
+				try
+				{
+					itsLock.lock();
+					
+					int theBufferId = takeFreeBuffer(aLock);
+					if (theBufferId == -1) theBufferId = evict(aLock);
+					
+					if (theBufferId != -1)
+					{
+						admit(theBufferId, theKey);
+						return theBufferId;
+					}
+				}
+				finally
+				{
+					itsLock.unlock();
+				}
+				
+				Utils.sleep(1);
+			}
+		}
+		
+		/**
+		 * Returns a buffer that does not hold a page, if there is one.
+		 * @return The buffer id, in which case the given lock is taken, or -1.
+		 */
+		private int takeFreeBuffer(ReentrantLock aLock)
+		{
+			aLock.lock();
+			while (itsFreeCount > 0)
+			{
+				int theBufferId = itsFreeBuffers.nextSetBit(itsFreeHint);
+				if (theBufferId == -1) theBufferId = itsFreeBuffers.nextSetBit(0);
+				
+				itsFreeBuffers.clear(theBufferId);
+				itsFreeCount--;
+				itsFreeHint = theBufferId+1;
+				
+				if (itsAttachedPages[theBufferId] == null)
+				{
+					dequeue(theBufferId);
+					return theBufferId;
+				}
+			}
+			aLock.unlock();
+			return -1;
+		}
+		
+		/**
+		 * Pages out a buffer. Buffers are taken from A1in if it is over its 
+		 * target size, otherwise from Am.
+		 * @return The buffer id, in which case the given lock is taken, or -1
+		 * if all the candidate buffers are in use.
+		 */
+		private int evict(ReentrantLock aLock)
+		{
+			for(int i=0;i<2*itsBufferCount;i++)
+			{
+				boolean theFromIn = itsIn.size() > itsMaxIn || itsMain.isEmpty();
+				BufferQueue theQueue = theFromIn ? itsIn : itsMain;
+				int theBufferId = theQueue.getFirst();
+				
+				if (! theFromIn && itsReferenced[theBufferId] != 0)
+				{
+					// Second chance
+					itsReferenced[theBufferId] = 0;
+					theQueue.moveLast(theBufferId);
+					continue;
+				}
+				
+				FilePage thePage = itsAttachedPages[theBufferId];
+				if (freeBuffer(theBufferId))
+				{
+					if (theFromIn && thePage != null) remember(getKey(thePage.getFile(), thePage.getPageId()));
+					dequeue(theBufferId);
+					
+					aLock.lock();
+					if (itsFreeBuffers.get(theBufferId))
+					{
+						itsFreeBuffers.clear(theBufferId);
+						itsFreeCount--;
+					}
+					return theBufferId;
+				}
+				
+				itsCollisions++;
+				theQueue.moveLast(theBufferId);
+			}
+			
+			return -1;
+		}
+		
+		/**
+		 * Places a buffer that receives a page in the appropriate queue.
+		 */
+		private void admit(int aBufferId, long aKey)
+		{
+			assert itsQueues[aBufferId] == NONE;
+			itsReferenced[aBufferId] = 0;
+			if (itsOut.remove(aKey))
+			{
+				itsMain.addLast(aBufferId);
+				itsQueues[aBufferId] = MAIN;
+			}
+			else
+			{
+				itsIn.addLast(aBufferId);
+				itsQueues[aBufferId] = IN;
+			}
+		}
+		
+		private void dequeue(int aBufferId)
+		{
+			switch(itsQueues[aBufferId])
+			{
+			case IN: itsIn.remove(aBufferId); break;
+			case MAIN: itsMain.remove(aBufferId); break;
+			}
+			itsQueues[aBufferId] = NONE;
+		}
+		
+		/**
+		 * Adds a key to A1out, forgetting the oldest key if it is full.
+		 * Note that the oldest key might have been readmitted and evicted
+		 * again since it was added, in which case it is forgotten too early;
+		 * this is harmless.
+		 */
+		private void remember(long aKey)
+		{
+			long theOldest = itsOutRing[itsOutPos];
+			if (theOldest != 0) itsOut.remove(theOldest);
+			
+			itsOutRing[itsOutPos] = aKey;
+			itsOut.add(aKey);
+			
+			itsOutPos++;
+			if (itsOutPos == itsOutRing.length) itsOutPos = 0;
+		}
+		
+		/**
+		 * Returns a key that identifies the given page. Collisions are 
+		 * possible but only affect the efficiency of the algorithm.
+		 */
+		private long getKey(ClassicPagedFile aFile, int aPageId)
+		{
+			return (((long) System.identityHashCode(aFile)) << 32) | (aPageId & 0xffffffffL);
+		}
+	}
+	
+	/**
+	 * A doubly linked list of buffer ids, backed by arrays.
+	 * @author gpothier
+	 */
+	private static class BufferQueue
+	{
+		private final int[] itsNext;
+		private final int[] itsPrevious;
+		private int itsFirst = -1;
+		private int itsLast = -1;
+		private int itsSize = 0;
+		
+		public BufferQueue(int aBufferCount)
+		{
+			itsNext = new int[aBufferCount];
+			itsPrevious = new int[aBufferCount];
+		}
+		
+		public int size()
+		{
+			return itsSize;
+		}
+		
+		public boolean isEmpty()
+		{
+			return itsSize == 0;
+		}
+		
+		public int getFirst()
+		{
+			return itsFirst;
+		}
+		
+		public void addLast(int aBufferId)
+		{
+			itsNext[aBufferId] = -1;
+			itsPrevious[aBufferId] = itsLast;
+			if (itsLast == -1) itsFirst = aBufferId;
+			else itsNext[itsLast] = aBufferId;
+			itsLast = aBufferId;
+			itsSize++;
+		}
+		
+		public void remove(int aBufferId)
+		{
+			int thePrevious = itsPrevious[aBufferId];
+			int theNext = itsNext[aBufferId];
+			if (thePrevious == -1) itsFirst = theNext;
+			else itsNext[thePrevious] = theNext;
+			if (theNext == -1) itsLast = thePrevious;
+			else itsPrevious[theNext] = thePrevious;
+			itsSize--;
+		}
+		
+		public void moveLast(int aBufferId)
+		{
+			if (aBufferId == itsLast) return;
+			remove(aBufferId);
+			addLast(aBufferId);
+		}
+	}
+
 	private static class LRUStacks
 	{
 		public final FixedIntStack useStack = new FixedIntStack(DebuggerGridConfigNG.DB_TASK_SIZE);
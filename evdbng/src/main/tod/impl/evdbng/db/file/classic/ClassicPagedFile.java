@@ -457,6 +457,7 @@ public class ClassicPagedFile extends PagedFile
 				lock();
 
 				if (itsBufferId == -1) itsBufferManager.loadPage(this);
+				else itsBufferManager.access(itsBufferId);
 				return itsBufferId;
 			}
 			finally
@@ -87,4 +87,30 @@ public class TestInsertableBTree
 		
 	}
 	
+	@Test
+	public void testTupleAfter() throws Exception
+	{
+		File theFile = File.createTempFile("btree", ".bin");
+		theFile.deleteOnExit();
+		final PagedFile file = PagedFile.create(theFile, true);
+		Page theDirectory = file.create(Stats.ACC_MISC);
+		final LongInsertableBTree btree = new LongInsertableBTree("test", Stats.ACC_MISC, new PidSlot(Stats.ACC_MISC, theDirectory, 0));
+		
+		Assert.assertNull(btree.getTupleAfter(0));
+		
+		// Enough keys to have several levels
+		int n = 100000;
+		for(int i=0;i<n;i++) btree.add(i*10, i);
+		
+		Assert.assertEquals(0, btree.getTupleAfter(-1).getKey());
+		for(int i=0;i<n-1;i++)
+		{
+			Assert.assertEquals((i+1)*10, btree.getTupleAfter(i*10).getKey());
+			Assert.assertEquals((i+1)*10, btree.getTupleAfter(i*10+5).getKey());
+			Assert.assertEquals(i+1, btree.getTupleAfter(i*10+9).getData());
+		}
+		Assert.assertNull(btree.getTupleAfter((n-1)*10));
+		Assert.assertNull(btree.getTupleAfter(Long.MAX_VALUE));
+	}
+	
 }